@@ -0,0 +1,89 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.exceptions.SyntaxException;
+
+/**
+ * Utility methods shared by the benchmarks for creating template trees and
+ * compilers that do not write any output.
+ *
+ * @author loomis
+ *
+ */
+final class BenchmarkSupport {
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Create a new temporary directory to hold a generated template tree.
+	 */
+	static File createTemporaryDirectory() throws IOException {
+		return Files.createTempDirectory("panc-bench").toFile();
+	}
+
+	/**
+	 * Create the options for a compiler that uses the given directory as the
+	 * only include directory and does not produce any output files.
+	 */
+	static CompilerOptions createOptions(File root, boolean persistentResources)
+			throws SyntaxException {
+
+		List<File> includeDirectories = new LinkedList<File>();
+		includeDirectories.add(root);
+
+		return new CompilerOptions.Builder().maxIteration(10000)
+				.includeDirectories(includeDirectories)
+				.deprecationWarnings(CompilerOptions.DeprecationWarnings.OFF)
+				.persistentResources(persistentResources).build();
+	}
+
+	/**
+	 * Create a compiler with an empty list of files. Objects are built by
+	 * the benchmarks by retrieving them from the compiler's caches.
+	 */
+	static Compiler createCompiler(File root, boolean persistentResources)
+			throws SyntaxException {
+		return new Compiler(createOptions(root, persistentResources),
+				new LinkedList<String>(), Collections.<File> emptyList());
+	}
+
+	/**
+	 * Recursively delete the given file or directory, ignoring any errors.
+	 */
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.tasks.BuildResult;
+import org.quattor.pan.tasks.BuildTask;
+
+/**
+ * Measures the build phase (execution and setting of defaults) of a single
+ * generated object template. The templates are compiled once by the
+ * compiler's template cache, so each invocation only measures the execution
+ * of the already compiled templates.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildBenchmark {
+
+	/**
+	 * Length of the include chain in the object template.
+	 */
+	@Param({ "10", "100" })
+	public int includeDepth;
+
+	/**
+	 * Number of entries in the dict copied into the object.
+	 */
+	@Param({ "1000" })
+	public int dictSize;
+
+	/**
+	 * Number of bindings in the object template.
+	 */
+	@Param({ "10", "100" })
+	public int bindings;
+
+	/**
+	 * Whether the dicts and lists use the persistent backing collections.
+	 */
+	@Param({ "false", "true" })
+	public boolean persistentResources;
+
+	private File root;
+
+	private Compiler compiler;
+
+	private String objectName;
+
+	@Setup
+	public void setup() throws Exception {
+
+		root = BenchmarkSupport.createTemporaryDirectory();
+		new TemplateTreeGenerator(1, includeDepth, dictSize, bindings)
+				.generate(root);
+		objectName = TemplateTreeGenerator.objectName(0);
+
+		compiler = BenchmarkSupport.createCompiler(root, persistentResources);
+	}
+
+	@TearDown
+	public void teardown() {
+
+		// Processing the (empty) list of files shuts down the executors.
+		compiler.process();
+		BenchmarkSupport.delete(root);
+	}
+
+	@Benchmark
+	public BuildResult build() throws Exception {
+		BuildTask task = new BuildTask(compiler, objectName);
+		task.run();
+		return task.get();
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.output.JsonFormatter;
+import org.quattor.pan.output.JsonStreamWriter;
+import org.quattor.pan.output.PanFormatter;
+import org.quattor.pan.tasks.FinalResult;
+import org.quattor.pan.tasks.Valid2Result;
+
+/**
+ * Measures the serialization of a fully built and validated generated object
+ * with the pan (XML) and JSON formatters. The JSON output is produced both
+ * through Gson and with the streaming writer used by the JSON formatters. The
+ * output is discarded, so that only the formatting itself is measured.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatterBenchmark {
+
+	/**
+	 * Number of entries in the dict copied into the object.
+	 */
+	@Param({ "100", "10000" })
+	public int dictSize;
+
+	/**
+	 * Number of bindings in the object template.
+	 */
+	@Param({ "100" })
+	public int bindings;
+
+	private File root;
+
+	private Compiler compiler;
+
+	private FinalResult result;
+
+	private final BenchPanFormatter pan = new BenchPanFormatter();
+
+	private final BenchJsonFormatter json = new BenchJsonFormatter();
+
+	private final PrintWriter discard = new PrintWriter(new NullWriter());
+
+	private final WritableByteChannel discardChannel = new NullChannel();
+
+	@Setup
+	public void setup() throws Exception {
+
+		root = BenchmarkSupport.createTemporaryDirectory();
+		new TemplateTreeGenerator(1, 10, dictSize, bindings).generate(root);
+
+		compiler = BenchmarkSupport.createCompiler(root, false);
+		Valid2Result valid2 = compiler.getValid2Cache().waitForResult(
+				TemplateTreeGenerator.objectName(0));
+		result = new FinalResult(compiler, valid2);
+	}
+
+	@TearDown
+	public void teardown() {
+		compiler.process();
+		BenchmarkSupport.delete(root);
+	}
+
+	@Benchmark
+	public void pan() throws Exception {
+		pan.write(result, discard);
+	}
+
+	@Benchmark
+	public void json() throws Exception {
+		json.write(result, discard);
+	}
+
+	@Benchmark
+	public void jsonStream() throws Exception {
+		JsonStreamWriter writer = new JsonStreamWriter(discardChannel, true);
+		writer.write(result.getRoot());
+		writer.flush();
+	}
+
+	@Benchmark
+	public void jsonStreamCompact() throws Exception {
+		JsonStreamWriter writer = new JsonStreamWriter(discardChannel, false);
+		writer.write(result.getRoot());
+		writer.flush();
+	}
+
+	/**
+	 * Exposes the write method of the pan formatter to the benchmark.
+	 */
+	private static class BenchPanFormatter extends PanFormatter {
+
+		BenchPanFormatter() {
+			super("xml", "pan");
+		}
+
+		@Override
+		protected void write(FinalResult result, PrintWriter ps)
+				throws Exception {
+			super.write(result, ps);
+		}
+	}
+
+	/**
+	 * Exposes the write method of the JSON formatter to the benchmark.
+	 */
+	private static class BenchJsonFormatter extends JsonFormatter {
+
+		BenchJsonFormatter() {
+			super("json", "json");
+		}
+
+		@Override
+		protected void write(FinalResult result, PrintWriter ps)
+				throws Exception {
+			super.write(result, ps);
+		}
+	}
+
+	/**
+	 * Writer that discards all of its output.
+	 */
+	private static class NullWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Channel that discards all of its output.
+	 */
+	private static class NullChannel implements WritableByteChannel {
+
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+
+}
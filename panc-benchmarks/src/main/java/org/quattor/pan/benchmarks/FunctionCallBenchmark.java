@@ -0,0 +1,119 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.tasks.BuildResult;
+import org.quattor.pan.tasks.BuildTask;
+
+/**
+ * Measures the build of an object template that spends its time in calls of
+ * a small recursive user-defined function. Every call leaves the function
+ * through an explicit return statement, so the benchmark mostly measures the
+ * overhead of the function calls and returns.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FunctionCallBenchmark {
+
+	/**
+	 * Number of top-level calls of the recursive function.
+	 */
+	@Param({ "1000" })
+	public int calls;
+
+	/**
+	 * Recursion depth of each top-level call.
+	 */
+	@Param({ "5", "40" })
+	public int depth;
+
+	private File root;
+
+	private Compiler compiler;
+
+	@Setup
+	public void setup() throws Exception {
+
+		root = BenchmarkSupport.createTemporaryDirectory();
+
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(root, "calls.pan")), "UTF-8"));
+		try {
+			pw.println("object template calls;");
+			pw.println("function count_down = {");
+			pw.println("  if (ARGV[0] <= 0) {");
+			pw.println("    return(0);");
+			pw.println("  };");
+			pw.println("  return(count_down(ARGV[0] - 1) + 1);");
+			pw.println("};");
+			pw.println("'/result' = {");
+			pw.println("  sum = 0;");
+			pw.println("  for (i = 0; i < " + calls + "; i = i + 1) {");
+			pw.println("    sum = sum + count_down(" + depth + ");");
+			pw.println("  };");
+			pw.println("  sum;");
+			pw.println("};");
+		} finally {
+			pw.close();
+		}
+
+		compiler = BenchmarkSupport.createCompiler(root, false);
+	}
+
+	@TearDown
+	public void teardown() {
+
+		// Processing the (empty) list of files shuts down the executors.
+		compiler.process();
+		BenchmarkSupport.delete(root);
+	}
+
+	@Benchmark
+	public BuildResult build() throws Exception {
+		BuildTask task = new BuildTask(compiler, "calls");
+		task.run();
+		return task.get();
+	}
+
+}
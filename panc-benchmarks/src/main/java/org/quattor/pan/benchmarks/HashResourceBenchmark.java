@@ -0,0 +1,126 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.exceptions.InvalidTermException;
+import org.quattor.pan.utils.Term;
+import org.quattor.pan.utils.TermFactory;
+
+/**
+ * Measures the basic operations on dicts: lookups, insertions, and the
+ * duplication done whenever a dict is copied by an assignment.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashResourceBenchmark {
+
+	/**
+	 * Number of entries in the dict.
+	 */
+	@Param({ "4", "64", "4096" })
+	public int size;
+
+	/**
+	 * Whether the dict uses the persistent backing collections.
+	 */
+	@Param({ "false", "true" })
+	public boolean persistentResources;
+
+	private Term[] keys;
+
+	private Term[] scalarKeys;
+
+	private HashResource dict;
+
+	private Element value;
+
+	@Setup
+	public void setup() throws InvalidTermException {
+
+		keys = new Term[size];
+		scalarKeys = new Term[size - (size + 7) / 8];
+		dict = new HashResource(persistentResources);
+		for (int i = 0; i < size; i++) {
+			keys[i] = TermFactory.create("key_" + i);
+
+			// Mix scalar and nested values, as in real configurations.
+			if (i % 8 == 0) {
+				HashResource child = new HashResource(persistentResources);
+				child.put(TermFactory.create("name"), StringProperty
+						.getInstance("child_" + i));
+				dict.put(keys[i], child);
+			} else {
+				dict.put(keys[i], LongProperty.getInstance((long) i));
+				scalarKeys[i - i / 8 - 1] = keys[i];
+			}
+		}
+		value = LongProperty.getInstance(-1L);
+	}
+
+	@Benchmark
+	public void get(Blackhole bh) throws InvalidTermException {
+		for (Term key : keys) {
+			bh.consume(dict.get(key));
+		}
+	}
+
+	@Benchmark
+	public void put(Blackhole bh) throws InvalidTermException {
+		for (Term key : scalarKeys) {
+			bh.consume(dict.put(key, value));
+		}
+	}
+
+	@Benchmark
+	public Element duplicate() {
+		return dict.duplicate();
+	}
+
+	@Benchmark
+	public Element duplicateAndPut() throws InvalidTermException {
+		HashResource copy = (HashResource) dict.duplicate();
+		copy.put(scalarKeys[0], value);
+		return copy;
+	}
+
+}
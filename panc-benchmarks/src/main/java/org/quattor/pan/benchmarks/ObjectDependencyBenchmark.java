@@ -0,0 +1,186 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.CompilerResults;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.tasks.FinalResult;
+
+/**
+ * Measures complete compilations of a set of object templates that reference
+ * each other through <code>value()</code> calls, forming chains of the given
+ * length. Each object of a chain must wait for the next one to be built, which
+ * exercises the blocking of tasks on other objects. The tasks run either on
+ * the shared thread pool or on virtual threads (if available). The peak
+ * number of live threads is printed at the end of each iteration.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectDependencyBenchmark {
+
+	/**
+	 * Number of object templates.
+	 */
+	@Param({ "200" })
+	public int objects;
+
+	/**
+	 * Number of objects in each chain of references.
+	 */
+	@Param({ "10", "50" })
+	public int chainLength;
+
+	/**
+	 * Whether the build tasks run on virtual threads.
+	 */
+	@Param({ "false", "true" })
+	public boolean virtualThreads;
+
+	private File root;
+
+	private CompilerOptions options;
+
+	private List<File> files;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	@Setup
+	public void setup() throws Exception {
+
+		root = BenchmarkSupport.createTemporaryDirectory();
+
+		files = new ArrayList<File>();
+		for (int i = 0; i < objects; i++) {
+			String value = ((i + 1) % chainLength == 0 || i + 1 == objects) ? "0"
+					: "value('node" + (i + 1) + ":/value') + 1";
+			files.add(writeTemplate(root, "node" + i, "object template node"
+					+ i + ";\n'/value' = " + value + ";\n"
+					+ "'/data' = dict('a', 1, 'b', list(1, 2, 3));\n"));
+		}
+
+		List<File> includeDirectories = new LinkedList<File>();
+		includeDirectories.add(root);
+
+		Set<Formatter> formatters = new HashSet<Formatter>();
+		formatters.add(new NullFormatter());
+
+		options = new CompilerOptions.Builder().maxIteration(10000)
+				.formatters(formatters).outputDirectory(root)
+				.includeDirectories(includeDirectories)
+				.deprecationWarnings(CompilerOptions.DeprecationWarnings.OFF)
+				.virtualThreads(virtualThreads).build();
+	}
+
+	@Setup(Level.Iteration)
+	public void resetPeakThreadCount() {
+		threads.resetPeakThreadCount();
+	}
+
+	@TearDown(Level.Iteration)
+	public void printPeakThreadCount() {
+		System.out.println("peak threads: " + threads.getPeakThreadCount());
+	}
+
+	@TearDown
+	public void teardown() {
+		BenchmarkSupport.delete(root);
+	}
+
+	@Benchmark
+	public CompilerResults compile() {
+		CompilerResults results = new Compiler(options,
+				new LinkedList<String>(), files).process();
+		String errors = results.formatErrors();
+		if (errors != null) {
+			throw new IllegalStateException(errors);
+		}
+		return results;
+	}
+
+	private static File writeTemplate(File dir, String name, String source)
+			throws IOException {
+		File tplfile = new File(dir, name + ".pan");
+		OutputStream os = new FileOutputStream(tplfile);
+		try {
+			os.write(source.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return tplfile;
+	}
+
+	/**
+	 * Formatter that does not write anything. At least one formatter is
+	 * needed for the objects to be built.
+	 */
+	private static class NullFormatter implements Formatter {
+
+		public URI getResultURI(String objectName) {
+			try {
+				return new URI(objectName + ".null");
+			} catch (URISyntaxException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+		}
+
+		public String getFormatKey() {
+			return "null";
+		}
+
+		public void write(FinalResult result, URI outputURI) {
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.parser.ASTTemplate;
+import org.quattor.pan.parser.PanParserAstUtils;
+import org.quattor.pan.tasks.CompileTask;
+import org.quattor.pan.ttemplate.Template;
+
+/**
+ * Measures the parsing of generated templates into an abstract syntax tree
+ * and the subsequent conversion of the tree into a template.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	/**
+	 * Number of entries in the structure template being parsed.
+	 */
+	@Param({ "100", "1000" })
+	public int dictSize;
+
+	/**
+	 * Number of bindings in the object template being parsed.
+	 */
+	@Param({ "10", "100" })
+	public int bindings;
+
+	private File root;
+
+	private CompilerOptions options;
+
+	private File dataFile;
+
+	private String dataSource;
+
+	private File objectFile;
+
+	private String objectSource;
+
+	@Setup
+	public void setup() throws Exception {
+
+		root = BenchmarkSupport.createTemporaryDirectory();
+		TemplateTreeGenerator generator = new TemplateTreeGenerator(1, 1,
+				dictSize, bindings);
+		objectFile = generator.generate(root).get(0);
+		dataFile = new File(new File(root, TemplateTreeGenerator.NAMESPACE),
+				"data.pan").getAbsoluteFile();
+
+		dataSource = read(dataFile);
+		objectSource = read(objectFile);
+		options = BenchmarkSupport.createOptions(root, false);
+	}
+
+	@TearDown
+	public void teardown() {
+		BenchmarkSupport.delete(root);
+	}
+
+	private static String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+	}
+
+	@Benchmark
+	public ASTTemplate parseStructure() throws Exception {
+		return CompileTask.CallImpl.compile(dataFile, new StringReader(
+				dataSource), options);
+	}
+
+	@Benchmark
+	public ASTTemplate parseObject() throws Exception {
+		return CompileTask.CallImpl.compile(objectFile, new StringReader(
+				objectSource), options);
+	}
+
+	@Benchmark
+	public Template parseAndConvertObject() throws Exception {
+		ASTTemplate ast = CompileTask.CallImpl.compile(objectFile,
+				new StringReader(objectSource), options);
+		return PanParserAstUtils.convertAstToTemplate(objectFile, ast);
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.util.LinkedList;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.ttemplate.BuildContext;
+import org.quattor.pan.ttemplate.Context;
+import org.quattor.pan.type.AliasType;
+import org.quattor.pan.type.FullType;
+import org.quattor.pan.type.RecordType;
+import org.quattor.pan.utils.Term;
+import org.quattor.pan.utils.TermFactory;
+
+/**
+ * Measures the validation of a dict against a record type with a varying
+ * number of required and optional fields.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordTypeBenchmark {
+
+	/**
+	 * Total number of fields in the record; half of them are optional.
+	 */
+	@Param({ "4", "32", "256" })
+	public int fields;
+
+	private Context context;
+
+	private RecordType type;
+
+	private HashResource record;
+
+	@Setup
+	public void setup() throws Exception {
+
+		SortedMap<Term, FullType> reqFields = new TreeMap<Term, FullType>();
+		SortedMap<Term, FullType> optFields = new TreeMap<Term, FullType>();
+
+		record = new HashResource();
+		for (int i = 0; i < fields; i++) {
+			Term key = TermFactory.create("field_" + i);
+			FullType field = new FullType(new AliasType(null, null, "string",
+					null));
+			if (i % 2 == 0) {
+				reqFields.put(key, field);
+			} else {
+				optFields.put(key, field);
+			}
+
+			// Leave out every fourth (optional) field.
+			if (i % 4 != 3) {
+				record.put(key, StringProperty.getInstance("value_" + i));
+			}
+		}
+
+		type = new RecordType(null, null, false, null,
+				new LinkedList<String>(), reqFields, optFields);
+		context = new BuildContext();
+	}
+
+	@Benchmark
+	public Object validate() {
+		return type.validate(context, record);
+	}
+
+}
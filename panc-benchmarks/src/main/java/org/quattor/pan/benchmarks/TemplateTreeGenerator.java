@@ -0,0 +1,271 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a synthetic tree of pan templates resembling a real site
+ * configuration. Each object template binds a number of paths to record
+ * types, includes a deep chain of ordinary templates, and copies a large dict
+ * defined in a shared structure template. The size of each of these aspects
+ * can be set independently so that the benchmarks can be scaled.
+ *
+ * The generated tree can be compiled with the standard compiler using the
+ * root directory as the only include directory.
+ *
+ * @author loomis
+ *
+ */
+public class TemplateTreeGenerator {
+
+	/**
+	 * Namespace containing all of the shared templates.
+	 */
+	public static final String NAMESPACE = "bench";
+
+	private final int objects;
+
+	private final int includeDepth;
+
+	private final int dictSize;
+
+	private final int bindings;
+
+	/**
+	 * Create a generator for a template tree of the given size.
+	 *
+	 * @param objects
+	 *            number of object templates to generate
+	 * @param includeDepth
+	 *            length of the include chain in each object template
+	 * @param dictSize
+	 *            number of entries in the shared dict
+	 * @param bindings
+	 *            number of paths bound to a record type in each object
+	 */
+	public TemplateTreeGenerator(int objects, int includeDepth, int dictSize,
+			int bindings) {
+
+		if (objects < 1 || includeDepth < 0 || dictSize < 0 || bindings < 0) {
+			throw new IllegalArgumentException("invalid template tree size");
+		}
+
+		this.objects = objects;
+		this.includeDepth = includeDepth;
+		this.dictSize = dictSize;
+		this.bindings = bindings;
+	}
+
+	/**
+	 * Returns the name of the i-th object template.
+	 *
+	 * @param i
+	 *            index of the object template
+	 *
+	 * @return name of the object template
+	 */
+	public static String objectName(int i) {
+		return "profile_" + i;
+	}
+
+	/**
+	 * Write the complete template tree below the given root directory. Any
+	 * existing files with the same names are overwritten.
+	 *
+	 * @param root
+	 *            directory in which to create the templates
+	 *
+	 * @return absolute files of the generated object templates
+	 *
+	 * @throws IOException
+	 *             if a template cannot be written
+	 */
+	public List<File> generate(File root) throws IOException {
+
+		File ns = new File(root, NAMESPACE);
+		File chain = new File(ns, "chain");
+		if (!chain.isDirectory() && !chain.mkdirs()) {
+			throw new IOException("cannot create directory " + chain);
+		}
+
+		writeSchema(new File(ns, "schema.pan"));
+		writeData(new File(ns, "data.pan"));
+		for (int level = 0; level < includeDepth; level++) {
+			writeChainLevel(new File(chain, "level_" + level + ".pan"), level);
+		}
+
+		List<File> files = new ArrayList<File>(objects);
+		for (int i = 0; i < objects; i++) {
+			File file = new File(root, objectName(i) + ".pan")
+					.getAbsoluteFile();
+			writeObject(file, i);
+			files.add(file);
+		}
+		return files;
+	}
+
+	private void writeSchema(File file) throws IOException {
+
+		PrintWriter ps = open(file);
+		try {
+			ps.println("declaration template " + NAMESPACE + "/schema;");
+			ps.println();
+			ps.println("type bench_port = long(0..65535);");
+			ps.println();
+			ps.println("type bench_service = {");
+			ps.println("    'name' : string");
+			ps.println("    'port' : bench_port = 80");
+			ps.println("    'enabled' : boolean = true");
+			ps.println("    'options' ? string{}");
+			ps.println("};");
+			ps.println();
+			ps.println("type bench_component = {");
+			ps.println("    'active' : boolean = true");
+			ps.println("    'dispatch' : boolean = false");
+			ps.println("    'services' : bench_service[]");
+			ps.println("    'version' ? string");
+			ps.println("};");
+			ps.println();
+			ps.println("function bench_service_name = {");
+			ps.println("    return(format('svc-%s-%d', ARGV[0], ARGV[1]));");
+			ps.println("};");
+		} finally {
+			ps.close();
+		}
+	}
+
+	private void writeData(File file) throws IOException {
+
+		PrintWriter ps = open(file);
+		try {
+			ps.println("structure template " + NAMESPACE + "/data;");
+			ps.println();
+			for (int i = 0; i < dictSize; i++) {
+				switch (i % 3) {
+				case 0:
+					ps.println("'key_" + i + "' = " + i + ";");
+					break;
+				case 1:
+					ps.println("'key_" + i + "' = 'value-" + i + "';");
+					break;
+				default:
+					ps.println("'key_" + i + "' = list(" + i + ", " + (i + 1)
+							+ ", 'x" + i + "');");
+				}
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	private void writeChainLevel(File file, int level) throws IOException {
+
+		PrintWriter ps = open(file);
+		try {
+			ps.println("unique template " + NAMESPACE + "/chain/level_"
+					+ level + ";");
+			ps.println();
+			ps.println("variable BENCH_LEVEL_" + level + " = " + level + ";");
+			ps.println("'/system/chain/" + level + "' = dict(");
+			ps.println("    'level', " + level + ",");
+			ps.println("    'name', 'level-' + to_string(" + level + "),");
+			ps.println("    'enabled', " + (level % 2 == 0) + ");");
+			if (level + 1 < includeDepth) {
+				ps.println("include '" + NAMESPACE + "/chain/level_"
+						+ (level + 1) + "';");
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	private void writeObject(File file, int index) throws IOException {
+
+		PrintWriter ps = open(file);
+		try {
+			ps.println("object template " + objectName(index) + ";");
+			ps.println();
+			ps.println("include '" + NAMESPACE + "/schema';");
+			ps.println();
+			if (includeDepth > 0) {
+				ps.println("include '" + NAMESPACE + "/chain/level_0';");
+			}
+			ps.println("'/system/data' = create('" + NAMESPACE + "/data');");
+			ps.println("'/system/index' = " + index + ";");
+			ps.println();
+			for (int b = 0; b < bindings; b++) {
+				String path = "/software/components/comp_" + b;
+				ps.println("bind '" + path + "' = bench_component;");
+				ps.println("'" + path + "/services' = {");
+				ps.println("    foreach (i; v; list('a', 'b', 'c')) {");
+				ps.println("        SELF[i] = dict('name', bench_service_name(v, "
+						+ b + "));");
+				ps.println("    };");
+				ps.println("    SELF;");
+				ps.println("};");
+				ps.println("'" + path + "/version' = '1." + b + "';");
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	private static PrintWriter open(File file) throws IOException {
+		return new PrintWriter(new OutputStreamWriter(new FileOutputStream(
+				file), "UTF-8"));
+	}
+
+	/**
+	 * Generate a template tree from the command line. The arguments are the
+	 * root directory followed by the optional number of objects, include
+	 * depth, dict size, and number of bindings.
+	 *
+	 * @param args
+	 *            command line arguments
+	 *
+	 * @throws IOException
+	 *             if a template cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 1 || args.length > 5) {
+			System.err.println("usage: TemplateTreeGenerator root "
+					+ "[objects [depth [dictsize [bindings]]]]");
+			System.exit(1);
+		}
+
+		int[] sizes = { 10, 20, 1000, 50 };
+		for (int i = 1; i < args.length; i++) {
+			sizes[i - 1] = Integer.parseInt(args[i]);
+		}
+
+		TemplateTreeGenerator generator = new TemplateTreeGenerator(sizes[0],
+				sizes[1], sizes[2], sizes[3]);
+		List<File> files = generator.generate(new File(args[0]));
+		System.out.println(files.size() + " object templates written to "
+				+ args[0]);
+	}
+
+}
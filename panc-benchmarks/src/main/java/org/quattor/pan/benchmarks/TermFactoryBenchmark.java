@@ -0,0 +1,101 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.exceptions.InvalidTermException;
+import org.quattor.pan.utils.TermFactory;
+
+/**
+ * Measures the creation of terms from strings, longs, and elements. Terms are
+ * created for every path component and every dict or list access, so this is
+ * on the critical path of the build.
+ *
+ * @author loomis
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermFactoryBenchmark {
+
+	private static final int COUNT = 64;
+
+	private final String[] keys = new String[COUNT];
+
+	private final String[] numericKeys = new String[COUNT];
+
+	private final Element[] elements = new Element[COUNT];
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < COUNT; i++) {
+			keys[i] = "key_" + i;
+			numericKeys[i] = Integer.toString(i);
+			elements[i] = (i % 2 == 0) ? StringProperty.getInstance(keys[i])
+					: LongProperty.getInstance((long) i);
+		}
+	}
+
+	@Benchmark
+	public void createFromString(Blackhole bh) {
+		for (String key : keys) {
+			bh.consume(TermFactory.create(key));
+		}
+	}
+
+	@Benchmark
+	public void createFromNumericString(Blackhole bh) {
+		for (String key : numericKeys) {
+			bh.consume(TermFactory.create(key));
+		}
+	}
+
+	@Benchmark
+	public void createFromLong(Blackhole bh) {
+		for (long i = 0; i < COUNT; i++) {
+			bh.consume(TermFactory.create(i));
+		}
+	}
+
+	@Benchmark
+	public void createFromElement(Blackhole bh) throws InvalidTermException {
+		for (Element element : elements) {
+			bh.consume(TermFactory.create(element));
+		}
+	}
+
+}
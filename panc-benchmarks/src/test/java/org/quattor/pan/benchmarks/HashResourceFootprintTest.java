@@ -0,0 +1,131 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.Null;
+import org.quattor.pan.dml.data.Resource;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.exceptions.InvalidTermException;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.utils.Term;
+import org.quattor.pan.utils.TermFactory;
+
+/**
+ * Compares the retained heap of a built machine configuration with that of
+ * the same configuration in which all dicts are backed by tree maps.
+ */
+public class HashResourceFootprintTest {
+
+	/**
+	 * Dicts which ever held this many keys keep a tree map, even after the
+	 * keys have been removed again.
+	 */
+	private static final int PADDING = 16;
+
+	private File root;
+
+	@Before
+	public void setup() throws Exception {
+		root = BenchmarkSupport.createTemporaryDirectory();
+	}
+
+	@After
+	public void cleanup() {
+		BenchmarkSupport.delete(root);
+	}
+
+	private static Element withTreeMaps(Element element)
+			throws InvalidTermException {
+
+		if (element instanceof HashResource) {
+			HashResource copy = new HashResource();
+			for (int i = 0; i < PADDING; i++) {
+				copy.put(TermFactory.create("padding_" + i),
+						LongProperty.getInstance(i));
+			}
+			for (int i = 0; i < PADDING; i++) {
+				copy.put(TermFactory.create("padding_" + i), Null.VALUE);
+			}
+			for (Resource.Entry entry : (HashResource) element) {
+				Term key = TermFactory.create(((StringProperty) entry
+						.getKey()).getValue());
+				copy.put(key, withTreeMaps(entry.getValue()));
+			}
+			return copy;
+
+		} else if (element instanceof ListResource) {
+			ListResource copy = new ListResource();
+			for (Resource.Entry entry : (ListResource) element) {
+				copy.append(withTreeMaps(entry.getValue()));
+			}
+			return copy;
+
+		} else {
+			return element;
+		}
+	}
+
+	@Test
+	public void testSmallDictsReduceRetainedHeap() throws Exception {
+
+		List<File> files = new TemplateTreeGenerator(1, 20, 20, 20)
+				.generate(root);
+		List<File> includeDirectories = new LinkedList<File>();
+		includeDirectories.add(root);
+
+		CompilerOptions options = new CompilerOptions(null, null, 10000, 50,
+				new HashSet<Formatter>(), null, includeDirectories,
+				CompilerOptions.DeprecationWarnings.ON, null, null, null, 1);
+		Compiler compiler = new Compiler(options, new LinkedList<String>(),
+				files);
+		assertNull(compiler.process().formatErrors());
+
+		Element profile = compiler.getBuildCache()
+				.waitForResult(TemplateTreeGenerator.objectName(0)).getRoot();
+		Element reference = withTreeMaps(profile);
+		assertEquals(reference, profile);
+
+		long actual = GraphLayout.parseInstance(profile).totalSize();
+		long expected = GraphLayout.parseInstance(reference).totalSize();
+
+		// The properties are shared between both trees; the difference comes
+		// only from the backing of the dicts.
+		assertTrue("retained heap: " + actual + " bytes, with tree maps "
+				+ expected + " bytes", 4 * expected >= 5 * actual);
+	}
+
+}
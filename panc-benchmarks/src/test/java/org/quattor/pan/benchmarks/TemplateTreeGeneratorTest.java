@@ -0,0 +1,81 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.CompilerResults;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.JsonFormatter;
+
+public class TemplateTreeGeneratorTest {
+
+	private File root;
+
+	@Before
+	public void setup() throws Exception {
+		root = BenchmarkSupport.createTemporaryDirectory();
+	}
+
+	@After
+	public void cleanup() {
+		BenchmarkSupport.delete(root);
+	}
+
+	@Test
+	public void testGeneratedTreeCompiles() throws Exception {
+
+		List<File> files = new TemplateTreeGenerator(3, 5, 20, 4)
+				.generate(root);
+		assertEquals(3, files.size());
+
+		File outputDir = new File(root, "output");
+		assertTrue(outputDir.mkdir());
+		Set<Formatter> formatters = new HashSet<Formatter>();
+		formatters.add(JsonFormatter.getInstance());
+		List<File> includeDirectories = new LinkedList<File>();
+		includeDirectories.add(root);
+
+		CompilerOptions options = new CompilerOptions(null, null, 10000, 50,
+				formatters, outputDir, includeDirectories,
+				CompilerOptions.DeprecationWarnings.ON, null, null, null, 1);
+		CompilerResults results = Compiler.run(options,
+				new LinkedList<String>(), files);
+
+		assertNull(results.formatErrors());
+		for (int i = 0; i < files.size(); i++) {
+			File profile = new File(outputDir,
+					TemplateTreeGenerator.objectName(i) + ".json");
+			assertTrue(profile.exists());
+		}
+	}
+
+}
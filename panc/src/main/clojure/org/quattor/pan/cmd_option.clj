@@ -32,6 +32,8 @@
             "text" (conj v (TxtFormatter/getInstance))
             "json" (conj v (JsonFormatter/getInstance))
             "json.gz" (conj v (JsonGzipFormatter/getInstance))
+            "json-compact" (conj v (JsonFormatter/getCompactInstance))
+            "json-compact.gz" (conj v (JsonGzipFormatter/getCompactInstance))
             "dot" (conj v (DotFormatter/getInstance))
             "pan" (conj v (PanFormatter/getInstance))
             "pan.gz" (conj v (PanGzipFormatter/getInstance))
@@ -108,6 +110,48 @@
            [[k v]]
   (utils/non-negative-integer (keyword k) v))
 
+(defmethod process :compile-cache-dir
+           [[k v]]
+  {(keyword k) (when-not (nil? v) (utils/absolute-file v))})
+
+(defmethod process :compile-cache-max-size
+           [[k v]]
+  (let [mb ((keyword k) (utils/non-negative-integer (keyword k) v))]
+    {(keyword k) (* (long mb) 1024 1024)}))
+
+(defmethod process :compile-cache-max-age
+           [[k v]]
+  (let [days ((keyword k) (utils/non-negative-integer (keyword k) v))]
+    {(keyword k) (* (long days) 24 60 60 1000)}))
+
+(defmethod process :gzip-block-size
+           [[k v]]
+  (let [kb ((keyword k) (utils/positive-integer (keyword k) v))]
+    (if (>= kb 32)
+      {(keyword k) (* kb 1024)}
+      (let [msg (str (name k) " must be at least 32 KB")]
+        (throw (ex-info msg {:type :options :msg msg}))))))
+
+(defmethod process :gzip-level
+           [[k v]]
+  (let [level ((keyword k) (utils/non-negative-integer (keyword k) v))]
+    (if (<= level 9)
+      {(keyword k) level}
+      (let [msg (str (name k) " must be between 0 and 9")]
+        (throw (ex-info msg {:type :options :msg msg}))))))
+
+(defmethod process :gzip-threads
+           [[k v]]
+  (utils/non-negative-integer (keyword k) v))
+
+(defmethod process :daemon-port
+           [[k v]]
+  (utils/positive-integer (keyword k) v))
+
+(defmethod process :daemon-token-file
+           [[k v]]
+  {(keyword k) (utils/absolute-file v)})
+
 (defmethod process :logging
            [[k v]]
   {(keyword k) (utils/split-on-commas v)})
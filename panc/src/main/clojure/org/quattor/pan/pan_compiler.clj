@@ -6,7 +6,10 @@
             [org.quattor.pan.cmd-option :refer [to-settings]]
             [org.quattor.pan.settings :as settings]
             [clojure.string :as str])
-  (:import [org.quattor.pan CompilerOptions CompilerResults]
+  (:import [org.quattor.pan CompilerOptions$Builder CompilerResults]
+           [org.quattor.pan.output GzipOptions]
+           [org.quattor.pan.daemon CompileDaemon]
+           [java.io PrintWriter]
            [clojure.lang ExceptionInfo]))
 
 (def ^:const bug-report-msg
@@ -23,57 +26,59 @@ Please file a bug report including the stack trace.
         (.toUpperCase)
         (str " ERROR: " msg))))
 
+(defn- build-compiler-options
+  [{:keys [debug-ns-include
+           debug-ns-exclude
+           max-iteration
+           max-recursion
+           formatter
+           output-dir
+           include-path
+           warnings
+           annotationDirectory
+           annotationBaseDirectory
+           initial-data
+           nthread
+           compile-cache-dir
+           compile-cache-max-size
+           compile-cache-max-age
+           persistent-resources
+           virtual-threads
+           constant-folding
+           gzip-block-size
+           gzip-level
+           gzip-threads
+           write-if-changed
+           source-index]}]
+  (-> (CompilerOptions$Builder.)
+      (.debugNsInclude debug-ns-include)
+      (.debugNsExclude debug-ns-exclude)
+      (.maxIteration max-iteration)
+      (.maxRecursion max-recursion)
+      (.formatters formatter)
+      (.outputDirectory output-dir)
+      (.includeDirectories include-path)
+      (.deprecationWarnings warnings)
+      (.annotationDirectory annotationDirectory)
+      (.annotationBaseDirectory annotationBaseDirectory)
+      (.rootElement initial-data)
+      (.nthread nthread)
+      (.compileCacheDirectory compile-cache-dir)
+      (.compileCacheMaxSize compile-cache-max-size)
+      (.compileCacheMaxAge compile-cache-max-age)
+      (.persistentResources persistent-resources)
+      (.virtualThreads virtual-threads)
+      (.constantFolding constant-folding)
+      (.gzipOptions (GzipOptions. gzip-block-size gzip-level gzip-threads))
+      (.writeIfChanged write-if-changed)
+      (.sourceIndex source-index)
+      (.build)))
+
 (defn create-compiler-options []
-  (let [{:keys [debug-ns-include
-                debug-ns-exclude
-                max-iteration
-                max-recursion
-                formatter
-                output-dir
-                include-path
-                warnings
-                annotationDirectory
-                annotationBaseDirectory
-                initial-data
-                nthread]} settings/*settings*]
-    (CompilerOptions. debug-ns-include
-                      debug-ns-exclude
-                      max-iteration
-                      max-recursion
-                      formatter
-                      output-dir
-                      include-path
-                      warnings
-                      annotationDirectory
-                      annotationBaseDirectory
-                      initial-data
-                      nthread)))
+  (build-compiler-options settings/*settings*))
 
 (defn default-compiler-options []
-  (let [{:keys [debug-ns-include
-                debug-ns-exclude
-                max-iteration
-                max-recursion
-                formatter
-                output-dir
-                include-path
-                warnings
-                annotationDirectory
-                annotationBaseDirectory
-                initial-data
-                nthread]} (settings/defaults)]
-    (CompilerOptions. debug-ns-include
-                      debug-ns-exclude
-                      max-iteration
-                      max-recursion
-                      formatter
-                      output-dir
-                      include-path
-                      warnings
-                      annotationDirectory
-                      annotationBaseDirectory
-                      initial-data
-                      nthread)))
+  (build-compiler-options (settings/defaults)))
 
 (defn parse-int
   [^String s]
@@ -94,6 +99,20 @@ Please file a bug report including the stack trace.
    [nil "--max-iteration LIMIT" "set max. no. of iterations" :default "10000"]
    [nil "--max-recursion LIMIT" "set max. depth of recursion" :default "50"]
    [nil "--nthread NUM" "no. of executor threads (0=no. CPU)" :default "0"]
+   [nil "--compile-cache-dir DIR" "directory for persistent cache of compiled templates"]
+   [nil "--compile-cache-max-size MB" "max. size of compiled template cache (0=unlimited)" :default "0"]
+   [nil "--compile-cache-max-age DAYS" "max. age of unused cache entries (0=unlimited)" :default "0"]
+   [nil "--persistent-resources" "use structurally shared dicts and lists" :default false]
+   [nil "--virtual-threads" "run build tasks on virtual threads (Java 21+)" :default false]
+   [nil "--constant-folding" "fold constant expressions when compiling" :default true]
+   [nil "--no-constant-folding" "do not fold constant expressions" :id :constant-folding :parse-fn not]
+   [nil "--gzip-block-size KB" "size of blocks compressed in parallel for gzipped formats" :default "128"]
+   [nil "--gzip-level LEVEL" "compression level for gzipped formats (0-9)" :default "6"]
+   [nil "--gzip-threads NUM" "no. of threads compressing each gzipped file (0=no. CPU)" :default "0"]
+   [nil "--write-if-changed" "only write output files with changed content" :default false]
+   [nil "--source-index" "keep listings of include directories in memory" :default false]
+   [nil "--daemon-port PORT" "run as compile daemon listening on loopback port"]
+   [nil "--daemon-token-file FILE" "token file of compile daemon (default ~/.panc-daemon-PORT)"]
    [nil "--logging LOG_TYPES" "set logging types"]
    [nil "--log-file FILE" "specify log file"]
    [nil "--warnings FLAG" "off, on, fatal" :default "on"]
@@ -143,6 +162,26 @@ Please file a bug report including the stack trace.
         (println (.formatStats results)))
       (System/exit rc))))
 
+(defn run-daemon
+  [options arguments]
+  (settings/with-settings
+    (to-settings options)
+
+    (let [{:keys [include-path daemon-port daemon-token-file verbose]} settings/*settings*
+          daemon (CompileDaemon. (create-compiler-options) include-path)
+          port (.bind daemon daemon-port daemon-token-file)
+          out (PrintWriter. *out* true)]
+      (println "compile daemon listening on port" port
+               "with token file" (str (.getTokenFile daemon)))
+      (if (seq arguments)
+        (.process daemon
+                  (vec (map #(.getAbsoluteFile (io/file %)) arguments))
+                  false
+                  (boolean verbose)
+                  out))
+      (.serve daemon)
+      (System/exit 0))))
+
 (defn -main [& args]
   (try
     (let [{:keys [options arguments errors summary]} (cli/parse-opts args cli-args)]
@@ -150,6 +189,7 @@ Please file a bug report including the stack trace.
         (:help options) (banner-and-exit summary)
         (:version options) (compiler-version)
         errors (error-message errors)
+        (:daemon-port options) (run-daemon options arguments)
         :else (run-compiler options arguments)))
     (catch ExceptionInfo e
       (error-and-exit e))
@@ -29,7 +29,18 @@
    :annotationDirectory nil
    :annotationBaseDirectory nil
    :initial-data nil
-   :nthread 0})
+   :nthread 0
+   :compile-cache-dir nil
+   :compile-cache-max-size 0
+   :compile-cache-max-age 0
+   :persistent-resources false
+   :virtual-threads false
+   :constant-folding true
+   :gzip-block-size (* 128 1024)
+   :gzip-level 6
+   :gzip-threads 0
+   :write-if-changed false
+   :source-index false})
 
 (def ^:dynamic *settings* (defaults))
 
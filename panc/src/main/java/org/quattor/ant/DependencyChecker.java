@@ -65,6 +65,8 @@ public class DependencyChecker {
 
 	private final URI outputDirectoryURI;
 
+	private final TemplateNameCache nameCache;
+
     private static boolean depGzip = false;
 	private Formatter depFormatter;
 
@@ -78,6 +80,29 @@ public class DependencyChecker {
 	public DependencyChecker(List<File> includeDirectories,
 			File outputDirectory, Set<Formatter> formatters,
 			Pattern ignoredDependencyPattern) {
+		this(includeDirectories, outputDirectory, formatters,
+				ignoredDependencyPattern, null);
+	}
+
+	/**
+	 * Create a dependency checker that keeps the template names of the object
+	 * templates in the given file between runs. The object template names are
+	 * then only extracted again for files that have been modified.
+	 *
+	 * @param includeDirectories
+	 *            include directories used for the compilation
+	 * @param outputDirectory
+	 *            directory containing the output files
+	 * @param formatters
+	 *            formatters used for the compilation
+	 * @param ignoredDependencyPattern
+	 *            pattern of template names to ignore; may be null
+	 * @param nameCacheFile
+	 *            file for the template name cache; may be null
+	 */
+	public DependencyChecker(List<File> includeDirectories,
+			File outputDirectory, Set<Formatter> formatters,
+			Pattern ignoredDependencyPattern, File nameCacheFile) {
 
         // if dep.gz is formatter, assume gzipped deps
         for (Formatter formatter : formatters) {
@@ -114,6 +139,8 @@ public class DependencyChecker {
 		} else {
 			this.outputDirectoryURI = outputDirectory.toURI();
 		}
+
+		this.nameCache = new TemplateNameCache(nameCacheFile);
 	}
 
     public static Formatter getDepFormatter() {
@@ -134,12 +161,19 @@ public class DependencyChecker {
 			}
 		}
 
+		try {
+			nameCache.save();
+		} catch (IOException e) {
+			System.err.println("Warning: cannot save template name cache: "
+					+ e.getMessage());
+		}
+
 		return outdated;
 	}
 
 	public boolean isOutdated(File objectFile) {
 
-		String objectName = extractLocalizedTemplateName(objectFile, options);
+		String objectName = lookupLocalizedTemplateName(objectFile);
 
 		// The object name may be null if there was a problem parsing the
 		// template. In this case, assume that the file is outdated and allow
@@ -180,14 +214,55 @@ public class DependencyChecker {
 		return isDependencyListOutdated(depFile, targetTime);
 	}
 
+	/**
+	 * Returns the localized template name of the given object template,
+	 * using the template name cache if the file has not been modified.
+	 *
+	 * @param objectFile
+	 *            object template file
+	 *
+	 * @return localized template name or null if it cannot be determined
+	 */
+	public String lookupLocalizedTemplateName(File objectFile) {
+
+		File file = objectFile.getAbsoluteFile();
+		long modtime = statCache.getModificationTime(file);
+
+		String name = nameCache.get(file, modtime);
+		if (name == null) {
+			name = extractTemplateName(file, options);
+			if (name != null) {
+				nameCache.put(file, modtime, name);
+			}
+		}
+
+		return (name != null) ? FileUtils.localizeFilename(name) : null;
+	}
+
 	public static String extractLocalizedTemplateName(File sourceFile,
 			CompilerOptions options) {
 
+		String name = extractTemplateName(sourceFile, options);
+		return (name != null) ? FileUtils.localizeFilename(name) : null;
+	}
+
+	/**
+	 * Returns the template name declared in the given file. Only the header
+	 * of the file is scanned; the file is fully parsed only if the scanner
+	 * cannot find the declaration.
+	 */
+	private static String extractTemplateName(File sourceFile,
+			CompilerOptions options) {
+
+		String name = TemplateNameScanner.scan(sourceFile);
+		if (name != null) {
+			return name;
+		}
+
 		try {
 
 			ASTTemplate ast = CompileTask.CallImpl.compile(sourceFile, options);
-			String name = ast.getIdentifier();
-			return FileUtils.localizeFilename(name);
+			return ast.getIdentifier();
 
 		} catch (Exception e) {
 			return null;
@@ -35,6 +35,7 @@ import org.quattor.pan.CompilerOptions;
 import org.quattor.pan.CompilerResults;
 import org.quattor.pan.exceptions.SyntaxException;
 import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.GzipOptions;
 import org.quattor.pan.repository.SourceType;
 
 /**
@@ -89,6 +90,30 @@ public class PanCompilerTask extends Task {
 
     private int nthread = 0;
 
+    private File compileCacheDir = null;
+
+    private long compileCacheMaxSize = 0L;
+
+    private long compileCacheMaxAge = 0L;
+
+    private boolean persistentResources = false;
+
+    private boolean virtualThreads = false;
+
+    private boolean constantFolding = true;
+
+    private int gzipBlockSize = GzipOptions.DEFAULT_BLOCK_SIZE;
+
+    private int gzipLevel = GzipOptions.DEFAULT_LEVEL;
+
+    private int gzipThreads = 0;
+
+    private boolean writeIfChanged = false;
+
+    private boolean sourceIndex = false;
+
+    private File templateNameCache = null;
+
     private int maxIteration = 10000;
 
     private int maxRecursion = 50;
@@ -134,9 +159,22 @@ public class PanCompilerTask extends Task {
         // Collect the options for the compilation.
         CompilerOptions options = null;
         try {
-            options = new CompilerOptions(debugNsInclude, debugNsExclude,
-                    maxIteration, maxRecursion, formatters, outputDir, includeDirectories,
-                    deprecationWarnings, null, null, initialData, nthread);
+            options = new CompilerOptions.Builder()
+                    .debugNsInclude(debugNsInclude).debugNsExclude(debugNsExclude)
+                    .maxIteration(maxIteration).maxRecursion(maxRecursion)
+                    .formatters(formatters).outputDirectory(outputDir)
+                    .includeDirectories(includeDirectories)
+                    .deprecationWarnings(deprecationWarnings)
+                    .rootElement(initialData).nthread(nthread)
+                    .compileCacheDirectory(compileCacheDir)
+                    .compileCacheMaxSize(compileCacheMaxSize)
+                    .compileCacheMaxAge(compileCacheMaxAge)
+                    .persistentResources(persistentResources)
+                    .virtualThreads(virtualThreads)
+                    .constantFolding(constantFolding)
+                    .gzipOptions(new GzipOptions(gzipBlockSize, gzipLevel, gzipThreads))
+                    .writeIfChanged(writeIfChanged).sourceIndex(sourceIndex)
+                    .build();
         } catch (SyntaxException e) {
             throw new BuildException("invalid root element: " + e.getMessage());
         }
@@ -161,7 +199,7 @@ public class PanCompilerTask extends Task {
 
             DependencyChecker checker = new DependencyChecker(
                     includeDirectories, outputDir, formatters,
-                    ignoreDependencyPattern);
+                    ignoreDependencyPattern, templateNameCache);
 
             outdatedFiles = checker.filterForOutdatedFiles(objectFiles);
 
@@ -496,6 +534,146 @@ public class PanCompilerTask extends Task {
         this.nthread = (nthread > 0) ? nthread : 0;
     }
 
+    /**
+     * Setting this directory enables the persistent cache of compiled
+     * templates. The directory will be created if necessary.
+     *
+     * @param compileCacheDir
+     *            directory for the compiled template cache
+     */
+    public void setCompileCacheDir(File compileCacheDir) {
+        this.compileCacheDir = compileCacheDir;
+    }
+
+    /**
+     * Set the maximum size of the compiled template cache in megabytes. A
+     * value of zero indicates no limit.
+     *
+     * @param compileCacheMaxSize
+     *            maximum size in MB
+     */
+    public void setCompileCacheMaxSize(int compileCacheMaxSize) {
+        this.compileCacheMaxSize = (compileCacheMaxSize > 0) ? compileCacheMaxSize * 1024L * 1024L
+                : 0L;
+    }
+
+    /**
+     * Set the maximum age in days for unused entries in the compiled template
+     * cache. A value of zero indicates no limit.
+     *
+     * @param compileCacheMaxAge
+     *            maximum age in days
+     */
+    public void setCompileCacheMaxAge(int compileCacheMaxAge) {
+        this.compileCacheMaxAge = (compileCacheMaxAge > 0) ? compileCacheMaxAge * 86400000L
+                : 0L;
+    }
+
+    /**
+     * Set whether dicts and lists use persistent (structurally shared) backing
+     * collections.
+     *
+     * @param persistentResources
+     *            flag to use persistent backing collections
+     */
+    public void setPersistentResources(boolean persistentResources) {
+        this.persistentResources = persistentResources;
+    }
+
+    /**
+     * Set whether the build, validation, and output tasks run on virtual
+     * threads. This only has an effect with Java 21 or later.
+     *
+     * @param virtualThreads
+     *            flag to use virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Set whether constant expressions are evaluated when the templates are
+     * compiled. This is enabled by default; disabling it is only useful when
+     * debugging the compiler.
+     *
+     * @param constantFolding
+     *            flag to fold constant expressions
+     */
+    public void setConstantFolding(boolean constantFolding) {
+        this.constantFolding = constantFolding;
+    }
+
+    /**
+     * Set the size of the blocks that are compressed in parallel for the
+     * gzipped output formats. The size must be at least 32 KB.
+     *
+     * @param gzipBlockSize
+     *            block size in KB
+     */
+    public void setGzipBlockSize(int gzipBlockSize) {
+        this.gzipBlockSize = gzipBlockSize * 1024;
+    }
+
+    /**
+     * Set the compression level for the gzipped output formats, from 0 (no
+     * compression) to 9 (best compression). The default is 6.
+     *
+     * @param gzipLevel
+     *            compression level
+     */
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+    }
+
+    /**
+     * Set the number of blocks of each gzipped output file that may be
+     * compressed at the same time. A value of zero uses the number of CPU
+     * cores.
+     *
+     * @param gzipThreads
+     *            number of compression threads per file
+     */
+    public void setGzipThreads(int gzipThreads) {
+        this.gzipThreads = gzipThreads;
+    }
+
+    /**
+     * Set whether output files are only written when their content has
+     * changed. Unchanged files then keep their modification time, so the
+     * corresponding objects are recompiled by the next run of this task.
+     *
+     * @param writeIfChanged
+     *            flag to skip writing unchanged output files
+     */
+    public void setWriteIfChanged(boolean writeIfChanged) {
+        this.writeIfChanged = writeIfChanged;
+    }
+
+    /**
+     * Set whether the listings of the directories below the include
+     * directories are kept in memory. Each directory is then read once,
+     * instead of checking every candidate file on disk. This helps with long
+     * include paths or slow file systems.
+     *
+     * @param sourceIndex
+     *            flag to keep the directory listings in memory
+     */
+    public void setSourceIndex(boolean sourceIndex) {
+        this.sourceIndex = sourceIndex;
+    }
+
+    /**
+     * File in which the template names of the object templates are kept
+     * between builds. This avoids reading all of the object templates when
+     * checking the dependencies.
+     *
+     * @param templateNameCache
+     *            file for the template name cache
+     */
+    public void setTemplateNameCache(File templateNameCache) {
+        this.templateNameCache = templateNameCache;
+    }
+
     /**
      * This utility method will group the file into a set of equal sized batches
      * (except for possibly the last batch).
@@ -0,0 +1,221 @@
+/*
+ Copyright (c) 2006-2012 Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.quattor.ant;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the template names declared in object template files, keyed by the
+ * absolute path of the file and valid only as long as the file's modification
+ * time is unchanged. The cache can be persisted to a file so that incremental
+ * builds do not need to read every object template to determine whether it is
+ * outdated.
+ *
+ * The file contains one entry per line: the modification time, the template
+ * name, and the absolute path, separated by a single space. A file that cannot
+ * be read or has an unexpected format is ignored.
+ *
+ * @author loomis
+ *
+ */
+public class TemplateNameCache {
+
+	private static final String HEADER = "# panc template names 1";
+
+	private final File cacheFile;
+
+	private final Map<File, Entry> entries = new ConcurrentHashMap<File, Entry>();
+
+	private volatile boolean modified = false;
+
+	/**
+	 * Create a cache which is loaded from and saved to the given file.
+	 *
+	 * @param cacheFile
+	 *            file to persist the cache; if null the cache is only kept in
+	 *            memory
+	 */
+	public TemplateNameCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+		if (cacheFile != null) {
+			load();
+		}
+	}
+
+	/**
+	 * Returns the cached template name of the given file.
+	 *
+	 * @param file
+	 *            absolute path of the template file
+	 * @param modificationTime
+	 *            current modification time of the file
+	 *
+	 * @return template name or null if there is no entry for this
+	 *         modification time
+	 */
+	public String get(File file, long modificationTime) {
+		Entry entry = entries.get(file);
+		if (entry != null && entry.modificationTime == modificationTime) {
+			return entry.name;
+		}
+		return null;
+	}
+
+	/**
+	 * Store the template name of the given file.
+	 *
+	 * @param file
+	 *            absolute path of the template file
+	 * @param modificationTime
+	 *            modification time of the file before it was read
+	 * @param name
+	 *            template name declared in the file
+	 */
+	public void put(File file, long modificationTime, String name) {
+		if (modificationTime > 0L && name.indexOf(' ') < 0) {
+			entries.put(file, new Entry(modificationTime, name));
+			modified = true;
+		}
+	}
+
+	/**
+	 * Returns the number of entries in the cache.
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Write the cache to its file, if it has been modified. The file is
+	 * replaced atomically where the file system allows it.
+	 *
+	 * @throws IOException
+	 *             if the cache file cannot be written
+	 */
+	public void save() throws IOException {
+
+		if (cacheFile == null || !modified) {
+			return;
+		}
+
+		File parent = cacheFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("cannot create directory " + parent);
+		}
+
+		File tmpfile = File.createTempFile(cacheFile.getName(), ".tmp", parent);
+		try {
+			Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(tmpfile), "UTF-8"));
+			try {
+				writer.write(HEADER);
+				writer.write('\n');
+				for (Map.Entry<File, Entry> e : entries.entrySet()) {
+					Entry entry = e.getValue();
+					writer.write(Long.toString(entry.modificationTime));
+					writer.write(' ');
+					writer.write(entry.name);
+					writer.write(' ');
+					writer.write(e.getKey().getPath());
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+
+			try {
+				Files.move(tmpfile.toPath(), cacheFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpfile.toPath(), cacheFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			modified = false;
+
+		} finally {
+			tmpfile.delete();
+		}
+	}
+
+	private void load() {
+
+		if (!cacheFile.isFile()) {
+			return;
+		}
+
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(
+					cacheFile), "UTF-8"));
+
+			if (!HEADER.equals(in.readLine())) {
+				return;
+			}
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split(" ", 3);
+				if (fields.length != 3) {
+					entries.clear();
+					return;
+				}
+				entries.put(new File(fields[2]),
+						new Entry(Long.parseLong(fields[0]), fields[1]));
+			}
+
+		} catch (NumberFormatException e) {
+			entries.clear();
+		} catch (IOException e) {
+			entries.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException consumed) {
+				}
+			}
+		}
+	}
+
+	private static class Entry {
+
+		public final long modificationTime;
+
+		public final String name;
+
+		public Entry(long modificationTime, String name) {
+			this.modificationTime = modificationTime;
+			this.name = name;
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ Copyright (c) 2006-2012 Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package org.quattor.ant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Extracts the name of a template from its declaration without parsing the
+ * complete template. Only the whitespace, comments, and annotations which may
+ * precede the declaration are read. The scanner is deliberately strict: any
+ * construct that it does not recognize makes it return null, in which case
+ * the caller must fall back to a full parse of the template.
+ *
+ * @author loomis
+ *
+ */
+public class TemplateNameScanner {
+
+	private static final int EOF = -1;
+
+	private final Reader reader;
+
+	private int next;
+
+	private TemplateNameScanner(Reader reader) throws IOException {
+		this.reader = reader;
+		next = reader.read();
+	}
+
+	/**
+	 * Returns the name given in the template declaration of the file.
+	 *
+	 * @param tplfile
+	 *            template file to scan
+	 *
+	 * @return template name or null if the declaration cannot be found
+	 *         unambiguously
+	 */
+	public static String scan(File tplfile) {
+
+		Reader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(tplfile), "UTF-8"), 1024);
+			return scan(reader);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException consumed) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the name given in the template declaration read from the
+	 * reader. The reader is not closed.
+	 *
+	 * @param reader
+	 *            reader positioned at the beginning of the template
+	 *
+	 * @return template name or null if the declaration cannot be found
+	 *         unambiguously
+	 *
+	 * @throws IOException
+	 *             if the template cannot be read
+	 */
+	public static String scan(Reader reader) throws IOException {
+		return new TemplateNameScanner(reader).declaration();
+	}
+
+	private String declaration() throws IOException {
+
+		if (!skipIgnored()) {
+			return null;
+		}
+
+		String word = word();
+		if ("structure".equals(word) || "object".equals(word)
+				|| "declaration".equals(word) || "unique".equals(word)) {
+			if (!skipIgnored()) {
+				return null;
+			}
+			word = word();
+		}
+
+		if (!"template".equals(word) || !skipIgnored()) {
+			return null;
+		}
+
+		StringBuilder name = new StringBuilder();
+		while (isNameChar(next)) {
+			name.append((char) next);
+			advance();
+		}
+
+		if (name.length() == 0 || !skipIgnored() || next != ';') {
+			return null;
+		}
+
+		return name.toString();
+	}
+
+	/**
+	 * Skip the whitespace, comments, and annotations. Returns false if an
+	 * annotation is not terminated.
+	 */
+	private boolean skipIgnored() throws IOException {
+		while (true) {
+			if (isWhitespace(next)) {
+				advance();
+			} else if (next == '#') {
+				while (next != EOF && next != '\n' && next != '\r') {
+					advance();
+				}
+			} else if (next == '@') {
+				if (!skipAnnotation()) {
+					return false;
+				}
+			} else {
+				return true;
+			}
+		}
+	}
+
+	private boolean skipAnnotation() throws IOException {
+
+		// Skip the '@' character and the optional annotation name.
+		advance();
+		while (isWhitespace(next)) {
+			advance();
+		}
+		while (isAnnotationNameChar(next)) {
+			advance();
+		}
+		while (isWhitespace(next)) {
+			advance();
+		}
+
+		int close;
+		switch (next) {
+		case '(':
+			close = ')';
+			break;
+		case '[':
+			close = ']';
+			break;
+		case '{':
+			close = '}';
+			break;
+		default:
+			return false;
+		}
+
+		// The delimiters do not nest; the annotation ends at the first
+		// closing delimiter.
+		do {
+			advance();
+			if (next == EOF) {
+				return false;
+			}
+		} while (next != close);
+		advance();
+
+		return true;
+	}
+
+	private String word() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		while (isIdentifierChar(next)) {
+			sb.append((char) next);
+			advance();
+		}
+		return sb.toString();
+	}
+
+	private void advance() throws IOException {
+		next = reader.read();
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\f' || c == '\n' || c == '\r';
+	}
+
+	private static boolean isIdentifierChar(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+				|| (c >= '0' && c <= '9') || c == '_';
+	}
+
+	private static boolean isAnnotationNameChar(int c) {
+		return isIdentifierChar(c) || c == '-' || c == '.';
+	}
+
+	private static boolean isNameChar(int c) {
+		return isIdentifierChar(c) || c == '-' || c == '+' || c == '.'
+				|| c == '/';
+	}
+
+}
@@ -22,9 +22,14 @@ package org.quattor.pan;
 
 import org.quattor.pan.cache.BuildCache;
 import org.quattor.pan.cache.CompileCache;
+import org.quattor.pan.cache.FinalCache;
+import org.quattor.pan.cache.ResidentTemplateCache;
+import org.quattor.pan.cache.FunctionMemo;
+import org.quattor.pan.cache.ResultRetention;
 import org.quattor.pan.cache.Valid1Cache;
 import org.quattor.pan.cache.Valid2Cache;
 import org.quattor.pan.repository.SourceRepository;
+import org.quattor.pan.tasks.FinalResultListener;
 import org.quattor.pan.tasks.Task;
 import org.quattor.pan.tasks.TaskResult;
 
@@ -32,21 +37,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Primary java interface for invoking the pan compiler. All external methods of running the compiler (ant tasks,
@@ -93,7 +100,25 @@ public class Compiler {
         version = values.getProperty("version");
     }
 
-    private final TreeMap<TaskResult.ResultType, ThreadPoolExecutor> executors;
+    /**
+     * Single work-stealing pool running the tasks of all stages. Tasks that must wait for the result of another task
+     * (e.g. a referenced object) block through <code>ForkJoinPool.managedBlock</code>, so that the pool can
+     * compensate with another thread. The number of threads actively running tasks therefore stays at the configured
+     * parallelism, whatever the depth of the object dependencies.
+     */
+    private final ForkJoinPool executor;
+
+    /**
+     * Executor running the build, validation, and output tasks each on a new virtual thread, if requested and
+     * available; null otherwise. Blocking on another task's result then only parks the virtual thread.
+     */
+    private final ExecutorService virtualExecutor;
+
+    /**
+     * Lock ensuring that the <code>process</code> method is only run once at a time. An explicit lock is used rather
+     * than a monitor so that a virtual thread waiting for the results does not pin its carrier thread.
+     */
+    private final ReentrantLock processLock = new ReentrantLock();
 
     /**
      * This value is used to synchronize the tasks running within the compiler. Before each task is started, this
@@ -108,14 +133,6 @@ public class Compiler {
     private final BlockingQueue<Future<? extends TaskResult>> resultsQueue = new LinkedBlockingQueue<Future<? extends
             TaskResult>>();
 
-    /**
-     * Build queue thread limit. The build queue must be treated specially because object dependencies can deadlock the
-     * compiler. The number of concurrent threads must be at least equal to the number of outstanding object
-     * dependencies during the build.
-     */
-    private final AtomicInteger buildThreadLimit;
-    private final Object buildThreadLock = new Object();
-
     /**
      * The initialization of this must be done when the instance is constructed to avoid nasty questions about when the
      * loggers get initialized.
@@ -140,6 +157,25 @@ public class Compiler {
 
     private final Valid2Cache v2cache;
 
+    private final FinalCache fcache;
+
+    private final ResultRetention retention;
+
+    /**
+     * Results of pure functions shared by all of the objects built by this compiler.
+     */
+    private final FunctionMemo functionMemo;
+
+    /**
+     * Compiled templates shared with other compilations; may be null.
+     */
+    private final ResidentTemplateCache residentTemplates;
+
+    /**
+     * Listener receiving the final result of each object; may be null.
+     */
+    private final FinalResultListener finalResultListener;
+
     /**
      * Create a compiler object with the given options and that will process the given templates (either by name or
      * absolute path).
@@ -149,6 +185,37 @@ public class Compiler {
      * @param tplFiles    absolute file names of templates to process
      */
     public Compiler(CompilerOptions options, List<String> objectNames, Collection<File> tplFiles) {
+        this(options, objectNames, tplFiles, null);
+    }
+
+    /**
+     * Create a compiler object that reuses the compiled templates from the given cache when the template files have
+     * not changed. Newly compiled templates are added to the cache. This allows compiled templates to be kept across
+     * several compilations.
+     *
+     * @param options           compiler options to use for the created compiler
+     * @param objectNames       template names to compile/build; these will be looked-up on the load path
+     * @param tplFiles          absolute file names of templates to process
+     * @param residentTemplates cache of compiled templates shared between compilations; may be null
+     */
+    public Compiler(CompilerOptions options, List<String> objectNames, Collection<File> tplFiles,
+                    ResidentTemplateCache residentTemplates) {
+        this(options, objectNames, tplFiles, residentTemplates, null);
+    }
+
+    /**
+     * Create a compiler object that reuses the compiled templates from the given cache and passes the final result of
+     * each object to the given listener. With a listener, all object templates are built even if no output formats
+     * are defined.
+     *
+     * @param options             compiler options to use for the created compiler
+     * @param objectNames         template names to compile/build; these will be looked-up on the load path
+     * @param tplFiles            absolute file names of templates to process
+     * @param residentTemplates   cache of compiled templates shared between compilations; may be null
+     * @param finalResultListener listener receiving the final result of each object; may be null
+     */
+    public Compiler(CompilerOptions options, List<String> objectNames, Collection<File> tplFiles,
+                    ResidentTemplateCache residentTemplates, FinalResultListener finalResultListener) {
 
         // Sanity check.
         assert (options != null);
@@ -169,25 +236,57 @@ public class Compiler {
         files = options.resolveFileList(objectNames, tplFiles);
 
         // Setup the template and object caches.
+        this.residentTemplates = residentTemplates;
+        this.finalResultListener = finalResultListener;
         ccache = new CompileCache(this);
         bcache = new BuildCache(this);
         v1cache = new Valid1Cache(this);
         v2cache = new Valid2Cache(this);
+        fcache = new FinalCache(this);
+        retention = new ResultRetention(this, ResultRetention.DEFAULT_RETAINED_RESULTS);
+        functionMemo = new FunctionMemo();
 
-        // Setup the executors for the build. There is one for each stage of the
-        // processing.
+        // Setup the executor for the build. It is shared by all stages of the
+        // processing. The tasks are never joined, so use the FIFO mode.
         int nprocs = Runtime.getRuntime().availableProcessors();
         if (options.nthread > 0 && options.nthread < nprocs) {
             nprocs = options.nthread;
         }
 
-        executors = new TreeMap<TaskResult.ResultType, ThreadPoolExecutor>();
-        for (TaskResult.ResultType t : TaskResult.ResultType.values()) {
-            executors.put(t, (ThreadPoolExecutor) Executors.newFixedThreadPool(nprocs));
+        executor = new ForkJoinPool(nprocs, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+        if (options.virtualThreads) {
+            virtualExecutor = createVirtualThreadExecutor();
+            if (virtualExecutor == null) {
+                System.err.println("WARNING: virtual threads are not available; using thread pool");
+            }
+        } else {
+            virtualExecutor = null;
         }
+    }
 
-        // Must initialize the build thread limit to the number used above.
-        buildThreadLimit = new AtomicInteger(nprocs);
+    /**
+     * Create an executor that starts a new virtual thread for each task. The method is looked up reflectively because
+     * it only exists in Java 21 and later.
+     *
+     * @return executor using virtual threads or null if they are not available
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Indicates whether the build, validation, and output tasks run on virtual threads.
+     *
+     * @return true if virtual threads are used
+     */
+    public boolean usesVirtualThreads() {
+        return virtualExecutor != null;
     }
 
     /**
@@ -216,28 +315,6 @@ public class Compiler {
         // (http://www.apache.org/licenses/LICENSE-2.0)");
     }
 
-    /**
-     * Ensures that the number of threads in the build pool is at least as large as the number given. Because object
-     * templates can have dependencies on each other, it is possible to deadlock the compilation with a rigidly fixed
-     * build queue. To avoid this, allow the build queue limit to be increased.
-     *
-     * @param minLimit minimum build queue limit
-     */
-    public void ensureMinimumBuildThreadLimit(int minLimit) {
-        if (buildThreadLimit.get() < minLimit) {
-            synchronized (buildThreadLock) {
-                buildThreadLimit.set(minLimit);
-                ThreadPoolExecutor buildExecutor = executors.get(TaskResult.ResultType.BUILD);
-
-                // Must set both the maximum and the core limits. If the core is
-                // not set, then the thread pool will not be forced to expand to
-                // the minimum number of threads required.
-                buildExecutor.setMaximumPoolSize(minLimit);
-                buildExecutor.setCorePoolSize(minLimit);
-            }
-        }
-    }
-
     /**
      * Process the templates referenced by the CompilerOptions object used to initialize this instance. This will run
      * through the complete compiling, building, and validation stages as requested. This method should only be invoked
@@ -245,7 +322,16 @@ public class Compiler {
      *
      * @return the statistics of the compilation and any exceptions which were thrown
      */
-    public synchronized CompilerResults process() {
+    public CompilerResults process() {
+        processLock.lock();
+        try {
+            return processFiles();
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private CompilerResults processFiles() {
 
         // Create the list to hold all of the exceptions.
         Set<Throwable> exceptions = new TreeSet<Throwable>(new ThrowableComparator());
@@ -258,7 +344,7 @@ public class Compiler {
         // no building is going on, then the compile() method is used which
         // doesn't actually save the templates. This reduces drastically the
         // memory requirements.
-        if (options.formatters.size() > 0) {
+        if (isBuildingObjects()) {
             for (File f : files) {
                 ccache.retrieve(f.getAbsolutePath(), false);
             }
@@ -297,10 +383,11 @@ public class Compiler {
                 security.checkPermission(new RuntimePermission("modifyThread"));
             }
 
-            // We've got the correct permission, so tell all of the executors to
+            // We've got the correct permission, so tell the executors to
             // shutdown.
-            for (TaskResult.ResultType t : TaskResult.ResultType.values()) {
-                executors.get(t).shutdown();
+            executor.shutdown();
+            if (virtualExecutor != null) {
+                virtualExecutor.shutdown();
             }
 
         } catch (SecurityException se) {
@@ -310,9 +397,16 @@ public class Compiler {
 
         }
 
+        // Trim the persistent store of compiled templates, if used.
+        if (ccache.getCompiledTemplateStore() != null) {
+            ccache.getCompiledTemplateStore().evict();
+        }
+
         // Finalize the statistics.
         long end = new Date().getTime();
         stats.setBuildTime(end - start);
+        stats.setFunctionMemoStatistics(functionMemo.getHits(), functionMemo.getMisses(),
+                functionMemo.getSavedTime());
 
         return new CompilerResults(stats, exceptions);
     }
@@ -326,6 +420,15 @@ public class Compiler {
         return ccache;
     }
 
+    /**
+     * Returns the cache of compiled templates shared with other compilations.
+     *
+     * @return reference to resident template cache or null if none is used
+     */
+    public ResidentTemplateCache getResidentTemplateCache() {
+        return residentTemplates;
+    }
+
     /**
      * Returns a reference to objects (machine profiles) which have already been built. This allows cross-validation of
      * templates.
@@ -344,15 +447,64 @@ public class Compiler {
         return v2cache;
     }
 
+    /**
+     * Returns a reference to the final results of the objects, which include the complete dependencies of each
+     * object.
+     *
+     * @return reference to final result cache
+     */
+    public FinalCache getFinalCache() {
+        return fcache;
+    }
+
+    /**
+     * Returns the object that tracks references to the build and validation results, evicting them from the caches
+     * when they are no longer needed.
+     *
+     * @return reference to result retention tracker
+     */
+    public ResultRetention getResultRetention() {
+        return retention;
+    }
+
+    /**
+     * Returns the listener receiving the final result of each object.
+     *
+     * @return final result listener or null if there is none
+     */
+    public FinalResultListener getFinalResultListener() {
+        return finalResultListener;
+    }
+
+    /**
+     * Determine whether the object templates are built, rather than only compiled. This is the case when output
+     * formats are defined or the final results are passed to a listener.
+     *
+     * @return true if object templates are built
+     */
+    public boolean isBuildingObjects() {
+        return (options.formatters.size() > 0) || (finalResultListener != null);
+    }
+
+    /**
+     * Returns the cache of results of pure user-defined functions. The results are shared between all of the objects
+     * built by this compiler.
+     *
+     * @return reference to the function memo
+     */
+    public FunctionMemo getFunctionMemo() {
+        return functionMemo;
+    }
+
     public SourceRepository getSourceRepository() {
         return options.sourceRepository;
     }
 
     /**
-     * Submits a task to one of the compiler's task queues for processing. Although public, this method should only be
+     * Submits a task to the compiler's task queue for processing. Although public, this method should only be
      * called by tasks started by the compiler itself.
      *
-     * @param task task to run on one of the compiler's task queues
+     * @param task task to run on the compiler's task queue
      */
     public void submit(Task<? extends TaskResult> task) {
 
@@ -361,9 +513,17 @@ public class Compiler {
         // execution.
         remainingTasks.incrementAndGet();
 
-        // Increment the statistics and put the task on the correct queue.
+        // Increment the statistics and put the task on the queue.
         stats.incrementStartedTasks(task.resultType);
-        executors.get(task.resultType).submit(task);
+        // Compilation and annotation tasks never wait for other tasks, so
+        // they always run on the pool.
+        TaskResult.ResultType type = task.resultType;
+        if (virtualExecutor != null && type != TaskResult.ResultType.COMPILED
+                && type != TaskResult.ResultType.ANNOTATION) {
+            virtualExecutor.execute(task);
+        } else {
+            executor.execute(task);
+        }
 
         // Make sure that the task gets added to the results queue.
         resultsQueue.add(task);
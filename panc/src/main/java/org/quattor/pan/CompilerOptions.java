@@ -46,6 +46,8 @@ import org.quattor.pan.output.DepFormatter;
 import org.quattor.pan.output.DepGzipFormatter;
 import org.quattor.pan.output.DotFormatter;
 import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.GzipFormatter;
+import org.quattor.pan.output.GzipOptions;
 import org.quattor.pan.output.JsonFormatter;
 import org.quattor.pan.output.JsonGzipFormatter;
 import org.quattor.pan.output.NullFormatter;
@@ -134,10 +136,79 @@ public class CompilerOptions {
      */
     public final File annotationBaseDirectory;
 
+    /**
+     * Root element of the configuration of each object, created from the
+     * description given as a string. Defaults to an empty dict.
+     */
     public final HashResource rootElement;
 
+    /**
+     * Number of threads used for the compilation; non-positive values and
+     * values larger than the number of CPU cores use one thread per core.
+     */
     public final int nthread;
 
+    /**
+     * Directory containing the persistent cache of compiled templates. If
+     * null, the persistent cache is disabled and all templates are compiled
+     * from their sources.
+     */
+    public final File compileCacheDirectory;
+
+    /**
+     * Maximum total size in bytes of the persistent compile cache. Non-positive
+     * values indicate that the size is unlimited.
+     */
+    public final long compileCacheMaxSize;
+
+    /**
+     * Maximum time in milliseconds that an unused entry is kept in the
+     * persistent compile cache. Non-positive values indicate that entries never
+     * expire.
+     */
+    public final long compileCacheMaxAge;
+
+    /**
+     * Flag indicating whether dicts and lists use persistent (structurally
+     * shared) backing collections. With this, duplicating a resource takes
+     * constant time and children are only copied when they are modified.
+     */
+    public final boolean persistentResources;
+
+    /**
+     * Flag indicating whether the build, validation, and output tasks run on
+     * virtual threads. Virtual threads are only available with Java 21 or
+     * later; with older versions the tasks run on the shared thread pool.
+     */
+    public final boolean virtualThreads;
+
+    /**
+     * Flag indicating whether constant expressions in the DML blocks are
+     * evaluated when a template is compiled and whether branches that can
+     * never be taken are removed.
+     */
+    public final boolean constantFolding;
+
+    /**
+     * Settings for the compression of the gzipped output formats. The
+     * formatters for these formats are configured with these settings.
+     */
+    public final GzipOptions gzipOptions;
+
+    /**
+     * Flag indicating whether output files are only written when their
+     * content differs from the existing file. Unchanged files keep their
+     * modification time; changed files are replaced atomically.
+     */
+    public final boolean writeIfChanged;
+
+    /**
+     * Flag indicating whether the source repository keeps the listings of the
+     * directories below the include directories in memory instead of checking
+     * each candidate file on disk.
+     */
+    public final boolean sourceIndex;
+
     /**
      * Construct a CompilerOptions instance to drive a Compiler run. Instances
      * of this class are immutable.
@@ -179,6 +250,31 @@ public class CompilerOptions {
                            File outputDirectory, List<File> includeDirectories, DeprecationWarnings deprecationWarnings, File annotationDirectory,
                            File annotationBaseDirectory, String rootElement, int nthread)
             throws SyntaxException {
+        this(new Builder().debugNsInclude(debugNsInclude).debugNsExclude(debugNsExclude)
+                .maxIteration(maxIteration).maxRecursion(maxRecursion).formatters(formatters)
+                .outputDirectory(outputDirectory).includeDirectories(includeDirectories)
+                .deprecationWarnings(deprecationWarnings).annotationDirectory(annotationDirectory)
+                .annotationBaseDirectory(annotationBaseDirectory).rootElement(rootElement).nthread(nthread));
+    }
+
+    /**
+     * Construct a CompilerOptions instance from the values collected by the
+     * given builder.
+     *
+     * @param builder
+     *            builder holding the values of all of the options
+     * @throws SyntaxException
+     *             if the expression for the rootElement is invalid
+     */
+    private CompilerOptions(Builder builder) throws SyntaxException {
+
+        int maxIteration = builder.maxIteration;
+        int maxRecursion = builder.maxRecursion;
+        File outputDirectory = builder.outputDirectory;
+        List<File> includeDirectories = builder.includeDirectories;
+        File annotationDirectory = builder.annotationDirectory;
+        File annotationBaseDirectory = builder.annotationBaseDirectory;
+        File compileCacheDirectory = builder.compileCacheDirectory;
 
         // Check that the iteration and call depth limits are sensible. If
         // negative or zero set these effectively to infinity.
@@ -206,7 +302,7 @@ public class CompilerOptions {
 
         // If we want the XML or dependency files to be written, the output
         // directory must be specified.
-        if ((outputDirectory == null) && (formatters.size() > 0)) {
+        if ((outputDirectory == null) && (builder.formatters.size() > 0)) {
             throw new IllegalArgumentException(
                     "outputDirectory must be specified if output formats are specified");
         }
@@ -216,24 +312,24 @@ public class CompilerOptions {
         this.maxRecursion = maxRecursion;
         this.outputDirectory = outputDirectory;
 
-        this.deprecationWarnings = deprecationWarnings;
+        this.deprecationWarnings = builder.deprecationWarnings;
 
         // Deal with the formatter(s).
-        List<Formatter> fmts = new LinkedList<Formatter>();
-        if (formatters != null) {
-            fmts.addAll(formatters);
-        }
-        this.formatters = Collections.unmodifiableList(fmts);
+        this.gzipOptions = builder.gzipOptions;
+        this.formatters = configureFormatters(builder.formatters, builder.gzipOptions);
 
         // Setup the debug patterns, ensuring that the debug pattern lists are
         // not null.
-        this.debugNsInclude = debugNsInclude;
-        this.debugNsExclude = debugNsExclude;
+        this.debugNsInclude = builder.debugNsInclude;
+        this.debugNsExclude = builder.debugNsExclude;
 
         ParameterList parameters = new ParameterList();
         for (File f : includeDirectories) {
             parameters.append("includeDirectory", f.toString());
         }
+        if (builder.sourceIndex) {
+            parameters.append("sourceIndex", "true");
+        }
 
         SourceRepository value = null;
         try {
@@ -254,13 +350,189 @@ public class CompilerOptions {
             checkDirectory(annotationBaseDirectory, "annotation base");
         }
 
-        this.rootElement = createRootElement(rootElement);
+        this.rootElement = createRootElement(builder.rootElement);
 
         int nprocs = Runtime.getRuntime().availableProcessors();
-        if (nthread <= 0 || nthread > nprocs) {
+        if (builder.nthread <= 0 || builder.nthread > nprocs) {
             this.nthread = nprocs;
         } else {
+            this.nthread = builder.nthread;
+        }
+
+        // The compile cache directory is created if necessary. Several
+        // compiler processes may share the same directory.
+        if (compileCacheDirectory != null) {
+            compileCacheDirectory.mkdirs();
+            checkDirectory(compileCacheDirectory, "compile cache");
+        }
+        this.compileCacheDirectory = compileCacheDirectory;
+        this.compileCacheMaxSize = builder.compileCacheMaxSize;
+        this.compileCacheMaxAge = builder.compileCacheMaxAge;
+        this.persistentResources = builder.persistentResources;
+        this.virtualThreads = builder.virtualThreads;
+        this.constantFolding = builder.constantFolding;
+        this.writeIfChanged = builder.writeIfChanged;
+        this.sourceIndex = builder.sourceIndex;
+    }
+
+    /**
+     * Collects the values of the compiler options. Each method sets the
+     * option of the same name (see the corresponding fields of
+     * <code>CompilerOptions</code>) and returns the builder. Options which are
+     * not set keep their default values: 5000 iterations, a call depth of 50,
+     * no output formats or output directory, no include directories,
+     * deprecation warnings ON, constant folding enabled, the default gzip
+     * settings, and all other features disabled.
+     *
+     * @author loomis
+     *
+     */
+    public static class Builder {
+
+        private Pattern debugNsInclude = null;
+        private Pattern debugNsExclude = null;
+        private int maxIteration = 5000;
+        private int maxRecursion = 50;
+        private Set<Formatter> formatters = Collections.emptySet();
+        private File outputDirectory = null;
+        private List<File> includeDirectories = Collections.emptyList();
+        private DeprecationWarnings deprecationWarnings = DeprecationWarnings.ON;
+        private File annotationDirectory = null;
+        private File annotationBaseDirectory = null;
+        private String rootElement = null;
+        private int nthread = 0;
+        private File compileCacheDirectory = null;
+        private long compileCacheMaxSize = 0L;
+        private long compileCacheMaxAge = 0L;
+        private boolean persistentResources = false;
+        private boolean virtualThreads = false;
+        private boolean constantFolding = true;
+        private GzipOptions gzipOptions = GzipOptions.getDefault();
+        private boolean writeIfChanged = false;
+        private boolean sourceIndex = false;
+
+        public Builder debugNsInclude(Pattern debugNsInclude) {
+            this.debugNsInclude = debugNsInclude;
+            return this;
+        }
+
+        public Builder debugNsExclude(Pattern debugNsExclude) {
+            this.debugNsExclude = debugNsExclude;
+            return this;
+        }
+
+        public Builder maxIteration(int maxIteration) {
+            this.maxIteration = maxIteration;
+            return this;
+        }
+
+        public Builder maxRecursion(int maxRecursion) {
+            this.maxRecursion = maxRecursion;
+            return this;
+        }
+
+        public Builder formatters(Set<Formatter> formatters) {
+            this.formatters = formatters;
+            return this;
+        }
+
+        public Builder outputDirectory(File outputDirectory) {
+            this.outputDirectory = outputDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the directories in which the templates are looked up. The
+         * directories must exist and be absolute.
+         */
+        public Builder includeDirectories(List<File> includeDirectories) {
+            this.includeDirectories = includeDirectories;
+            return this;
+        }
+
+        public Builder deprecationWarnings(DeprecationWarnings deprecationWarnings) {
+            this.deprecationWarnings = deprecationWarnings;
+            return this;
+        }
+
+        public Builder annotationDirectory(File annotationDirectory) {
+            this.annotationDirectory = annotationDirectory;
+            return this;
+        }
+
+        public Builder annotationBaseDirectory(File annotationBaseDirectory) {
+            this.annotationBaseDirectory = annotationBaseDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the description of the root element; null or an empty string
+         * gives an empty dict.
+         */
+        public Builder rootElement(String rootElement) {
+            this.rootElement = rootElement;
+            return this;
+        }
+
+        public Builder nthread(int nthread) {
             this.nthread = nthread;
+            return this;
+        }
+
+        public Builder compileCacheDirectory(File compileCacheDirectory) {
+            this.compileCacheDirectory = compileCacheDirectory;
+            return this;
+        }
+
+        public Builder compileCacheMaxSize(long compileCacheMaxSize) {
+            this.compileCacheMaxSize = compileCacheMaxSize;
+            return this;
+        }
+
+        public Builder compileCacheMaxAge(long compileCacheMaxAge) {
+            this.compileCacheMaxAge = compileCacheMaxAge;
+            return this;
+        }
+
+        public Builder persistentResources(boolean persistentResources) {
+            this.persistentResources = persistentResources;
+            return this;
+        }
+
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public Builder constantFolding(boolean constantFolding) {
+            this.constantFolding = constantFolding;
+            return this;
+        }
+
+        public Builder gzipOptions(GzipOptions gzipOptions) {
+            this.gzipOptions = gzipOptions;
+            return this;
+        }
+
+        public Builder writeIfChanged(boolean writeIfChanged) {
+            this.writeIfChanged = writeIfChanged;
+            return this;
+        }
+
+        public Builder sourceIndex(boolean sourceIndex) {
+            this.sourceIndex = sourceIndex;
+            return this;
+        }
+
+        /**
+         * Create the options from the values of this builder.
+         *
+         * @return new CompilerOptions instance
+         * @throws SyntaxException
+         *             if the expression for the root element is invalid
+         */
+        public CompilerOptions build() throws SyntaxException {
+            return new CompilerOptions(this);
         }
     }
 
@@ -339,6 +611,24 @@ public class CompilerOptions {
         }
     }
 
+    /**
+     * Returns an unmodifiable list of the given formatters, in which the
+     * formatters for the gzipped formats use the given compression settings.
+     */
+    private static List<Formatter> configureFormatters(Collection<Formatter> formatters, GzipOptions gzipOptions) {
+
+        List<Formatter> fmts = new LinkedList<Formatter>();
+        if (formatters != null) {
+            for (Formatter formatter : formatters) {
+                if (formatter instanceof GzipFormatter) {
+                    formatter = ((GzipFormatter) formatter).withGzipOptions(gzipOptions);
+                }
+                fmts.add(formatter);
+            }
+        }
+        return Collections.unmodifiableList(fmts);
+    }
+
     public static HashResource createRootElement(String rootElement)
             throws SyntaxException {
 
@@ -392,6 +682,36 @@ public class CompilerOptions {
 
     }
 
+    /**
+     * Returns a string that identifies the options which influence the
+     * compilation of a single template: the debugging patterns (which are
+     * compiled into the debug() calls), the deprecation level (which can make
+     * a compilation fail), and whether constant expressions are folded.
+     * Compiled templates can only be reused between runs with identical
+     * signatures.
+     *
+     * @return signature of the options affecting template compilation
+     */
+    public String getCompilationSignature() {
+        StringBuilder sb = new StringBuilder();
+        appendPattern(sb, debugNsInclude);
+        sb.append('\0');
+        appendPattern(sb, debugNsExclude);
+        sb.append('\0');
+        sb.append(deprecationWarnings);
+        sb.append('\0');
+        sb.append(constantFolding);
+        return sb.toString();
+    }
+
+    private static void appendPattern(StringBuilder sb, Pattern pattern) {
+        if (pattern != null) {
+            sb.append(pattern.pattern());
+            sb.append('/');
+            sb.append(pattern.flags());
+        }
+    }
+
     /**
      * Resolve a list of object template names and template Files to a set of
      * files based on this instance's include directories.
@@ -473,6 +793,10 @@ public class CompilerOptions {
                 formatters.add(JsonFormatter.getInstance());
             } else if ("json.gz".equals(fname)) {
                 formatters.add(JsonGzipFormatter.getInstance());
+            } else if ("json-compact".equals(fname)) {
+                formatters.add(JsonFormatter.getCompactInstance());
+            } else if ("json-compact.gz".equals(fname)) {
+                formatters.add(JsonGzipFormatter.getCompactInstance());
             } else if ("dot".equals(fname)) {
                 formatters.add(DotFormatter.getInstance());
             } else if ("pan".equals(fname)) {
@@ -560,6 +884,34 @@ public class CompilerOptions {
         sb.append(deprecationWarnings);
         sb.append("\n");
 
+        sb.append("compile cache directory: ");
+        sb.append(compileCacheDirectory);
+        sb.append("\n");
+
+        sb.append("persistent resources: ");
+        sb.append(persistentResources);
+        sb.append("\n");
+
+        sb.append("virtual threads: ");
+        sb.append(virtualThreads);
+        sb.append("\n");
+
+        sb.append("constant folding: ");
+        sb.append(constantFolding);
+        sb.append("\n");
+
+        sb.append("gzip compression: ");
+        sb.append(gzipOptions);
+        sb.append("\n");
+
+        sb.append("write if changed: ");
+        sb.append(writeIfChanged);
+        sb.append("\n");
+
+        sb.append("source index: ");
+        sb.append(sourceIndex);
+        sb.append("\n");
+
         return sb.toString();
     }
 
@@ -12,6 +12,7 @@ import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryUsage;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,6 +47,12 @@ public class CompilerStatistics {
 
 	private final Map<ResultType, AtomicLong> doneTasks;
 
+	private long memoHits;
+
+	private long memoMisses;
+
+	private long memoSavedTime;
+
 	/**
 	 * Creates an object to keep track of statistics during the run of the pan
 	 * compiler.
@@ -93,6 +100,23 @@ public class CompilerStatistics {
 		this.fileCount = fileCount;
 	}
 
+	/**
+	 * Record the use of the cache of results of pure functions.
+	 * 
+	 * @param hits
+	 *            number of calls answered from the cache
+	 * @param misses
+	 *            number of cacheable calls that were executed
+	 * @param savedTime
+	 *            execution time saved by the cache hits in nanoseconds
+	 */
+	public void setFunctionMemoStatistics(long hits, long misses,
+			long savedTime) {
+		this.memoHits = hits;
+		this.memoMisses = misses;
+		this.memoSavedTime = savedTime;
+	}
+
 	/**
 	 * Increase the count of the number of tasks of the given type that have
 	 * been started.
@@ -174,7 +198,9 @@ public class CompilerStatistics {
 				startedTasks.get(XML).get(), doneTasks.get(DEP).get(),
 				startedTasks.get(DEP).get(), totalErrors, buildTime,
 				convertToMB(heapUsed.get()), convertToMB(heapTotal.get()),
-				convertToMB(nonHeapUsed.get()), convertToMB(nonHeapTotal.get()) };
+				convertToMB(nonHeapUsed.get()), convertToMB(nonHeapTotal.get()),
+				memoHits, memoHits + memoMisses,
+				TimeUnit.NANOSECONDS.toMillis(memoSavedTime) };
 
 		return MessageUtils.format(MSG_STATISTICS_TEMPLATE, info);
 	}
@@ -26,6 +26,7 @@ import static org.quattor.pan.utils.MessageUtils.MSG_INTERRUPTED_THREAD;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 
 import org.quattor.pan.Compiler;
@@ -173,6 +174,11 @@ public abstract class AbstractCache<T extends TaskResult> {
 		// Now wait for the result and process any exceptions.
 		T result = null;
 		try {
+			// If the task is running on another thread, let the executor
+			// compensate for this blocked thread while waiting.
+			if (!future.isDone()) {
+				ForkJoinPool.managedBlock(new FutureBlocker(future));
+			}
 			result = future.get();
 		} catch (InterruptedException ie) {
 			throw EvaluationException.create(MSG_INTERRUPTED_THREAD, key);
@@ -185,6 +191,35 @@ public abstract class AbstractCache<T extends TaskResult> {
 		return result;
 	}
 
+	/**
+	 * Blocks until a <code>Future</code> is done. Used to wait for a task
+	 * running on another thread without reducing the number of threads
+	 * available to run other tasks.
+	 */
+	private static class FutureBlocker implements ForkJoinPool.ManagedBlocker {
+
+		private final Future<?> future;
+
+		public FutureBlocker(Future<?> future) {
+			this.future = future;
+		}
+
+		public boolean block() throws InterruptedException {
+			try {
+				future.get();
+			} catch (ExecutionException consumed) {
+				// Reported when retrieving the result.
+			} catch (CancellationException consumed) {
+				// Reported when retrieving the result.
+			}
+			return true;
+		}
+
+		public boolean isReleasable() {
+			return future.isDone();
+		}
+	}
+
 	/**
 	 * Returns directly the <code>Future</code> associated with the key or null
 	 * if an entry does not exist. This method will not create a task for a
@@ -201,6 +236,18 @@ public abstract class AbstractCache<T extends TaskResult> {
 		return cache.get(key);
 	}
 
+	/**
+	 * Removes the entry associated with the key, if any. A later retrieval
+	 * of the same key will create (and run) a new task.
+	 * 
+	 * @param key
+	 *            Key of the entry to remove.
+	 */
+	public void evict(String key) {
+		assert (key != null);
+		cache.remove(key);
+	}
+
 	/**
 	 * Creates a new task to be put into the cache, if necessary. Concrete
 	 * implementations must supply a method that generates a task that will
@@ -24,6 +24,7 @@ import static org.quattor.pan.utils.MessageUtils.MSG_CIRCULAR_OBJECT_DEPENDENCY;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.quattor.pan.Compiler;
 import org.quattor.pan.exceptions.EvaluationException;
@@ -50,11 +51,18 @@ public class BuildCache extends AbstractCache<BuildResult> {
 	 * which have cyclic dependencies.
 	 * 
 	 * Reference to this map must never leak out of this class. Equally
-	 * important, all read and write access to the map must be done from
-	 * synchronized methods.
+	 * important, all read and write access to the map must be done while
+	 * holding the lock.
 	 */
 	private final Map<String, String> dependencies = new HashMap<String, String>();
 
+	/**
+	 * Lock protecting the dependency map. An explicit lock is used rather than
+	 * a monitor so that tasks running on virtual threads do not pin their
+	 * carrier threads.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
 	/**
 	 * Creates a <code>BuildCache</code> with a default, initial size of 1000.
 	 * 
@@ -85,7 +93,7 @@ public class BuildCache extends AbstractCache<BuildResult> {
 	 * create a cycle in the dependency map. In this case, the dependency will
 	 * not be inserted.
 	 * 
-	 * Note: This method MUST be synchronized to ensure that the entire cycle
+	 * Note: This method MUST hold the lock to ensure that the entire cycle
 	 * calculation occurs with the dependency map in a consistent state.
 	 * 
 	 * @param objectName
@@ -95,33 +103,38 @@ public class BuildCache extends AbstractCache<BuildResult> {
 	 * 
 	 * @throws EvaluationException when an error occurs during the evaluation of the dependency
 	 */
-	synchronized public void setDependency(String objectName,
-			String dependencyName) throws EvaluationException {
-
-		// Determine if adding this dependency will create a cycle.
-		String nextObjectName = dependencies.get(dependencyName);
-		while (nextObjectName != null) {
-			if (objectName.equals(nextObjectName)) {
-				throw EvaluationException.create(
-						MSG_CIRCULAR_OBJECT_DEPENDENCY, getCycle(objectName,
-								dependencyName));
+	public void setDependency(String objectName, String dependencyName)
+			throws EvaluationException {
+
+		lock.lock();
+		try {
+
+			// Determine if adding this dependency will create a cycle.
+			String nextObjectName = dependencies.get(dependencyName);
+			while (nextObjectName != null) {
+				if (objectName.equals(nextObjectName)) {
+					throw EvaluationException.create(
+							MSG_CIRCULAR_OBJECT_DEPENDENCY, getCycle(
+									objectName, dependencyName));
+				}
+				nextObjectName = dependencies.get(nextObjectName);
 			}
-			nextObjectName = dependencies.get(nextObjectName);
-		}
 
-		// If we get to here, then we reached the end of the chain without
-		// creating a cycle. It is OK to add this to the dependencies.
-		dependencies.put(objectName, dependencyName);
+			// If we get to here, then we reached the end of the chain without
+			// creating a cycle. It is OK to add this to the dependencies.
+			// Waiting for the dependency will not deadlock the compiler
+			// because the executor compensates for blocked threads.
+			dependencies.put(objectName, dependencyName);
 
-		// To avoid deadlock, ensure that the number of available threads is
-		// larger than number of entries in the dependencies.
-		compiler.ensureMinimumBuildThreadLimit(dependencies.size() + 1);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
 	 * This method creates a string describing a cycle which has been detected.
 	 * It should only be called if a cycle with the specified dependency has
-	 * actually been detected.
+	 * actually been detected. The caller must hold the lock.
 	 * 
 	 * @param objectName
 	 *            name of the object which has the dependency
@@ -130,7 +143,7 @@ public class BuildCache extends AbstractCache<BuildResult> {
 	 * 
 	 * @return String describing the cyclic dependency
 	 */
-	synchronized private String getCycle(String objectName,
+	private String getCycle(String objectName,
 			String dependencyName) {
 
 		// Determine if adding this dependency will create a cycle.
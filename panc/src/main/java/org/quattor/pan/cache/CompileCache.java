@@ -22,11 +22,14 @@ package org.quattor.pan.cache;
 
 import java.io.File;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
 
 import org.quattor.pan.Compiler;
 import org.quattor.pan.CompilerOptions;
 import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.TreeFormatter;
 import org.quattor.pan.parser.ASTTemplate;
 import org.quattor.pan.tasks.CompileResult;
 import org.quattor.pan.tasks.CompileTask;
@@ -48,6 +51,10 @@ public class CompileCache extends AbstractCache<CompileResult> {
 
 	private final CompileCache.PostCompileProcessor postCompileProcessor;
 
+	private final CompiledTemplateStore store;
+
+	private final ResidentTemplateCache resident;
+
 	/**
 	 * Creates a new <code>CompileCache</code> with a default, initial size of
 	 * 1000 entries.
@@ -64,6 +71,36 @@ public class CompileCache extends AbstractCache<CompileResult> {
 
 		// Setup the post compilation processor.
 		postCompileProcessor = new CompileCache.PostCompileProcessor(compiler);
+
+		// Setup the persistent store of compiled templates, if requested. The
+		// stored templates do not contain the syntax tree, so the store cannot
+		// be used when annotations are written.
+		CompilerOptions options = compiler.options;
+		if (options.compileCacheDirectory != null
+				&& options.annotationDirectory == null) {
+			store = new CompiledTemplateStore(options.compileCacheDirectory,
+					options.compileCacheMaxSize, options.compileCacheMaxAge,
+					options.getCompilationSignature());
+		} else {
+			store = null;
+		}
+
+		// The resident templates are shared between compilations (e.g. by
+		// the compile daemon). They also lack the syntax tree.
+		if (options.annotationDirectory == null) {
+			resident = compiler.getResidentTemplateCache();
+		} else {
+			resident = null;
+		}
+	}
+
+	/**
+	 * Returns the persistent store of compiled templates used by this cache.
+	 * 
+	 * @return persistent store or null if none is used
+	 */
+	public CompiledTemplateStore getCompiledTemplateStore() {
+		return store;
 	}
 
 	/**
@@ -95,9 +132,22 @@ public class CompileCache extends AbstractCache<CompileResult> {
 		private final Compiler compiler;
 		private final CompilerOptions options;
 
+		// Formats which are written from a walk of the profile tree are
+		// written by a single task, so that the tree is only walked once.
+		private final List<TreeFormatter> treeFormatters = new ArrayList<TreeFormatter>();
+		private final List<Formatter> otherFormatters = new ArrayList<Formatter>();
+
 		public PostCompileProcessor(Compiler compiler) {
 			this.compiler = compiler;
 			this.options = compiler.options;
+
+			for (Formatter formatter : options.formatters) {
+				if (formatter instanceof TreeFormatter) {
+					treeFormatters.add((TreeFormatter) formatter);
+				} else {
+					otherFormatters.add(formatter);
+				}
+			}
 		}
 
 		public void process(ASTTemplate ast, Template template) {
@@ -108,8 +158,26 @@ public class CompileCache extends AbstractCache<CompileResult> {
 
 				String objectName = template.name;
 
-				for (Formatter formatter : options.formatters) {
-					File outputDirectory = options.outputDirectory;
+				// Each output task holds a reference on the object's results;
+				// these are released as the tasks finish. The final result
+				// listener holds one until it has been notified.
+				boolean notify = (compiler.getFinalResultListener() != null);
+				int ntasks = otherFormatters.size()
+						+ (treeFormatters.isEmpty() ? 0 : 1)
+						+ (notify ? 1 : 0);
+				compiler.getResultRetention().acquire(objectName, ntasks);
+
+				if (notify) {
+					compiler.getFinalCache().retrieve(objectName, false);
+				}
+
+				File outputDirectory = options.outputDirectory;
+				if (!treeFormatters.isEmpty()) {
+					task = new WriteOutputTask(treeFormatters, compiler,
+							objectName, outputDirectory);
+					compiler.submit(task);
+				}
+				for (Formatter formatter : otherFormatters) {
 					task = new WriteOutputTask(formatter, compiler,
 							objectName, outputDirectory);
 					compiler.submit(task);
@@ -138,7 +206,8 @@ public class CompileCache extends AbstractCache<CompileResult> {
 
 	@Override
 	protected CompileTask createTask(String tplfile) {
-		return new CompileTask(tplfile, postCompileProcessor, compiler.options);
+		return new CompileTask(tplfile, postCompileProcessor, compiler.options,
+				store, resident);
 	}
 
 	@Override
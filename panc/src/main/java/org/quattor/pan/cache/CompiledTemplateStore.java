@@ -0,0 +1,346 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerLogging.LoggingType;
+import org.quattor.pan.ttemplate.Template;
+
+/**
+ * An on-disk store of compiled templates that persists between compiler runs.
+ * Each entry is keyed by a SHA-256 digest of the compiler version, the
+ * compilation signature of the compiler options, the absolute path of the
+ * template, and the template's source. An unchanged template will therefore be
+ * deserialized from the store rather than parsed again.
+ *
+ * Entries are written to a temporary file and then atomically renamed into
+ * place; readers never see a partial entry. The store can thus be shared
+ * between concurrent compiler processes. Any problem reading an entry (e.g. a
+ * change in the serialized form of the compiled classes) is treated as a miss.
+ *
+ * Entries are touched when they are used. The <code>evict</code> method removes
+ * entries that have not been used within the maximum age and then the least
+ * recently used entries until the store is below its maximum size.
+ *
+ * @author loomis
+ *
+ */
+public class CompiledTemplateStore {
+
+	private static final Logger taskLogger = LoggingType.TASK.logger();
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String ENTRY_SUFFIX = ".ser";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Temporary files older than this (in milliseconds) are considered to be
+	 * left over from an aborted compiler process and are removed on eviction.
+	 */
+	private static final long STALE_TEMP_AGE = 3600000L;
+
+	private final File directory;
+
+	private final long maxSize;
+
+	private final long maxAge;
+
+	private final byte[] signature;
+
+	private final AtomicLong hits = new AtomicLong(0L);
+
+	private final AtomicLong misses = new AtomicLong(0L);
+
+	/**
+	 * Creates a store using the given directory, which must exist.
+	 *
+	 * @param directory
+	 *            directory holding the store entries
+	 * @param maxSize
+	 *            maximum size of the store in bytes; non-positive values mean
+	 *            unlimited
+	 * @param maxAge
+	 *            maximum age of unused entries in milliseconds; non-positive
+	 *            values mean unlimited
+	 * @param compilationSignature
+	 *            signature of the compiler options that influence the
+	 *            compilation of a template
+	 */
+	public CompiledTemplateStore(File directory, long maxSize, long maxAge,
+			String compilationSignature) {
+
+		assert (directory != null);
+		assert (compilationSignature != null);
+
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+		this.signature = (Compiler.version + "\0" + compilationSignature)
+				.getBytes(UTF8);
+	}
+
+	/**
+	 * Calculates the key of the entry for the given template file and
+	 * contents.
+	 *
+	 * @param tplfile
+	 *            absolute path of the template
+	 * @param contents
+	 *            raw contents of the template file
+	 *
+	 * @return key of the store entry as a hex string
+	 */
+	public String key(File tplfile, byte[] contents) {
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// All java implementations are required to provide SHA-256.
+			throw new IllegalStateException(e);
+		}
+
+		digest.update(signature);
+		digest.update((byte) 0);
+		digest.update(tplfile.getAbsolutePath().getBytes(UTF8));
+		digest.update((byte) 0);
+		digest.update(contents);
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Retrieve the compiled template associated with the given key. This
+	 * returns null if the entry does not exist or cannot be read.
+	 *
+	 * @param key
+	 *            key of the entry
+	 *
+	 * @return compiled template or null if it is not available
+	 */
+	public Template load(String key) {
+
+		File entry = entryFile(key);
+
+		Template template = null;
+
+		ObjectInputStream ois = null;
+		try {
+			ois = new ObjectInputStream(new BufferedInputStream(
+					new FileInputStream(entry)));
+			template = (Template) ois.readObject();
+
+			// Mark the entry as recently used for the eviction policy.
+			entry.setLastModified(System.currentTimeMillis());
+
+		} catch (IOException consumed) {
+			// Missing or unreadable entry; treat as a miss.
+		} catch (ClassNotFoundException consumed) {
+			// Entry written by an incompatible compiler; treat as a miss.
+		} catch (ClassCastException consumed) {
+			// Entry does not contain a template; treat as a miss.
+		} finally {
+			if (ois != null) {
+				try {
+					ois.close();
+				} catch (IOException consumed) {
+				}
+			}
+		}
+
+		if (template != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+
+		return template;
+	}
+
+	/**
+	 * Save the compiled template with the given key. Any errors are logged
+	 * and otherwise ignored; the entry will simply be recreated in a
+	 * following run.
+	 *
+	 * @param key
+	 *            key of the entry
+	 * @param template
+	 *            compiled template to save
+	 */
+	public void store(String key, Template template) {
+
+		File entry = entryFile(key);
+		File temp = null;
+
+		try {
+			File shard = entry.getParentFile();
+			shard.mkdirs();
+
+			temp = File.createTempFile(key, TEMP_SUFFIX, shard);
+
+			ObjectOutputStream oos = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				oos.writeObject(template);
+			} finally {
+				oos.close();
+			}
+
+			Files.move(temp.toPath(), entry.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+			temp = null;
+
+		} catch (IOException ioe) {
+			taskLogger.log(Level.FINE, "COMPILE_CACHE_WRITE_FAILED",
+					new Object[] { template.name, ioe.getMessage() });
+		} finally {
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Remove expired entries and then the least recently used entries until
+	 * the store is below its maximum size. Entries that disappear during the
+	 * scan (e.g. removed by another compiler process) are ignored.
+	 */
+	public void evict() {
+
+		long now = System.currentTimeMillis();
+
+		List<File> entries = new ArrayList<File>();
+
+		File[] shards = directory.listFiles();
+		if (shards == null) {
+			return;
+		}
+
+		for (File shard : shards) {
+			File[] files = shard.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File f : files) {
+				String name = f.getName();
+				long age = now - f.lastModified();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					if (age > STALE_TEMP_AGE) {
+						f.delete();
+					}
+				} else if (name.endsWith(ENTRY_SUFFIX)) {
+					if (maxAge > 0 && age > maxAge) {
+						f.delete();
+					} else {
+						entries.add(f);
+					}
+				}
+			}
+		}
+
+		if (maxSize > 0) {
+
+			// Snapshot the modification times and sizes to avoid
+			// inconsistencies while sorting if another process touches the
+			// entries.
+			final List<long[]> info = new ArrayList<long[]>(entries.size());
+			long total = 0L;
+			for (int i = 0; i < entries.size(); i++) {
+				File f = entries.get(i);
+				long size = f.length();
+				total += size;
+				info.add(new long[] { f.lastModified(), size, i });
+			}
+
+			if (total > maxSize) {
+				Collections.sort(info, new Comparator<long[]>() {
+					public int compare(long[] o1, long[] o2) {
+						return (o1[0] < o2[0]) ? -1 : ((o1[0] == o2[0]) ? 0
+								: 1);
+					}
+				});
+
+				for (long[] i : info) {
+					if (total <= maxSize) {
+						break;
+					}
+					if (entries.get((int) i[2]).delete()) {
+						total -= i[1];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of compiled templates that were retrieved from the
+	 * store.
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a usable entry.
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Entries are split into subdirectories using the first two characters of
+	 * the key to avoid very large directories.
+	 */
+	private File entryFile(String key) {
+		File shard = new File(directory, key.substring(0, 2));
+		return new File(shard, key + ENTRY_SUFFIX);
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import org.quattor.pan.Compiler;
+import org.quattor.pan.tasks.FinalResult;
+import org.quattor.pan.tasks.FinalTask;
+import org.quattor.pan.tasks.Task;
+import org.quattor.pan.tasks.TaskResult;
+
+/**
+ * A global cache of the final results of all pan objects. The final result
+ * contains the complete (transitive) dependencies of an object, which are
+ * shared by all of the output tasks for the object.
+ * 
+ * @author loomis
+ * 
+ */
+public class FinalCache extends AbstractCache<FinalResult> {
+
+	/**
+	 * Creates a new <code>FinalCache</code> that has a default, initial size
+	 * of 1000 entries.
+	 * 
+	 * @param compiler
+	 *            associated compiler for this cache
+	 */
+	public FinalCache(Compiler compiler) {
+		this(compiler, 1000);
+	}
+
+	public FinalCache(Compiler compiler, int size) {
+		super(compiler, size);
+	}
+
+	@Override
+	protected Task<FinalResult> createTask(String objectName) {
+		return new FinalTask(compiler, objectName);
+	}
+
+	@Override
+	protected TaskResult.ResultType getExecutorQueueType() {
+		return TaskResult.ResultType.FINAL;
+	}
+
+}
@@ -0,0 +1,206 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quattor.pan.dml.Operation;
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.Property;
+
+/**
+ * Results of calls to pure user-defined functions, shared by all of the
+ * objects built by a compiler. An entry is identified by the function body
+ * (the DML block of a compiled template) and the values of the arguments.
+ * Only calls for which all arguments are properties are cached, as only these
+ * can be compared by value.
+ *
+ * The number of entries is bounded. Once the limit is reached, new results
+ * are simply no longer stored; existing entries are never evicted.
+ *
+ * All methods are thread-safe.
+ *
+ * @author loomis
+ *
+ */
+public class FunctionMemo {
+
+	/**
+	 * Default maximum number of cached results.
+	 */
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 10000;
+
+	private final int maximumEntries;
+
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong savedTime = new AtomicLong();
+
+	public FunctionMemo() {
+		this(DEFAULT_MAXIMUM_ENTRIES);
+	}
+
+	/**
+	 * Create a memo that holds at most the given number of results.
+	 *
+	 * @param maximumEntries
+	 *            maximum number of cached results
+	 */
+	public FunctionMemo(int maximumEntries) {
+		this.maximumEntries = maximumEntries;
+	}
+
+	/**
+	 * Determine if a call with the given arguments can be cached.
+	 *
+	 * @param args
+	 *            values of the arguments
+	 *
+	 * @return true if all of the arguments are properties
+	 */
+	public static boolean isCacheable(Element[] args) {
+		for (Element arg : args) {
+			if (!(arg instanceof Property)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the result of an earlier call of the function with the same
+	 * arguments. Resources are duplicated, so the caller can modify the
+	 * returned value.
+	 *
+	 * @param function
+	 *            body of the function
+	 * @param args
+	 *            values of the arguments
+	 *
+	 * @return result of the call or null if it isn't cached
+	 */
+	public Element get(Operation function, Element[] args) {
+
+		Entry entry = entries.get(new Key(function, args));
+		if (entry != null) {
+			hits.incrementAndGet();
+			savedTime.addAndGet(entry.cost);
+			return entry.result.duplicate();
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Store the result of a call of the function.
+	 *
+	 * @param function
+	 *            body of the function
+	 * @param args
+	 *            values of the arguments; must not be modified afterwards
+	 * @param result
+	 *            result of the call
+	 * @param cost
+	 *            time taken by the call in nanoseconds
+	 */
+	public void put(Operation function, Element[] args, Element result,
+			long cost) {
+		if (result != null && entries.size() < maximumEntries) {
+			entries.putIfAbsent(new Key(function, args), new Entry(
+					result.duplicate(), cost));
+		}
+	}
+
+	/**
+	 * Returns the number of cached results.
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the time taken by the original calls for all of the cache hits.
+	 *
+	 * @return saved time in nanoseconds
+	 */
+	public long getSavedTime() {
+		return savedTime.get();
+	}
+
+	private static class Key {
+
+		private final Operation function;
+
+		private final Element[] args;
+
+		private final int hashcode;
+
+		public Key(Operation function, Element[] args) {
+			this.function = function;
+			this.args = args;
+			this.hashcode = 31 * System.identityHashCode(function)
+					+ Arrays.hashCode(args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashcode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Key) {
+				Key other = (Key) o;
+				return function == other.function
+						&& Arrays.equals(args, other.args);
+			}
+			return false;
+		}
+	}
+
+	private static class Entry {
+
+		public final Element result;
+
+		public final long cost;
+
+		public Entry(Element result, long cost) {
+			this.result = result;
+			this.cost = cost;
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.quattor.pan.ttemplate.Template;
+
+/**
+ * In-memory cache of compiled templates that outlives a single compilation.
+ * This allows a long-running process (e.g. the compile daemon) to reuse the
+ * compiled templates for successive <code>Compiler</code> instances.
+ *
+ * Each entry records the modification time and the length of the source file
+ * as they were before the file was read. An entry is only returned if the
+ * file still has the same values; entries can also be dropped explicitly when
+ * a change is detected by other means.
+ *
+ * All methods are thread-safe.
+ *
+ * @author loomis
+ *
+ */
+public class ResidentTemplateCache {
+
+	private final ConcurrentMap<File, Entry> entries = new ConcurrentHashMap<File, Entry>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the compiled template for the given file if it is cached and
+	 * the file has not changed since it was compiled.
+	 *
+	 * @param tplfile
+	 *            absolute path of the template file
+	 *
+	 * @return compiled template or null if there is no valid entry
+	 */
+	public Template get(File tplfile) {
+
+		Entry entry = entries.get(tplfile);
+		if (entry != null) {
+			if (entry.lastModified == tplfile.lastModified()
+					&& entry.length == tplfile.length()) {
+				hits.incrementAndGet();
+				return entry.template;
+			}
+			entries.remove(tplfile, entry);
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores a compiled template. The modification time and length must have
+	 * been obtained before the file was read so that a concurrent modification
+	 * causes the entry to be considered invalid.
+	 *
+	 * @param tplfile
+	 *            absolute path of the template file
+	 * @param lastModified
+	 *            modification time of the file before it was read
+	 * @param length
+	 *            length of the file before it was read
+	 * @param template
+	 *            compiled template
+	 */
+	public void put(File tplfile, long lastModified, long length,
+			Template template) {
+		entries.put(tplfile, new Entry(lastModified, length, template));
+	}
+
+	/**
+	 * Removes the entry for the given file, if any.
+	 *
+	 * @param tplfile
+	 *            absolute path of the template file
+	 */
+	public void invalidate(File tplfile) {
+		entries.remove(tplfile);
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of cached templates.
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private static class Entry {
+
+		public final long lastModified;
+
+		public final long length;
+
+		public final Template template;
+
+		public Entry(long lastModified, long length, Template template) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.template = template;
+		}
+	}
+
+}
@@ -0,0 +1,234 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerLogging.LoggingType;
+
+/**
+ * Keeps track of the outstanding references to the build and validation
+ * results of each object and removes those results from the build, valid1,
+ * valid2, and final caches once they can no longer be needed. Without this,
+ * every built object (including its complete build context) stays in memory
+ * until the end of the compilation.
+ *
+ * An object is referenced by each of its pending output tasks and by each
+ * object that refers to it via an external path. The references held by an
+ * object on other objects are only released when the object itself is
+ * released. This keeps the complete object dependency closure of an object
+ * available while its output is being written.
+ *
+ * Released objects are not evicted immediately. The most recently released
+ * objects are retained (up to a fixed number) so that objects referenced by
+ * many others are not rebuilt repeatedly. A released object that is
+ * referenced again is reactivated. If an evicted object is needed again, the
+ * caches will simply rebuild it on demand.
+ *
+ * Objects with circular references will never be released; in this case the
+ * results stay in memory until the end of the compilation.
+ *
+ * All public methods are synchronized.
+ *
+ * @author loomis
+ *
+ */
+public class ResultRetention {
+
+	private static final Logger taskLogger = LoggingType.TASK.logger();
+
+	/**
+	 * Default number of released objects for which the results are retained.
+	 */
+	public static final int DEFAULT_RETAINED_RESULTS = 32;
+
+	private final Compiler compiler;
+
+	private final int retainedResults;
+
+	/**
+	 * Number of outstanding references for each tracked object. Released
+	 * objects that are still retained have a count of zero.
+	 */
+	private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+	/**
+	 * The objects referenced by each object. These references are released
+	 * when the referencing object is evicted.
+	 */
+	private final Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+
+	/**
+	 * Released objects in the order in which they were released.
+	 */
+	private final LinkedHashSet<String> released = new LinkedHashSet<String>();
+
+	private long evictions = 0L;
+
+	/**
+	 * Create a retention tracker that will evict results from the caches of
+	 * the given compiler.
+	 *
+	 * @param compiler
+	 *            compiler that owns the build and validation caches
+	 * @param retainedResults
+	 *            number of released objects for which the results are kept
+	 */
+	public ResultRetention(Compiler compiler, int retainedResults) {
+
+		assert (compiler != null);
+		assert (retainedResults >= 0);
+
+		this.compiler = compiler;
+		this.retainedResults = retainedResults;
+	}
+
+	/**
+	 * Add the given number of references to the named object. This is used
+	 * for the output tasks of the object.
+	 *
+	 * @param objectName
+	 *            name of the referenced object
+	 * @param n
+	 *            number of references to add
+	 */
+	synchronized public void acquire(String objectName, int n) {
+
+		assert (objectName != null);
+
+		if (n > 0) {
+			Integer count = counts.get(objectName);
+			counts.put(objectName, (count == null) ? n : count + n);
+			released.remove(objectName);
+		}
+	}
+
+	/**
+	 * Release a reference on the named object. When there are no more
+	 * references, the object becomes a candidate for eviction.
+	 *
+	 * @param objectName
+	 *            name of the referenced object
+	 */
+	synchronized public void release(String objectName) {
+		decrement(objectName);
+		evictExcess();
+	}
+
+	/**
+	 * Record that one object references another one. The reference is only
+	 * recorded once for each pair of objects and only if the referencing
+	 * object is itself active. The reference will be released when the
+	 * referencing object is evicted.
+	 *
+	 * @param objectName
+	 *            name of the object holding the reference
+	 * @param referencedObject
+	 *            name of the referenced object
+	 */
+	synchronized public void reference(String objectName,
+			String referencedObject) {
+
+		if (objectName.equals(referencedObject)) {
+			return;
+		}
+
+		// An object that is not tracked (e.g. one that is being rebuilt after
+		// eviction) would never release the reference.
+		if (!counts.containsKey(objectName)) {
+			return;
+		}
+
+		Set<String> refs = references.get(objectName);
+		if (refs == null) {
+			refs = new HashSet<String>();
+			references.put(objectName, refs);
+		}
+
+		if (refs.add(referencedObject)) {
+			acquire(referencedObject, 1);
+		}
+	}
+
+	/**
+	 * Returns the number of objects for which the results have been evicted.
+	 *
+	 * @return number of evictions
+	 */
+	synchronized public long getEvictions() {
+		return evictions;
+	}
+
+	private void decrement(String objectName) {
+
+		Integer count = counts.get(objectName);
+
+		// Should never happen, but do not let the counts become negative.
+		if (count == null) {
+			return;
+		}
+
+		if (count > 1) {
+			counts.put(objectName, count - 1);
+		} else if (count == 1) {
+			counts.put(objectName, 0);
+			released.add(objectName);
+		}
+	}
+
+	/**
+	 * Evict the oldest released objects until no more than the configured
+	 * number are retained. Evicting an object releases its references on other
+	 * objects, which may in turn release them.
+	 */
+	private void evictExcess() {
+
+		while (released.size() > retainedResults) {
+
+			Iterator<String> iterator = released.iterator();
+			String objectName = iterator.next();
+			iterator.remove();
+
+			counts.remove(objectName);
+
+			compiler.getBuildCache().evict(objectName);
+			compiler.getValid1Cache().evict(objectName);
+			compiler.getValid2Cache().evict(objectName);
+			compiler.getFinalCache().evict(objectName);
+			evictions++;
+
+			taskLogger.log(Level.FINER, "EVICT_RESULTS", objectName);
+
+			Set<String> refs = references.remove(objectName);
+			if (refs != null) {
+				for (String ref : refs) {
+					decrement(ref);
+				}
+			}
+		}
+	}
+
+}
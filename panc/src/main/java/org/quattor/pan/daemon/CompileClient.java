@@ -0,0 +1,219 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Thin client for the compile daemon. It sends the object templates to
+ * compile to a running daemon and prints the daemon's response. This class
+ * intentionally only depends on the standard library so that it starts
+ * quickly.
+ *
+ * @author loomis
+ *
+ */
+public class CompileClient {
+
+	private final int port;
+
+	private final File tokenFile;
+
+	/**
+	 * Create a client for the daemon listening on the given port, which
+	 * reads the authentication token from the default token file.
+	 *
+	 * @param port
+	 *            port on which the daemon listens
+	 */
+	public CompileClient(int port) {
+		this(port, CompileDaemon.getDefaultTokenFile(port));
+	}
+
+	/**
+	 * Create a client for the daemon listening on the given port, which
+	 * reads the authentication token from the given file.
+	 *
+	 * @param port
+	 *            port on which the daemon listens
+	 * @param tokenFile
+	 *            file containing the authentication token of the daemon
+	 */
+	public CompileClient(int port, File tokenFile) {
+		this.port = port;
+		this.tokenFile = tokenFile;
+	}
+
+	/**
+	 * Ask the daemon to compile the given object templates, copying the
+	 * response to the given stream.
+	 *
+	 * @param objectFiles
+	 *            object templates to compile; relative paths are resolved
+	 *            against the current working directory
+	 * @param force
+	 *            rebuild all of the objects, even if they are current
+	 * @param verbose
+	 *            request the compilation statistics
+	 * @param ps
+	 *            stream for the response
+	 *
+	 * @return status code returned by the daemon
+	 *
+	 * @throws IOException
+	 *             if the daemon cannot be contacted or the response is
+	 *             incomplete
+	 */
+	public int build(List<File> objectFiles, boolean force, boolean verbose,
+			PrintStream ps) throws IOException {
+
+		StringBuilder command = new StringBuilder("BUILD");
+		if (force) {
+			command.append(" force");
+		}
+		if (verbose) {
+			command.append(" verbose");
+		}
+
+		List<String> lines = new LinkedList<String>();
+		for (File objectFile : objectFiles) {
+			lines.add(objectFile.getAbsolutePath());
+		}
+
+		return send(command.toString(), lines, ps);
+	}
+
+	/**
+	 * Ask the daemon to stop.
+	 *
+	 * @param ps
+	 *            stream for the response
+	 *
+	 * @return status code returned by the daemon
+	 *
+	 * @throws IOException
+	 *             if the daemon cannot be contacted
+	 */
+	public int stop(PrintStream ps) throws IOException {
+		return send("STOP", new LinkedList<String>(), ps);
+	}
+
+	private int send(String command, List<String> lines, PrintStream ps)
+			throws IOException {
+
+		byte[] token = Files.readAllBytes(tokenFile.toPath());
+
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(
+					socket.getOutputStream(), "UTF-8"));
+			out.println(new String(token, "UTF-8").trim());
+			out.println(command);
+			for (String line : lines) {
+				out.println(line);
+			}
+			out.println();
+			out.flush();
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith(CompileDaemon.EXIT_PREFIX)) {
+					return Integer.parseInt(line.substring(
+							CompileDaemon.EXIT_PREFIX.length()).trim());
+				}
+				ps.println(line);
+			}
+
+			throw new IOException("incomplete response from compile daemon");
+
+		} finally {
+			socket.close();
+		}
+	}
+
+	public static void main(String[] args) {
+
+		int port = CompileDaemon.DEFAULT_PORT;
+		File tokenFile = null;
+		boolean force = false;
+		boolean verbose = false;
+		boolean stop = false;
+		List<File> objectFiles = new LinkedList<File>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if ("--port".equals(args[i]) && i + 1 < args.length) {
+					port = Integer.parseInt(args[++i]);
+				} else if ("--token-file".equals(args[i]) && i + 1 < args.length) {
+					tokenFile = new File(args[++i]);
+				} else if ("--force".equals(args[i])) {
+					force = true;
+				} else if ("-v".equals(args[i]) || "--verbose".equals(args[i])) {
+					verbose = true;
+				} else if ("--stop".equals(args[i])) {
+					stop = true;
+				} else if ("-h".equals(args[i]) || "--help".equals(args[i])) {
+					System.out.println("\npanc-client [--port PORT] "
+							+ "[--token-file FILE] "
+							+ "[--force] [--verbose] [--stop] "
+							+ "[pan source files...]\n");
+					System.exit(0);
+				} else {
+					objectFiles.add(new File(args[i]));
+				}
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("ERROR: invalid port: " + e.getMessage());
+			System.exit(1);
+		}
+
+		if (tokenFile == null) {
+			tokenFile = CompileDaemon.getDefaultTokenFile(port);
+		}
+
+		CompileClient client = new CompileClient(port, tokenFile);
+		int rc;
+		try {
+			if (stop) {
+				rc = client.stop(System.out);
+			} else {
+				rc = client.build(objectFiles, force, verbose, System.out);
+			}
+		} catch (IOException e) {
+			System.err.println("ERROR: cannot contact compile daemon on port "
+					+ port + ": " + e.getMessage());
+			rc = 1;
+		}
+		System.exit(rc);
+	}
+
+}
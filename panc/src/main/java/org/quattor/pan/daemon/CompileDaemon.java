@@ -0,0 +1,505 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.daemon;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.CompilerResults;
+import org.quattor.pan.cache.ResidentTemplateCache;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.repository.FileSystemSourceRepository;
+
+/**
+ * Long-running compiler process that keeps the compiled templates in memory
+ * between compilations and only rebuilds the requested objects for which one
+ * of the dependencies has changed. Changes are detected by watching the
+ * include directories; the modification times of the dependencies are also
+ * compared with those seen when the object was built before deciding that an
+ * object is current.
+ *
+ * Requests are accepted over a socket bound to the loopback interface. As
+ * any local user can connect to it, the daemon writes a random token to a
+ * file that only its owner can read; the first line of each request must be
+ * this token. It is followed by a command line, then the absolute paths of
+ * the object templates, one per line, and terminated by an empty line. The
+ * command line is <code>BUILD</code> optionally followed by the flags
+ * <code>force</code> (rebuild all given objects) and <code>verbose</code>
+ * (include the statistics in the response), or <code>STOP</code> to shut down
+ * the daemon. The response is the text to display to the user, followed by a
+ * final line <code>EXIT n</code> with the status code of the request.
+ * Requests are processed one at a time.
+ *
+ * @author loomis
+ *
+ */
+public class CompileDaemon implements IncludePathWatcher.Listener, Closeable {
+
+	/**
+	 * Port used when none is specified.
+	 */
+	public static final int DEFAULT_PORT = 7390;
+
+	/**
+	 * Prefix of the last line of each response.
+	 */
+	public static final String EXIT_PREFIX = "EXIT ";
+
+	/**
+	 * Maximum time in milliseconds to wait for a client to send its request.
+	 */
+	private static final int REQUEST_TIMEOUT = 60000;
+
+	/**
+	 * Number of random bytes in the authentication token.
+	 */
+	private static final int TOKEN_BYTES = 32;
+
+	private final CompilerOptions options;
+
+	private final ResidentTemplateCache templates = new ResidentTemplateCache();
+
+	private final DependencyIndex index;
+
+	private final IncludePathWatcher watcher;
+
+	private volatile ServerSocket serverSocket = null;
+
+	private volatile File tokenFile = null;
+
+	private byte[] token = null;
+
+	/**
+	 * Create a daemon that compiles object templates with the given options.
+	 * The output directory must be defined. The include directories are
+	 * watched for changes.
+	 *
+	 * @param options
+	 *            options to use for all of the compilations
+	 * @param includeDirectories
+	 *            absolute paths of the include directories
+	 *
+	 * @throws IOException
+	 *             if the include directories cannot be watched
+	 */
+	public CompileDaemon(CompilerOptions options, List<File> includeDirectories)
+			throws IOException {
+
+		if (options.outputDirectory == null) {
+			throw new IllegalArgumentException(
+					"outputDirectory must be specified for the compile daemon");
+		}
+
+		this.options = options;
+
+		index = new DependencyIndex(includeDirectories);
+
+		watcher = new IncludePathWatcher(includeDirectories, this);
+		Thread thread = new Thread(watcher, "panc-daemon-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public ResidentTemplateCache getTemplateCache() {
+		return templates;
+	}
+
+	public DependencyIndex getDependencyIndex() {
+		return index;
+	}
+
+	/**
+	 * Determine which of the given object templates must be rebuilt: those
+	 * that were not built successfully by this daemon, those for which one of
+	 * the dependencies has changed, and those with a missing output file.
+	 *
+	 * @param objectFiles
+	 *            absolute paths of the object templates
+	 *
+	 * @return object templates to rebuild
+	 */
+	public List<File> filterForOutdatedFiles(List<File> objectFiles) {
+
+		watcher.processPendingEvents();
+
+		URI outputURI = options.outputDirectory.toURI();
+		Map<File, Long> modificationTimes = new HashMap<File, Long>();
+
+		List<File> outdated = new LinkedList<File>();
+		for (File objectFile : objectFiles) {
+
+			String objectName = index.getCurrentObject(objectFile);
+
+			boolean current = (objectName != null)
+					&& index.checkModificationTimes(objectName,
+							modificationTimes);
+
+			if (current) {
+				for (Formatter formatter : options.formatters) {
+					File outputFile = new File(outputURI.resolve(formatter
+							.getResultURI(objectName)));
+					if (!outputFile.exists()) {
+						current = false;
+						break;
+					}
+				}
+			}
+
+			if (!current) {
+				outdated.add(objectFile);
+			}
+		}
+
+		return outdated;
+	}
+
+	/**
+	 * Compile the given object templates, reusing the templates and results
+	 * of previous compilations where possible.
+	 *
+	 * @param objectFiles
+	 *            absolute paths of the object templates to compile
+	 * @param force
+	 *            rebuild all of the objects, even if they are current
+	 * @param verbose
+	 *            also print the compilation statistics
+	 * @param out
+	 *            writer for the messages
+	 *
+	 * @return status code: 0 for success, 1 if there were errors
+	 */
+	synchronized public int process(List<File> objectFiles, boolean force,
+			boolean verbose, PrintWriter out) {
+
+		List<File> outdated = force ? objectFiles
+				: filterForOutdatedFiles(objectFiles);
+
+		out.println(outdated.size() + "/" + objectFiles.size()
+				+ " template(s) being processed");
+
+		if (outdated.isEmpty()) {
+			return 0;
+		}
+
+		boolean successful = false;
+		index.startRecording();
+		try {
+
+			// The dependency recorder ensures that the objects are built
+			// even if no output formats are defined.
+			Compiler compiler = new Compiler(options,
+					new LinkedList<String>(), outdated, templates,
+					index.getRecorder());
+			CompilerResults results = compiler.process();
+
+			String errors = results.formatErrors();
+			successful = (errors == null);
+
+			if (errors != null) {
+				out.println(errors);
+			}
+			if (verbose) {
+				out.println(results.formatStats());
+				out.println("resident templates: " + templates.size() + " ("
+						+ templates.getHits() + " hits, "
+						+ templates.getMisses() + " misses)");
+			}
+
+		} catch (RuntimeException e) {
+			out.println(e.getMessage());
+		} finally {
+			// Changes made while the templates were read must be applied to
+			// the objects that have just been recorded.
+			watcher.processPendingEvents();
+			index.stopRecording(successful);
+		}
+
+		return successful ? 0 : 1;
+	}
+
+	/**
+	 * Returns the default file holding the authentication token of the daemon
+	 * listening on the given port. The file is in the user's home directory.
+	 *
+	 * @param port
+	 *            port on which the daemon listens
+	 *
+	 * @return token file
+	 */
+	public static File getDefaultTokenFile(int port) {
+		return new File(System.getProperty("user.home"), ".panc-daemon-"
+				+ port);
+	}
+
+	/**
+	 * Bind the daemon to the given port on the loopback interface, writing the
+	 * authentication token to the default token file for that port.
+	 *
+	 * @param port
+	 *            port to listen on; zero chooses a free port
+	 *
+	 * @return port actually used
+	 *
+	 * @throws IOException
+	 *             if the socket or the token file cannot be created
+	 */
+	public int bind(int port) throws IOException {
+		return bind(port, null);
+	}
+
+	/**
+	 * Bind the daemon to the given port on the loopback interface, writing the
+	 * authentication token to the given file. Any existing file is replaced.
+	 * The file is removed when the daemon is closed.
+	 *
+	 * @param port
+	 *            port to listen on; zero chooses a free port
+	 * @param tokenFile
+	 *            file for the authentication token; if null, the default
+	 *            token file for the port actually used
+	 *
+	 * @return port actually used
+	 *
+	 * @throws IOException
+	 *             if the socket or the token file cannot be created
+	 */
+	public int bind(int port, File tokenFile) throws IOException {
+
+		ServerSocket server = new ServerSocket(port, 50,
+				InetAddress.getLoopbackAddress());
+		try {
+			if (tokenFile == null) {
+				tokenFile = getDefaultTokenFile(server.getLocalPort());
+			}
+			token = createToken(tokenFile);
+			this.tokenFile = tokenFile;
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+
+		serverSocket = server;
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Returns the file holding the authentication token, or null if the
+	 * daemon is not bound to a port.
+	 *
+	 * @return token file
+	 */
+	public File getTokenFile() {
+		return tokenFile;
+	}
+
+	/**
+	 * Write a new random token to the given file, readable and writable only
+	 * by the owner. The file is created anew so that a file or link planted
+	 * by someone else is never reused.
+	 */
+	private static byte[] createToken(File file) throws IOException {
+
+		byte[] random = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(random);
+		byte[] token = Base64.getUrlEncoder().withoutPadding()
+				.encode(random);
+
+		Path path = file.toPath();
+		Files.deleteIfExists(path);
+		try {
+			Files.createFile(path, PosixFilePermissions
+					.asFileAttribute(PosixFilePermissions
+							.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			Files.createFile(path);
+			file.setReadable(false, false);
+			file.setWritable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(true, true);
+		}
+		Files.write(path, token);
+
+		return token;
+	}
+
+	/**
+	 * Accept and process requests until the daemon is stopped. The daemon
+	 * must have been bound to a port before calling this method.
+	 *
+	 * @throws IOException
+	 *             if the connections can no longer be accepted
+	 */
+	public void serve() throws IOException {
+
+		ServerSocket server = serverSocket;
+		if (server == null) {
+			throw new IllegalStateException("daemon is not bound to a port");
+		}
+
+		while (!server.isClosed()) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch (SocketException e) {
+				// Thrown when the socket is closed to stop the daemon.
+				if (server.isClosed()) {
+					break;
+				}
+				throw e;
+			}
+
+			try {
+				handle(socket);
+			} catch (IOException consumed) {
+				// Problem with this client only; continue with the next one.
+			} finally {
+				socket.close();
+			}
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+
+		socket.setSoTimeout(REQUEST_TIMEOUT);
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), "UTF-8"));
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				socket.getOutputStream(), "UTF-8"));
+
+		// Nothing is done for a client which does not know the token.
+		String secret = in.readLine();
+		if (secret == null
+				|| !MessageDigest.isEqual(token, secret.getBytes("UTF-8"))) {
+			out.println("invalid authentication token");
+			out.println(EXIT_PREFIX + 1);
+			out.flush();
+			return;
+		}
+
+		String command = in.readLine();
+		if (command == null) {
+			return;
+		}
+
+		String[] words = command.trim().split("\\s+");
+
+		int rc;
+		if ("BUILD".equals(words[0])) {
+
+			boolean force = false;
+			boolean verbose = false;
+			for (int i = 1; i < words.length; i++) {
+				if ("force".equals(words[i])) {
+					force = true;
+				} else if ("verbose".equals(words[i])) {
+					verbose = true;
+				}
+			}
+
+			List<File> objectFiles = new LinkedList<File>();
+			String line;
+			while ((line = in.readLine()) != null && !"".equals(line)) {
+				objectFiles.add(new File(line).getAbsoluteFile());
+			}
+
+			rc = process(objectFiles, force, verbose, out);
+
+		} else if ("STOP".equals(words[0])) {
+			out.println("stopping compile daemon");
+			rc = 0;
+			close();
+		} else {
+			out.println("unknown command: " + words[0]);
+			rc = 1;
+		}
+
+		out.println(EXIT_PREFIX + rc);
+		out.flush();
+	}
+
+	/**
+	 * Stop the daemon. Any request being processed is finished first.
+	 */
+	public void close() throws IOException {
+		try {
+			watcher.close();
+		} finally {
+			try {
+				ServerSocket server = serverSocket;
+				if (server != null) {
+					server.close();
+				}
+			} finally {
+				File file = tokenFile;
+				if (file != null) {
+					Files.deleteIfExists(file.toPath());
+				}
+			}
+		}
+	}
+
+	public void fileChanged(File file) {
+		templates.invalidate(file);
+		index.changed(file);
+		if (options.sourceRepository instanceof FileSystemSourceRepository) {
+			((FileSystemSourceRepository) options.sourceRepository)
+					.fileChanged(file);
+		}
+	}
+
+	public void treeChanged(File directory) {
+		index.treeChanged(directory);
+		if (options.sourceRepository instanceof FileSystemSourceRepository) {
+			((FileSystemSourceRepository) options.sourceRepository)
+					.treeChanged(directory);
+		}
+	}
+
+	public void overflow() {
+		templates.clear();
+		index.clear();
+		if (options.sourceRepository instanceof FileSystemSourceRepository) {
+			((FileSystemSourceRepository) options.sourceRepository)
+					.clearCaches();
+		}
+	}
+
+}
@@ -0,0 +1,455 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.daemon;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.quattor.pan.repository.SourceFile;
+import org.quattor.pan.repository.SourceType;
+import org.quattor.pan.tasks.FinalResult;
+import org.quattor.pan.tasks.FinalResultListener;
+
+/**
+ * Keeps the complete list of dependencies (including those of referenced
+ * objects) of each object built successfully by the compile daemon. An object
+ * is current as long as none of its dependencies has changed. A change to a
+ * file removes all of the objects that depend on it from the index, so that
+ * they will be rebuilt by the next compilation.
+ *
+ * The dependencies are matched both by their absolute path and by their
+ * template name. The latter is necessary to detect the creation of a template
+ * that was looked for but not found during the build, or one that hides
+ * another template further on the include path.
+ *
+ * The index is filled through a final result listener (see
+ * <code>getRecorder()</code>) that must be passed to the compiler. All public
+ * methods are synchronized.
+ *
+ * @author loomis
+ *
+ */
+public class DependencyIndex {
+
+	private final List<File> includeDirectories;
+
+	/**
+	 * Current objects indexed by object name.
+	 */
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * Current objects indexed by the absolute path of the object template.
+	 */
+	private final Map<File, Entry> objectFiles = new HashMap<File, Entry>();
+
+	/**
+	 * Names of the objects depending on a given file.
+	 */
+	private final Map<File, Set<String>> byPath = new HashMap<File, Set<String>>();
+
+	/**
+	 * Names of the objects depending on a given template or file name.
+	 */
+	private final Map<String, Set<String>> byName = new HashMap<String, Set<String>>();
+
+	private final FinalResultListener recorder = new Recorder();
+
+	/**
+	 * Flag indicating whether a compilation is being recorded.
+	 */
+	private boolean recording = false;
+
+	/**
+	 * Modification times of the dependencies retrieved during the current
+	 * compilation.
+	 */
+	private final Map<File, Long> recordingTimes = new HashMap<File, Long>();
+
+	/**
+	 * Objects recorded during the current compilation.
+	 */
+	private final List<String> recorded = new LinkedList<String>();
+
+	/**
+	 * Changes seen during the current compilation. These are applied again
+	 * once the compilation is finished, because the changed files may have
+	 * been read before the change.
+	 */
+	private final List<File> pendingChanges = new LinkedList<File>();
+
+	private final List<File> pendingTreeChanges = new LinkedList<File>();
+
+	public DependencyIndex(List<File> includeDirectories) {
+		this.includeDirectories = new ArrayList<File>(includeDirectories);
+	}
+
+	/**
+	 * Returns the listener which records the dependencies of each object
+	 * built during a compilation.
+	 *
+	 * @return dependency recording listener
+	 */
+	public FinalResultListener getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Start recording the dependencies of a new compilation.
+	 */
+	synchronized public void startRecording() {
+		recording = true;
+		recordingTimes.clear();
+		recorded.clear();
+		pendingChanges.clear();
+		pendingTreeChanges.clear();
+	}
+
+	/**
+	 * Stop recording the dependencies. If the compilation was not successful,
+	 * the objects recorded during it are removed again; some of their output
+	 * files may not have been written. The changes signaled during the
+	 * compilation are applied again to the recorded objects.
+	 *
+	 * @param successful
+	 *            whether the compilation finished without errors
+	 */
+	synchronized public void stopRecording(boolean successful) {
+
+		if (!successful) {
+			for (String objectName : recorded) {
+				remove(objectName);
+			}
+		}
+
+		for (File file : pendingChanges) {
+			invalidate(file);
+		}
+		for (File directory : pendingTreeChanges) {
+			invalidateTree(directory);
+		}
+
+		recording = false;
+		recordingTimes.clear();
+		recorded.clear();
+		pendingChanges.clear();
+		pendingTreeChanges.clear();
+	}
+
+	/**
+	 * Record the dependencies of the given object.
+	 *
+	 * @param objectName
+	 *            name of the object
+	 * @param dependencies
+	 *            all of the dependencies of the object, including those of the
+	 *            objects it references
+	 */
+	synchronized public void record(String objectName,
+			Set<SourceFile> dependencies) {
+
+		// Results arriving outside of a recording cannot be trusted.
+		if (!recording) {
+			return;
+		}
+
+		remove(objectName);
+
+		Entry entry = new Entry(objectName);
+		for (SourceFile source : dependencies) {
+
+			File path = source.getPath();
+			if (path != null) {
+				entry.paths.put(path, modificationTime(path, recordingTimes));
+				add(byPath, path, objectName);
+				if (source.getName().equals(objectName)
+						&& source.getType() != SourceType.TEXT) {
+					entry.objectFile = path;
+				}
+			}
+
+			entry.names.add(source.getName());
+			add(byName, source.getName(), objectName);
+		}
+
+		entries.put(objectName, entry);
+		if (entry.objectFile != null) {
+			objectFiles.put(entry.objectFile, entry);
+		}
+		recorded.add(objectName);
+	}
+
+	/**
+	 * Returns the name of the object built from the given object template, if
+	 * the object is current.
+	 *
+	 * @param objectFile
+	 *            absolute path of the object template
+	 *
+	 * @return object name or null if the object must be rebuilt
+	 */
+	synchronized public String getCurrentObject(File objectFile) {
+		Entry entry = objectFiles.get(objectFile);
+		return (entry != null) ? entry.objectName : null;
+	}
+
+	/**
+	 * Verify that none of the dependency files of the named object has been
+	 * modified or removed since the object was built. This is a fallback for
+	 * changes that have not been signaled through <code>changed()</code>. The
+	 * modification times are looked up through the given map so that they are
+	 * only retrieved once per file.
+	 *
+	 * @param objectName
+	 *            name of the object to check
+	 * @param modificationTimes
+	 *            modification times retrieved so far
+	 *
+	 * @return true if the object is still current
+	 */
+	synchronized public boolean checkModificationTimes(String objectName,
+			Map<File, Long> modificationTimes) {
+
+		Entry entry = entries.get(objectName);
+		if (entry == null) {
+			return false;
+		}
+
+		for (Map.Entry<File, Long> dependency : entry.paths.entrySet()) {
+			long t = modificationTime(dependency.getKey(), modificationTimes);
+
+			// A zero value means that the file no longer exists.
+			if (t == 0L || t != dependency.getValue()) {
+				remove(objectName);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long modificationTime(File path, Map<File, Long> times) {
+		Long t = times.get(path);
+		if (t == null) {
+			t = path.lastModified();
+			times.put(path, t);
+		}
+		return t;
+	}
+
+	/**
+	 * Signal that the given file has been created, modified, or deleted.
+	 *
+	 * @param file
+	 *            absolute path of the changed file
+	 */
+	synchronized public void changed(File file) {
+		if (recording) {
+			pendingChanges.add(file);
+		}
+		invalidate(file);
+	}
+
+	/**
+	 * Signal that the given directory and everything below it may have
+	 * changed (e.g. when a directory is created or removed).
+	 *
+	 * @param directory
+	 *            absolute path of the changed directory
+	 */
+	synchronized public void treeChanged(File directory) {
+		if (recording) {
+			pendingTreeChanges.add(directory);
+		}
+		invalidateTree(directory);
+	}
+
+	/**
+	 * Remove all of the objects from the index.
+	 */
+	synchronized public void clear() {
+		entries.clear();
+		objectFiles.clear();
+		byPath.clear();
+		byName.clear();
+	}
+
+	/**
+	 * Returns the number of current objects.
+	 *
+	 * @return number of objects in the index
+	 */
+	synchronized public int size() {
+		return entries.size();
+	}
+
+	private void invalidateTree(File directory) {
+
+		String prefix = directory.getPath() + File.separator;
+
+		for (File path : new ArrayList<File>(byPath.keySet())) {
+			if (path.getPath().startsWith(prefix)) {
+				removeAll(byPath.get(path));
+			}
+		}
+
+		// Changes to directories are rare, so simply check all of the
+		// template names against the relative path of the directory.
+		List<String> relatives = relativeNames(directory);
+		for (String name : new ArrayList<String>(byName.keySet())) {
+			for (String relative : relatives) {
+				if (name.startsWith(relative + "/")
+						|| relative.endsWith("/" + name)
+						|| relative.equals(name)) {
+					removeAll(byName.get(name));
+					break;
+				}
+			}
+		}
+	}
+
+	private void invalidate(File file) {
+
+		removeAll(byPath.get(file));
+
+		// The name of the dependency may lack a leading part of the relative
+		// path (e.g. when found via the load path), so check all suffixes.
+		for (String relative : relativeNames(file)) {
+			String name = relative;
+			while (true) {
+				removeAll(byName.get(name));
+				int index = name.indexOf('/');
+				if (index < 0) {
+					break;
+				}
+				name = name.substring(index + 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the relative names of the given file with respect to each of
+	 * the include directories containing it. For pan source files, the name
+	 * without the extension is also included.
+	 */
+	private List<String> relativeNames(File file) {
+
+		List<String> names = new LinkedList<String>();
+
+		String path = file.getPath();
+		for (File d : includeDirectories) {
+			String prefix = d.getPath() + File.separator;
+			if (path.startsWith(prefix)) {
+				String relative = path.substring(prefix.length()).replace(
+						File.separatorChar, '/');
+				names.add(relative);
+				for (String extension : SourceType.getExtensions()) {
+					if (relative.endsWith(extension)) {
+						names.add(relative.substring(0, relative.length()
+								- extension.length()));
+					}
+				}
+			}
+		}
+
+		return names;
+	}
+
+	private void removeAll(Set<String> objectNames) {
+		if (objectNames != null) {
+			for (String objectName : new ArrayList<String>(objectNames)) {
+				remove(objectName);
+			}
+		}
+	}
+
+	private void remove(String objectName) {
+
+		Entry entry = entries.remove(objectName);
+		if (entry == null) {
+			return;
+		}
+
+		if (entry.objectFile != null) {
+			objectFiles.remove(entry.objectFile);
+		}
+		for (File path : entry.paths.keySet()) {
+			delete(byPath, path, objectName);
+		}
+		for (String name : entry.names) {
+			delete(byName, name, objectName);
+		}
+	}
+
+	private static <K> void add(Map<K, Set<String>> map, K key,
+			String objectName) {
+		Set<String> names = map.get(key);
+		if (names == null) {
+			names = new HashSet<String>();
+			map.put(key, names);
+		}
+		names.add(objectName);
+	}
+
+	private static <K> void delete(Map<K, Set<String>> map, K key,
+			String objectName) {
+		Set<String> names = map.get(key);
+		if (names != null) {
+			names.remove(objectName);
+			if (names.isEmpty()) {
+				map.remove(key);
+			}
+		}
+	}
+
+	private static class Entry {
+
+		public final String objectName;
+
+		public File objectFile = null;
+
+		/**
+		 * Modification time of each dependency file when the object was
+		 * recorded.
+		 */
+		public final Map<File, Long> paths = new HashMap<File, Long>();
+
+		public final Set<String> names = new HashSet<String>();
+
+		public Entry(String objectName) {
+			this.objectName = objectName;
+		}
+	}
+
+	/**
+	 * Listener that records the dependencies of each object once its final
+	 * result is available.
+	 */
+	private class Recorder implements FinalResultListener {
+
+		public void resultAvailable(FinalResult result) {
+			record(result.objectName, result.getDependencies());
+		}
+	}
+
+}
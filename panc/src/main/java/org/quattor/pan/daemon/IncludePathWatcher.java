@@ -0,0 +1,276 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.daemon;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the include directories (recursively) for changes and signals them
+ * to a listener. Directories created after the watcher has started are
+ * watched as well.
+ *
+ * The events are normally processed by a background thread running this
+ * object. Pending events can also be processed synchronously with
+ * <code>processPendingEvents()</code>; this is done before each compilation
+ * so that the changes made just before a request are taken into account.
+ * The watch service may deliver the events with some delay, so a fence file
+ * is created in a private directory registered with the same service and
+ * the events are processed until the creation of the fence has been seen.
+ * Events for the earlier changes will have been delivered by then. The
+ * background thread only takes events from the service while holding the
+ * lock of the watcher, so that none of them can still be waiting to be
+ * processed once the fence has been seen.
+ *
+ * @author loomis
+ *
+ */
+public class IncludePathWatcher implements Runnable, Closeable {
+
+	/**
+	 * Receives the changes detected by the watcher.
+	 */
+	public interface Listener {
+
+		/**
+		 * The given file has been created, modified, or deleted.
+		 */
+		public void fileChanged(File file);
+
+		/**
+		 * The given directory and its contents have been created or deleted.
+		 */
+		public void treeChanged(File directory);
+
+		/**
+		 * Events have been lost; anything may have changed.
+		 */
+		public void overflow();
+
+	}
+
+	private final WatchService watchService;
+
+	private final Listener listener;
+
+	/**
+	 * Watched directories indexed by their watch keys.
+	 */
+	private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+	/**
+	 * Watch keys indexed by the watched directories.
+	 */
+	private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+
+	/**
+	 * Maximum time in milliseconds to wait for a fence to be seen.
+	 */
+	private static final long FENCE_TIMEOUT = 2000L;
+
+	/**
+	 * Interval in milliseconds at which the background thread checks for
+	 * events.
+	 */
+	private static final long POLL_INTERVAL = 100L;
+
+	/**
+	 * Private directory for the fence files and its watch key.
+	 */
+	private final Path fenceDirectory;
+
+	private final WatchKey fenceKey;
+
+	/**
+	 * Names of the fence files whose creation has been seen.
+	 */
+	private final Set<String> fencesSeen = new HashSet<String>();
+
+	private long fenceCount = 0L;
+
+	public IncludePathWatcher(List<File> includeDirectories, Listener listener)
+			throws IOException {
+
+		this.listener = listener;
+		watchService = FileSystems.getDefault().newWatchService();
+
+		fenceDirectory = Files.createTempDirectory("panc-daemon");
+		fenceKey = fenceDirectory.register(watchService, ENTRY_CREATE);
+
+		for (File d : includeDirectories) {
+			registerTree(d.toPath());
+		}
+	}
+
+	/**
+	 * Process the events until the watcher is closed.
+	 */
+	synchronized public void run() {
+		try {
+			while (true) {
+				WatchKey key;
+				while ((key = watchService.poll()) != null) {
+					processKey(key);
+				}
+				wait(POLL_INTERVAL);
+			}
+		} catch (ClosedWatchServiceException consumed) {
+		} catch (InterruptedException consumed) {
+		}
+	}
+
+	/**
+	 * Process all of the events for changes made before this method was
+	 * called. If the fence is not seen within a reasonable time (e.g. with a
+	 * polling watch service), only the events queued so far are processed.
+	 */
+	synchronized public void processPendingEvents() {
+
+		fencesSeen.clear();
+
+		String fence = "fence-" + (fenceCount++);
+		Path fenceFile = fenceDirectory.resolve(fence);
+		boolean fenced = true;
+		try {
+			Files.createFile(fenceFile);
+		} catch (IOException e) {
+			fenced = false;
+		}
+
+		try {
+			long deadline = System.currentTimeMillis() + FENCE_TIMEOUT;
+			while (true) {
+
+				WatchKey key;
+				while ((key = watchService.poll()) != null) {
+					processKey(key);
+				}
+
+				long remaining = deadline - System.currentTimeMillis();
+				if (!fenced || fencesSeen.contains(fence) || remaining <= 0) {
+					break;
+				}
+
+				// The background thread may take the key of the fence
+				// directory while this thread waits; it signals the fence.
+				wait(Math.min(remaining, 10L));
+			}
+		} catch (ClosedWatchServiceException consumed) {
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				Files.deleteIfExists(fenceFile);
+			} catch (IOException consumed) {
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			watchService.close();
+		} finally {
+			Files.deleteIfExists(fenceDirectory);
+		}
+	}
+
+	private void processKey(WatchKey key) {
+
+		if (key == fenceKey) {
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == ENTRY_CREATE) {
+					fencesSeen.add(event.context().toString());
+				}
+			}
+			key.reset();
+			notifyAll();
+			return;
+		}
+
+		Path dir = directories.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+
+			if (event.kind() == OVERFLOW || dir == null) {
+				listener.overflow();
+				continue;
+			}
+
+			Path child = dir.resolve((Path) event.context());
+
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+				try {
+					registerTree(child);
+				} catch (IOException consumed) {
+					// The directory may already be gone again.
+				}
+				listener.treeChanged(child.toFile());
+			} else if (event.kind() == ENTRY_DELETE
+					&& keys.containsKey(child)) {
+				listener.treeChanged(child.toFile());
+			} else {
+				listener.fileChanged(child.toFile());
+			}
+		}
+
+		// Stop tracking directories that can no longer be watched (e.g.
+		// because they have been deleted).
+		if (!key.reset()) {
+			Path removed = directories.remove(key);
+			if (removed != null) {
+				keys.remove(removed);
+			}
+		}
+	}
+
+	private void registerTree(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, ENTRY_CREATE,
+						ENTRY_DELETE, ENTRY_MODIFY);
+				directories.put(key, dir);
+				keys.put(dir, key);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.dml;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.quattor.pan.dml.data.BooleanProperty;
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.Property;
+import org.quattor.pan.dml.data.Undef;
+import org.quattor.pan.dml.functions.Base64Decode;
+import org.quattor.pan.dml.functions.Base64Encode;
+import org.quattor.pan.dml.functions.Clone;
+import org.quattor.pan.dml.functions.Digest;
+import org.quattor.pan.dml.functions.Escape;
+import org.quattor.pan.dml.functions.Format;
+import org.quattor.pan.dml.functions.Hash;
+import org.quattor.pan.dml.functions.Index;
+import org.quattor.pan.dml.functions.IpToLong;
+import org.quattor.pan.dml.functions.IsValueOfType;
+import org.quattor.pan.dml.functions.Join;
+import org.quattor.pan.dml.functions.JsonDecode;
+import org.quattor.pan.dml.functions.JsonEncode;
+import org.quattor.pan.dml.functions.Key;
+import org.quattor.pan.dml.functions.Length;
+import org.quattor.pan.dml.functions.List;
+import org.quattor.pan.dml.functions.LongToIp;
+import org.quattor.pan.dml.functions.Match;
+import org.quattor.pan.dml.functions.Matches;
+import org.quattor.pan.dml.functions.Max;
+import org.quattor.pan.dml.functions.Merge;
+import org.quattor.pan.dml.functions.Min;
+import org.quattor.pan.dml.functions.Replace;
+import org.quattor.pan.dml.functions.Splice;
+import org.quattor.pan.dml.functions.Split;
+import org.quattor.pan.dml.functions.StaticMatch;
+import org.quattor.pan.dml.functions.StaticMatches;
+import org.quattor.pan.dml.functions.Substr;
+import org.quattor.pan.dml.functions.ToBoolean;
+import org.quattor.pan.dml.functions.ToDouble;
+import org.quattor.pan.dml.functions.ToLong;
+import org.quattor.pan.dml.functions.ToLongRadix;
+import org.quattor.pan.dml.functions.ToLowerCase;
+import org.quattor.pan.dml.functions.ToString;
+import org.quattor.pan.dml.functions.ToUpperCase;
+import org.quattor.pan.dml.functions.Unescape;
+import org.quattor.pan.dml.operators.Add;
+import org.quattor.pan.dml.operators.BitAnd;
+import org.quattor.pan.dml.operators.BitIOR;
+import org.quattor.pan.dml.operators.BitNot;
+import org.quattor.pan.dml.operators.BitXOR;
+import org.quattor.pan.dml.operators.Div;
+import org.quattor.pan.dml.operators.IfElse;
+import org.quattor.pan.dml.operators.LogicalAnd;
+import org.quattor.pan.dml.operators.LogicalEQ;
+import org.quattor.pan.dml.operators.LogicalGE;
+import org.quattor.pan.dml.operators.LogicalGT;
+import org.quattor.pan.dml.operators.LogicalLE;
+import org.quattor.pan.dml.operators.LogicalLT;
+import org.quattor.pan.dml.operators.LogicalNE;
+import org.quattor.pan.dml.operators.LogicalNot;
+import org.quattor.pan.dml.operators.LogicalOr;
+import org.quattor.pan.dml.operators.Mod;
+import org.quattor.pan.dml.operators.Mult;
+import org.quattor.pan.dml.operators.Sub;
+import org.quattor.pan.dml.operators.UnaryMinus;
+import org.quattor.pan.dml.operators.UnaryPlus;
+import org.quattor.pan.exceptions.EvaluationException;
+import org.quattor.pan.ttemplate.CompileTimeContext;
+import org.quattor.pan.ttemplate.Context;
+
+/**
+ * Simplifies a DML block after it has been created from the syntax tree. The
+ * factories of the individual operators already fold operations whose
+ * arguments are literal values; this pass goes further:
+ * <ul>
+ * <li>Operators and side-effect free built-in functions whose arguments are
+ * all constant are evaluated in a compile-time context and replaced by the
+ * result (e.g. <code>length(list(1, 2, 3))</code>). Only properties replace
+ * operations; a resource in the DML block would be shared by all executions.
+ * </li>
+ * <li>If-else operations with a constant boolean condition are replaced by
+ * the branch that is taken.</li>
+ * <li>Logical and/or operations whose first argument decides the result are
+ * replaced by that result.</li>
+ * </ul>
+ * An evaluation that fails is left for the run time, so that the error only
+ * appears if the operation is actually executed.
+ *
+ * The operations of the block are modified in place. This must only be done
+ * before the block is used.
+ *
+ * @author loomis
+ *
+ */
+public class ConstantFolder {
+
+	private static final Set<Class<?>> foldableOperations = new HashSet<Class<?>>(
+			Arrays.<Class<?>> asList(DML.class, Add.class, Sub.class,
+					Mult.class, Div.class, Mod.class, UnaryMinus.class,
+					UnaryPlus.class, BitAnd.class, BitIOR.class,
+					BitXOR.class, BitNot.class, LogicalAnd.class,
+					LogicalOr.class, LogicalNot.class, LogicalEQ.class,
+					LogicalNE.class, LogicalGT.class, LogicalGE.class,
+					LogicalLT.class, LogicalLE.class, Base64Decode.class,
+					Base64Encode.class, Clone.class, Digest.class,
+					Escape.class, Unescape.class, Format.class, Hash.class,
+					Index.class, IpToLong.class, LongToIp.class,
+					IsValueOfType.class, Join.class, JsonDecode.class,
+					JsonEncode.class, Key.class, Length.class, List.class,
+					Match.class, Matches.class, StaticMatch.class,
+					StaticMatches.class, Max.class, Min.class, Merge.class,
+					Replace.class, Splice.class, Split.class, Substr.class,
+					ToBoolean.class, ToDouble.class, ToLong.class,
+					ToLongRadix.class, ToLowerCase.class, ToString.class,
+					ToUpperCase.class));
+
+	private Context context = null;
+
+	private ConstantFolder() {
+	}
+
+	/**
+	 * Fold the constant operations within the given DML block.
+	 *
+	 * @param dml
+	 *            DML block to simplify
+	 *
+	 * @return simplified DML block; this may be the given block or a constant
+	 *         element
+	 */
+	public static Operation fold(Operation dml) {
+		return new ConstantFolder().foldOperation(dml);
+	}
+
+	private Operation foldOperation(Operation op) {
+
+		if (!(op instanceof AbstractOperation)) {
+			return op;
+		}
+
+		Operation[] ops = ((AbstractOperation) op).ops;
+		for (int i = 0; i < ops.length; i++) {
+			ops[i] = foldOperation(ops[i]);
+		}
+
+		if (op instanceof IfElse) {
+			return pruneIfElse((IfElse) op, ops);
+		}
+
+		// Short-circuit cases which need only the first argument. The type
+		// of the second argument is not checked at run time either.
+		if (op instanceof LogicalAnd
+				&& BooleanProperty.FALSE.equals(ops[0])) {
+			return BooleanProperty.FALSE;
+		} else if (op instanceof LogicalOr
+				&& BooleanProperty.TRUE.equals(ops[0])) {
+			return BooleanProperty.TRUE;
+		}
+
+		if (isConstant(op)) {
+			Element result = evaluate(op);
+			if (result instanceof Property) {
+				return result;
+			}
+		}
+
+		return op;
+	}
+
+	private static Operation pruneIfElse(IfElse op, Operation[] ops) {
+
+		if (ops[0] instanceof BooleanProperty) {
+			if (((BooleanProperty) ops[0]).getValue().booleanValue()) {
+				return ops[1];
+			} else if (ops.length == 3) {
+				return ops[2];
+			} else {
+				return Undef.VALUE;
+			}
+		}
+
+		return op;
+	}
+
+	/**
+	 * An operation is constant if it is an element or a foldable operation
+	 * with constant arguments. A constant operation that produces a resource
+	 * remains in the DML block, but can still be part of a larger constant
+	 * expression.
+	 */
+	private static boolean isConstant(Operation op) {
+
+		if (op instanceof Element) {
+			return true;
+		} else if (!foldableOperations.contains(op.getClass())) {
+			return false;
+		}
+
+		for (Operation child : ((AbstractOperation) op).ops) {
+			if (!isConstant(child)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Element evaluate(Operation op) {
+
+		if (context == null) {
+			context = new CompileTimeContext();
+		}
+
+		try {
+			return op.execute(context);
+		} catch (EvaluationException consumed) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,280 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.dml;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.functions.Append;
+import org.quattor.pan.dml.functions.Base64Decode;
+import org.quattor.pan.dml.functions.Base64Encode;
+import org.quattor.pan.dml.functions.Clone;
+import org.quattor.pan.dml.functions.DebugSuppressed;
+import org.quattor.pan.dml.functions.Delete;
+import org.quattor.pan.dml.functions.Digest;
+import org.quattor.pan.dml.functions.Escape;
+import org.quattor.pan.dml.functions.Format;
+import org.quattor.pan.dml.functions.Hash;
+import org.quattor.pan.dml.functions.Index;
+import org.quattor.pan.dml.functions.IpToLong;
+import org.quattor.pan.dml.functions.IsValueOfType;
+import org.quattor.pan.dml.functions.IsVariableOfType;
+import org.quattor.pan.dml.functions.Join;
+import org.quattor.pan.dml.functions.JsonDecode;
+import org.quattor.pan.dml.functions.JsonEncode;
+import org.quattor.pan.dml.functions.Key;
+import org.quattor.pan.dml.functions.Length;
+import org.quattor.pan.dml.functions.List;
+import org.quattor.pan.dml.functions.LongToIp;
+import org.quattor.pan.dml.functions.Match;
+import org.quattor.pan.dml.functions.Matches;
+import org.quattor.pan.dml.functions.Max;
+import org.quattor.pan.dml.functions.Merge;
+import org.quattor.pan.dml.functions.Min;
+import org.quattor.pan.dml.functions.Prepend;
+import org.quattor.pan.dml.functions.Replace;
+import org.quattor.pan.dml.functions.Return;
+import org.quattor.pan.dml.functions.Splice;
+import org.quattor.pan.dml.functions.Split;
+import org.quattor.pan.dml.functions.StaticMatch;
+import org.quattor.pan.dml.functions.StaticMatches;
+import org.quattor.pan.dml.functions.Substr;
+import org.quattor.pan.dml.functions.ToBoolean;
+import org.quattor.pan.dml.functions.ToDouble;
+import org.quattor.pan.dml.functions.ToLong;
+import org.quattor.pan.dml.functions.ToLongRadix;
+import org.quattor.pan.dml.functions.ToLowerCase;
+import org.quattor.pan.dml.functions.ToString;
+import org.quattor.pan.dml.functions.ToUpperCase;
+import org.quattor.pan.dml.functions.TracebackSuppressed;
+import org.quattor.pan.dml.functions.Unescape;
+import org.quattor.pan.dml.functions.VariableExists;
+import org.quattor.pan.dml.operators.Add;
+import org.quattor.pan.dml.operators.Assign;
+import org.quattor.pan.dml.operators.BitAnd;
+import org.quattor.pan.dml.operators.BitIOR;
+import org.quattor.pan.dml.operators.BitNot;
+import org.quattor.pan.dml.operators.BitXOR;
+import org.quattor.pan.dml.operators.Div;
+import org.quattor.pan.dml.operators.For;
+import org.quattor.pan.dml.operators.Foreach;
+import org.quattor.pan.dml.operators.IfElse;
+import org.quattor.pan.dml.operators.ListVariable;
+import org.quattor.pan.dml.operators.LogicalAnd;
+import org.quattor.pan.dml.operators.LogicalEQ;
+import org.quattor.pan.dml.operators.LogicalGE;
+import org.quattor.pan.dml.operators.LogicalGT;
+import org.quattor.pan.dml.operators.LogicalLE;
+import org.quattor.pan.dml.operators.LogicalLT;
+import org.quattor.pan.dml.operators.LogicalNE;
+import org.quattor.pan.dml.operators.LogicalNot;
+import org.quattor.pan.dml.operators.LogicalOr;
+import org.quattor.pan.dml.operators.Mod;
+import org.quattor.pan.dml.operators.Mult;
+import org.quattor.pan.dml.operators.NestedListVariable;
+import org.quattor.pan.dml.operators.NestedVariable;
+import org.quattor.pan.dml.operators.SetValue;
+import org.quattor.pan.dml.operators.SimpleListVariable;
+import org.quattor.pan.dml.operators.SimpleVariable;
+import org.quattor.pan.dml.operators.Sub;
+import org.quattor.pan.dml.operators.UnaryMinus;
+import org.quattor.pan.dml.operators.UnaryPlus;
+import org.quattor.pan.dml.operators.Variable;
+import org.quattor.pan.dml.operators.While;
+
+/**
+ * Determines whether the body of a user-defined function is pure, that is
+ * whether the result of a call depends only on the arguments and the call has
+ * no visible side effects. The result of such a function can be reused for
+ * later calls with the same arguments, even from other objects.
+ *
+ * The analysis is conservative. A body is pure only if
+ * <ul>
+ * <li>every operation in it is one of a fixed set of operators and built-in
+ * functions which neither read the context nor produce output; anything else
+ * (SELF, <code>value()</code>, <code>exists()</code> on a path,
+ * <code>is_valid()</code>, <code>error()</code>, calls to other user-defined
+ * functions, and any built-in function not listed here) makes the body
+ * impure, and</li>
+ * <li>every variable other than ARGV and ARGC is assigned before it is read on
+ * every path through the body. A local variable which has not been set falls
+ * back to the global variable of the same name, so a variable assigned only
+ * in one branch of an <code>if</code>, in a loop body, or in the right operand
+ * of <code>&amp;&amp;</code> or <code>||</code> may be read from the object.</li>
+ * </ul>
+ *
+ * @author loomis
+ *
+ */
+public class FunctionPurity {
+
+	private static final Set<Class<?>> pureOperations = new HashSet<Class<?>>(
+			Arrays.<Class<?>> asList(DML.class, Assign.class, SetValue.class,
+					SimpleVariable.class, NestedVariable.class,
+					SimpleListVariable.class, NestedListVariable.class,
+					IfElse.class, For.class, Foreach.class, While.class,
+					Add.class, Sub.class, Mult.class, Div.class, Mod.class,
+					UnaryMinus.class, UnaryPlus.class, BitAnd.class,
+					BitIOR.class, BitXOR.class, BitNot.class,
+					LogicalAnd.class, LogicalOr.class, LogicalNot.class,
+					LogicalEQ.class, LogicalNE.class, LogicalGE.class,
+					LogicalGT.class, LogicalLE.class, LogicalLT.class,
+					Append.class, Base64Decode.class, Base64Encode.class,
+					Clone.class, DebugSuppressed.class, Delete.class,
+					Digest.class, Escape.class, Format.class, Hash.class,
+					Index.class, IpToLong.class, IsValueOfType.class,
+					IsVariableOfType.class, Join.class, JsonDecode.class,
+					JsonEncode.class, Key.class, Length.class, List.class,
+					LongToIp.class, Match.class, Matches.class, Max.class,
+					Merge.class, Min.class, Prepend.class, Replace.class,
+					Return.class, Splice.class, Split.class,
+					StaticMatch.class, StaticMatches.class, Substr.class,
+					ToBoolean.class, ToDouble.class, ToLong.class,
+					ToLongRadix.class, ToLowerCase.class, ToString.class,
+					ToUpperCase.class, TracebackSuppressed.class,
+					Unescape.class, VariableExists.class));
+
+	private FunctionPurity() {
+	}
+
+	/**
+	 * Determine if the given function body is pure.
+	 *
+	 * @param body
+	 *            DML block of the function
+	 *
+	 * @return true if the results of the function can be reused
+	 */
+	public static boolean isPure(Operation body) {
+
+		Set<String> assigned = new HashSet<String>();
+		assigned.add("ARGV");
+		assigned.add("ARGC");
+
+		return scan(body, assigned);
+	}
+
+	/**
+	 * Check the given operation in execution order. On entry, the set contains
+	 * the variables assigned on every path reaching the operation; on return,
+	 * those assigned on every path leaving it.
+	 */
+	private static boolean scan(Operation op, Set<String> assigned) {
+
+		// Constants neither read nor modify anything.
+		if (op instanceof Element) {
+			return true;
+		}
+
+		if (!pureOperations.contains(op.getClass())) {
+			return false;
+		}
+
+		Operation[] ops = ((AbstractOperation) op).getOperations();
+
+		if (op instanceof Variable) {
+			return scanAll(ops, assigned)
+					&& assigned.contains(((Variable) op).getIdentifier());
+
+		} else if (op instanceof SetValue) {
+			// A nested assignment only looks at the local variable, so the
+			// variable need not have been assigned before.
+			if (!scanAll(ops, assigned)) {
+				return false;
+			}
+			assigned.add(((SetValue) op).getIdentifier());
+			return true;
+
+		} else if (op instanceof ListVariable) {
+			// Like a nested assignment, this only looks at the local variable.
+			if (!scanAll(ops, assigned)) {
+				return false;
+			}
+			assigned.add(((ListVariable) op).getIdentifier());
+			return true;
+
+		} else if (op instanceof Delete) {
+			// Deleting a whole variable removes the local value, so later
+			// reads may find the global variable.
+			SetValue target = (SetValue) ops[0];
+			if (!scan(target, assigned)) {
+				return false;
+			}
+			if (target.getOperations().length == 0) {
+				assigned.remove(target.getIdentifier());
+			}
+			return true;
+
+		} else if (op instanceof IfElse) {
+			if (!scan(ops[0], assigned)) {
+				return false;
+			}
+			Set<String> thenAssigned = new HashSet<String>(assigned);
+			if (!scan(ops[1], thenAssigned)) {
+				return false;
+			}
+			if (ops.length > 2) {
+				Set<String> elseAssigned = new HashSet<String>(assigned);
+				if (!scan(ops[2], elseAssigned)) {
+					return false;
+				}
+				thenAssigned.retainAll(elseAssigned);
+				assigned.addAll(thenAssigned);
+			}
+			return true;
+
+		} else if (op instanceof LogicalAnd || op instanceof LogicalOr) {
+			// The right operand is not always evaluated.
+			return scan(ops[0], assigned)
+					&& scan(ops[1], new HashSet<String>(assigned));
+
+		} else if (op instanceof While) {
+			return scan(ops[0], assigned)
+					&& scan(ops[1], new HashSet<String>(assigned));
+
+		} else if (op instanceof For) {
+			if (!(scan(ops[0], assigned) && scan(ops[1], assigned))) {
+				return false;
+			}
+			Set<String> bodyAssigned = new HashSet<String>(assigned);
+			return scan(ops[3], bodyAssigned) && scan(ops[2], bodyAssigned);
+
+		} else if (op instanceof Foreach) {
+			// The resource is evaluated first; the key and value variables are
+			// then always set, even if the body never runs.
+			return scan(ops[2], assigned) && scan(ops[0], assigned)
+					&& scan(ops[1], assigned)
+					&& scan(ops[3], new HashSet<String>(assigned));
+
+		} else {
+			return scanAll(ops, assigned);
+		}
+	}
+
+	private static boolean scanAll(Operation[] ops, Set<String> assigned) {
+		for (Operation op : ops) {
+			if (!scan(op, assigned)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -20,6 +20,8 @@
 
 package org.quattor.pan.dml;
 
+import java.io.Serializable;
+
 import clojure.lang.IFn;
 import clojure.lang.IObj;
 import org.quattor.pan.dml.data.Element;
@@ -29,12 +31,13 @@ import org.quattor.pan.ttemplate.Context;
 
 /**
  * All DML (data manipulation language) components implement this interface and
- * act as operators.
+ * act as operators. Operations are serializable so that compiled templates
+ * can be kept in the persistent compile cache.
  *
  * @author loomis
  *
  */
-public interface Operation extends IFn, IObj {
+public interface Operation extends IFn, IObj, Serializable {
 
 	/**
 	 * Execute this operation within the given context. If an error occurs, an
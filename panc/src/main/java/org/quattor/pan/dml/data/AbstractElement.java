@@ -30,8 +30,6 @@ import org.quattor.pan.utils.MessageUtils;
 import org.quattor.pan.utils.Range;
 import org.quattor.pan.utils.Term;
 
-import java.util.concurrent.atomic.AtomicReference;
-
 import static org.quattor.pan.utils.MessageUtils.MSG_CANNOT_ADD_CHILD;
 import static org.quattor.pan.utils.MessageUtils.MSG_ILLEGAL_DEREFERENCE;
 import static org.quattor.pan.utils.MessageUtils.MSG_INVALID_RANGE_CHECK;
@@ -48,15 +46,17 @@ import static org.quattor.pan.utils.MessageUtils.MSG_OPERATION_WITHOUT_CONTEXT;
  */
 abstract public class AbstractElement extends AFn implements Element {
 
-    private final AtomicReference<IPersistentMap> metadataRef = new AtomicReference<IPersistentMap>();
+    // A plain volatile field rather than an AtomicReference: there are
+    // millions of elements in a large build and the metadata is rarely set.
+    private volatile IPersistentMap metadata;
 
     @Override
     public IPersistentMap meta() {
-        return metadataRef.get();
+        return metadata;
     }
 
     public IObj withMeta(IPersistentMap iPersistentMap) {
-        metadataRef.set(iPersistentMap);
+        metadata = iPersistentMap;
         return this;
     }
 
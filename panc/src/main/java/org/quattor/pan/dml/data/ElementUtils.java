@@ -35,10 +35,11 @@ public class ElementUtils {
         if (e instanceof Resource) {
             // recursively check all of the resources children
             Resource r = (Resource) e;
-            for (Resource.Entry entry : r) {
-                String rpath = locateUndefinedElement(entry.getValue());
-                String term = entry.getKey().toString();
+            Resource.Cursor cursor = r.readCursor();
+            while (cursor.next()) {
+                String rpath = locateUndefinedElement(cursor.getValue());
                 if (rpath != null) {
+                    String term = cursor.getName();
                     return (!"".equals(rpath)) ? term + "/" + rpath : term;
                 }
             }
@@ -24,8 +24,11 @@ import static org.quattor.pan.utils.MessageUtils.MSG_CONCURRENT_MODIFICATION;
 import static org.quattor.pan.utils.MessageUtils.MSG_HASH_SIZE_OUTSIDE_RANGE;
 import static org.quattor.pan.utils.MessageUtils.MSG_INVALID_REPLACEMENT;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -38,6 +41,8 @@ import org.quattor.pan.utils.Range;
 import org.quattor.pan.utils.Term;
 import org.quattor.pan.utils.TermFactory;
 
+import clojure.lang.PersistentTreeMap;
+
 /**
  * Represents an dict (nlist or hash) that associates a string value (key) to
  * another element. The key must be a string the is a valid term in a pan path.
@@ -47,10 +52,55 @@ import org.quattor.pan.utils.TermFactory;
  */
 public class HashResource extends Resource {
 
+	/**
+	 * Mutable backing map. Small dicts start with a sorted array map, which
+	 * is replaced by a tree map once it is full. Both iterate in key order.
+	 */
 	private Map<String, Element> map;
 
+	/**
+	 * Persistent backing map, used instead of the mutable map when persistent
+	 * backing was selected on creation. The map is sorted so that iteration
+	 * order is the same for both types of backing.
+	 */
+	private PersistentTreeMap pmap;
+
+	/**
+	 * Keys of the children that have been lent, with persistent backing. This
+	 * is created when the first child is lent. Keys are only dropped when the
+	 * map is shared and the child is found to be no longer lent.
+	 */
+	private transient Set<String> lentKeys;
+
 	public HashResource() {
-		map = new TreeMap<String, Element>();
+		this(false);
+	}
+
+	/**
+	 * Create an empty dict with the given type of backing.
+	 * 
+	 * @param persistent
+	 *            true to use a persistent backing map
+	 */
+	public HashResource(boolean persistent) {
+		if (persistent) {
+			loadPersistentBacking();
+			pmap = PersistentTreeMap.EMPTY;
+			edit = new Object();
+		} else {
+			map = new SortedArrayMap();
+		}
+	}
+
+	/**
+	 * Create a dict without any backing map. This is only for the protected
+	 * views, which delegate all access to the dict they wrap and so must not
+	 * carry an unused empty map of their own.
+	 *
+	 * @param none
+	 *            always null; only distinguishes this constructor
+	 */
+	HashResource(Void none) {
 	}
 
 	private HashResource(Map<String, Element> childrenMap) {
@@ -59,7 +109,7 @@ public class HashResource extends Resource {
 		// with something from another machine configuration tree that is
 		// frozen. Consequently, this cloning shouldn't need to be synchronized.
 		try {
-			map = new TreeMap<String, Element>();
+			map = createMap(childrenMap.size());
 			for (Map.Entry<String, Element> entry : childrenMap.entrySet()) {
 				map.put(entry.getKey(), entry.getValue().duplicate());
 			}
@@ -72,35 +122,145 @@ public class HashResource extends Resource {
 	/**
 	 * This constructor creates a shallow copy of the given HashResource. The
 	 * children of the referenced HashResource are not cloned, but they are
-	 * protected.
+	 * protected. With persistent backing, the map is shared instead.
 	 *
 	 * @param source
 	 *            HashResource to copy
 	 */
 	protected HashResource(HashResource source) {
-		map = new TreeMap<String, Element>();
-		for (Map.Entry<String, Element> entry : source.map.entrySet()) {
-			map.put(entry.getKey(), entry.getValue().protect());
+		if (source.pmap != null) {
+			pmap = source.shareBacking();
+			edit = new Object();
+		} else {
+			map = createMap(source.map.size());
+			for (Map.Entry<String, Element> entry : source.map.entrySet()) {
+				map.put(entry.getKey(), entry.getValue().protect());
+			}
 		}
 	}
 
+	/**
+	 * Create a mutable map for the given number of children.
+	 */
+	private static Map<String, Element> createMap(int size) {
+		if (size <= SortedArrayMap.MAXIMUM_SIZE) {
+			return new SortedArrayMap(size);
+		} else {
+			return new TreeMap<String, Element>();
+		}
+	}
+
+	/**
+	 * With persistent backing, the duplicate shares the map with this
+	 * resource. Both give up the ownership of their children, so that
+	 * children are copied lazily when they are modified.
+	 */
 	@Override
 	public Element duplicate() {
-		return new HashResource(map);
+		if (pmap != null) {
+			try {
+				return new HashResource(this);
+			} catch (StackOverflowError e) {
+				throw new EvaluationException(
+						"stack overflow; check for circular data structure");
+			}
+		} else {
+			return new HashResource(map);
+		}
+	}
+
+	/**
+	 * Returns the persistent map to share with a copy of this resource. This
+	 * resource gives up the ownership of its children. Lent children may
+	 * still be modified in place, so the copy receives copies of them. Only
+	 * the children recorded as lent are visited.
+	 */
+	private PersistentTreeMap shareBacking() {
+		edit = new Object();
+		PersistentTreeMap shared = pmap;
+		if (lentKeys != null) {
+			java.util.Iterator<String> keys = lentKeys.iterator();
+			while (keys.hasNext()) {
+				String key = keys.next();
+				Element value = (Element) pmap.valAt(key);
+				if (isLentResource(value)) {
+					shared = shared.assoc(key, value.duplicate());
+				} else {
+					keys.remove();
+				}
+			}
+			lentDescendants = !lentKeys.isEmpty();
+		}
+		return shared;
+	}
+
+	@Override
+	Element lend(Term term, Element value) throws InvalidTermException {
+		return lend(term.getKey(), value);
+	}
+
+	private Element lend(String key, Element value) {
+		if (markLent(value) && pmap != null) {
+			if (lentKeys == null) {
+				lentKeys = new HashSet<String>();
+			}
+			lentKeys.add(key);
+		}
+		return value;
 	}
 
 	@Override
 	public Element get(Term term) throws InvalidTermException {
-		return map.get(term.getKey());
+		return lend(term, getChild(term));
+	}
+
+	@Override
+	Element getChild(Term term) throws InvalidTermException {
+		if (pmap != null) {
+			return ownedGet(term.getKey());
+		} else {
+			return map.get(term.getKey());
+		}
+	}
+
+	/**
+	 * Retrieve a child without taking ownership of it. This is used by the
+	 * protected views of this resource, which must never modify it.
+	 */
+	Element lookup(Term term) throws InvalidTermException {
+		if (pmap != null) {
+			return (Element) pmap.valAt(term.getKey());
+		} else {
+			return map.get(term.getKey());
+		}
+	}
+
+	private Element ownedGet(String key) {
+		Element value = (Element) pmap.valAt(key);
+		Element owned = ownedChild(value);
+		if (owned != value) {
+			pmap = pmap.assoc(key, owned);
+		}
+		return owned;
 	}
 
 	@Override
 	public Element put(Term term, Element newValue) throws InvalidTermException {
 
+		if (pmap != null) {
+			return persistentPut(term.getKey(), newValue);
+		}
+
 		Element oldValue = null;
 
 		if ((newValue != null) && !(newValue instanceof Null)) {
-			oldValue = map.put(term.getKey(), newValue);
+			String key = term.getKey();
+			if (map instanceof SortedArrayMap
+					&& ((SortedArrayMap) map).isFull()
+					&& !map.containsKey(key)) {
+				map = new TreeMap<String, Element>(map);
+			}
+			oldValue = map.put(key, newValue);
 			if (oldValue != null) {
 				oldValue.checkValidReplacement(newValue);
 			}
@@ -110,14 +270,30 @@ public class HashResource extends Resource {
 		return oldValue;
 	}
 
+	private Element persistentPut(String key, Element newValue) {
+
+		Element oldValue = (Element) pmap.valAt(key);
+
+		if ((newValue != null) && !(newValue instanceof Null)) {
+			claimChild(newValue);
+			pmap = pmap.assoc(key, newValue);
+			if (oldValue != null) {
+				oldValue.checkValidReplacement(newValue);
+			}
+		} else {
+			pmap = pmap.without(key);
+		}
+		return oldValue;
+	}
+
 	@Override
 	public int size() {
-		return map.size();
+		return (pmap != null) ? pmap.count() : map.size();
 	}
 
 	public Set<Term> keySet() {
 		TreeSet<Term> terms = new TreeSet<Term>();
-		for (String s : map.keySet()) {
+		for (String s : getBackingMap().keySet()) {
 			Term term = TermFactory.create(s);
 			terms.add(term);
 		}
@@ -126,9 +302,9 @@ public class HashResource extends Resource {
 
 	@Override
 	public void checkRange(Range range) throws ValidationException {
-		if (!range.isInRange(map.size())) {
+		if (!range.isInRange(size())) {
 			throw ValidationException.create(MSG_HASH_SIZE_OUTSIDE_RANGE,
-					map.size(), range.toString());
+					size(), range.toString());
 		}
 	}
 
@@ -150,7 +326,12 @@ public class HashResource extends Resource {
 
 	@Override
 	public Element protect() {
-		return new ProtectedHashResource(this);
+		Resource view = protectedView;
+		if (view == null) {
+			view = new ProtectedHashResource(this);
+			protectedView = view;
+		}
+		return view;
 	}
 
 	@Override
@@ -160,15 +341,24 @@ public class HashResource extends Resource {
 		return "nlist";
 	}
 
+	/**
+	 * The hash code is calculated here rather than taken from the backing map
+	 * because persistent maps cache their hash code, while the children of a
+	 * resource may still be modified.
+	 */
 	@Override
 	public int hashCode() {
-		return map.hashCode();
+		int h = 0;
+		for (Map.Entry<String, Element> entry : getBackingMap().entrySet()) {
+			h += entry.getKey().hashCode() ^ entry.getValue().hashCode();
+		}
+		return h;
 	}
 
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof HashResource) {
-			return map.equals(((HashResource) o).getBackingMap());
+			return getBackingMap().equals(((HashResource) o).getBackingMap());
 		} else {
 			return false;
 		}
@@ -182,8 +372,9 @@ public class HashResource extends Resource {
 	 *
 	 * @return backing map for hash resource
 	 */
+	@SuppressWarnings("unchecked")
 	protected Map<String, Element> getBackingMap() {
-		return map;
+		return (pmap != null) ? (Map<String, Element>) pmap : map;
 	}
 
 	@Override
@@ -209,26 +400,147 @@ public class HashResource extends Resource {
 
 	@Override
 	public Resource.Iterator iterator() {
-		return new HashResourceIterator(map, false);
+		return new HashResourceIterator(new HashResourceCursor(this, false,
+				false));
 	}
 
 	public Resource.Iterator protectedIterator() {
-		return new HashResourceIterator(map, true);
+		return new HashResourceIterator(new HashResourceCursor(this, true,
+				false));
 	}
 
-	private static class HashResourceIterator implements Resource.Iterator {
+	@Override
+	public Resource.Cursor cursor() {
+		return new HashResourceCursor(this, false, false);
+	}
 
-		private final java.util.Iterator<String> iterator;
+	public Resource.Cursor protectedCursor() {
+		return new HashResourceCursor(this, true, false);
+	}
 
-		private final Map<String, Element> backingHash;
+	@Override
+	public Resource.Cursor readCursor() {
+		return new HashResourceCursor(this, false, true);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		if (pmap != null) {
+			edit = new Object();
+		}
+	}
+
+	/**
+	 * Cursor over the children of a dict. Small maps are traversed by
+	 * position, others with an iterator over the entries of the backing map;
+	 * in both cases the value is taken directly from the map rather than
+	 * looked up again by key.
+	 */
+	private static class HashResourceCursor implements Resource.Cursor {
+
+		private final HashResource hash;
 
 		private final boolean isProtected;
 
-		public HashResourceIterator(Map<String, Element> backingHash, boolean isProtected) {
-			assert (backingHash != null);
-			this.backingHash = backingHash;
+		private final boolean readOnly;
+
+		private final SortedArrayMap small;
+
+		private final int expectedModCount;
+
+		private final java.util.Iterator<Map.Entry<String, Element>> iterator;
+
+		private int index = -1;
+
+		private String name;
+
+		private Element value;
+
+		public HashResourceCursor(HashResource hash, boolean isProtected,
+				boolean readOnly) {
+			assert (hash != null);
+			this.hash = hash;
 			this.isProtected = isProtected;
-			iterator = backingHash.keySet().iterator();
+			this.readOnly = readOnly;
+
+			if (hash.map instanceof SortedArrayMap) {
+				small = (SortedArrayMap) hash.map;
+				expectedModCount = small.modCount();
+				iterator = null;
+			} else {
+				small = null;
+				expectedModCount = 0;
+				iterator = hash.getBackingMap().entrySet().iterator();
+			}
+		}
+
+		public boolean next() {
+
+			if (small != null) {
+				if (hash.map != small || small.modCount() != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (++index >= small.size()) {
+					return false;
+				}
+				name = small.keyAt(index);
+				value = small.valueAt(index);
+			} else {
+				if (!iterator.hasNext()) {
+					return false;
+				}
+				Map.Entry<String, Element> entry = iterator.next();
+				name = entry.getKey();
+				value = entry.getValue();
+			}
+
+			if (readOnly) {
+				return true;
+			}
+
+			if (isProtected) {
+				value = value.protect();
+			} else {
+				if (hash.pmap != null) {
+					// The persistent map may have been changed since the
+					// iteration started; always use the current one.
+					if (hash.pmap.valAt(name) == null) {
+						throw new EvaluationException(
+								MessageUtils.format(MSG_CONCURRENT_MODIFICATION),
+								null);
+					}
+					value = hash.ownedGet(name);
+				}
+				hash.lend(name, value);
+			}
+			return true;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Property getKey() {
+			return StringProperty.getInstance(name);
+		}
+
+		public Element getValue() {
+			return value;
+		}
+
+	}
+
+	private static class HashResourceIterator implements Resource.Iterator {
+
+		private final Resource.Cursor cursor;
+
+		private boolean advanced = false;
+
+		private boolean hasNext;
+
+		public HashResourceIterator(Resource.Cursor cursor) {
+			this.cursor = cursor;
 		}
 
 		public void remove() {
@@ -237,29 +549,20 @@ public class HashResource extends Resource {
 		}
 
 		public boolean hasNext() {
-			return iterator.hasNext();
+			if (!advanced) {
+				hasNext = cursor.next();
+				advanced = true;
+			}
+			return hasNext;
 		}
 
 		public Resource.Entry next() {
-			Resource.Entry entry = null;
-			try {
-				StringProperty key = StringProperty
-						.getInstance(iterator.next());
-				Element value = backingHash.get(key.getValue());
-				if (value == null) {
-					throw new EvaluationException(
-							MessageUtils.format(MSG_CONCURRENT_MODIFICATION),
-							null);
-				}
-				if (isProtected) {
-					value = value.protect();
-				}
-				entry = new HashResourceEntry(key, value);
-			} catch (NoSuchElementException nsee) {
+			if (!hasNext()) {
 				throw new EvaluationException(
 						MessageUtils.format(MSG_CONCURRENT_MODIFICATION), null);
 			}
-			return entry;
+			advanced = false;
+			return new HashResourceEntry(cursor.getKey(), cursor.getValue());
 		}
 
 	}
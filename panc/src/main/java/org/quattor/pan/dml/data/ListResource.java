@@ -27,7 +27,10 @@ import static org.quattor.pan.utils.MessageUtils.MSG_INVALID_REPLACEMENT;
 import static org.quattor.pan.utils.MessageUtils.MSG_LIST_SIZE_OUTSIDE_RANGE;
 import static org.quattor.pan.utils.MessageUtils.MSG_NONEXISTANT_LIST_ELEMENT;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -39,6 +42,8 @@ import org.quattor.pan.utils.MessageUtils;
 import org.quattor.pan.utils.Range;
 import org.quattor.pan.utils.Term;
 
+import clojure.lang.PersistentVector;
+
 /**
  * Represents an ordered list of elements.
  *
@@ -49,18 +54,71 @@ public class ListResource extends Resource {
 
 	private List<Element> list;
 
+	/**
+	 * Persistent backing vector, used instead of the mutable list when
+	 * persistent backing was selected on creation.
+	 */
+	private PersistentVector pvec;
+
+	/**
+	 * Indices of the children that have been lent, with persistent backing.
+	 * This is created when the first child is lent and is kept in step with
+	 * the vector when children are removed or prepended.
+	 */
+	private transient BitSet lentIndices;
+
 	public ListResource() {
-		list = new ArrayList<Element>();
+		this(false);
+	}
+
+	/**
+	 * Create an empty list with the given type of backing.
+	 * 
+	 * @param persistent
+	 *            true to use a persistent backing vector
+	 */
+	public ListResource(boolean persistent) {
+		if (persistent) {
+			loadPersistentBacking();
+			pvec = PersistentVector.EMPTY;
+			edit = new Object();
+		} else {
+			list = new ArrayList<Element>();
+		}
 	}
 
 	public ListResource(Element[] args) {
+		this(args, false);
+	}
 
-		list = new ArrayList<Element>();
+	/**
+	 * Create a list containing the given values, with the given type of
+	 * backing.
+	 * 
+	 * @param args
+	 *            values of the list
+	 * @param persistent
+	 *            true to use a persistent backing vector
+	 */
+	public ListResource(Element[] args, boolean persistent) {
+
+		this(persistent);
 		for (Element arg : args) {
-			list.add(arg);
+			append(arg);
 		}
 	}
 
+	/**
+	 * Create a list without any backing list. This is only for the protected
+	 * views, which delegate all access to the list they wrap and so must not
+	 * carry an unused empty list of their own.
+	 *
+	 * @param none
+	 *            always null; only distinguishes this constructor
+	 */
+	ListResource(Void none) {
+	}
+
 	private ListResource(List<Element> childrenList) {
 
 		// Cloning of a hash should only take place within a single thread or
@@ -80,44 +138,159 @@ public class ListResource extends Resource {
 
 	/**
 	 * This method creates a shallow copy of the given ListResource. The
-	 * children are not cloned, but they are protected.
+	 * children are not cloned, but they are protected. With persistent
+	 * backing, the vector is shared instead.
 	 *
 	 * @param source
 	 *            ListResource to copy
 	 */
 	protected ListResource(ListResource source) {
-		ArrayList<Element> alist = new ArrayList<Element>(source.list.size());
-		for (Element e : source.list) {
-			alist.add(e.protect());
+		if (source.pvec != null) {
+			pvec = source.shareBacking();
+			edit = new Object();
+		} else {
+			ArrayList<Element> alist = new ArrayList<Element>(
+					source.list.size());
+			for (Element e : source.list) {
+				alist.add(e.protect());
+			}
+			alist.trimToSize();
+			list = alist;
 		}
-		alist.trimToSize();
-		list = alist;
 	}
 
+	/**
+	 * With persistent backing, the duplicate shares the vector with this
+	 * resource. Both give up the ownership of their children, so that
+	 * children are copied lazily when they are modified.
+	 */
 	@Override
 	public Element duplicate() {
-		return new ListResource(list);
+		if (pvec != null) {
+			try {
+				return new ListResource(this);
+			} catch (StackOverflowError e) {
+				throw new EvaluationException(
+						"stack overflow; check for circular data structure");
+			}
+		} else {
+			return new ListResource(list);
+		}
+	}
+
+	/**
+	 * Returns the persistent vector to share with a copy of this resource.
+	 * This resource gives up the ownership of its children. Lent children may
+	 * still be modified in place, so the copy receives copies of them. Only
+	 * the children recorded as lent are visited.
+	 */
+	private PersistentVector shareBacking() {
+		edit = new Object();
+		PersistentVector shared = pvec;
+		if (lentIndices != null) {
+			int count = pvec.count();
+			for (int i = lentIndices.nextSetBit(0); i >= 0; i = lentIndices
+					.nextSetBit(i + 1)) {
+				Element value = (i < count) ? (Element) pvec.nth(i) : null;
+				if (isLentResource(value)) {
+					shared = shared.assocN(i, value.duplicate());
+				} else {
+					lentIndices.clear(i);
+				}
+			}
+			lentDescendants = !lentIndices.isEmpty();
+		}
+		return shared;
+	}
+
+	@Override
+	Element lend(Term term, Element value) throws InvalidTermException {
+		int index = term.getIndex().intValue();
+		if (index < 0) {
+			index += size();
+		}
+		return lend(index, value);
+	}
+
+	private Element lend(int index, Element value) {
+		if (markLent(value) && pvec != null) {
+			if (lentIndices == null) {
+				lentIndices = new BitSet();
+			}
+			lentIndices.set(index);
+		}
+		return value;
+	}
+
+	/**
+	 * Moves the recorded lent indices from the given index on by the offset,
+	 * after children have been removed or prepended. Indices of removed
+	 * children are dropped.
+	 */
+	private void shiftLentIndices(int from, int offset) {
+		if (lentIndices != null) {
+			BitSet shifted = lentIndices.get(0, Math.min(from, from + offset));
+			for (int i = lentIndices.nextSetBit(from); i >= 0; i = lentIndices
+					.nextSetBit(i + 1)) {
+				shifted.set(i + offset);
+			}
+			lentIndices = shifted;
+		}
 	}
 
 	@Override
 	public Element get(Term term) throws InvalidTermException {
+		return lend(term, getChild(term));
+	}
+
+	@Override
+	Element getChild(Term term) throws InvalidTermException {
 		assert (term != null);
 
+		if (pvec != null) {
+			int index = term.getIndex().intValue();
+			if (index < 0) {
+				index += pvec.count();
+			}
+			return (index >= 0 && index < pvec.count()) ? ownedGet(index)
+					: null;
+		}
+
+		return lookup(term);
+	}
+
+	/**
+	 * Retrieve a child without taking ownership of it. This is used by the
+	 * protected views of this resource, which must never modify it.
+	 */
+	Element lookup(Term term) throws InvalidTermException {
+
 		Element value = null;
 
+		List<Element> elements = getBackingList();
+
 		int index = 0;
 		try {
 			index = term.getIndex().intValue();
             if (index < 0) {
-                index += list.size();
+                index += elements.size();
             }
-			value = list.get(index);
+			value = elements.get(index);
 		} catch (IndexOutOfBoundsException ioobe) {
 			// OK, just return a null value.
 		}
 		return value;
 	}
 
+	private Element ownedGet(int index) {
+		Element value = (Element) pvec.nth(index);
+		Element owned = ownedChild(value);
+		if (owned != value) {
+			pvec = pvec.assocN(index, owned);
+		}
+		return owned;
+	}
+
 	@Override
 	public Element put(Term term, Element value) throws InvalidTermException {
 
@@ -139,6 +312,10 @@ public class ListResource extends Resource {
 	 */
 	public Element put(int index, Element newValue) {
 
+		if (pvec != null) {
+			return persistentPut(index, newValue);
+		}
+
 		Element oldValue = null;
 
         int size = list.size();
@@ -181,6 +358,46 @@ public class ListResource extends Resource {
 		return oldValue;
 	}
 
+	private Element persistentPut(int index, Element newValue) {
+
+		Element oldValue = null;
+
+		int size = pvec.count();
+
+		if (index < 0) {
+			if (index < -size) {
+				throw new EvaluationException(MessageUtils.format(
+						MSG_INVALID_NEGATIVE_LIST_INDEX,
+						Integer.toString(index), size));
+			} else {
+				index += size;
+			}
+		}
+
+		if ((newValue != null) && !(newValue instanceof Null)) {
+			claimChild(newValue);
+			if (index >= size) {
+				for (int i = 0; i < index - size; i++) {
+					pvec = pvec.cons(Undef.VALUE);
+				}
+				pvec = pvec.cons(newValue);
+			} else {
+				oldValue = (Element) pvec.nth(index);
+				pvec = pvec.assocN(index, newValue);
+				if (oldValue != null) {
+					oldValue.checkValidReplacement(newValue);
+				}
+			}
+		} else if (index < size) {
+			// Removing a non-existant element is OK.
+			List<Element> elements = new ArrayList<Element>(getBackingList());
+			oldValue = elements.remove(index);
+			pvec = PersistentVector.create(elements);
+			shiftLentIndices(index + 1, -1);
+		}
+		return oldValue;
+	}
+
 	/**
 	 * Specialized method for a ListResource to append an element to the end of
 	 * the list. This is used in the append() function implementation.
@@ -190,7 +407,12 @@ public class ListResource extends Resource {
 	 */
 	public void append(Element e) {
 		assert (e != null);
-		list.add(e);
+		if (pvec != null) {
+			claimChild(e);
+			pvec = pvec.cons(e);
+		} else {
+			list.add(e);
+		}
 	}
 
 	/**
@@ -203,28 +425,51 @@ public class ListResource extends Resource {
 	 */
 	public void prepend(Element e) {
 		assert (e != null);
-		list.add(0, e);
+		if (pvec != null) {
+			claimChild(e);
+			List<Element> elements = new ArrayList<Element>(pvec.count() + 1);
+			elements.add(e);
+			elements.addAll(getBackingList());
+			pvec = PersistentVector.create(elements);
+			shiftLentIndices(0, 1);
+		} else {
+			list.add(0, e);
+		}
 	}
 
 	@Override
 	public int size() {
-		return list.size();
+		return (pvec != null) ? pvec.count() : list.size();
 	}
 
 	@Override
 	public Resource.Iterator iterator() {
-		return new ListResourceIterator(list, false);
+		return new ListResourceIterator(this, false);
 	}
 
 	public Resource.Iterator protectedIterator() {
-		return new ListResourceIterator(list, true);
+		return new ListResourceIterator(this, true);
+	}
+
+	@Override
+	public Resource.Cursor cursor() {
+		return new ListResourceCursor(this, false, false);
+	}
+
+	public Resource.Cursor protectedCursor() {
+		return new ListResourceCursor(this, true, false);
+	}
+
+	@Override
+	public Resource.Cursor readCursor() {
+		return new ListResourceCursor(this, false, true);
 	}
 
 	@Override
 	public void checkRange(Range range) throws ValidationException {
-		if (!range.isInRange(list.size())) {
-			throw ValidationException.create(MSG_LIST_SIZE_OUTSIDE_RANGE, list
-					.size(), range.toString());
+		if (!range.isInRange(size())) {
+			throw ValidationException.create(MSG_LIST_SIZE_OUTSIDE_RANGE,
+					size(), range.toString());
 		}
 	}
 
@@ -246,7 +491,12 @@ public class ListResource extends Resource {
 
 	@Override
 	public Element protect() {
-		return new ProtectedListResource(this);
+		Resource view = protectedView;
+		if (view == null) {
+			view = new ProtectedListResource(this);
+			protectedView = view;
+		}
+		return view;
 	}
 
 	@Override
@@ -254,15 +504,24 @@ public class ListResource extends Resource {
 		return "list";
 	}
 
+	/**
+	 * The hash code is calculated here rather than taken from the backing list
+	 * because a persistent vector caches its hash code, while the children of
+	 * the resource may still be modified.
+	 */
 	@Override
 	public int hashCode() {
-		return list.hashCode();
+		int h = 1;
+		for (Element e : getBackingList()) {
+			h = 31 * h + ((e == null) ? 0 : e.hashCode());
+		}
+		return h;
 	}
 
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof ListResource) {
-			return list.equals(((ListResource) o).list);
+			return getBackingList().equals(((ListResource) o).getBackingList());
 		} else {
 			return false;
 		}
@@ -276,8 +535,17 @@ public class ListResource extends Resource {
 	 *
 	 * @return backing map for hash resource
 	 */
+	@SuppressWarnings("unchecked")
 	protected List<Element> getBackingList() {
-		return list;
+		return (pvec != null) ? (List<Element>) pvec : list;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		if (pvec != null) {
+			edit = new Object();
+		}
 	}
 
 	@Override
@@ -303,13 +571,13 @@ public class ListResource extends Resource {
 
 	private final AtomicInteger index = new AtomicInteger(0);
 
-		private final List<Element> backingList;
+		private final ListResource resource;
 
 		private final boolean isProtected;
 
-		public ListResourceIterator(List<Element> backingList, boolean isProtected) {
-			assert (backingList != null);
-			this.backingList = backingList;
+		public ListResourceIterator(ListResource resource, boolean isProtected) {
+			assert (resource != null);
+			this.resource = resource;
 			this.isProtected = isProtected;
 		}
 
@@ -319,16 +587,21 @@ public class ListResource extends Resource {
 		}
 
 		public boolean hasNext() {
-			return (index.get() < backingList.size());
+			return (index.get() < resource.size());
 		}
 
 		public Resource.Entry next() {
 			try {
 				int i = index.getAndIncrement();
 
-				Element value = backingList.get(i);
+				Element value = resource.getBackingList().get(i);
 				if (isProtected && value != null) {
 					value = value.protect();
+				} else {
+					if (resource.pvec != null) {
+						value = resource.ownedGet(i);
+					}
+					resource.lend(i, value);
 				}
 
 				Resource.Entry entry = new ListResourceEntry(LongProperty.getInstance(i),
@@ -342,6 +615,60 @@ public class ListResource extends Resource {
 
 	}
 
+	private static class ListResourceCursor implements Resource.Cursor {
+
+		private final ListResource resource;
+
+		private final boolean isProtected;
+
+		private final boolean readOnly;
+
+		private int index = -1;
+
+		private Element value;
+
+		public ListResourceCursor(ListResource resource, boolean isProtected,
+				boolean readOnly) {
+			assert (resource != null);
+			this.resource = resource;
+			this.isProtected = isProtected;
+			this.readOnly = readOnly;
+		}
+
+		public boolean next() {
+
+			if (++index >= resource.size()) {
+				return false;
+			}
+
+			value = resource.getBackingList().get(index);
+			if (!readOnly) {
+				if (isProtected && value != null) {
+					value = value.protect();
+				} else {
+					if (resource.pvec != null) {
+						value = resource.ownedGet(index);
+					}
+					resource.lend(index, value);
+				}
+			}
+			return true;
+		}
+
+		public String getName() {
+			return Integer.toString(index);
+		}
+
+		public Property getKey() {
+			return LongProperty.getInstance(index);
+		}
+
+		public Element getValue() {
+			return value;
+		}
+
+	}
+
 	private static class ListResourceEntry implements Resource.Entry {
 
 		private final Property key;
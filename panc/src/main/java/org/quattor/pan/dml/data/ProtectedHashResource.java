@@ -16,6 +16,7 @@ public class ProtectedHashResource extends HashResource {
 	private final HashResource baseHash;
 
 	public ProtectedHashResource(HashResource baseHash) {
+		super((Void) null);
 		this.baseHash = baseHash;
 	}
 
@@ -26,13 +27,23 @@ public class ProtectedHashResource extends HashResource {
 
 	@Override
 	public Element get(Term key) throws InvalidTermException {
-		final Element value = baseHash.get(key);
+		final Element value = baseHash.lookup(key);
 		if (value != null) {
 			return value.protect();
 		}
 		return value;
 	}
 
+	@Override
+	Element getChild(Term key) throws InvalidTermException {
+		return get(key);
+	}
+
+	@Override
+	Element lookup(Term key) throws InvalidTermException {
+		return baseHash.lookup(key);
+	}
+
 	@Override
 	public Element put(Term key, Element newValue) throws InvalidTermException {
 		throw CompilerError.create(MSG_ILLEGAL_WRITE_TO_PROTECTED_HASH);
@@ -96,6 +107,21 @@ public class ProtectedHashResource extends HashResource {
 		return baseHash.protectedIterator();
 	}
 
+	@Override
+	public Resource.Cursor cursor() {
+		return baseHash.protectedCursor();
+	}
+
+	@Override
+	public Resource.Cursor protectedCursor() {
+		return baseHash.protectedCursor();
+	}
+
+	@Override
+	public Resource.Cursor readCursor() {
+		return baseHash.readCursor();
+	}
+
 	@Override
 	public boolean isProtected() {
 		return true;
@@ -15,6 +15,7 @@ public class ProtectedListResource extends ListResource {
 	private final ListResource baseList;
 
 	public ProtectedListResource(ListResource baseList) {
+		super((Void) null);
 		this.baseList = baseList;
 	}
 
@@ -25,13 +26,18 @@ public class ProtectedListResource extends ListResource {
 
 	@Override
 	public Element get(Term key) throws InvalidTermException {
-		final Element value = baseList.get(key);
+		final Element value = baseList.lookup(key);
 		if (value != null) {
 			return value.protect();
 		}
 		return value;
 	}
 
+	@Override
+	Element getChild(Term key) throws InvalidTermException {
+		return get(key);
+	}
+
 	@Override
 	public Element put(Term key, Element newValue) throws InvalidTermException {
 		throw CompilerError.create(MSG_ILLEGAL_WRITE_TO_PROTECTED_LIST);
@@ -67,6 +73,21 @@ public class ProtectedListResource extends ListResource {
 		return baseList.protectedIterator();
 	}
 
+	@Override
+	public Resource.Cursor cursor() {
+		return baseList.protectedCursor();
+	}
+
+	@Override
+	public Resource.Cursor protectedCursor() {
+		return baseList.protectedCursor();
+	}
+
+	@Override
+	public Resource.Cursor readCursor() {
+		return baseList.readCursor();
+	}
+
 	@Override
 	public void checkRange(Range range) throws ValidationException {
 		baseList.checkRange(range);
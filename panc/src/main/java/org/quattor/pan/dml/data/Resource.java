@@ -30,6 +30,8 @@ import org.quattor.pan.exceptions.EvaluationException;
 import org.quattor.pan.exceptions.InvalidTermException;
 import org.quattor.pan.utils.Term;
 
+import clojure.java.api.Clojure;
+
 /**
  * A Resource is a container of Properties and other Resources. All resources
  * descend from PersistentElement which makes them eligible for inclusion in a
@@ -41,6 +43,199 @@ import org.quattor.pan.utils.Term;
 abstract public class Resource extends PersistentElement implements
 		Iterable<Resource.Entry> {
 
+	/**
+	 * Token of the resource that exclusively owns this one. This is only used
+	 * for resources held by a resource with persistent backing; children
+	 * whose owner is not the parent's edit token may be shared with other
+	 * resources and must not be modified in place.
+	 */
+	transient Object owner;
+
+	/**
+	 * Token used to mark children as exclusively owned by this resource. A
+	 * new token is created whenever the backing collection becomes shared,
+	 * which releases the ownership of all children in constant time. This is
+	 * null for resources without persistent backing.
+	 */
+	transient volatile Object edit;
+
+	/**
+	 * Read-only view of this resource, created on the first call to
+	 * <code>protect()</code> and returned by all later calls. A view has no
+	 * backing collection of its own; besides the fields common to all
+	 * resources, which it leaves unset, it only holds the reference to this
+	 * resource. A race between threads at most creates a view that is
+	 * discarded.
+	 */
+	transient Resource protectedView;
+
+	/**
+	 * Flag indicating that a reference to this resource has been handed out
+	 * by one of its parents, e.g. to a local variable. The resource may then
+	 * be modified in place without going through its parents.
+	 */
+	transient boolean lent;
+
+	/**
+	 * Flag indicating that one of the children (or further descendants) of
+	 * this resource has been lent. When the backing collection is shared,
+	 * these children must be copied as they may still be modified in place.
+	 * With persistent backing, the lent children are also recorded by key,
+	 * so that only those need to be visited.
+	 */
+	transient boolean lentDescendants;
+
+	/**
+	 * Loads the Clojure runtime when first used. The persistent collections
+	 * can only be used once the runtime has been loaded.
+	 */
+	private static final class ClojureRuntime {
+
+		static {
+			Clojure.var("clojure.core", "sorted-map");
+		}
+
+		static void load() {
+		}
+
+	}
+
+	/**
+	 * Ensure that the persistent (structurally shared) backing collections
+	 * can be used. Resources with different backing can be mixed freely; the
+	 * choice is made by each build, so that one compiler does not affect
+	 * another running in the same JVM.
+	 */
+	static void loadPersistentBacking() {
+		ClojureRuntime.load();
+	}
+
+	/**
+	 * Indicates whether this resource uses persistent backing collections.
+	 * Children created through this resource use the same kind of backing.
+	 * 
+	 * @return true if persistent backing collections are used
+	 */
+	public boolean isPersistentBacking() {
+		return edit != null;
+	}
+
+	/**
+	 * Returns a child value that can be modified in place through this
+	 * resource. With persistent backing, a child resource that is not
+	 * exclusively owned by this resource may be shared with other resources.
+	 * In this case a copy (sharing the child's own backing collection) is
+	 * returned, which the caller must store in place of the original value.
+	 * References to the child obtained through this resource therefore behave
+	 * as with standard collections.
+	 * 
+	 * @param value
+	 *            child value, may be null
+	 * 
+	 * @return child value or an owned copy of it
+	 */
+	Element ownedChild(Element value) {
+		if (edit != null && value instanceof Resource && !value.isProtected()
+				&& ((Resource) value).owner != edit) {
+			Element copy = value.duplicate();
+			((Resource) copy).owner = edit;
+			return copy;
+		}
+		return value;
+	}
+
+	/**
+	 * Mark the given descendant as lent by this resource.
+	 * 
+	 * @param value
+	 *            descendant value, may be null
+	 * 
+	 * @return true if the value is a resource that may be modified in place
+	 */
+	boolean markLent(Element value) {
+		if (value instanceof Resource && !value.isProtected()) {
+			((Resource) value).lent = true;
+			lentDescendants = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Record that a reference to the given descendant, held by the child with
+	 * the given term, is handed out by this resource.
+	 * 
+	 * @param term
+	 *            index or key of the child holding the descendant
+	 * @param value
+	 *            descendant value, may be null
+	 * 
+	 * @return the value passed as the argument
+	 * 
+	 * @throws InvalidTermException
+	 *             if the term is not valid for this resource
+	 */
+	abstract Element lend(Term term, Element value)
+			throws InvalidTermException;
+
+	/**
+	 * Indicates whether a child must be copied rather than shared when the
+	 * backing collection of this resource is shared.
+	 * 
+	 * @param value
+	 *            child value, may be null
+	 * 
+	 * @return true if the child may be modified in place by other references
+	 */
+	static boolean isLentResource(Element value) {
+		if (value instanceof Resource && !value.isProtected()) {
+			Resource r = (Resource) value;
+			return r.lent || r.lentDescendants;
+		}
+		return false;
+	}
+
+	/**
+	 * Retrieve a child while traversing a path. Unlike <code>get</code>, the
+	 * reference is not considered to be handed out. By default this is the
+	 * same as <code>get</code>.
+	 * 
+	 * @param term
+	 *            index or key of the child
+	 * 
+	 * @return child value, may be null
+	 * 
+	 * @throws InvalidTermException
+	 *             if the term is not valid for this resource
+	 */
+	Element getChild(Term term) throws InvalidTermException {
+		return get(term);
+	}
+
+	/**
+	 * Mark the given child value as exclusively owned by this resource. This
+	 * has no effect for resources without persistent backing.
+	 * 
+	 * Copying a resource with persistent backing does not visit the children,
+	 * so a resource that is inserted into itself would not be detected when
+	 * it is copied. Such a resource is rejected here instead.
+	 * 
+	 * @param value
+	 *            new child value, may be null
+	 * 
+	 * @throws EvaluationException
+	 *             if the value is this resource
+	 */
+	void claimChild(Element value) {
+		if (edit != null && value instanceof Resource) {
+			if (value == this) {
+				throw new EvaluationException(
+						"circular data structure; resource cannot contain itself");
+			}
+			((Resource) value).owner = edit;
+		}
+	}
+
 	/**
 	 * Retrieve the Element associated with the given Term (either an index or
 	 * string key).
@@ -80,6 +275,11 @@ abstract public class Resource extends PersistentElement implements
 	 */
 	abstract public int size();
 
+	/**
+	 * A value retrieved with the protect flag is returned protected. It is not
+	 * lent, so that the parents need not copy it when they are duplicated.
+	 * Callers that only read the value or duplicate it should set the flag.
+	 */
 	@Override
 	public Element rget(Term[] terms, int index, boolean protect,
 			boolean lookupOnly) throws InvalidTermException {
@@ -94,7 +294,7 @@ abstract public class Resource extends PersistentElement implements
 
 			// Always pull out the referenced child.
 			try {
-				rvalue = get(terms[index]);
+				rvalue = getChild(terms[index]);
 			} catch (InvalidTermException ite) {
 				throw ite.setInfo(terms, index, getTypeAsString());
 			}
@@ -104,6 +304,13 @@ abstract public class Resource extends PersistentElement implements
 				boolean pflag = protect || rvalue.isProtected();
 				rvalue = rvalue.rget(terms, index + 1, pflag, lookupOnly);
 			}
+			if (!protect) {
+				rvalue = lend(terms[index], rvalue);
+			}
+		}
+
+		if (protect && rvalue != null) {
+			rvalue = rvalue.protect();
 		}
 
 		return rvalue;
@@ -138,7 +345,7 @@ abstract public class Resource extends PersistentElement implements
 			// More to do. Pull out the given child.
 			Element child = null;
 			try {
-				child = get(term);
+				child = getChild(term);
 			} catch (InvalidTermException ite) {
 				throw ite.setInfo(terms, index, getTypeAsString());
 			}
@@ -153,9 +360,9 @@ abstract public class Resource extends PersistentElement implements
 			// new Resource.
 			if (child == null || child instanceof Undef) {
 				if (terms[index + 1].isKey()) {
-					child = new HashResource();
+					child = new HashResource(isPersistentBacking());
 				} else {
-					child = new ListResource();
+					child = new ListResource(isPersistentBacking());
 				}
 				put(term, child);
 			}
@@ -197,11 +404,11 @@ abstract public class Resource extends PersistentElement implements
 			// Pull out the referenced value. If the result was not a list, then
 			// throw an exception.
 			try {
-				Element element = get(term);
+				Element element = getChild(term);
 				if (element instanceof ListResource) {
 					result = (ListResource) element;
 				} else if (element instanceof Undef || element == null) {
-					result = new ListResource();
+					result = new ListResource(isPersistentBacking());
 					put(term, result);
 				} else {
 					throw EvaluationException.create(
@@ -217,7 +424,7 @@ abstract public class Resource extends PersistentElement implements
 			// More to do. Pull out the given child.
 			Element child = null;
 			try {
-				child = get(term);
+				child = getChild(term);
 			} catch (InvalidTermException ite) {
 				throw ite.setInfo(terms, index, getTypeAsString());
 			}
@@ -226,9 +433,9 @@ abstract public class Resource extends PersistentElement implements
 			// new Resource.
 			if (child == null || child instanceof Undef) {
 				if (terms[index + 1].isKey()) {
-					child = new HashResource();
+					child = new HashResource(isPersistentBacking());
 				} else {
-					child = new ListResource();
+					child = new ListResource(isPersistentBacking());
 				}
 				put(term, child);
 			}
@@ -246,6 +453,7 @@ abstract public class Resource extends PersistentElement implements
 
 		}
 
+		lend(term, result);
 		return result;
 	}
 
@@ -259,6 +467,25 @@ abstract public class Resource extends PersistentElement implements
 	 */
 	abstract public Resource.Iterator iterator();
 
+	/**
+	 * Get a cursor over the children of this resource. The values are the
+	 * same as those returned by the iterator, but a single cursor object is
+	 * used for the whole iteration rather than an entry per child.
+	 * 
+	 * @return cursor positioned before the first child
+	 */
+	abstract public Resource.Cursor cursor();
+
+	/**
+	 * Get a cursor that returns the children exactly as they are stored in
+	 * this resource: they are neither protected nor lent. This is intended for
+	 * code that only reads the tree, like the formatters and the validation.
+	 * The caller must never modify the returned values.
+	 * 
+	 * @return cursor positioned before the first child
+	 */
+	abstract public Resource.Cursor readCursor();
+
 	/**
 	 * Interface is an alias to make the syntax for the Resource.Entry less
 	 * cumbersome. There are no additional methods required in this interface.
@@ -279,4 +506,46 @@ abstract public class Resource extends PersistentElement implements
 	 */
 	public static interface Iterator extends java.util.Iterator<Resource.Entry> {
 	}
+
+	/**
+	 * Iteration over the children of a resource without allocating an entry
+	 * for each child. The cursor starts before the first child; each call to
+	 * next() moves it to the following child. Structural changes to the
+	 * resource during the iteration are not permitted.
+	 * 
+	 * @author loomis
+	 * 
+	 */
+	public static interface Cursor {
+
+		/**
+		 * Move to the next child.
+		 * 
+		 * @return false if there are no more children
+		 */
+		public boolean next();
+
+		/**
+		 * Returns the key of the current child as a string: the key for a
+		 * dict and the decimal index for a list.
+		 * 
+		 * @return name of the current child
+		 */
+		public String getName();
+
+		/**
+		 * Returns the key of the current child as a property. A new property
+		 * may be created for each call.
+		 * 
+		 * @return key of the current child
+		 */
+		public Property getKey();
+
+		/**
+		 * Returns the value of the current child.
+		 * 
+		 * @return value of the current child
+		 */
+		public Element getValue();
+	}
 }
@@ -0,0 +1,251 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.dml.data;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map for the children of small dicts. The keys and values are kept
+ * alternately in a single array, sorted by key, so that iteration has the same
+ * order as a <code>TreeMap</code>. Lookups use a binary search.
+ *
+ * A tree map needs an entry object of about 40 bytes for each key; here the
+ * overhead is two array slots per key. The map holds at most
+ * <code>MAXIMUM_SIZE</code> entries; the owning dict must switch to a tree
+ * map before adding more (see {@link #isFull()}).
+ *
+ * @author loomis
+ *
+ */
+final class SortedArrayMap extends AbstractMap<String, Element> implements
+		Serializable {
+
+	/**
+	 * Largest number of entries held by this type of map.
+	 */
+	public static final int MAXIMUM_SIZE = 8;
+
+	private static final Object[] EMPTY_TABLE = new Object[0];
+
+	/**
+	 * Keys at the even indices, each followed by its value.
+	 */
+	private Object[] table;
+
+	private int size;
+
+	private transient int modCount;
+
+	public SortedArrayMap() {
+		table = EMPTY_TABLE;
+		size = 0;
+	}
+
+	/**
+	 * Create a map with room for the given number of entries.
+	 *
+	 * @param capacity
+	 *            initial capacity; must not exceed the maximum size
+	 */
+	public SortedArrayMap(int capacity) {
+		assert (capacity <= MAXIMUM_SIZE);
+		table = (capacity > 0) ? new Object[2 * capacity] : EMPTY_TABLE;
+		size = 0;
+	}
+
+	/**
+	 * Determine if the map can take another key.
+	 *
+	 * @return true if the map contains the maximum number of entries
+	 */
+	public boolean isFull() {
+		return size >= MAXIMUM_SIZE;
+	}
+
+	/**
+	 * Returns the index of the entry with the given key or, if there is none,
+	 * (-(insertion point) - 1), like <code>Arrays.binarySearch</code>.
+	 */
+	private int search(String key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = ((String) table[2 * mid]).compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private int indexOf(Object key) {
+		return (key instanceof String) ? search((String) key) : -1;
+	}
+
+	/**
+	 * Returns the key of the entry at the given position in key order.
+	 */
+	String keyAt(int index) {
+		return (String) table[2 * index];
+	}
+
+	/**
+	 * Returns the value of the entry at the given position in key order.
+	 */
+	Element valueAt(int index) {
+		return (Element) table[2 * index + 1];
+	}
+
+	/**
+	 * Returns a counter which changes whenever a key is added or removed.
+	 */
+	int modCount() {
+		return modCount;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public Element get(Object key) {
+		int index = indexOf(key);
+		return (index >= 0) ? (Element) table[2 * index + 1] : null;
+	}
+
+	@Override
+	public Element put(String key, Element value) {
+
+		int index = search(key);
+		if (index >= 0) {
+			Element oldValue = (Element) table[2 * index + 1];
+			table[2 * index + 1] = value;
+			return oldValue;
+		}
+
+		if (isFull()) {
+			throw new IllegalStateException("map is full");
+		}
+
+		index = -(index + 1);
+		if (2 * size == table.length) {
+			int capacity = Math.min((size < 2) ? size + 1 : 2 * size,
+					MAXIMUM_SIZE);
+			table = Arrays.copyOf(table, 2 * capacity);
+		}
+		System.arraycopy(table, 2 * index, table, 2 * index + 2, 2 * (size - index));
+		table[2 * index] = key;
+		table[2 * index + 1] = value;
+		size++;
+		modCount++;
+
+		return null;
+	}
+
+	@Override
+	public Element remove(Object key) {
+
+		int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+
+		Element oldValue = (Element) table[2 * index + 1];
+		System.arraycopy(table, 2 * index + 2, table, 2 * index,
+				2 * (size - index - 1));
+		size--;
+		table[2 * size] = null;
+		table[2 * size + 1] = null;
+		modCount++;
+
+		return oldValue;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(table, 0, 2 * size, null);
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Element>> entrySet() {
+		return new EntrySet();
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<String, Element>> {
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<Map.Entry<String, Element>> iterator() {
+			return new EntryIterator();
+		}
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String, Element>> {
+
+		private int index = 0;
+
+		private final int expectedModCount = modCount;
+
+		public boolean hasNext() {
+			return index < size;
+		}
+
+		public Map.Entry<String, Element> next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (index >= size) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<String, Element> entry = new SimpleImmutableEntry<String, Element>(
+					(String) table[2 * index], (Element) table[2 * index + 1]);
+			index++;
+			return entry;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
@@ -22,6 +22,7 @@ package org.quattor.pan.dml.functions;
 
 import java.util.logging.Level;
 
+import org.quattor.pan.cache.FunctionMemo;
 import org.quattor.pan.dml.AbstractOperation;
 import org.quattor.pan.dml.Operation;
 import org.quattor.pan.dml.data.Element;
@@ -63,11 +64,31 @@ final public class Function extends AbstractOperation {
 					sourceRange, context);
 		}
 
-		// Create the args array for the function call.
+		// Evaluate the arguments of the function call.
 		int nargs = ops.length;
-		ListResource argv = new ListResource();
+		Element[] args = new Element[nargs];
 		for (int i = 0; i < nargs; i++) {
-			argv.put(i, ops[i].execute(context));
+			args[i] = ops[i].execute(context);
+		}
+
+		// Reuse the result of an earlier call of a pure function with the
+		// same arguments, possibly from another object.
+		FunctionMemo memo = null;
+		if (fd.pure && FunctionMemo.isCacheable(args)) {
+			memo = context.getFunctionMemo();
+			if (memo != null) {
+				Element cached = memo.get(fd.dml, args);
+				if (cached != null) {
+					return cached;
+				}
+			}
+		}
+		long start = (memo != null) ? System.nanoTime() : 0L;
+
+		// Create the args array for the function call.
+		ListResource argv = new ListResource(context.isPersistentBacking());
+		for (int i = 0; i < nargs; i++) {
+			argv.put(i, args[i]);
 		}
 
 		// Save the old local variables. This will also create and install a new
@@ -105,6 +126,10 @@ final public class Function extends AbstractOperation {
 		// Restore the old local variable definitions.
 		context.restoreLocalVariableMap(oldLocalVariables);
 
+		if (memo != null) {
+			memo.put(fd.dml, args, result, System.nanoTime() - start);
+		}
+
 		return result;
 	}
 
@@ -86,12 +86,13 @@ final public class Hash extends BuiltInFunction {
 		return new Hash(sourceRange, operations);
 	}
 
-	private static HashResource createHashFromArgs(Element[] args) {
+	private static HashResource createHashFromArgs(Element[] args,
+			boolean persistent) {
 
 		assert ((args.length % 2) == 0);
 
 		// Create a new hash for the result.
-		HashResource result = new HashResource();
+		HashResource result = new HashResource(persistent);
 
 		// Fill up the hash.
 		for (int i = 0; i < args.length; i += 2) {
@@ -150,7 +151,7 @@ final public class Hash extends BuiltInFunction {
 		// Create a new hash. Catch any evaluation errors and add appropriate
 		// location information.
 		try {
-			return createHashFromArgs(args);
+			return createHashFromArgs(args, context.isPersistentBacking());
 		} catch (EvaluationException ee) {
 			throw ee.addExceptionInfo(sourceRange, context);
 		}
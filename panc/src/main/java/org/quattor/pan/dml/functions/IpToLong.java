@@ -112,7 +112,7 @@ final public class IpToLong extends BuiltInFunction {
             /* Nothing to do if there is no bitmask */
         }
 
-        ListResource result = new ListResource();
+        ListResource result = new ListResource(context.isPersistentBacking());
 
         ((ListResource) result).append(LongProperty.getInstance(nip));
 
@@ -81,7 +81,7 @@ final public class Matches extends AbstractVariableMatcher {
 			Pattern pattern = compilePattern(args[1], flags);
 			Matcher matcher = pattern.matcher(s);
 
-			ListResource list = new ListResource();
+			ListResource list = new ListResource(context.isPersistentBacking());
 			if (matcher.find()) {
 
 				// Find the last non-null group.
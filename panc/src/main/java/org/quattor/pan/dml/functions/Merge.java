@@ -78,7 +78,8 @@ final public class Merge extends BuiltInFunction {
 			try {
 
 				// Create the result.
-				HashResource dictResult = new HashResource();
+				HashResource dictResult = new HashResource(
+						context.isPersistentBacking());
 				result = dictResult;
 
 				// Copy the first dict as the basis.
@@ -112,7 +113,8 @@ final public class Merge extends BuiltInFunction {
 			try {
 
 				// Create the result.
-				ListResource listResult = new ListResource();
+				ListResource listResult = new ListResource(
+						context.isPersistentBacking());
 				result = listResult;
 
 				// Copy the first list as the basis.
@@ -98,7 +98,7 @@ final public class PathExists extends BuiltInFunction {
 			if (!path.isRelative()) {
 
 				// Absolute or external paths are OK.
-				exists = (context.getElement(path, false) != null);
+				exists = (context.readElement(path) != null);
 			} else {
 
 				// Relative paths are not.
@@ -171,7 +171,7 @@ final public class Splice extends BuiltInFunction {
 			ListResource slist = (ListResource) args[0];
 
 			ListResource mlist = (args.length == 4) ? ((ListResource) args[3])
-					: new ListResource();
+					: new ListResource(context.isPersistentBacking());
 
 			if (start < 0) {
 				start = slist.size() + start;
@@ -207,7 +207,8 @@ final public class Splice extends BuiltInFunction {
 
 			// Iterate over all of the items in the source list. Copy them into
 			// the result as appropriate.
-			ListResource rlist = new ListResource();
+			ListResource rlist = new ListResource(
+					context.isPersistentBacking());
 			result = rlist;
 
 			// Copy the starting entries into the result.
@@ -117,7 +117,7 @@ final public class Split extends BuiltInFunction {
 
 		// Create the list of strings to return.
 		String[] results = regex.split(target, limit);
-		ListResource list = new ListResource();
+		ListResource list = new ListResource(context.isPersistentBacking());
 		long index = 0L;
 		for (String s : results) {
 			Term t = TermFactory.create(index++);
@@ -67,7 +67,7 @@ final public class StaticMatches extends AbstractStaticMatcher {
 
 			Matcher matcher = pattern.matcher(s);
 
-			ListResource list = new ListResource();
+			ListResource list = new ListResource(context.isPersistentBacking());
 			if (matcher.find()) {
 
 				// Find the last non-null group.
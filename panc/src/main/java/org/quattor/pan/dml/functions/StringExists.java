@@ -107,7 +107,7 @@ final public class StringExists extends Exists {
 			if (path != null && !path.isRelative()) {
 
 				// It was a path, so look it up for answer.
-				exists = (context.getElement(path, false) != null);
+				exists = (context.readElement(path) != null);
 
 			} else {
 
@@ -74,8 +74,8 @@ final public class Value extends BuiltInFunction {
 			String s = ((StringProperty) args[0]).getValue();
 			try {
 				p = new Path(s);
-                // errorIfNotFound=false; missing path is handled w optional default below
-				result = context.getElement(p, false);
+                // a missing path is handled with the optional default below
+				result = context.readElement(p);
 			} catch (SyntaxException se) {
 				throw new EvaluationException(se.getSimpleMessage(),
 						sourceRange, context);
@@ -79,15 +79,16 @@ final public class Foreach extends AbstractOperation {
 
 		try {
 
-			for (Resource.Entry entry : resource) {
+			Resource.Cursor cursor = resource.cursor();
+			while (cursor.next()) {
 
 				// Set the key.
-				keyVariable.execute(context, entry.getKey());
+				keyVariable.execute(context, cursor.getKey());
 
 				// Set the value. Always set to undef first to allow iteration
 				// over resources with different types of children.
 				valueVariable.execute(context, Undef.VALUE);
-				valueVariable.execute(context, entry.getValue());
+				valueVariable.execute(context, cursor.getValue());
 
 				// Execute the body of the loop.
 				result = body.execute(context);
@@ -22,7 +22,9 @@ package org.quattor.pan.dml.operators;
 
 import org.quattor.pan.dml.AbstractOperation;
 import org.quattor.pan.dml.Operation;
+import org.quattor.pan.ttemplate.FrameLayout;
 import org.quattor.pan.ttemplate.SourceRange;
+import org.quattor.pan.ttemplate.VariableSlot;
 
 /**
  * Looks up and potentially dereferences a variable in the execution context.
@@ -34,11 +36,36 @@ abstract public class ListVariable extends AbstractOperation {
 
 	protected final String identifier;
 
+	protected VariableSlot variable;
+
 	protected ListVariable(SourceRange sourceRange, String identifier,
 			Operation... operations) {
 		super(sourceRange, operations);
 		assert (identifier != null);
 		this.identifier = identifier;
+		this.variable = new VariableSlot(identifier);
+	}
+
+	/**
+	 * Returns the name of the variable looked up by this operation.
+	 * 
+	 * @return name of the variable
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * Resolve the referenced variable against the given frame layout, as for
+	 * <code>Variable</code>.
+	 * 
+	 * @param layout
+	 *            layout of the enclosing frame
+	 */
+	public void resolveLocalVariable(FrameLayout layout) {
+		if (!"SELF".equals(identifier)) {
+			variable = layout.createSlot(identifier);
+		}
 	}
 
 	public static ListVariable getInstance(SourceRange sourceRange,
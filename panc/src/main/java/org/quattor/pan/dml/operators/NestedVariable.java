@@ -62,7 +62,7 @@ public class NestedVariable extends Variable {
 		try {
 			try {
 
-				result = context.dereferenceVariable(identifier, lookupOnly,
+				result = context.dereferenceVariable(variable, lookupOnly,
 						terms);
 
 			} catch (InvalidTermException ite) {
@@ -96,7 +96,7 @@ public class SelfNestedListVariable extends NestedListVariable {
 		} else if ((result instanceof Undef) || (result instanceof Null)) {
 
 			// Ok. Create an empty list and reset the value of SELF.
-			result = new ListResource();
+			result = new ListResource(context.isPersistentBacking());
 			context.resetSelf(result);
 
 		} else if (result.isProtected()) {
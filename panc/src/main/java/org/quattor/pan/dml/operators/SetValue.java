@@ -31,7 +31,9 @@ import org.quattor.pan.exceptions.CompilerError;
 import org.quattor.pan.exceptions.EvaluationException;
 import org.quattor.pan.exceptions.SyntaxException;
 import org.quattor.pan.ttemplate.Context;
+import org.quattor.pan.ttemplate.FrameLayout;
 import org.quattor.pan.ttemplate.SourceRange;
+import org.quattor.pan.ttemplate.VariableSlot;
 import org.quattor.pan.utils.Term;
 import org.quattor.pan.utils.TermFactory;
 
@@ -56,12 +58,15 @@ public class SetValue extends AbstractOperation {
 
 	protected String identifier;
 
+	protected VariableSlot variable;
+
 	protected SetValue(SourceRange sourceRange, String identifier,
 			Operation... operations) throws SyntaxException {
 		super(sourceRange, operations);
 
 		assert (identifier != null);
 		this.identifier = identifier;
+		this.variable = new VariableSlot(identifier);
 
 		// Ensure the name is valid.
 		validName(identifier);
@@ -103,6 +108,28 @@ public class SetValue extends AbstractOperation {
 		}
 	}
 
+	/**
+	 * Returns the name of the local variable set by this operation.
+	 * 
+	 * @return name of the variable
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * Resolve the assigned variable against the given frame layout. SELF is
+	 * handled separately and is never resolved.
+	 * 
+	 * @param layout
+	 *            layout of the enclosing frame
+	 */
+	public void resolveLocalVariable(FrameLayout layout) {
+		if (!"SELF".equals(identifier)) {
+			variable = layout.createSlot(identifier);
+		}
+	}
+
 	public static SetValue getInstance(SourceRange sourceRange,
 			String identifier, Operation... operations) throws SyntaxException {
 		return createSubclass(sourceRange, identifier, operations);
@@ -168,7 +195,7 @@ public class SetValue extends AbstractOperation {
 		// Now set the value. May throw an exception if this is a global
 		// variable.
 		try {
-			context.setLocalVariable(identifier, terms, dupResult);
+			context.setLocalVariable(variable, terms, dupResult);
 		} catch (EvaluationException ee) {
 			throw ee.addExceptionInfo(sourceRange, context);
 		}
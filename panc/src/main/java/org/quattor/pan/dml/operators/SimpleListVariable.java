@@ -53,7 +53,7 @@ public class SimpleListVariable extends ListVariable {
 
 		// The value pulled out will be modified. Because of this the given
 		// variable must be a local variable.
-		Element result = context.getLocalVariable(identifier);
+		Element result = context.getLocalVariable(variable);
 
 		if (result == null) {
 
@@ -74,20 +74,20 @@ public class SimpleListVariable extends ListVariable {
 			}
 
 			// Ok. Create an empty list and a local variable with this name.
-			result = new ListResource();
-			context.setLocalVariable(identifier, result);
+			result = new ListResource(context.isPersistentBacking());
+			context.setLocalVariable(variable, result);
 
 		} else if ((result instanceof Undef) || (result instanceof Null)) {
 
 			// Create an empty list and set the local variable to this value.
-			result = new ListResource();
-			context.setLocalVariable(identifier, result);
+			result = new ListResource(context.isPersistentBacking());
+			context.setLocalVariable(variable, result);
 
 		} else if (result.isProtected()) {
 
 			// The given value is protected. Replace it with a writable copy.
 			result = result.writableCopy();
-			context.setLocalVariable(identifier, result);
+			context.setLocalVariable(variable, result);
 
 		}
 
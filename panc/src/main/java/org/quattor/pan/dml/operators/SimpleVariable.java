@@ -49,7 +49,7 @@ public class SimpleVariable extends Variable {
 	public Element execute(Context context) {
 
 		// Look up the variable.
-		Element result = context.getVariable(identifier);
+		Element result = context.getVariable(variable);
 
 		// Return an error if the variable doesn't exist.
 		if (result == null && !lookupOnly) {
@@ -60,10 +60,6 @@ public class SimpleVariable extends Variable {
 		return result;
 	}
 
-	public String getIdentifier() {
-		return identifier;
-	}
-
 	@Override
 	public String toString() {
 		return this.getClass().getSimpleName() + "(" + identifier + ","
@@ -22,7 +22,9 @@ package org.quattor.pan.dml.operators;
 
 import org.quattor.pan.dml.AbstractOperation;
 import org.quattor.pan.dml.Operation;
+import org.quattor.pan.ttemplate.FrameLayout;
 import org.quattor.pan.ttemplate.SourceRange;
+import org.quattor.pan.ttemplate.VariableSlot;
 
 /**
  * Looks up and potentially dereferences a variable in the execution context.
@@ -36,14 +38,40 @@ abstract public class Variable extends AbstractOperation {
 
 	protected final boolean lookupOnly;
 
+	protected VariableSlot variable;
+
 	protected Variable(SourceRange sourceRange, String identifier,
 			boolean lookupOnly, Operation... operations) {
 		super(sourceRange, operations);
 		assert (identifier != null);
 		this.identifier = identifier;
+		this.variable = new VariableSlot(identifier);
 		this.lookupOnly = lookupOnly;
 	}
 
+	/**
+	 * Returns the name of the referenced variable.
+	 * 
+	 * @return name of the variable
+	 */
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	/**
+	 * Resolve the referenced local variable to a slot of the given frame
+	 * layout. This is done by the compiler for the variables of each function
+	 * body and top-level DML block. References to SELF are never resolved.
+	 * 
+	 * @param layout
+	 *            layout of the enclosing frame
+	 */
+	public void resolveLocalVariable(FrameLayout layout) {
+		if (!"SELF".equals(identifier)) {
+			variable = layout.createSlot(identifier);
+		}
+	}
+
 	public static Variable getInstance(SourceRange sourceRange,
 			String identifier, Operation... operations) {
 		return Variable.getInstance(sourceRange, identifier, false, operations);
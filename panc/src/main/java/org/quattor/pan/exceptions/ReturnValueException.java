@@ -27,6 +27,12 @@ import org.quattor.pan.dml.data.Element;
  * Implementing the return statement in this way allows most of the stack
  * information to be kept within the virtual machine.
  *
+ * These exceptions are only used for control flow and are always caught by
+ * the enclosing function call or DML block. They therefore neither record a
+ * stack trace nor accept suppressed exceptions; filling in the stack trace
+ * would otherwise dominate the cost of calling small functions from deep
+ * within the interpreter.
+ *
  * @author loomis
  *
  */
@@ -36,7 +42,7 @@ public class ReturnValueException extends RuntimeException {
 	final private Element element;
 
 	public ReturnValueException(Element element) {
-		super("ReturnValueException");
+		super("ReturnValueException", null, false, false);
 		this.element = element;
 	}
 
@@ -23,6 +23,7 @@ package org.quattor.pan.output;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URI;
@@ -31,7 +32,7 @@ import java.net.URISyntaxException;
 import org.quattor.pan.exceptions.CompilerError;
 import org.quattor.pan.tasks.FinalResult;
 
-public abstract class AbstractFormatter implements Formatter {
+public abstract class AbstractFormatter implements StreamFormatter {
 
 	private final String suffix;
 
@@ -56,24 +57,28 @@ public abstract class AbstractFormatter implements Formatter {
 	}
 
 	public void write(FinalResult result, URI outputURI) throws Exception {
+		write(result, new FileOutputStream(new File(outputURI)));
+	}
+
+	public void write(FinalResult result, OutputStream os) throws Exception {
 
 		PrintWriter pw = null;
 		try {
-			pw = getPrintWriter(new File(outputURI));
+			pw = getPrintWriter(os);
 			write(result, pw);
 		} finally {
-			closeReliably(pw);
+			closeReliably((pw != null) ? pw : os);
 		}
 	}
 
-	protected PrintWriter getPrintWriter(File file) throws Exception {
-        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	protected PrintWriter getPrintWriter(OutputStream os) throws Exception {
+		return new PrintWriter(new OutputStreamWriter(os, "UTF-8"));
 	}
 
 	protected abstract void write(FinalResult result, PrintWriter ps)
 			throws Exception;
 
-	private static void closeReliably(Closeable closeable) {
+	protected static void closeReliably(Closeable closeable) {
 		if (closeable != null) {
 			try {
 				closeable.close();
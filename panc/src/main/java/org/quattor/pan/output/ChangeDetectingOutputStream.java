@@ -0,0 +1,184 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+
+package org.quattor.pan.output;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Stream receiving the new contents of an output file, which only replaces
+ * the file if the contents have changed. The bytes are written to a
+ * temporary file in the same directory while their digest is computed; they
+ * are never held in memory. Once the stream has been closed,
+ * <code>commit()</code> compares the digest with that of the existing file,
+ * which is only read if it has the same length. An unchanged file keeps its
+ * modification time and the temporary file is deleted. Otherwise the
+ * temporary file gets the given timestamp and then replaces the output file
+ * with a rename, so that readers never see a partially written file.
+ *
+ * @author loomis
+ *
+ */
+public class ChangeDetectingOutputStream extends DigestOutputStream {
+
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+
+	private final File tmpFile;
+
+	private boolean closed = false;
+
+	private ChangeDetectingOutputStream(File file, File tmpFile,
+			OutputStream os) {
+		super(new BufferedOutputStream(os, BUFFER_SIZE), createDigest());
+		this.file = file;
+		this.tmpFile = tmpFile;
+	}
+
+	/**
+	 * Create a stream for the new contents of the given file. The temporary
+	 * file is created immediately.
+	 *
+	 * @param file
+	 *            absolute path of the output file; the parent directory must
+	 *            exist
+	 *
+	 * @return stream for the new contents
+	 *
+	 * @throws IOException
+	 *             if the temporary file cannot be created
+	 */
+	public static ChangeDetectingOutputStream create(File file)
+			throws IOException {
+
+		File tmpFile = File.createTempFile("." + file.getName() + ".",
+				".tmp", file.getParentFile());
+		try {
+			return new ChangeDetectingOutputStream(file, tmpFile,
+					new FileOutputStream(tmpFile));
+		} catch (IOException e) {
+			tmpFile.delete();
+			throw e;
+		}
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// All java implementations are required to provide SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			super.close();
+		}
+	}
+
+	/**
+	 * Replace the output file with the new contents unless they are the same
+	 * as those of the existing file. The stream is closed first if needed.
+	 * The temporary file is removed in all cases.
+	 *
+	 * @param timestamp
+	 *            unix timestamp to use for the last modified value of a
+	 *            written file
+	 *
+	 * @return true if the file was written, false if it was left untouched
+	 *
+	 * @throws IOException
+	 *             if the files cannot be read or renamed
+	 */
+	public boolean commit(long timestamp) throws IOException {
+
+		boolean renamed = false;
+		try {
+			close();
+
+			if (file.isFile() && file.length() == tmpFile.length()
+					&& Arrays.equals(digest.digest(), digestFile(file))) {
+				return false;
+			}
+
+			FormatterUtils.setOutputTimestamp(tmpFile, timestamp);
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			renamed = true;
+			return true;
+
+		} finally {
+			if (!renamed) {
+				tmpFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Drop the new contents, leaving the output file untouched. This is used
+	 * when the contents could not be written completely.
+	 */
+	public void discard() {
+		try {
+			close();
+		} catch (IOException consumed) {
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+	private static byte[] digestFile(File file) throws IOException {
+		MessageDigest digest = createDigest();
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = is.read(buffer)) >= 0) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			is.close();
+		}
+		return digest.digest();
+	}
+
+}
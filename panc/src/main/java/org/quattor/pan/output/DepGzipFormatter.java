@@ -20,28 +20,36 @@
 
 package org.quattor.pan.output;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.zip.GZIPOutputStream;
 
-public class DepGzipFormatter extends DepFormatter {
+public class DepGzipFormatter extends DepFormatter implements
+		GzipFormatter {
 
-	private static final DepGzipFormatter instance = new DepGzipFormatter();
+	private static final DepGzipFormatter instance = new DepGzipFormatter(
+			GzipOptions.getDefault());
 
-	private DepGzipFormatter() {
+	private final GzipOptions gzipOptions;
+
+	private DepGzipFormatter(GzipOptions gzipOptions) {
 		super("dep.gz", "dep.gz");
+		this.gzipOptions = gzipOptions;
 	}
 
 	public static DepGzipFormatter getInstance() {
 		return instance;
 	}
 
+	public Formatter withGzipOptions(GzipOptions options) {
+		if (options.equals(gzipOptions)) {
+			return this;
+		}
+		return new DepGzipFormatter(options);
+	}
+
 	@Override
-	protected PrintWriter getPrintWriter(File file) throws Exception {
-		OutputStream os = new FileOutputStream(file);
-		OutputStream gzip = new GZIPOutputStream(os);
+	protected PrintWriter getPrintWriter(OutputStream os) throws Exception {
+		OutputStream gzip = new ParallelGzipOutputStream(os, gzipOptions);
 		return new PrintWriter(gzip);
 	}
 
@@ -77,9 +77,9 @@ public class DotFormatter extends AbstractFormatter {
 			// Iterate over all children of the hash, setting the name attribute
 			// for each one.
 			Resource resource = (Resource) node;
-			for (Resource.Entry entry : resource) {
-				String nameChild = entry.getKey().toString();
-				writeChild(myPath, nameChild, entry.getValue(), ps);
+			Resource.Cursor cursor = resource.readCursor();
+			while (cursor.next()) {
+				writeChild(myPath, cursor.getName(), cursor.getValue(), ps);
 			}
 		}
 
@@ -100,9 +100,9 @@ public class DotFormatter extends AbstractFormatter {
 			// Iterate over all children of the hash, setting the name attribute
 			// for each one.
 			Resource resource = (Resource) node;
-			for (Resource.Entry entry : resource) {
-				String nameChild = entry.getKey().toString();
-				writeChild(myPath, nameChild, entry.getValue(), ps);
+			Resource.Cursor cursor = resource.readCursor();
+			while (cursor.next()) {
+				writeChild(myPath, cursor.getName(), cursor.getValue(), ps);
 			}
 
 		} else {
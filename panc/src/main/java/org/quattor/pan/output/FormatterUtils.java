@@ -8,6 +8,7 @@ import java.util.HashMap;
 
 import org.quattor.pan.exceptions.CompilerError;
 import org.quattor.pan.exceptions.SystemException;
+import org.quattor.pan.tasks.FinalResult;
 import org.quattor.pan.utils.MessageUtils;
 
 public class FormatterUtils {
@@ -25,6 +26,8 @@ public class FormatterUtils {
 				PanFormatter.getInstance(), PanGzipFormatter.getInstance(),
 				XmlFormatter.getInstance(), XmlGzipFormatter.getInstance(),
 				JsonFormatter.getInstance(), JsonGzipFormatter.getInstance(),
+				JsonFormatter.getCompactInstance(),
+				JsonGzipFormatter.getCompactInstance(),
                 NullFormatter.getInstance()};
 
 		// Insert the values, letting the instances choose their key values.
@@ -102,4 +105,39 @@ public class FormatterUtils {
 			// Should emit a warning to the user....
 		}
 	}
+
+	/**
+	 * Writes the output of the formatter to the given file unless the file
+	 * already contains exactly the same bytes. The output is streamed through
+	 * a <code>ChangeDetectingOutputStream</code>.
+	 *
+	 * @param formatter
+	 *            formatter producing the output
+	 * @param result
+	 *            final result of the object to write
+	 * @param absolutePath
+	 *            full path of the output file
+	 * @param timestamp
+	 *            unix timestamp to use for the last modified value of a
+	 *            written file
+	 *
+	 * @return true if the file was written, false if it was left untouched
+	 *
+	 * @throws Exception
+	 *             if the output cannot be formatted or written
+	 */
+	public static boolean writeIfChanged(StreamFormatter formatter,
+			FinalResult result, File absolutePath, long timestamp)
+			throws Exception {
+
+		ChangeDetectingOutputStream os = ChangeDetectingOutputStream
+				.create(absolutePath);
+		try {
+			formatter.write(result, os);
+		} catch (Exception e) {
+			os.discard();
+			throw e;
+		}
+		return os.commit(timestamp);
+	}
 }
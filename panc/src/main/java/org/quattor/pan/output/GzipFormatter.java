@@ -0,0 +1,41 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+/**
+ * A formatter that writes gzipped files. The compression can be configured
+ * for a compilation.
+ *
+ * @author loomis
+ *
+ */
+public interface GzipFormatter extends Formatter {
+
+	/**
+	 * Returns a formatter writing the same format as this one, but with the
+	 * given compression settings.
+	 *
+	 * @param options
+	 *            compression settings
+	 *
+	 * @return formatter using the settings; this instance if they are the
+	 *         same as its own
+	 */
+	public Formatter withGzipOptions(GzipOptions options);
+
+}
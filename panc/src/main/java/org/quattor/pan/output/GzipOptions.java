@@ -0,0 +1,126 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+/**
+ * Settings for the compression of the gzipped output formats. Instances of
+ * this class are immutable.
+ *
+ * @author loomis
+ *
+ */
+public final class GzipOptions {
+
+	/**
+	 * Smallest block size; each block uses the last 32 KB of the previous one
+	 * as its dictionary.
+	 */
+	public static final int MINIMUM_BLOCK_SIZE = 32 * 1024;
+
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	public static final int DEFAULT_LEVEL = 6;
+
+	private static final GzipOptions defaults = new GzipOptions(
+			DEFAULT_BLOCK_SIZE, DEFAULT_LEVEL, 0);
+
+	/**
+	 * Size in bytes of the uncompressed blocks that are compressed
+	 * independently.
+	 */
+	public final int blockSize;
+
+	/**
+	 * Compression level from 0 (no compression) to 9 (best compression).
+	 */
+	public final int level;
+
+	/**
+	 * Maximum number of blocks of a single file that are compressed at the
+	 * same time.
+	 */
+	public final int nthread;
+
+	/**
+	 * Create the settings for the gzip compression.
+	 *
+	 * @param blockSize
+	 *            size of the uncompressed blocks in bytes; must be at least
+	 *            <code>MINIMUM_BLOCK_SIZE</code>
+	 * @param level
+	 *            compression level between 0 and 9
+	 * @param nthread
+	 *            number of blocks compressed in parallel for each file; 0 uses
+	 *            the number of CPU cores on the machine
+	 *
+	 * @throws IllegalArgumentException
+	 *             if one of the values is out of range
+	 */
+	public GzipOptions(int blockSize, int level, int nthread) {
+
+		if (blockSize < MINIMUM_BLOCK_SIZE) {
+			throw new IllegalArgumentException("gzip block size must be at least "
+					+ MINIMUM_BLOCK_SIZE + " bytes");
+		}
+		if (level < 0 || level > 9) {
+			throw new IllegalArgumentException(
+					"gzip compression level must be between 0 and 9");
+		}
+		if (nthread < 0) {
+			throw new IllegalArgumentException(
+					"number of gzip threads may not be negative");
+		}
+
+		this.blockSize = blockSize;
+		this.level = level;
+		this.nthread = (nthread > 0) ? nthread : Runtime.getRuntime()
+				.availableProcessors();
+	}
+
+	/**
+	 * Returns the settings used when nothing else has been given: blocks of
+	 * 128 KB, compression level 6, and one thread per CPU core.
+	 *
+	 * @return default settings
+	 */
+	public static GzipOptions getDefault() {
+		return defaults;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof GzipOptions)) {
+			return false;
+		}
+		GzipOptions other = (GzipOptions) o;
+		return blockSize == other.blockSize && level == other.level
+				&& nthread == other.nthread;
+	}
+
+	@Override
+	public int hashCode() {
+		return (blockSize * 31 + level) * 31 + nthread;
+	}
+
+	@Override
+	public String toString() {
+		return "block size " + blockSize + ", level " + level + ", threads "
+				+ nthread;
+	}
+
+}
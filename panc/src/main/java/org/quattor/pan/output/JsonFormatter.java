@@ -20,27 +20,70 @@
 
 package org.quattor.pan.output;
 
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 import org.quattor.pan.tasks.FinalResult;
 import org.quattor.pan.utils.JsonUtils;
 
-public class JsonFormatter extends AbstractFormatter {
+public class JsonFormatter extends AbstractFormatter implements TreeFormatter {
 
 	private static final JsonFormatter instance = new JsonFormatter();
 
+	private static final JsonFormatter compactInstance = new JsonFormatter(
+			"json", "json-compact", false);
+
+	protected final boolean pretty;
+
 	private JsonFormatter() {
-		super("json", "json");
+		this("json", "json", true);
 	}
 
 	protected JsonFormatter(String suffix, String key) {
+		this(suffix, key, true);
+	}
+
+	protected JsonFormatter(String suffix, String key, boolean pretty) {
 		super(suffix, key);
+		this.pretty = pretty;
 	}
 
 	public static JsonFormatter getInstance() {
 		return instance;
 	}
 
+	/**
+	 * Returns the formatter writing the JSON without any indentation or line
+	 * breaks. The output file has the same name as for the standard JSON
+	 * format.
+	 */
+	public static JsonFormatter getCompactInstance() {
+		return compactInstance;
+	}
+
+	@Override
+	public void write(FinalResult result, OutputStream os) throws Exception {
+
+		JsonStreamWriter json = createTreeWriter(os);
+		try {
+			json.write(result.getRoot());
+		} catch (Exception e) {
+			closeReliably(json);
+			throw e;
+		}
+		json.close();
+	}
+
+	public JsonStreamWriter createTreeWriter(OutputStream os) throws Exception {
+		return new JsonStreamWriter(getChannel(os), pretty);
+	}
+
+	protected WritableByteChannel getChannel(OutputStream os) throws Exception {
+		return Channels.newChannel(os);
+	}
+
 	protected void write(FinalResult result, PrintWriter ps) throws Exception {
 		JsonUtils json = JsonUtils.getInstance();
 		json.toJson(result.getRoot(), ps);
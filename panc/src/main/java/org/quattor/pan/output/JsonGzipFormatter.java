@@ -20,29 +20,46 @@
 
 package org.quattor.pan.output;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.util.zip.GZIPOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
-public class JsonGzipFormatter extends JsonFormatter {
+public class JsonGzipFormatter extends JsonFormatter implements
+		GzipFormatter {
 
-	private static final JsonGzipFormatter instance = new JsonGzipFormatter();
+	private static final JsonGzipFormatter instance = new JsonGzipFormatter(
+			"json.gz", true, GzipOptions.getDefault());
 
-	private JsonGzipFormatter() {
-		super("json.gz", "json.gz");
+	private static final JsonGzipFormatter compactInstance = new JsonGzipFormatter(
+			"json-compact.gz", false, GzipOptions.getDefault());
+
+	private final GzipOptions gzipOptions;
+
+	private JsonGzipFormatter(String key, boolean pretty,
+			GzipOptions gzipOptions) {
+		super("json.gz", key, pretty);
+		this.gzipOptions = gzipOptions;
 	}
 
 	public static JsonGzipFormatter getInstance() {
 		return instance;
 	}
 
+	public static JsonGzipFormatter getCompactInstance() {
+		return compactInstance;
+	}
+
+	public Formatter withGzipOptions(GzipOptions options) {
+		if (options.equals(gzipOptions)) {
+			return this;
+		}
+		return new JsonGzipFormatter(getFormatKey(), pretty, options);
+	}
+
 	@Override
-	protected PrintWriter getPrintWriter(File file) throws Exception {
-		OutputStream os = new FileOutputStream(file);
-		OutputStream gzip = new GZIPOutputStream(os);
-		return new PrintWriter(gzip);
+	protected WritableByteChannel getChannel(OutputStream os) throws Exception {
+		OutputStream gzip = new ParallelGzipOutputStream(os, gzipOptions);
+		return Channels.newChannel(gzip);
 	}
 
 }
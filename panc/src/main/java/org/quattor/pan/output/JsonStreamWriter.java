@@ -0,0 +1,343 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import static org.quattor.pan.utils.MessageUtils.MSG_FILE_BUG_REPORT;
+import static org.quattor.pan.utils.MessageUtils.MSG_INVALID_JSON_UNDEF;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.quattor.pan.dml.data.BooleanProperty;
+import org.quattor.pan.dml.data.DoubleProperty;
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.Null;
+import org.quattor.pan.dml.data.Property;
+import org.quattor.pan.dml.data.Resource;
+import org.quattor.pan.dml.data.Undef;
+import org.quattor.pan.exceptions.CompilerError;
+import org.quattor.pan.exceptions.EvaluationException;
+
+/**
+ * Writes a machine profile as JSON directly to a channel, encoding the
+ * characters as UTF-8 into a local buffer. No intermediate tree or string is
+ * created for the profile.
+ *
+ * The pretty-printed output is byte-for-byte the same as that of the Gson
+ * instance in <code>JsonUtils</code>: two-space indentation, HTML-safe string
+ * escapes, and dictionary entries with a null value left out. The compact
+ * output is the same without any whitespace.
+ *
+ * @author loomis
+ *
+ */
+public class JsonStreamWriter implements TreeWriter, Flushable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+	private static final byte[] TRUE = "true".getBytes();
+
+	private static final byte[] FALSE = "false".getBytes();
+
+	private static final byte[] NULL = "null".getBytes();
+
+	/**
+	 * Escape sequences for the ASCII characters; null for characters written
+	 * unchanged.
+	 */
+	private static final byte[][] ESCAPES = new byte[128][];
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ESCAPES[c] = String.format("\\u%04x", c).getBytes();
+		}
+		ESCAPES['"'] = "\\\"".getBytes();
+		ESCAPES['\\'] = "\\\\".getBytes();
+		ESCAPES['\t'] = "\\t".getBytes();
+		ESCAPES['\b'] = "\\b".getBytes();
+		ESCAPES['\n'] = "\\n".getBytes();
+		ESCAPES['\r'] = "\\r".getBytes();
+		ESCAPES['\f'] = "\\f".getBytes();
+		ESCAPES['<'] = "\\u003c".getBytes();
+		ESCAPES['>'] = "\\u003e".getBytes();
+		ESCAPES['&'] = "\\u0026".getBytes();
+		ESCAPES['='] = "\\u003d".getBytes();
+		ESCAPES['\''] = "\\u0027".getBytes();
+	}
+
+	private final WritableByteChannel channel;
+
+	private final boolean pretty;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private final byte[] bytes = buffer.array();
+
+	/**
+	 * Flag indicating that nothing has been written yet into the current dict
+	 * or list.
+	 */
+	private boolean empty = true;
+
+	/**
+	 * Create a writer for the given channel. The channel is closed when this
+	 * writer is closed.
+	 *
+	 * @param channel
+	 *            channel to write the UTF-8 encoded output to
+	 * @param pretty
+	 *            flag indicating whether the output should be indented
+	 */
+	public JsonStreamWriter(WritableByteChannel channel, boolean pretty) {
+		this.channel = channel;
+		this.pretty = pretty;
+	}
+
+	/**
+	 * Write the given element and all of its children. No newline is written
+	 * after the element.
+	 *
+	 * @param element
+	 *            element to write
+	 *
+	 * @throws IOException
+	 *             if the output cannot be written
+	 * @throws EvaluationException
+	 *             if the element contains an undefined value
+	 */
+	public void write(Element element) throws IOException {
+		TreeWalker.walk(element, this);
+	}
+
+	public void startDocument() {
+	}
+
+	public void startNode(String name, Element node, int depth)
+			throws IOException {
+
+		if (depth > 0) {
+
+			// Entries with a null value are not written (as with Gson when
+			// nulls are not serialized).
+			if (name != null && node instanceof Null) {
+				return;
+			}
+
+			if (!empty) {
+				writeByte(',');
+			}
+			newline(depth);
+
+			if (name != null) {
+				writeString(name);
+				writeByte(':');
+				if (pretty) {
+					writeByte(' ');
+				}
+			}
+		}
+
+		if (node instanceof HashResource) {
+			writeByte('{');
+			empty = true;
+		} else if (node instanceof ListResource) {
+			writeByte('[');
+			empty = true;
+		} else {
+			writeValue(node);
+			empty = false;
+		}
+	}
+
+	public void endNode(Resource node, int depth) throws IOException {
+		if (!empty) {
+			newline(depth);
+		}
+		writeByte((node instanceof HashResource) ? '}' : ']');
+
+		// The enclosing dict or list now has at least this child.
+		empty = false;
+	}
+
+	public void endDocument() {
+	}
+
+	private void writeValue(Element element) throws IOException {
+
+		if (element instanceof Null) {
+			writeBytes(NULL);
+		} else if (element instanceof Undef) {
+			throw EvaluationException.create(MSG_INVALID_JSON_UNDEF);
+		} else if (element instanceof BooleanProperty) {
+			writeBytes(((BooleanProperty) element).getValue() ? TRUE : FALSE);
+		} else if (element instanceof DoubleProperty) {
+			writeAscii(Double.toString(((DoubleProperty) element).getValue()));
+		} else if (element instanceof LongProperty) {
+			writeLong(((LongProperty) element).getValue());
+		} else if (element instanceof Property) {
+			writeString(((Property) element).getValue().toString());
+		} else {
+			throw CompilerError.create(MSG_FILE_BUG_REPORT);
+		}
+	}
+
+	private void newline(int depth) throws IOException {
+		if (pretty) {
+			writeByte('\n');
+			for (int i = 0; i < depth; i++) {
+				writeByte(' ');
+				writeByte(' ');
+			}
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+
+		writeByte('"');
+
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+
+			if (c < 0x80) {
+				byte[] escape = ESCAPES[c];
+				if (escape == null) {
+					writeByte(c);
+				} else {
+					writeBytes(escape);
+				}
+			} else if (c < 0x800) {
+				ensureCapacity(2);
+				buffer.put((byte) (0xc0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			} else if (c == 0x2028 || c == 0x2029) {
+				writeByte('\\');
+				writeByte('u');
+				writeByte(HEX[(c >> 12) & 0xf]);
+				writeByte(HEX[(c >> 8) & 0xf]);
+				writeByte(HEX[(c >> 4) & 0xf]);
+				writeByte(HEX[c & 0xf]);
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(s.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					ensureCapacity(4);
+					buffer.put((byte) (0xf0 | (cp >> 18)));
+					buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+					buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+					buffer.put((byte) (0x80 | (cp & 0x3f)));
+				} else {
+					// Unpaired surrogate; replaced as by the UTF-8 encoder.
+					writeByte('?');
+				}
+			} else {
+				ensureCapacity(3);
+				buffer.put((byte) (0xe0 | (c >> 12)));
+				buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+
+		writeByte('"');
+	}
+
+	private void writeLong(long value) throws IOException {
+
+		if (value == Long.MIN_VALUE) {
+			writeAscii(Long.toString(value));
+			return;
+		}
+
+		ensureCapacity(20);
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+
+		// Write the digits backwards at the end of the free space and then
+		// move them into place.
+		int end = buffer.position() + 19;
+		int start = end;
+		do {
+			bytes[--start] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		System.arraycopy(bytes, start, bytes, buffer.position(), end - start);
+		buffer.position(buffer.position() + (end - start));
+	}
+
+	private void writeAscii(String s) throws IOException {
+		int length = s.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++) {
+			buffer.put((byte) s.charAt(i));
+		}
+	}
+
+	private void writeBytes(byte[] b) throws IOException {
+		ensureCapacity(b.length);
+		buffer.put(b);
+	}
+
+	private void writeByte(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			drain();
+		}
+		buffer.put((byte) b);
+	}
+
+	private void ensureCapacity(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Write the buffered bytes to the channel.
+	 */
+	public void flush() throws IOException {
+		drain();
+	}
+
+	/**
+	 * Flush the buffered bytes and close the channel.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -22,7 +22,10 @@ package org.quattor.pan.output;
 
 import static org.quattor.pan.utils.MessageUtils.MSG_UNEXPECTED_EXCEPTION_WHILE_WRITING_OUTPUT;
 
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 
 import javax.xml.XMLConstants;
@@ -42,7 +45,7 @@ import org.quattor.pan.utils.XmlUtils;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
-public class PanFormatter extends AbstractFormatter {
+public class PanFormatter extends AbstractFormatter implements TreeFormatter {
 
 	private static final PanFormatter instance = new PanFormatter();
 
@@ -60,6 +63,27 @@ public class PanFormatter extends AbstractFormatter {
 		return instance;
 	}
 
+	@Override
+	public void write(FinalResult result, OutputStream os) throws Exception {
+
+		XmlStreamWriter xml = createTreeWriter(os);
+		try {
+			xml.write(result.getRoot());
+		} catch (Exception e) {
+			closeReliably(xml);
+			throw e;
+		}
+		xml.close();
+	}
+
+	public XmlStreamWriter createTreeWriter(OutputStream os) throws Exception {
+		return new XmlStreamWriter(getChannel(os), "profile");
+	}
+
+	protected WritableByteChannel getChannel(OutputStream os) throws Exception {
+		return Channels.newChannel(os);
+	}
+
 	protected void write(FinalResult result, PrintWriter ps) throws Exception {
 
 		Element root = result.getRoot();
@@ -136,10 +160,11 @@ public class PanFormatter extends AbstractFormatter {
 			// Iterate over all children of the hash, setting the name attribute
 			// for each one.
 			HashResource hash = (HashResource) node;
-			for (Resource.Entry entry : hash) {
-				String name = entry.getKey().toString();
-				atts.addAttribute(PAN_NS, null, "name", "CDATA", name);
-				writeChild(handler, atts, ps, entry.getValue());
+			Resource.Cursor cursor = hash.readCursor();
+			while (cursor.next()) {
+				atts.addAttribute(PAN_NS, null, "name", "CDATA",
+						cursor.getName());
+				writeChild(handler, atts, ps, cursor.getValue());
 			}
 
 		} else if (node instanceof ListResource) {
@@ -147,8 +172,9 @@ public class PanFormatter extends AbstractFormatter {
 			// Iterate over all children of the list. Children of lists are
 			// anonymous; do not set name attribute.
 			ListResource list = (ListResource) node;
-			for (Resource.Entry entry : list) {
-				writeChild(handler, atts, ps, entry.getValue());
+			Resource.Cursor cursor = list.readCursor();
+			while (cursor.next()) {
+				writeChild(handler, atts, ps, cursor.getValue());
 			}
 
 		} else if (node instanceof StringProperty) {
@@ -20,29 +20,38 @@
 
 package org.quattor.pan.output;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.util.zip.GZIPOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
-public class PanGzipFormatter extends PanFormatter {
+public class PanGzipFormatter extends PanFormatter implements
+		GzipFormatter {
 
-	private static final PanGzipFormatter instance = new PanGzipFormatter();
+	private static final PanGzipFormatter instance = new PanGzipFormatter(
+			GzipOptions.getDefault());
 
-	private PanGzipFormatter() {
+	private final GzipOptions gzipOptions;
+
+	private PanGzipFormatter(GzipOptions gzipOptions) {
 		super("xml.gz", "pan.gz");
+		this.gzipOptions = gzipOptions;
 	}
 
 	public static PanGzipFormatter getInstance() {
 		return instance;
 	}
 
+	public Formatter withGzipOptions(GzipOptions options) {
+		if (options.equals(gzipOptions)) {
+			return this;
+		}
+		return new PanGzipFormatter(options);
+	}
+
 	@Override
-	protected PrintWriter getPrintWriter(File file) throws Exception {
-		OutputStream os = new FileOutputStream(file);
-		OutputStream gzip = new GZIPOutputStream(os);
-		return new PrintWriter(gzip);
+	protected WritableByteChannel getChannel(OutputStream os) throws Exception {
+		OutputStream gzip = new ParallelGzipOutputStream(os, gzipOptions);
+		return Channels.newChannel(gzip);
 	}
 
 }
\ No newline at end of file
@@ -67,12 +67,10 @@ abstract public class PanTxtFormatter extends AbstractFormatter {
 
 			writeBegin(ps, nbTab, name, level, element.getTypeAsString());
 
-			for (Resource.Entry entry : resource) {
-				Property key = entry.getKey();
-				Element value = entry.getValue();
-
+			Resource.Cursor cursor = resource.readCursor();
+			while (cursor.next()) {
 				level++;
-				readChild(value, ps, level, key.toString());
+				readChild(cursor.getValue(), ps, level, cursor.getName());
 				level--;
 			}
 
@@ -0,0 +1,269 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream writing gzip data, where the data is cut into blocks that are
+ * compressed in parallel. The result is a single standard gzip member which
+ * can be read by <code>GZIPInputStream</code> or <code>gunzip</code>.
+ *
+ * Each block is compressed as a raw deflate stream ending with a sync flush,
+ * so that the compressed blocks can simply be concatenated; only the last
+ * block is finished. The last 32 KB of the previous block are used as the
+ * dictionary of the next one, so the compression ratio is close to that of a
+ * single deflate stream. The checksum is calculated while the data is
+ * written.
+ *
+ * The blocks are compressed on the common fork/join pool. At most the
+ * configured number of blocks are in progress at the same time; with a single
+ * thread, the blocks are compressed by the writing thread.
+ *
+ * @author loomis
+ *
+ */
+public class ParallelGzipOutputStream extends FilterOutputStream {
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b,
+			Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private final GzipOptions options;
+
+	private final CRC32 crc = new CRC32();
+
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+	private byte[] block;
+
+	private int count = 0;
+
+	private byte[] previous = null;
+
+	private long size = 0L;
+
+	private boolean closed = false;
+
+	/**
+	 * Create a stream writing the compressed data to the given stream. The
+	 * gzip header is written immediately.
+	 *
+	 * @param out
+	 *            stream receiving the compressed data
+	 * @param options
+	 *            block size, compression level, and number of threads to use
+	 *
+	 * @throws IOException
+	 *             if the header cannot be written
+	 */
+	public ParallelGzipOutputStream(OutputStream out, GzipOptions options)
+			throws IOException {
+		super(out);
+		this.options = options;
+		this.block = new byte[options.blockSize];
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == block.length) {
+			submitBlock(false);
+		}
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+
+			// A full block is only submitted once more data arrives, so that
+			// the last block can always be finished when closing.
+			if (count == block.length) {
+				submitBlock(false);
+			}
+
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes the blocks that have already been compressed and flushes the
+	 * underlying stream. The data of the current block is not flushed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		while (!pending.isEmpty() && pending.getFirst().isDone()) {
+			writeNextBlock();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Compresses the remaining data, writes the gzip trailer, and closes the
+	 * underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			submitBlock(true);
+			while (!pending.isEmpty()) {
+				writeNextBlock();
+			}
+			writeInt((int) crc.getValue());
+			writeInt((int) size);
+			out.flush();
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(false);
+			}
+			out.close();
+		}
+	}
+
+	private void submitBlock(boolean last) throws IOException {
+
+		crc.update(block, 0, count);
+		size += count;
+
+		FutureTask<byte[]> task = new FutureTask<byte[]>(new BlockCompressor(
+				block, count, previous, options.level, last));
+		if (options.nthread > 1) {
+			ForkJoinPool.commonPool().execute(task);
+		} else {
+			task.run();
+		}
+		pending.add(task);
+
+		previous = block;
+		block = last ? null : new byte[options.blockSize];
+		count = 0;
+
+		// Write finished blocks and wait for the oldest one if too many are in
+		// progress.
+		while (!pending.isEmpty()
+				&& (pending.size() >= options.nthread || pending.getFirst()
+						.isDone())) {
+			writeNextBlock();
+		}
+	}
+
+	private void writeNextBlock() throws IOException {
+		try {
+			out.write(pending.removeFirst().get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+					"interrupted while compressing output");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void writeInt(int i) throws IOException {
+		out.write(i & 0xff);
+		out.write((i >> 8) & 0xff);
+		out.write((i >> 16) & 0xff);
+		out.write((i >> 24) & 0xff);
+	}
+
+	/**
+	 * Compresses a single block into a raw deflate stream.
+	 */
+	private static class BlockCompressor implements Callable<byte[]> {
+
+		private final byte[] data;
+
+		private final int length;
+
+		private final byte[] dictionary;
+
+		private final int level;
+
+		private final boolean last;
+
+		public BlockCompressor(byte[] data, int length, byte[] dictionary,
+				int level, boolean last) {
+			this.data = data;
+			this.length = length;
+			this.dictionary = dictionary;
+			this.level = level;
+			this.last = last;
+		}
+
+		public byte[] call() {
+
+			Deflater deflater = new Deflater(level, true);
+			try {
+				if (dictionary != null) {
+					deflater.setDictionary(dictionary, dictionary.length
+							- DICTIONARY_SIZE, DICTIONARY_SIZE);
+				}
+				deflater.setInput(data, 0, length);
+
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+						length / 2 + 64);
+				byte[] buffer = new byte[16 * 1024];
+				if (last) {
+					deflater.finish();
+					while (!deflater.finished()) {
+						int n = deflater.deflate(buffer);
+						compressed.write(buffer, 0, n);
+					}
+				} else {
+					// The flush is complete once the output buffer is no
+					// longer filled.
+					int n;
+					do {
+						n = deflater.deflate(buffer, 0, buffer.length,
+								Deflater.SYNC_FLUSH);
+						compressed.write(buffer, 0, n);
+					} while (n == buffer.length);
+				}
+				return compressed.toByteArray();
+
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+
+}
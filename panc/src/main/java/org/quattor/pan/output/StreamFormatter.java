@@ -0,0 +1,48 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import java.io.OutputStream;
+
+import org.quattor.pan.tasks.FinalResult;
+
+/**
+ * A formatter that can write its output to an arbitrary stream rather than
+ * only to a file. This allows the output to be examined before it is written
+ * to disk.
+ *
+ * @author loomis
+ *
+ */
+public interface StreamFormatter extends Formatter {
+
+	/**
+	 * Writes the formatted result to the given stream. The stream is closed
+	 * when this method returns, whether or not the output could be written.
+	 *
+	 * @param result
+	 *            final result of the object to write
+	 * @param os
+	 *            stream receiving the formatted output
+	 *
+	 * @throws Exception
+	 *             if the output cannot be written
+	 */
+	public void write(FinalResult result, OutputStream os) throws Exception;
+
+}
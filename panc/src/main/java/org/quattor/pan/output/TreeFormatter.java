@@ -0,0 +1,47 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import java.io.OutputStream;
+
+/**
+ * A formatter whose output is produced from a single walk of the profile
+ * tree. When several of these formats are requested, the output files of an
+ * object are written together, with one walk of the tree feeding all of the
+ * writers.
+ *
+ * @author loomis
+ *
+ */
+public interface TreeFormatter extends StreamFormatter {
+
+	/**
+	 * Creates a writer that formats the profile into the given stream. The
+	 * stream is closed with the writer.
+	 *
+	 * @param os
+	 *            stream receiving the formatted output
+	 *
+	 * @return writer for this format
+	 *
+	 * @throws Exception
+	 *             if the writer cannot be created
+	 */
+	public TreeWriter createTreeWriter(OutputStream os) throws Exception;
+
+}
@@ -0,0 +1,173 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import java.io.IOException;
+
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.Resource;
+
+/**
+ * Walks a profile tree once, passing each node to all of the given writers.
+ * The tree is read once however many formats are written from it.
+ *
+ * A writer which throws an exception receives no further calls, but the
+ * other writers continue. The exceptions can be retrieved after the walk.
+ *
+ * @author loomis
+ *
+ */
+public class TreeWalker {
+
+	private final TreeWriter[] writers;
+
+	private final Exception[] errors;
+
+	private int active;
+
+	/**
+	 * Create a walker feeding the given writers.
+	 *
+	 * @param writers
+	 *            writers receiving the nodes of the tree
+	 */
+	public TreeWalker(TreeWriter... writers) {
+		this.writers = writers.clone();
+		this.errors = new Exception[writers.length];
+		this.active = writers.length;
+	}
+
+	/**
+	 * Walks the given tree with a single writer, rethrowing any exception
+	 * thrown by the writer.
+	 *
+	 * @param root
+	 *            root of the tree
+	 * @param writer
+	 *            writer receiving the nodes
+	 *
+	 * @throws IOException
+	 *             if the writer cannot write its output
+	 */
+	public static void walk(Element root, TreeWriter writer)
+			throws IOException {
+
+		TreeWalker walker = new TreeWalker(writer);
+		walker.walk(root);
+
+		Exception error = walker.getError(0);
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error != null) {
+			throw (RuntimeException) error;
+		}
+	}
+
+	/**
+	 * Passes the complete tree to all of the writers.
+	 *
+	 * @param root
+	 *            root of the tree
+	 */
+	public void walk(Element root) {
+
+		for (int i = 0; i < writers.length; i++) {
+			if (errors[i] == null) {
+				try {
+					writers[i].startDocument();
+				} catch (Exception e) {
+					fail(i, e);
+				}
+			}
+		}
+
+		walk(null, root, 0);
+
+		for (int i = 0; i < writers.length; i++) {
+			if (errors[i] == null) {
+				try {
+					writers[i].endDocument();
+				} catch (Exception e) {
+					fail(i, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the exception thrown by the writer with the given index, or
+	 * null if it received the complete tree.
+	 *
+	 * @param index
+	 *            index of the writer in the list given to the constructor
+	 *
+	 * @return exception thrown by the writer or null
+	 */
+	public Exception getError(int index) {
+		return errors[index];
+	}
+
+	private void walk(String name, Element node, int depth) {
+
+		if (active == 0) {
+			return;
+		}
+
+		for (int i = 0; i < writers.length; i++) {
+			if (errors[i] == null) {
+				try {
+					writers[i].startNode(name, node, depth);
+				} catch (Exception e) {
+					fail(i, e);
+				}
+			}
+		}
+
+		if (node instanceof HashResource) {
+			Resource.Cursor cursor = ((HashResource) node).readCursor();
+			while (cursor.next()) {
+				walk(cursor.getName(), cursor.getValue(), depth + 1);
+			}
+		} else if (node instanceof ListResource) {
+			Resource.Cursor cursor = ((ListResource) node).readCursor();
+			while (cursor.next()) {
+				walk(null, cursor.getValue(), depth + 1);
+			}
+		} else {
+			return;
+		}
+
+		for (int i = 0; i < writers.length; i++) {
+			if (errors[i] == null) {
+				try {
+					writers[i].endNode((Resource) node, depth);
+				} catch (Exception e) {
+					fail(i, e);
+				}
+			}
+		}
+	}
+
+	private void fail(int index, Exception e) {
+		errors[index] = e;
+		active--;
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.Resource;
+
+/**
+ * Receives the nodes of a profile from a <code>TreeWalker</code>, in document
+ * order. Several writers can be fed from a single walk of the tree.
+ *
+ * @author loomis
+ *
+ */
+public interface TreeWriter extends Closeable {
+
+	/**
+	 * Called once before the root node.
+	 *
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public void startDocument() throws IOException;
+
+	/**
+	 * Called for every node of the tree. The children of a dict or list
+	 * follow this call, then the corresponding call to <code>endNode</code>.
+	 *
+	 * @param name
+	 *            name of the node within its dict; null for the root and for
+	 *            the children of a list
+	 * @param node
+	 *            the node itself
+	 * @param depth
+	 *            depth of the node; 0 for the root
+	 *
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public void startNode(String name, Element node, int depth)
+			throws IOException;
+
+	/**
+	 * Called after the children of a dict or list. This is not called for
+	 * properties.
+	 *
+	 * @param node
+	 *            dict or list which is complete
+	 * @param depth
+	 *            depth of the node; 0 for the root
+	 *
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public void endNode(Resource node, int depth) throws IOException;
+
+	/**
+	 * Called once after the root node.
+	 *
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public void endDocument() throws IOException;
+
+}
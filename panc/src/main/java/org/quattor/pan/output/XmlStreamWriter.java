@@ -0,0 +1,437 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.Property;
+import org.quattor.pan.dml.data.Resource;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.utils.Base64;
+
+/**
+ * Writes a machine profile in the pan XML format directly to a channel,
+ * encoding the characters as UTF-8 into a local buffer. The contents of each
+ * string are checked for characters which cannot appear in XML while they are
+ * escaped; strings with such characters are written in base64 instead.
+ *
+ * The output is byte-for-byte the same as that of the identity transformer
+ * from <code>XmlUtils</code> fed with SAX events: an indentation of four
+ * spaces, the platform line separator, and character references for
+ * characters outside of the basic multilingual plane and for control
+ * characters other than tab and newline.
+ *
+ * @author loomis
+ *
+ */
+public class XmlStreamWriter implements TreeWriter, Flushable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte[] DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			.getBytes();
+
+	private static final byte[] BASE64_ATTRIBUTE = " encoding=\"base64\""
+			.getBytes();
+
+	/**
+	 * Longest escape written for a single character: a character reference
+	 * such as <code>&amp;#159;</code>. Supplementary characters take two
+	 * chars for at most ten bytes.
+	 */
+	private static final int MAX_ESCAPE_LENGTH = 6;
+
+	/**
+	 * Escape sequences for ASCII characters in text and attribute values;
+	 * null for characters written unchanged.
+	 */
+	private static final byte[][] TEXT_ESCAPES = new byte[128][];
+
+	private static final byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+
+	static {
+		TEXT_ESCAPES['&'] = "&amp;".getBytes();
+		TEXT_ESCAPES['<'] = "&lt;".getBytes();
+		TEXT_ESCAPES['>'] = "&gt;".getBytes();
+		TEXT_ESCAPES['\r'] = "&#13;".getBytes();
+		TEXT_ESCAPES[0x7f] = "&#127;".getBytes();
+
+		for (int c = 0; c < 0x20; c++) {
+			ATTRIBUTE_ESCAPES[c] = ("&#" + c + ";").getBytes();
+		}
+		ATTRIBUTE_ESCAPES['&'] = "&amp;".getBytes();
+		ATTRIBUTE_ESCAPES['<'] = "&lt;".getBytes();
+		ATTRIBUTE_ESCAPES['>'] = "&gt;".getBytes();
+		ATTRIBUTE_ESCAPES['"'] = "&quot;".getBytes();
+		ATTRIBUTE_ESCAPES[0x7f] = "&#127;".getBytes();
+	}
+
+	private final WritableByteChannel channel;
+
+	private final String rootName;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private final byte[] lineSeparator = System.getProperty("line.separator")
+			.getBytes();
+
+	private final int maxEscapeLength = Math.max(MAX_ESCAPE_LENGTH,
+			lineSeparator.length);
+
+	/**
+	 * Strings up to this length are escaped directly into the buffer. If an
+	 * invalid character turns up, the buffer is reset to the end of the start
+	 * tag. Longer strings are checked before anything is written.
+	 */
+	private final int maxInlineLength = (BUFFER_SIZE - 1) / maxEscapeLength;
+
+	/**
+	 * Flag indicating that the start tag of the current dict or list has not
+	 * been closed yet.
+	 */
+	private boolean startTagOpen = false;
+
+	/**
+	 * Create a writer for the given channel. The channel is closed when this
+	 * writer is closed.
+	 *
+	 * @param channel
+	 *            channel to write the UTF-8 encoded output to
+	 * @param rootName
+	 *            value of the name attribute of the root element
+	 */
+	public XmlStreamWriter(WritableByteChannel channel, String rootName) {
+		this.channel = channel;
+		this.rootName = rootName;
+	}
+
+	/**
+	 * Write a complete document for the given profile: the XML declaration,
+	 * the root element with all of its children, and a final line separator.
+	 *
+	 * @param root
+	 *            root element of the profile
+	 *
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public void write(Element root) throws IOException {
+		TreeWalker.walk(root, this);
+	}
+
+	public void startDocument() throws IOException {
+		writeBytes(DECLARATION);
+	}
+
+	public void startNode(String name, Element node, int depth)
+			throws IOException {
+
+		if (startTagOpen) {
+			writeByte('>');
+			startTagOpen = false;
+		}
+
+		if (depth == 0) {
+			writeStartTag(node);
+			writeAttribute("format", "pan");
+			writeAttribute("name", rootName);
+		} else {
+			indent(depth);
+			writeStartTag(node);
+			if (name != null) {
+				writeAttribute("name", name);
+			}
+		}
+
+		if (node instanceof HashResource || node instanceof ListResource) {
+
+			// The start tag is closed by the first child, or the element is
+			// written as an empty element if there are none.
+			startTagOpen = true;
+
+		} else if (node instanceof StringProperty) {
+
+			// Normally the tag name will just be the type of the element.
+			// However, for links we need to be careful.
+			String tagName = node.getTypeAsString();
+			if (!"string".equals(tagName)) {
+				writeAttribute("type", tagName);
+			}
+			writeStringContents(((Property) node).toString());
+
+		} else if (node instanceof Property) {
+
+			writeTextContents(node.getTypeAsString(),
+					((Property) node).toString());
+
+		} else {
+			writeEmptyElementEnd();
+		}
+	}
+
+	public void endNode(Resource node, int depth) throws IOException {
+		if (startTagOpen) {
+			writeEmptyElementEnd();
+			startTagOpen = false;
+		} else {
+			indent(depth);
+			writeEndTag(node.getTypeAsString());
+		}
+	}
+
+	public void endDocument() throws IOException {
+		writeBytes(lineSeparator);
+	}
+
+	private void writeStringContents(String s) throws IOException {
+
+		if (s.length() == 0) {
+			writeEmptyElementEnd();
+			return;
+		}
+
+		if (s.length() <= maxInlineLength) {
+
+			// Enough room is reserved that nothing is drained before the end
+			// of the text, so the buffer can be reset if needed.
+			ensureCapacity(s.length() * maxEscapeLength + 1);
+			int mark = buffer.position();
+			buffer.put((byte) '>');
+			if (writeText(s)) {
+				writeEndTag("string");
+				return;
+			}
+			buffer.position(mark);
+
+		} else if (XMLFormatterUtils.isValidXMLString(s)) {
+			writeByte('>');
+			writeText(s);
+			writeEndTag("string");
+			return;
+		}
+
+		writeBytes(BASE64_ATTRIBUTE);
+		writeByte('>');
+		writeText(Base64.encodeBytes(s.getBytes(UTF8)));
+		writeEndTag("string");
+	}
+
+	private void writeTextContents(String tagName, String s)
+			throws IOException {
+		if (s.length() == 0) {
+			writeEmptyElementEnd();
+		} else {
+			writeByte('>');
+			writeText(s);
+			writeEndTag(tagName);
+		}
+	}
+
+	private void writeStartTag(Element node) throws IOException {
+		writeByte('<');
+		writeAscii(tagName(node));
+	}
+
+	private static String tagName(Element node) {
+		return (node instanceof StringProperty) ? "string" : node
+				.getTypeAsString();
+	}
+
+	private void writeEmptyElementEnd() throws IOException {
+		writeByte('/');
+		writeByte('>');
+	}
+
+	private void writeEndTag(String name) throws IOException {
+		writeByte('<');
+		writeByte('/');
+		writeAscii(name);
+		writeByte('>');
+	}
+
+	private void indent(int depth) throws IOException {
+		ensureCapacity(lineSeparator.length + 4 * depth);
+		buffer.put(lineSeparator);
+		for (int i = 0; i < depth; i++) {
+			buffer.put((byte) ' ');
+			buffer.put((byte) ' ');
+			buffer.put((byte) ' ');
+			buffer.put((byte) ' ');
+		}
+	}
+
+	private void writeAttribute(String name, String value) throws IOException {
+
+		writeByte(' ');
+		writeAscii(name);
+		writeByte('=');
+		writeByte('"');
+
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				byte[] escape = ATTRIBUTE_ESCAPES[c];
+				if (escape == null) {
+					writeByte(c);
+				} else {
+					writeBytes(escape);
+				}
+			} else {
+				i = writeNonAscii(value, i);
+			}
+		}
+
+		writeByte('"');
+	}
+
+	/**
+	 * Escapes the text into the buffer.
+	 *
+	 * @return false if the text contains a character which is not allowed in
+	 *         XML; the buffer then contains part of the text
+	 */
+	private boolean writeText(String s) throws IOException {
+
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+
+			if (c < 0x80) {
+				byte[] escape = TEXT_ESCAPES[c];
+				if (escape != null) {
+					writeBytes(escape);
+				} else if (c >= 0x20 || c == '\t') {
+					writeByte(c);
+				} else if (c == '\n') {
+					writeBytes(lineSeparator);
+				} else {
+					return false;
+				}
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length
+						&& Character.isLowSurrogate(s.charAt(i + 1))) {
+					writeCharacterReference(Character.toCodePoint(c,
+							s.charAt(++i)));
+				} else {
+					return false;
+				}
+			} else if (c == 0xfffe || c == 0xffff) {
+				return false;
+			} else {
+				i = writeNonAscii(s, i);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the non-ASCII char at the given index, returning the index of
+	 * the last char used. Control characters and supplementary characters are
+	 * written as character references, everything else as UTF-8.
+	 */
+	private int writeNonAscii(String s, int i) throws IOException {
+
+		char c = s.charAt(i);
+		if (c <= 0x9f) {
+			writeCharacterReference(c);
+		} else if (c < 0x800) {
+			ensureCapacity(2);
+			buffer.put((byte) (0xc0 | (c >> 6)));
+			buffer.put((byte) (0x80 | (c & 0x3f)));
+		} else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+				&& Character.isLowSurrogate(s.charAt(i + 1))) {
+			writeCharacterReference(Character.toCodePoint(c, s.charAt(++i)));
+		} else {
+			ensureCapacity(3);
+			buffer.put((byte) (0xe0 | (c >> 12)));
+			buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+			buffer.put((byte) (0x80 | (c & 0x3f)));
+		}
+		return i;
+	}
+
+	private void writeCharacterReference(int codepoint) throws IOException {
+		writeByte('&');
+		writeByte('#');
+		writeAscii(Integer.toString(codepoint));
+		writeByte(';');
+	}
+
+	private void writeAscii(String s) throws IOException {
+		int length = s.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++) {
+			buffer.put((byte) s.charAt(i));
+		}
+	}
+
+	private void writeBytes(byte[] b) throws IOException {
+		ensureCapacity(b.length);
+		buffer.put(b);
+	}
+
+	private void writeByte(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			drain();
+		}
+		buffer.put((byte) b);
+	}
+
+	private void ensureCapacity(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Write the buffered bytes to the channel.
+	 */
+	public void flush() throws IOException {
+		drain();
+	}
+
+	/**
+	 * Flush the buffered bytes and close the channel.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
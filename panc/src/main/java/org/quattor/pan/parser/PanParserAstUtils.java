@@ -21,6 +21,7 @@
 package org.quattor.pan.parser;
 
 import org.quattor.pan.dml.AbstractOperation;
+import org.quattor.pan.dml.ConstantFolder;
 import org.quattor.pan.dml.DML;
 import org.quattor.pan.dml.Operation;
 import org.quattor.pan.dml.data.Element;
@@ -39,6 +40,7 @@ import org.quattor.pan.dml.operators.Div;
 import org.quattor.pan.dml.operators.For;
 import org.quattor.pan.dml.operators.Foreach;
 import org.quattor.pan.dml.operators.IfElse;
+import org.quattor.pan.dml.operators.ListVariable;
 import org.quattor.pan.dml.operators.LogicalAnd;
 import org.quattor.pan.dml.operators.LogicalEQ;
 import org.quattor.pan.dml.operators.LogicalGE;
@@ -70,6 +72,7 @@ import org.quattor.pan.statement.TypeStatement;
 import org.quattor.pan.statement.VariableStatement;
 import org.quattor.pan.ttemplate.CompileTimeContext;
 import org.quattor.pan.ttemplate.Context;
+import org.quattor.pan.ttemplate.FrameLayout;
 import org.quattor.pan.ttemplate.SourceRange;
 import org.quattor.pan.ttemplate.Template;
 import org.quattor.pan.type.*;
@@ -291,6 +294,17 @@ public class PanParserAstUtils {
     }
 
     static public Template convertAstToTemplate(File file, ASTTemplate ast) throws SyntaxException {
+        return convertAstToTemplate(file, ast, true);
+    }
+
+    /**
+     * Convert the syntax tree of a template into a template. If foldConstants
+     * is set, the constant expressions in the DML blocks of the statements
+     * are evaluated and the branches which can never be executed are removed
+     * (see {@link ConstantFolder}).
+     */
+    static public Template convertAstToTemplate(File file, ASTTemplate ast, boolean foldConstants)
+            throws SyntaxException {
 
         // Create a list containing all of the statements.
         LinkedList<Statement> statements = new LinkedList<Statement>();
@@ -321,22 +335,22 @@ public class PanParserAstUtils {
                     // Empty statement. Do nothing.
                     break;
                 case BIND:
-                    statements.add(convertAstToBindStatement(file.getAbsolutePath(), snode));
+                    statements.add(convertAstToBindStatement(file.getAbsolutePath(), snode, foldConstants));
                     break;
                 case ASSIGN:
-                    statements.add(convertAstToAssignStatement(snode, prefixes[0]));
+                    statements.add(convertAstToAssignStatement(snode, prefixes[0], foldConstants));
                     break;
                 case VARIABLE:
-                    statements.add(convertAstToVariableStatement(snode));
+                    statements.add(convertAstToVariableStatement(snode, foldConstants));
                     break;
                 case TYPE:
                     statements.add(convertAstToTypeStatement(file.getAbsolutePath(), snode));
                     break;
                 case FUNCTION:
-                    statements.add(convertAstToFunctionStatement(snode));
+                    statements.add(convertAstToFunctionStatement(snode, foldConstants));
                     break;
                 case INCLUDE:
-                    Statement stmt = convertAstToIncludeStatement(snode);
+                    Statement stmt = convertAstToIncludeStatement(snode, foldConstants);
                     if (stmt != null) {
                         statements.add(stmt);
                     }
@@ -354,7 +368,7 @@ public class PanParserAstUtils {
         return t;
     }
 
-    static private Statement convertAstToBindStatement(String source, ASTStatement ast) throws SyntaxException {
+    static private Statement convertAstToBindStatement(String source, ASTStatement ast, boolean fold) throws SyntaxException {
 
         // Sanity check. Ensure that this is a bind statement.
         assert (ast.getStatementType() == StatementType.BIND);
@@ -368,7 +382,7 @@ public class PanParserAstUtils {
         if (child instanceof ASTFullTypeSpec) {
             fullType = astToFullType(source, (ASTFullTypeSpec) child);
         } else if (child instanceof ASTOperation) {
-            Operation dml = astToDml((ASTOperation) child, true);
+            Operation dml = astToFrameDml((ASTOperation) child, true, fold);
             AliasType elementType = new AliasType(null, child.getSourceRange(), "element", null);
             fullType = new FullType(source, child.getSourceRange(), elementType, null, dml);
         } else {
@@ -390,7 +404,7 @@ public class PanParserAstUtils {
                 path = Path.resolve(prefix, path);
             }
 
-            return path;
+            return path.intern();
         } catch (EvaluationException ee) {
             throw SyntaxException.create(ast.getSourceRange(), ee);
         } catch (SyntaxException se) {
@@ -398,7 +412,7 @@ public class PanParserAstUtils {
         }
     }
 
-    static private Statement convertAstToAssignStatement(ASTStatement ast, Path prefix) throws SyntaxException {
+    static private Statement convertAstToAssignStatement(ASTStatement ast, Path prefix, boolean fold) throws SyntaxException {
 
         // Sanity check. Ensure that this is a assignment statement.
         assert (ast.getStatementType() == StatementType.ASSIGN);
@@ -422,7 +436,7 @@ public class PanParserAstUtils {
 
             // This is a normal assignment statement.
             ASTOperation child = (ASTOperation) ast.jjtGetChild(0);
-            Operation dml = astToDml(child, true);
+            Operation dml = astToFrameDml(child, true, fold);
             statement = AssignmentStatement
                     .createAssignmentStatement(ast.getSourceRange(), path, dml, ast.getConditionalFlag(),
                             !ast.getFinalFlag());
@@ -432,7 +446,7 @@ public class PanParserAstUtils {
         return statement;
     }
 
-    static private Statement convertAstToVariableStatement(ASTStatement ast) throws SyntaxException {
+    static private Statement convertAstToVariableStatement(ASTStatement ast, boolean fold) throws SyntaxException {
 
         // Sanity check.
         assert (ast.getStatementType() == StatementType.VARIABLE);
@@ -444,7 +458,7 @@ public class PanParserAstUtils {
 
         // Create the assignment statement.
         ASTOperation child = (ASTOperation) ast.jjtGetChild(0);
-        Operation dml = astToDml(child, true);
+        Operation dml = astToFrameDml(child, true, fold);
         return VariableStatement
                 .getInstance(ast.getSourceRange(), vname, dml, ast.getConditionalFlag(), !ast.getFinalFlag());
     }
@@ -466,7 +480,7 @@ public class PanParserAstUtils {
         return new TypeStatement(ast.getSourceRange(), tname, fullType);
     }
 
-    static private Statement convertAstToFunctionStatement(ASTStatement ast) throws SyntaxException {
+    static private Statement convertAstToFunctionStatement(ASTStatement ast, boolean fold) throws SyntaxException {
 
         // Sanity check.
         assert (ast.getStatementType() == StatementType.FUNCTION);
@@ -478,11 +492,11 @@ public class PanParserAstUtils {
 
         // Create the assignment statement.
         ASTOperation child = (ASTOperation) ast.jjtGetChild(0);
-        Operation dml = astToDml(child, true);
+        Operation dml = astToFrameDml(child, true, fold);
         return new FunctionStatement(ast.getSourceRange(), fname, dml);
     }
 
-    static private Statement convertAstToIncludeStatement(ASTStatement ast) throws SyntaxException {
+    static private Statement convertAstToIncludeStatement(ASTStatement ast, boolean fold) throws SyntaxException {
 
         // Sanity check.
         assert (ast.getStatementType() == StatementType.INCLUDE);
@@ -493,7 +507,7 @@ public class PanParserAstUtils {
         assert (ast.jjtGetNumChildren() == 1);
 
         ASTOperation child = (ASTOperation) ast.jjtGetChild(0);
-        Operation dml = astToDml(child, true);
+        Operation dml = astToFrameDml(child, true, fold);
 
         return IncludeStatement.newIncludeStatement(ast.getSourceRange(), dml);
 
@@ -567,7 +581,7 @@ public class PanParserAstUtils {
 
                     // Do not optimize DML. This guarantees that the returned value
                     // is actually a DML object with the SourceRange information.
-                    DML defaultDml = (DML) astToDml(dml, false);
+                    DML defaultDml = (DML) astToFrameDml(dml, false, false);
                     defaultValue = runDefaultDml(defaultDml);
                     sourceRange = SourceRange.combineSourceRanges(sourceRange, dml.getSourceRange());
                     break;
@@ -576,7 +590,7 @@ public class PanParserAstUtils {
                     assert (op.jjtGetChild(0) instanceof ASTOperation);
                     ASTOperation with = (ASTOperation) op.jjtGetChild(0);
                     assert (with.getOperationType() == OperationType.DML);
-                    withDml = astToDml(with, false);
+                    withDml = astToFrameDml(with, false, false);
                     sourceRange = SourceRange.combineSourceRanges(sourceRange, with.getSourceRange());
                     break;
                 default:
@@ -755,6 +769,41 @@ public class PanParserAstUtils {
         }
     }
 
+    /**
+     * Convert a DML block that is executed with its own local variables (a
+     * function body or the DML block of a statement) and resolve the local
+     * variables referenced within the block to the slots of a new frame
+     * layout. Variables accessed dynamically by name are not affected. The
+     * constant expressions are folded first if requested, as this can remove
+     * variable references.
+     */
+    static private Operation astToFrameDml(ASTOperation node, boolean optimized, boolean fold)
+            throws SyntaxException {
+        Operation dml = astToDml(node, optimized);
+        if (fold) {
+            dml = ConstantFolder.fold(dml);
+        }
+        resolveLocalVariables(dml, new FrameLayout());
+        return dml;
+    }
+
+    static private void resolveLocalVariables(Operation op, FrameLayout layout) {
+
+        if (op instanceof Variable) {
+            ((Variable) op).resolveLocalVariable(layout);
+        } else if (op instanceof ListVariable) {
+            ((ListVariable) op).resolveLocalVariable(layout);
+        } else if (op instanceof SetValue) {
+            ((SetValue) op).resolveLocalVariable(layout);
+        }
+
+        if (op instanceof AbstractOperation) {
+            for (Operation child : ((AbstractOperation) op).getOperations()) {
+                resolveLocalVariables(child, layout);
+            }
+        }
+    }
+
     static private Operation astToIfElse(ASTOperation node) throws SyntaxException {
 
         int count = node.jjtGetNumChildren();
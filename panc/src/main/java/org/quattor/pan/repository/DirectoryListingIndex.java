@@ -0,0 +1,119 @@
+package org.quattor.pan.repository;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the listings of the directories in which files have been looked up,
+ * so that checking whether a file exists is a hash lookup rather than a call
+ * to the file system. A directory is listed when a file in it is first looked
+ * up. Directories which do not exist are recorded with an empty listing; with
+ * long include and load paths, most lookups are for such directories.
+ *
+ * The index does not notice changes to the file system by itself. Changes
+ * must be signalled through <code>invalidate()</code> and
+ * <code>invalidateTree()</code>, as the compile daemon does with the events of
+ * its watch service.
+ *
+ * @author loomis
+ */
+public class DirectoryListingIndex {
+
+    private final ConcurrentHashMap<Path, Set<String>> listings = new ConcurrentHashMap<Path, Set<String>>();
+
+    /**
+     * Determine whether the given file (or directory) exists, according to
+     * the listing of its parent directory.
+     *
+     * @param file
+     *            absolute file to check
+     *
+     * @return true if the file exists
+     */
+    public boolean exists(File file) {
+        File parent = file.getParentFile();
+        if (parent == null) {
+            return file.exists();
+        }
+        return getListing(parent).contains(file.getName());
+    }
+
+    private Set<String> getListing(File directory) {
+
+        Path key = directory.toPath().normalize();
+
+        // Two threads may list the same directory; both get the same result.
+        Set<String> listing = listings.get(key);
+        if (listing == null) {
+            String[] names = directory.list();
+            if (names != null) {
+                listing = new HashSet<String>(Arrays.asList(names));
+            } else {
+                listing = Collections.emptySet();
+            }
+            Set<String> existing = listings.putIfAbsent(key, listing);
+            if (existing != null) {
+                listing = existing;
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Drop the listings affected by the creation, modification, or deletion
+     * of the given file: that of its parent directory and, if the file is a
+     * directory, its own.
+     *
+     * @param file
+     *            absolute path of the changed file
+     */
+    public void invalidate(File file) {
+        Path path = file.toPath().normalize();
+        listings.remove(path);
+        Path parent = path.getParent();
+        if (parent != null) {
+            listings.remove(parent);
+        }
+    }
+
+    /**
+     * Drop the listings of the given directory, its parent, and all of the
+     * directories below it.
+     *
+     * @param directory
+     *            absolute path of the directory which has been created or
+     *            deleted
+     */
+    public void invalidateTree(File directory) {
+        invalidate(directory);
+        Path root = directory.toPath().normalize();
+        for (Iterator<Path> i = listings.keySet().iterator(); i.hasNext();) {
+            if (i.next().startsWith(root)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Drop all of the listings.
+     */
+    public void clear() {
+        listings.clear();
+    }
+
+    /**
+     * Returns the number of directories whose listing is held.
+     *
+     * @return number of directory listings
+     */
+    public int size() {
+        return listings.size();
+    }
+
+}
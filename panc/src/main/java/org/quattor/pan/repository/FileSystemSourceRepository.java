@@ -59,15 +59,18 @@ abstract public class FileSystemSourceRepository implements SourceRepository {
         }
 
         List<File> includeDirectories = new ArrayList<File>();
+        boolean sourceIndex = false;
         for (Parameter parameter : parameters) {
             String name = parameter.getKey();
             if ("includeDirectory".equals(name)) {
                 includeDirectories.add(new File(parameter.getValue()));
+            } else if ("sourceIndex".equals(name)) {
+                sourceIndex = Boolean.parseBoolean(parameter.getValue());
             }
         }
 
         return new FileSystemSourceRepositoryImpl(
-                includeDirectories);
+                includeDirectories, sourceIndex);
     }
 
     abstract public File lookupSource(String name);
@@ -114,6 +117,41 @@ abstract public class FileSystemSourceRepository implements SourceRepository {
         return cachedResult;
     }
 
+    /**
+     * Signals that the given file has been created, modified, or deleted.
+     * The results of earlier lookups are dropped.
+     *
+     * @param file
+     *            absolute path of the changed file
+     */
+    public void fileChanged(File file) {
+        clearRetrieveCaches();
+    }
+
+    /**
+     * Signals that the given directory and its contents have been created or
+     * deleted. The results of earlier lookups are dropped.
+     *
+     * @param directory
+     *            absolute path of the changed directory
+     */
+    public void treeChanged(File directory) {
+        clearRetrieveCaches();
+    }
+
+    /**
+     * Drops everything known about the files in the include directories, for
+     * instance when changes may have been missed.
+     */
+    public void clearCaches() {
+        clearRetrieveCaches();
+    }
+
+    private void clearRetrieveCaches() {
+        retrievePanCacheLoadpath.clear();
+        retrieveTxtCacheLoadpath.clear();
+    }
+
     private SourceFile createPanSourceFile(String name, File file) {
         return new SourceFile(name, true, file);
     }
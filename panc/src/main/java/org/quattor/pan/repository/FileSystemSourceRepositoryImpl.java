@@ -10,9 +10,19 @@ public class FileSystemSourceRepositoryImpl extends
 
     private final List<File> includeDirectories;
 
+    // Listings of the directories below the include directories; null if
+    // every lookup goes to the file system.
+    private final DirectoryListingIndex index;
+
     public FileSystemSourceRepositoryImpl(
             List<File> includeDirectories) {
+        this(includeDirectories, false);
+    }
+
+    public FileSystemSourceRepositoryImpl(
+            List<File> includeDirectories, boolean sourceIndex) {
         this.includeDirectories = validateAndCopyIncludeDirectories(includeDirectories);
+        this.index = sourceIndex ? new DirectoryListingIndex() : null;
     }
 
     // Override to benefit from caching
@@ -47,7 +57,7 @@ public class FileSystemSourceRepositoryImpl extends
                 File dir = new File(d, rpath);
 
                 File sourceFile = new File(dir, localName);
-                if (sourceFile.exists()) {
+                if (exists(sourceFile)) {
                     return sourceFile;
                 }
 
@@ -80,7 +90,7 @@ public class FileSystemSourceRepositoryImpl extends
                 for (String suffix : sourceFileExtensions) {
 
                     File sourceFile = new File(dir, localName + suffix);
-                    if (sourceFile.exists()) {
+                    if (exists(sourceFile)) {
                         return sourceFile;
                     }
                 }
@@ -92,4 +102,32 @@ public class FileSystemSourceRepositoryImpl extends
         return null;
     }
 
+    private boolean exists(File file) {
+        return (index != null) ? index.exists(file) : file.exists();
+    }
+
+    @Override
+    public void fileChanged(File file) {
+        super.fileChanged(file);
+        if (index != null) {
+            index.invalidate(file);
+        }
+    }
+
+    @Override
+    public void treeChanged(File directory) {
+        super.treeChanged(directory);
+        if (index != null) {
+            index.invalidateTree(directory);
+        }
+    }
+
+    @Override
+    public void clearCaches() {
+        super.clearCaches();
+        if (index != null) {
+            index.clear();
+        }
+    }
+
 }
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.zip.GZIPInputStream;
@@ -24,7 +25,7 @@ import org.quattor.pan.ttemplate.Template;
 import org.quattor.pan.utils.MessageUtils;
 
 @Immutable
-public class SourceFile implements Comparable<SourceFile> {
+public class SourceFile implements Comparable<SourceFile>, Serializable {
 
     private final String name;
 
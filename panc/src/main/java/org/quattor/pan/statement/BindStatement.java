@@ -66,7 +66,7 @@ public abstract class BindStatement extends Statement {
 
         try {
             assert (pathname != null);
-            return new Path(pathname);
+            return new Path(pathname).intern();
         } catch (EvaluationException ee) {
             throw SyntaxException.create(sourceRange, ee);
         } catch (SyntaxException se) {
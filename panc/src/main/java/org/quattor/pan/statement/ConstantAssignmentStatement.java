@@ -80,7 +80,7 @@ public class ConstantAssignmentStatement extends AssignmentStatement {
 			// Must retrieve the value to determine if the value can be set.
 			// Set the value if it doesn't exist or is set to Undef.
 			if (conditional) {
-				Element self = context.getElement(path, false);
+				Element self = context.readElement(path);
 				setValue = (self == null) || (self instanceof Undef);
 			}
 
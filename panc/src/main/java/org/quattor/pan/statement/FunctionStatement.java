@@ -20,6 +20,7 @@
 
 package org.quattor.pan.statement;
 
+import org.quattor.pan.dml.FunctionPurity;
 import org.quattor.pan.dml.Operation;
 import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.exceptions.EvaluationException;
@@ -39,6 +40,8 @@ public class FunctionStatement extends Statement {
 
 	private final Operation function;
 
+	private final boolean pure;
+
 	/**
 	 * Creates a FunctionStatement which associates a name with a given DML
 	 * block.
@@ -59,6 +62,7 @@ public class FunctionStatement extends Statement {
 		assert (name != null);
 		this.name = name;
 		this.function = function;
+		this.pure = FunctionPurity.isPure(function);
 	}
 
 	/**
@@ -71,11 +75,21 @@ public class FunctionStatement extends Statement {
 		return name;
 	}
 
+	/**
+	 * Indicates whether the results of the function depend only on the
+	 * arguments, so that they can be reused.
+	 *
+	 * @return true if the function is pure
+	 */
+	public boolean isPure() {
+		return pure;
+	}
+
 	@Override
 	public Element execute(Context context) {
 		try {
 			context.setFunction(name, function, context.getCurrentTemplate(),
-					getSourceRange());
+					getSourceRange(), pure);
 		} catch (EvaluationException ee) {
 			throw ee.addExceptionInfo(getSourceRange(), context);
 		}
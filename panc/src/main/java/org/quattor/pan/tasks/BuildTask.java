@@ -23,8 +23,6 @@ package org.quattor.pan.tasks;
 import static org.quattor.pan.utils.MessageUtils.MSG_CANNOT_LOCATE_OBJECT_TEMPLATE;
 
 import java.io.File;
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,11 +33,13 @@ import org.quattor.pan.cache.CompileCache;
 import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.dml.data.Undef;
 import org.quattor.pan.exceptions.EvaluationException;
+import org.quattor.pan.exceptions.InvalidTermException;
 import org.quattor.pan.repository.SourceFile;
 import org.quattor.pan.ttemplate.BuildContext;
 import org.quattor.pan.ttemplate.Context;
 import org.quattor.pan.ttemplate.SourceRange;
 import org.quattor.pan.ttemplate.Template;
+import org.quattor.pan.ttemplate.TypeBindings;
 import org.quattor.pan.type.FullType;
 import org.quattor.pan.utils.Path;
 
@@ -171,68 +171,91 @@ public class BuildTask extends Task<BuildResult> {
 			// Log the beginning of the set defaults phase.
 			taskLogger.log(Level.FINER, "START_DEFAULTS", objectName);
 
-			// Retrieve the type bindings.
-			Map<Path, List<FullType>> bindings = context.getBindings();
+			// Walk the tree of type bindings together with the configuration.
+			// If a lookup fails (e.g. a key is used on a list), stop setting
+			// defaults. The problem will be picked up in the validation phase.
+			TypeBindings.Node root = context.getBindings().getRoot();
+			try {
+				setDefaults(context, root, root.lookupFromRoot(context.getRoot()));
+			} catch (InvalidTermException consumed) {
+			}
+
+			// Log the end of the set defaults phase.
+			taskLogger.log(Level.FINER, "END_DEFAULTS", objectName);
+
+		}
+
+		/**
+		 * Set the defaults for the bindings of the given node and of all nodes
+		 * below it. The children are handled before the node itself, so that
+		 * longer paths are treated before shorter ones.
+		 *
+		 * @param self
+		 *            current value of the node's path, may be null
+		 *
+		 * @return true if the configuration has been modified
+		 */
+		private boolean setDefaults(Context context, TypeBindings.Node node,
+				Element self) throws InvalidTermException {
 
-			// Loop over each of the type bindings and validate each one.
-			for (Map.Entry<Path, List<FullType>> entry : bindings.entrySet()) {
+			boolean modified = false;
 
-				Path path = entry.getKey();
+			for (TypeBindings.Node child : node.getChildren()) {
+				if (setDefaults(context, child, child.lookup(self))) {
 
-				// Lookup the "self" value. (Do not allow it to throw an
-				// exception for a non-existing path.) If this throws an
-				// exception for another reason, let it slide. It will be picked
-				// up in the validation phase.
-				Element self = null;
-				try {
-					self = context.getElement(path, false);
-				} catch (EvaluationException consumed) {
-					break;
+					// Setting a value may have replaced the resources along
+					// the path, so the value must be retrieved again.
+					self = node.lookupFromRoot(context.getRoot());
+					modified = true;
 				}
+			}
 
-				// If it doesn't exist or has the undef value, then try to find
-				// a default value. This must be done before trying to set the
-				// defaults on any children.
-				if (self == null || self instanceof Undef) {
-
-					// There can be more than one binding per path. Loop over
-					// all of them, but stop at the first one which defines a
-					// default value.
-					for (FullType type : entry.getValue()) {
-
-						// Determine if the type has a default value.
-						Element defaultValue = type.findDefault(context);
-
-						// If something was found, set the value, then break out
-						// of the loop.
-						if (defaultValue != null) {
-                            self = defaultValue;
-							context.putElement(path, defaultValue);
-							break;
-						}
+			Path path = node.getPath();
+			if (path == null) {
+				return modified;
+			}
+
+			// If it doesn't exist or has the undef value, then try to find a
+			// default value. This must be done before trying to set the
+			// defaults on any children.
+			if (self == null || self instanceof Undef) {
+
+				// There can be more than one binding per path. Loop over all
+				// of them, but stop at the first one which defines a default
+				// value.
+				for (FullType type : node.getTypes()) {
+
+					// Determine if the type has a default value.
+					Element defaultValue = type.findDefault(context);
+
+					// If something was found, set the value, then break out of
+					// the loop.
+					if (defaultValue != null) {
+						self = defaultValue;
+						context.putElement(path, defaultValue);
+						modified = true;
+						break;
 					}
 				}
+			}
 
-				// Now if the value exists, loop over all of the type bindings
-				// and call the method setDefaults. This will set the default
-				// values for any child elements.
-				if (self != null && !(self instanceof Undef)) {
-
-					// There can be more than one binding per path.
-					for (FullType type : entry.getValue()) {
-						Element replacement = type.setDefaults(context, self);
-						if (replacement != null) {
-							self = replacement;
-							context.putElement(path, replacement);
-						}
+			// Now if the value exists, loop over all of the type bindings and
+			// call the method setDefaults. This will set the default values
+			// for any child elements.
+			if (self != null && !(self instanceof Undef)) {
+
+				// There can be more than one binding per path.
+				for (FullType type : node.getTypes()) {
+					Element replacement = type.setDefaults(context, self);
+					if (replacement != null) {
+						self = replacement;
+						context.putElement(path, replacement);
+						modified = true;
 					}
 				}
-
 			}
 
-			// Log the end of the set defaults phase.
-			taskLogger.log(Level.FINER, "END_DEFAULTS", objectName);
-
+			return modified;
 		}
 	}
 }
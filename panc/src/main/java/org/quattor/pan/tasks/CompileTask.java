@@ -20,10 +20,13 @@
 
 package org.quattor.pan.tasks;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.file.Files;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,6 +34,8 @@ import java.util.logging.Logger;
 import org.quattor.pan.CompilerOptions;
 import org.quattor.pan.CompilerLogging.LoggingType;
 import org.quattor.pan.cache.CompileCache.PostCompileProcessor;
+import org.quattor.pan.cache.CompiledTemplateStore;
+import org.quattor.pan.cache.ResidentTemplateCache;
 import org.quattor.pan.exceptions.EvaluationException;
 import org.quattor.pan.exceptions.SyntaxException;
 import org.quattor.pan.exceptions.SystemException;
@@ -55,8 +60,21 @@ public class CompileTask extends Task<CompileResult> {
     public CompileTask(String tplfile,
             PostCompileProcessor postCompileProcessor,
             CompilerOptions compilerOptions) {
+        this(tplfile, postCompileProcessor, compilerOptions, null);
+    }
+
+    public CompileTask(String tplfile,
+            PostCompileProcessor postCompileProcessor,
+            CompilerOptions compilerOptions, CompiledTemplateStore store) {
+        this(tplfile, postCompileProcessor, compilerOptions, store, null);
+    }
+
+    public CompileTask(String tplfile,
+            PostCompileProcessor postCompileProcessor,
+            CompilerOptions compilerOptions, CompiledTemplateStore store,
+            ResidentTemplateCache resident) {
         super(TaskResult.ResultType.COMPILED, tplfile, new CallImpl(tplfile,
-                postCompileProcessor, compilerOptions));
+                postCompileProcessor, compilerOptions, store, resident));
     }
 
     /**
@@ -75,9 +93,26 @@ public class CompileTask extends Task<CompileResult> {
 
         private final CompilerOptions compilerOptions;
 
+        private final CompiledTemplateStore store;
+
+        private final ResidentTemplateCache resident;
+
         public CallImpl(String tplpath,
                 PostCompileProcessor postCompileProcessor,
                 CompilerOptions compilerOptions) {
+            this(tplpath, postCompileProcessor, compilerOptions, null);
+        }
+
+        public CallImpl(String tplpath,
+                PostCompileProcessor postCompileProcessor,
+                CompilerOptions compilerOptions, CompiledTemplateStore store) {
+            this(tplpath, postCompileProcessor, compilerOptions, store, null);
+        }
+
+        public CallImpl(String tplpath,
+                PostCompileProcessor postCompileProcessor,
+                CompilerOptions compilerOptions, CompiledTemplateStore store,
+                ResidentTemplateCache resident) {
 
             File tplfile = new File(tplpath);
 
@@ -90,6 +125,8 @@ public class CompileTask extends Task<CompileResult> {
             this.tplfile = tplfile;
             this.postCompileProcessor = postCompileProcessor;
             this.compilerOptions = compilerOptions;
+            this.store = store;
+            this.resident = resident;
         }
 
         public CompileResult call() throws Exception {
@@ -100,9 +137,53 @@ public class CompileTask extends Task<CompileResult> {
                 taskLogger.log(Level.FINER, "START_COMPILE", tplfile
                         .getAbsolutePath());
 
-                ASTTemplate ast = compile(tplfile, compilerOptions);
-                Template template = PanParserAstUtils.convertAstToTemplate(
-                        tplfile, ast);
+                ASTTemplate ast = null;
+                Template template = null;
+
+                // A template compiled by an earlier compilation can be reused
+                // if the file has not changed since.
+                if (resident != null) {
+                    template = resident.get(tplfile);
+                }
+
+                if (template == null) {
+
+                    // Take the file's state before reading it; a concurrent
+                    // modification will then invalidate the resident entry.
+                    long lastModified = tplfile.lastModified();
+                    long length = tplfile.length();
+
+                    if (store == null) {
+
+                        ast = compile(tplfile, compilerOptions);
+                        template = PanParserAstUtils.convertAstToTemplate(
+                                tplfile, ast, compilerOptions.constantFolding);
+
+                    } else {
+
+                        // Read the file only once; the contents are used both
+                        // for the key of the persistent cache and for the
+                        // parsing.
+                        byte[] contents = readTemplate(tplfile);
+                        String key = store.key(tplfile, contents);
+
+                        template = store.load(key);
+                        if (template == null) {
+                            Reader reader = new InputStreamReader(
+                                    new ByteArrayInputStream(contents),
+                                    "UTF-8");
+                            ast = compile(tplfile, reader, compilerOptions);
+                            template = PanParserAstUtils.convertAstToTemplate(
+                                    tplfile, ast,
+                                    compilerOptions.constantFolding);
+                            store.store(key, template);
+                        }
+                    }
+
+                    if (resident != null) {
+                        resident.put(tplfile, lastModified, length, template);
+                    }
+                }
 
                 // Either the load or compilation was successful or an exception
                 // was thrown. Hence, we should always have a non-null template
@@ -146,19 +227,51 @@ public class CompileTask extends Task<CompileResult> {
         public static ASTTemplate compile(File tplfile,
                 CompilerOptions compilerOptions) throws Exception {
 
-            ASTTemplate ast = null;
-
             // Ensure that the file can actually be read.
             if (!tplfile.canRead()) {
                 throw new SystemException("template file cannot be read",
                         tplfile);
             }
 
-            // Parse the input file and generate a Template object.
             Reader reader = null;
             try {
-                reader = new InputStreamReader(new FileInputStream(tplfile), "UTF-8");
+                reader = new InputStreamReader(new FileInputStream(tplfile),
+                        "UTF-8");
+            } catch (IOException ioe) {
+                SystemException se = new SystemException("IO error", tplfile);
+                se.initCause(ioe);
+                throw se;
+            }
 
+            return compile(tplfile, reader, compilerOptions);
+        }
+
+        /**
+         * Run the compilation, reading the template source from the given
+         * reader. The reader will be closed when this method returns.
+         *
+         * @param tplfile
+         *            file being compiled, used for error messages
+         * @param reader
+         *            reader providing the template source
+         * @param compilerOptions
+         *            compiler options to use for compilation
+         * @throws ParseException
+         *             for low-level parsing errors
+         * @throws SyntaxException
+         *             for files which parse correctly but contain higher-level
+         *             syntax errors
+         * @throws SystemException
+         *             for IO exceptions or unexpected system exceptions; the
+         *             cause is the underlying exception
+         */
+        public static ASTTemplate compile(File tplfile, Reader reader,
+                CompilerOptions compilerOptions) throws Exception {
+
+            ASTTemplate ast = null;
+
+            // Parse the input and generate a Template object.
+            try {
                 PanParser parser = new PanParser(reader);
                 parser.setFile(tplfile);
                 parser.setCompilerOptions(compilerOptions);
@@ -167,10 +280,6 @@ public class CompileTask extends Task<CompileResult> {
             } catch (ParseException pe) {
                 pe.file = tplfile;
                 throw pe;
-            } catch (java.io.IOException ioe) {
-                SystemException se = new SystemException("IO error", tplfile);
-                se.initCause(ioe);
-                throw se;
             } catch (EvaluationException ee) {
                 throw ee.addExceptionInfo(null, tplfile, null);
             } catch (Exception e) {
@@ -193,6 +302,23 @@ public class CompileTask extends Task<CompileResult> {
 
             return ast;
         }
+
+        private static byte[] readTemplate(File tplfile) throws SystemException {
+
+            // Ensure that the file can actually be read.
+            if (!tplfile.canRead()) {
+                throw new SystemException("template file cannot be read",
+                        tplfile);
+            }
+
+            try {
+                return Files.readAllBytes(tplfile.toPath());
+            } catch (IOException ioe) {
+                SystemException se = new SystemException("IO error", tplfile);
+                se.initCause(ioe);
+                throw se;
+            }
+        }
     }
 
 }
@@ -20,11 +20,11 @@
 
 package org.quattor.pan.tasks;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.Stack;
 import java.util.TreeSet;
 
 import org.quattor.pan.Compiler;
@@ -33,7 +33,10 @@ import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.repository.SourceFile;
 
 /**
- * Encapsulates the results of the second validation phase.
+ * Encapsulates the final result of an object: the validated root together
+ * with the complete dependencies of the object, including those of all of the
+ * objects it references (directly or indirectly). This result is computed once
+ * per object and shared by all of the tasks writing its output files.
  * 
  * @author loomis
  * 
@@ -49,7 +52,7 @@ public class FinalResult extends TaskResult {
 	Set<SourceFile> dependencies;
 
 	public FinalResult(Compiler compiler, Valid2Result result) {
-		super(ResultType.VALID2);
+		super(ResultType.FINAL);
 
 		this.root = result.getRoot();
 		this.timestamp = result.timestamp;
@@ -73,25 +76,28 @@ public class FinalResult extends TaskResult {
 		if (compiler != null) {
 			Valid2Cache v2cache = compiler.getValid2Cache();
 
-			List<String> processed = new LinkedList<String>();
-			Stack<String> unprocessed = new Stack<String>();
+			Set<String> processed = new HashSet<String>();
+			Deque<String> unprocessed = new ArrayDeque<String>();
 			unprocessed.push(objectName);
 
 			// Loop until there are no more unprocessed object templates.
-			while (!unprocessed.empty()) {
+			while (!unprocessed.isEmpty()) {
 				String objectToProcess = unprocessed.pop();
 
 				// Only do something if the object template hasn't already been
 				// processed.
-				if (!processed.contains(objectToProcess)) {
-					processed.add(objectToProcess);
+				if (processed.add(objectToProcess)) {
 
 					Valid2Result result = (Valid2Result) v2cache
 							.waitForResult(objectToProcess);
 
 					allDependencies.addAll(result.getDependencies());
 
-					unprocessed.addAll(result.getObjectDependencies());
+					for (String dependency : result.getObjectDependencies()) {
+						if (!processed.contains(dependency)) {
+							unprocessed.push(dependency);
+						}
+					}
 				}
 
 			}
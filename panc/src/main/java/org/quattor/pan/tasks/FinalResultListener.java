@@ -0,0 +1,41 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.tasks;
+
+/**
+ * Receives the final result of each object built by a compiler. A compiler
+ * with a listener builds all of its object templates, even if no output
+ * formats are defined.
+ *
+ * The listener is called from the task computing the final result, so it may
+ * be called concurrently for different objects.
+ *
+ * @author loomis
+ *
+ */
+public interface FinalResultListener {
+
+	/**
+	 * Called once the final result of an object is available.
+	 *
+	 * @param result
+	 *            final result of the object
+	 */
+	public void resultAvailable(FinalResult result);
+
+}
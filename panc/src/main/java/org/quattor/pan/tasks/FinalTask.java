@@ -0,0 +1,99 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.tasks;
+
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerLogging.LoggingType;
+import org.quattor.pan.cache.Valid2Cache;
+
+/**
+ * Wraps the <code>FinalCallable</code> as a <code>Task</code>. This wrapping
+ * is done to make sure that the <code>FinalCallable</code> is fully
+ * constructed before passing it to the <code>FutureTask</code>.
+ * 
+ * @author loomis
+ * 
+ */
+public class FinalTask extends Task<FinalResult> {
+
+	private static final Logger taskLogger = LoggingType.TASK.logger();
+
+	public FinalTask(Compiler compiler, String objectName) {
+		super(TaskResult.ResultType.FINAL, objectName, new CallImpl(compiler,
+				objectName));
+	}
+
+	/**
+	 * Collects the complete dependencies of a validated object. This is done
+	 * once per object; the result is shared by all of the tasks writing the
+	 * output files of the object and is passed to the final result listener
+	 * of the compiler, if there is one.
+	 * 
+	 * @author loomis
+	 * 
+	 */
+	private static class CallImpl implements Callable<FinalResult> {
+
+		private final Compiler compiler;
+
+		private final String objectName;
+
+		public CallImpl(Compiler compiler, String objectName) {
+			this.compiler = compiler;
+			this.objectName = objectName;
+		}
+
+		public FinalResult call() throws Exception {
+
+			FinalResultListener listener = compiler.getFinalResultListener();
+
+			try {
+				Valid2Cache v2cache = compiler.getValid2Cache();
+
+				// Now actually retrieve the object's validated root, waiting
+				// if the result isn't yet available.
+				Valid2Result result = v2cache.waitForResult(objectName);
+
+				taskLogger.log(Level.FINER, "START_FINAL", objectName);
+
+				FinalResult finalResult = new FinalResult(compiler, result);
+
+				taskLogger.log(Level.FINER, "END_FINAL", objectName);
+
+				if (listener != null) {
+					listener.resultAvailable(finalResult);
+				}
+
+				return finalResult;
+
+			} finally {
+				// Release the reference held for the listener on the
+				// object's results (see CompileCache).
+				if (listener != null) {
+					compiler.getResultRetention().release(objectName);
+				}
+			}
+		}
+
+	}
+
+}
@@ -23,8 +23,6 @@ package org.quattor.pan.tasks;
 import static org.quattor.pan.utils.MessageUtils.MSG_VALUE_AT_PATH_UNDEFINED;
 
 import java.io.File;
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,9 +32,10 @@ import org.quattor.pan.CompilerLogging.LoggingType;
 import org.quattor.pan.cache.BuildCache;
 import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.dml.data.ElementUtils;
-import org.quattor.pan.exceptions.EvaluationException;
+import org.quattor.pan.exceptions.InvalidTermException;
 import org.quattor.pan.exceptions.ValidationException;
 import org.quattor.pan.ttemplate.Context;
+import org.quattor.pan.ttemplate.TypeBindings;
 import org.quattor.pan.type.FullType;
 import org.quattor.pan.utils.Path;
 
@@ -123,40 +122,57 @@ public class Valid1Task extends Task<Valid1Result> {
 				throw ve.setObjectTemplate(objectFile);
 			}
 
-			// Retrieve the type bindings.
-			Map<Path, List<FullType>> bindings = context.getBindings();
+			// Walk the tree of type bindings together with the configuration
+			// and validate each binding.
+			validate(context, context.getBindings().getRoot(),
+					context.getRoot(), objectFile);
 
-			// Loop over each of the type bindings and validate each one.
-			for (Map.Entry<Path, List<FullType>> entry : bindings.entrySet()) {
+		}
 
-				Path path = entry.getKey();
+		/**
+		 * Validate the bindings of the given node and of all nodes below it.
+		 * The children are handled before the node itself.
+		 *
+		 * @param self
+		 *            value of the node's path, may be null
+		 */
+		private void validate(Context context, TypeBindings.Node node,
+				Element self, File objectFile) throws ValidationException {
 
-				// Get the "self" value. Check that this isn't null later when
-				// we have more information about the type binding.
-				Element self = null;
-				try {
-					self = context.getElement(path);
-				} catch (EvaluationException consumed) {
-					// If there was an error on the initial lookup, then leave
-					// the value as null. It will be checked below where there
-					// is more information on the type definition.
-				}
+			for (TypeBindings.Node child : node.getChildren()) {
+				validate(context, child, lookup(child, self), objectFile);
+			}
 
-				// There can be more than one binding per path. Loop over all of
-				// them.
-				for (FullType type : entry.getValue()) {
-
-					// Validate the self element against the given type. An
-					// exception will be thrown for any problems. Fill in the
-					// details for any validation exceptions.
-					try {
-						type.validate(context, self);
-					} catch (ValidationException ve) {
-						throw ve.setPathTypeAndObject(path, type, objectFile);
-					}
+			// There can be more than one binding per path. Loop over all of
+			// them.
+			Path path = node.getPath();
+			for (FullType type : node.getTypes()) {
+
+				// Validate the self element against the given type. An
+				// exception will be thrown for any problems. Fill in the
+				// details for any validation exceptions.
+				try {
+					type.validate(context, self);
+				} catch (ValidationException ve) {
+					throw ve.setPathTypeAndObject(path, type, objectFile);
 				}
 			}
+		}
 
+		/**
+		 * Get the "self" value of a node from the value of its parent. Check
+		 * that this isn't null later when there is more information about the
+		 * type binding.
+		 */
+		private static Element lookup(TypeBindings.Node node, Element parent) {
+			try {
+				return node.lookup(parent);
+			} catch (InvalidTermException consumed) {
+				// If there was an error on the lookup, then leave the value as
+				// null. It will be checked where there is more information on
+				// the type definition.
+				return null;
+			}
 		}
 
 	}
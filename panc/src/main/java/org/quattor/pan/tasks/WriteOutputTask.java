@@ -20,17 +20,28 @@
 
 package org.quattor.pan.tasks;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.quattor.pan.Compiler;
 import org.quattor.pan.CompilerLogging.LoggingType;
-import org.quattor.pan.cache.Valid2Cache;
+import org.quattor.pan.cache.FinalCache;
+import org.quattor.pan.output.ChangeDetectingOutputStream;
 import org.quattor.pan.output.Formatter;
 import org.quattor.pan.output.FormatterUtils;
+import org.quattor.pan.output.StreamFormatter;
+import org.quattor.pan.output.TreeFormatter;
+import org.quattor.pan.output.TreeWalker;
+import org.quattor.pan.output.TreeWriter;
 
 /**
  * Wraps the <code>WriteXmlTask</code> as a <code>Task</code>. This wrapping is
@@ -46,7 +57,28 @@ public class WriteOutputTask extends Task<TaskResult> {
 
 	public WriteOutputTask(Formatter formatter, Compiler compiler,
 			String objectName, File outputDirectory) {
-		super(TaskResult.ResultType.XML, objectName, new CallImpl(formatter,
+		super(TaskResult.ResultType.XML, objectName, new CallImpl(
+				Collections.singletonList(formatter), compiler, objectName,
+				outputDirectory));
+	}
+
+	/**
+	 * Create a task writing the output files of an object for all of the
+	 * given formatters. The profile tree is walked once, with each node
+	 * passed to the writers of all of the formats.
+	 *
+	 * @param formatters
+	 *            formatters for the output files
+	 * @param compiler
+	 *            compiler providing the final result of the object
+	 * @param objectName
+	 *            name of the object template
+	 * @param outputDirectory
+	 *            directory receiving the output files
+	 */
+	public WriteOutputTask(List<TreeFormatter> formatters, Compiler compiler,
+			String objectName, File outputDirectory) {
+		super(TaskResult.ResultType.XML, objectName, new CallImpl(formatters,
 				compiler, objectName, outputDirectory));
 	}
 
@@ -60,7 +92,7 @@ public class WriteOutputTask extends Task<TaskResult> {
 	 */
 	private static class CallImpl implements Callable<TaskResult> {
 
-		private final Formatter formatter;
+		private final List<? extends Formatter> formatters;
 
 		private final Compiler compiler;
 
@@ -68,12 +100,12 @@ public class WriteOutputTask extends Task<TaskResult> {
 
 		private final File outputDirectory;
 
-		public CallImpl(Formatter formatter, Compiler compiler,
-				String objectName, File outputDirectory) {
+		public CallImpl(List<? extends Formatter> formatters,
+				Compiler compiler, String objectName, File outputDirectory) {
 
-			assert (formatter != null);
+			assert (formatters.size() > 0);
 
-			this.formatter = formatter;
+			this.formatters = formatters;
 
 			this.compiler = compiler;
 			this.objectName = objectName;
@@ -82,19 +114,35 @@ public class WriteOutputTask extends Task<TaskResult> {
 
 		public TaskResult call() throws Exception {
 
-			Valid2Cache v2cache = compiler.getValid2Cache();
+			try {
+				FinalCache fcache = compiler.getFinalCache();
 
-			// Now actually retrieve the other object's root, waiting if the
-			// result isn't yet available.
-			Valid2Result result = (Valid2Result) v2cache
-					.waitForResult(objectName);
+				// Now actually retrieve the object's final result, waiting if
+				// the result isn't yet available. The complete dependencies are
+				// only calculated once for all of the output files.
+				FinalResult result = fcache.waitForResult(objectName);
 
-			// FIXME: This should be done as another stage to avoid calculating
-			// the dependencies every time a new type of output file is written.
-			FinalResult finalResult = new FinalResult(compiler, result);
+				// Mark the beginning of writing XML file.
+				taskLogger.log(Level.FINER, "START_XMLFILE", objectName);
 
-			// Mark the beginning of writing XML file.
-			taskLogger.log(Level.FINER, "START_XMLFILE", objectName);
+				if (formatters.size() == 1) {
+					write(formatters.get(0), result);
+				} else {
+					writeTrees(result);
+				}
+
+				// Mark the end of writing XML file.
+				taskLogger.log(Level.FINER, "END_XMLFILE", objectName);
+
+			} finally {
+				// Release this task's reference on the object's results.
+				compiler.getResultRetention().release(objectName);
+			}
+
+			return new TaskResult(TaskResult.ResultType.XML);
+		}
+
+		private File getOutputFile(Formatter formatter, FinalResult result) {
 
 			URI resultURI = formatter.getResultURI(result.objectName);
 			URI absoluteURI = outputDirectory.toURI().resolve(resultURI);
@@ -102,14 +150,114 @@ public class WriteOutputTask extends Task<TaskResult> {
 
 			FormatterUtils.createParentDirectories(absolutePath);
 
-			formatter.write(finalResult, absoluteURI);
+			return absolutePath;
+		}
+
+		private void write(Formatter formatter, FinalResult result)
+				throws Exception {
+
+			File absolutePath = getOutputFile(formatter, result);
+
+			// Formatters which can write to a stream can skip files whose
+			// content has not changed.
+			if (compiler.options.writeIfChanged
+					&& formatter instanceof StreamFormatter) {
+				FormatterUtils.writeIfChanged((StreamFormatter) formatter,
+						result, absolutePath, result.timestamp);
+			} else {
+				formatter.write(result, absolutePath.toURI());
+				FormatterUtils.setOutputTimestamp(absolutePath,
+						result.timestamp);
+			}
+		}
 
-			FormatterUtils.setOutputTimestamp(absolutePath, result.timestamp);
+		/**
+		 * Writes all of the formats from a single walk of the tree. A format
+		 * which fails does not prevent the others from being written; the
+		 * first error is rethrown at the end. When only changed files are to
+		 * be written, each format is streamed into its own temporary file,
+		 * which replaces the output file only if the contents differ.
+		 */
+		private void writeTrees(FinalResult result) throws Exception {
+
+			boolean writeIfChanged = compiler.options.writeIfChanged;
+
+			int n = formatters.size();
+			File[] files = new File[n];
+			OutputStream[] streams = new OutputStream[n];
+			TreeWriter[] writers = new TreeWriter[n];
+
+			try {
+				for (int i = 0; i < n; i++) {
+					TreeFormatter formatter = (TreeFormatter) formatters.get(i);
+					files[i] = getOutputFile(formatter, result);
+					streams[i] = writeIfChanged ? ChangeDetectingOutputStream
+							.create(files[i]) : new FileOutputStream(files[i]);
+					writers[i] = formatter.createTreeWriter(streams[i]);
+				}
+			} catch (Exception e) {
+				for (OutputStream os : streams) {
+					discardReliably(os);
+				}
+				throw e;
+			}
+
+			TreeWalker walker = new TreeWalker(writers);
+			walker.walk(result.getRoot());
+
+			Exception firstError = null;
+			for (int i = 0; i < n; i++) {
+				Exception error = walker.getError(i);
+				try {
+					writers[i].close();
+					if (error == null) {
+						if (writeIfChanged) {
+							((ChangeDetectingOutputStream) streams[i])
+									.commit(result.timestamp);
+						} else {
+							FormatterUtils.setOutputTimestamp(files[i],
+									result.timestamp);
+						}
+					}
+				} catch (Exception e) {
+					if (error == null) {
+						error = e;
+					}
+				} finally {
+					if (writeIfChanged) {
+						// No-op if the stream has been committed.
+						discardReliably(streams[i]);
+					}
+				}
+				if (firstError == null) {
+					firstError = error;
+				}
+			}
+
+			if (firstError != null) {
+				throw firstError;
+			}
+		}
 
-			// Mark the end of writing XML file.
-			taskLogger.log(Level.FINER, "END_XMLFILE", objectName);
+		/**
+		 * Closes the stream, removing the temporary file of a stream which
+		 * only writes changed files.
+		 */
+		private static void discardReliably(OutputStream os) {
+			if (os instanceof ChangeDetectingOutputStream) {
+				((ChangeDetectingOutputStream) os).discard();
+			} else {
+				closeReliably(os);
+			}
+		}
 
-			return new TaskResult(TaskResult.ResultType.XML);
+		private static void closeReliably(Closeable closeable) {
+			if (closeable != null) {
+				try {
+					closeable.close();
+				} catch (IOException consumed) {
+				}
+			}
 		}
 
 	}
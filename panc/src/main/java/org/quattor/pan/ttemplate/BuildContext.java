@@ -38,7 +38,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,6 +47,7 @@ import org.quattor.pan.CompilerLogging.LoggingType;
 import org.quattor.pan.CompilerOptions;
 import org.quattor.pan.cache.BuildCache;
 import org.quattor.pan.cache.CompileCache;
+import org.quattor.pan.cache.FunctionMemo;
 import org.quattor.pan.dml.Operation;
 import org.quattor.pan.dml.data.BooleanProperty;
 import org.quattor.pan.dml.data.Element;
@@ -98,11 +98,17 @@ public class BuildContext implements Context {
 
 	private final Compiler compiler;
 
+	/**
+	 * Whether the dicts and lists created during this build use persistent
+	 * backing collections, as selected by the compiler options.
+	 */
+	private final boolean persistentBacking;
+
 	private final FunctionMap functions;
 
 	private final TypeMap types;
 
-	private final Map<Path, List<FullType>> bindings;
+	private final TypeBindings bindings;
 
 	private final Map<String, GlobalVariable> globalVariables;
 
@@ -187,11 +193,24 @@ public class BuildContext implements Context {
 			this.deprecationWarnings = CompilerOptions.DeprecationWarnings.OFF;
 		}
 
-		// Set the root to the rootElement compiler option.
-		if (compiler != null) {
-			root = (HashResource) compiler.options.rootElement.duplicate();
-		} else {
+		// Set the root to the rootElement compiler option. Children created
+		// through the root use the same backing as the root.
+		persistentBacking = (compiler != null)
+				&& compiler.options.persistentResources;
+		if (compiler == null) {
 			root = new HashResource();
+		} else if (persistentBacking) {
+			root = new HashResource(true);
+			try {
+				for (Resource.Entry entry : compiler.options.rootElement) {
+					root.put((Term) entry.getKey(), entry.getValue()
+							.duplicate());
+				}
+			} catch (InvalidTermException ite) {
+				throw new EvaluationException(ite.getMessage());
+			}
+		} else {
+			root = (HashResource) compiler.options.rootElement.duplicate();
 		}
 
 		// Create the empty hashes.
@@ -199,7 +218,7 @@ public class BuildContext implements Context {
 		types = new TypeMap();
 		globalVariables = new HashMap<String, GlobalVariable>();
 		templates = new Stack<SourceLocation>();
-		bindings = new TreeMap<Path, List<FullType>>();
+		bindings = new TypeBindings();
 		dependencies = new HashMap<String, Template>();
 		otherDependencies = new TreeSet<SourceFile>();
 		flags = new FinalFlags();
@@ -270,7 +289,7 @@ public class BuildContext implements Context {
 	 */
 	public HashResource createRelativeRoot() {
 		HashResource oldRelativeRoot = relativeRoot;
-		relativeRoot = new HashResource();
+		relativeRoot = new HashResource(persistentBacking);
 		return oldRelativeRoot;
 	}
 
@@ -439,6 +458,10 @@ public class BuildContext implements Context {
 		this.localVariables = localVariableHolder;
 	}
 
+	public FunctionMemo getFunctionMemo() {
+		return (compiler != null) ? compiler.getFunctionMemo() : null;
+	}
+
 	public IteratorMap createIteratorMap() {
 		IteratorMap oldIteratorMap = iteratorMap;
 		iteratorMap = new IteratorMap();
@@ -457,7 +480,8 @@ public class BuildContext implements Context {
 		StringProperty sname = StringProperty.getInstance(objectTemplate.name);
 
 		setGlobalVariable("OBJECT", sname, true);
-		setGlobalVariable("LOADPATH", new ListResource(), false);
+		setGlobalVariable("LOADPATH", new ListResource(persistentBacking),
+				false);
 	}
 
 	public String getObjectName() {
@@ -493,22 +517,26 @@ public class BuildContext implements Context {
 	 * @param sourceRange
 	 *            location in the template where this function is defined (used
 	 *            for error handling)
+	 * @param pure
+	 *            flag indicating that the results of the function can be
+	 *            reused for calls with the same arguments
 	 * 
 	 * @throws EvaluationException
 	 *             if a function with the given name already exists
 	 */
 	public void setFunction(String name, Operation function, Template template,
-			SourceRange sourceRange) throws EvaluationException {
-		functions.put(name, function, template, sourceRange);
+			SourceRange sourceRange, boolean pure) throws EvaluationException {
+		functions.put(name, function, template, sourceRange, pure);
 	}
 
 	/**
-	 * This method returns an unmodifiable, ordered map of the type bindings.
+	 * This method returns the type bindings, arranged as a tree that follows
+	 * the structure of the configuration.
 	 * 
-	 * @return unmodifiable, ordered map of the type bindings
+	 * @return tree of the type bindings
 	 */
-	public Map<Path, List<FullType>> getBindings() {
-		return Collections.unmodifiableMap(bindings);
+	public TypeBindings getBindings() {
+		return bindings;
 	}
 
 	/**
@@ -543,16 +571,8 @@ public class BuildContext implements Context {
 					this.getTraceback(sourceRange));
 		}
 
-		// Retrieve or create the list of bindings for this path.
-		List<FullType> list = bindings.get(path);
-		if (list == null) {
-			list = new LinkedList<FullType>();
-			bindings.put(path, list);
-		}
-
 		// Add the binding.
-		assert (list != null);
-		list.add(fullType);
+		bindings.put(path, fullType);
 	}
 
 	/**
@@ -807,6 +827,31 @@ public class BuildContext implements Context {
 	 */
 	public Element getElement(Path path, boolean errorIfNotFound)
 			throws EvaluationException {
+		return getElement(path, errorIfNotFound, false);
+	}
+
+	/**
+	 * Pull the value of an element from a configuration tree for reading
+	 * only. This is the same as getElement(path, false), except that a
+	 * resource is returned protected: no reference that could modify the tree
+	 * in place is handed out. Callers that need a modifiable value must
+	 * duplicate it.
+	 * 
+	 * @param path
+	 *            path to lookup
+	 * 
+	 * @return protected Element associated to the given path or null if it
+	 *         can't be found
+	 * 
+	 * @throws EvaluationException
+	 *             if the path is relative and relativeRoot isn't set
+	 */
+	public Element readElement(Path path) throws EvaluationException {
+		return getElement(path, false, true);
+	}
+
+	private Element getElement(Path path, boolean errorIfNotFound,
+			boolean protect) throws EvaluationException {
 
 		// Set the initial node to use.
 		Element node = null;
@@ -899,6 +944,11 @@ public class BuildContext implements Context {
 					bcache.setDependency(myObject, externalObject);
 				}
 
+				// Keep the external object's results available for as long as
+				// this object is being processed.
+				compiler.getResultRetention().reference(myObject,
+						externalObject);
+
 				// Wait for the result and set the node to the external object's
 				// root element.
 				BuildResult result = (BuildResult) bcache
@@ -914,8 +964,8 @@ public class BuildContext implements Context {
 		// given terms to retrieve the desired element.
 		assert (node != null);
 		try {
-			node = node.rget(path.getTerms(), 0, node.isProtected(),
-					!errorIfNotFound);
+			node = node.rget(path.getSharedTerms(), 0,
+					protect || node.isProtected(), !errorIfNotFound);
 		} catch (InvalidTermException ite) {
 			throw new EvaluationException(ite.formatMessage(path));
 		}
@@ -933,7 +983,7 @@ public class BuildContext implements Context {
 
 		if (path.isAbsolute() || path.isRelative()) {
 
-			Term[] terms = path.getTerms();
+			Term[] terms = path.getSharedTerms();
 			int nterms = terms.length;
 
 			// If the list is empty, then we are trying to modify the root
@@ -1116,7 +1166,11 @@ public class BuildContext implements Context {
 	 *         variable does not exist
 	 */
 	public Element getLocalVariable(String name) {
-		return localVariables.get(name);
+		return getLocalVariable(new VariableSlot(name));
+	}
+
+	public Element getLocalVariable(VariableSlot variable) {
+		return localVariables.get(variable);
 	}
 
 	/**
@@ -1132,12 +1186,16 @@ public class BuildContext implements Context {
 	 *         could not be found
 	 */
 	public Element getVariable(String name) {
+		return getVariable(new VariableSlot(name));
+	}
+
+	public Element getVariable(VariableSlot variable) {
 
-		Element result = localVariables.get(name);
+		Element result = localVariables.get(variable);
 
 		// If the result is null, then try to look up a global variable.
 		if (result == null) {
-			result = getGlobalVariable(name);
+			result = getGlobalVariable(variable.name);
 		}
 
 		return result;
@@ -1161,14 +1219,20 @@ public class BuildContext implements Context {
 	 */
 	public Element dereferenceVariable(String name, boolean lookupOnly,
 			Term[] terms) throws InvalidTermException {
+		return dereferenceVariable(new VariableSlot(name), lookupOnly,
+				terms);
+	}
+
+	public Element dereferenceVariable(VariableSlot variable,
+			boolean lookupOnly, Term[] terms) throws InvalidTermException {
 
 		boolean duplicate = false;
-		Element result = localVariables.get(name);
+		Element result = localVariables.get(variable);
 
 		// If the result is null, then try to look up a global variable.
 		if (result == null) {
 			duplicate = true;
-			result = getGlobalVariable(name);
+			result = getGlobalVariable(variable.name);
 		}
 
 		// Now actually dereference the given variable. The caller must deal
@@ -1176,8 +1240,9 @@ public class BuildContext implements Context {
 		// pass those on.
 		if (result != null) {
 			if (!(result instanceof Undef)) {
-				// FIXME: Determine if the result needs to be protected.
-				result = result.rget(terms, 0, false, lookupOnly);
+				// A global variable is duplicated below, so only a protected
+				// view of its value is retrieved.
+				result = result.rget(terms, 0, duplicate, lookupOnly);
 			} else {
 				// Trying to dereference an undefined value. Therefore, the
 				// value does not exist; return null to caller.
@@ -1215,18 +1280,26 @@ public class BuildContext implements Context {
 	 */
 	public void setLocalVariable(String name, Element value)
 			throws EvaluationException {
+		setLocalVariable(new VariableSlot(name), value);
+	}
 
-		assert (name != null);
+	public void setLocalVariable(VariableSlot variable, Element value)
+			throws EvaluationException {
+
+		assert (variable != null);
 
 		// Only truly local variables can be set via this method. Throw an
-		// exception if a global variable is found which matches the name.
-		if (globalVariables.containsKey(name)) {
+		// exception if a global variable is found which matches the name. A
+		// variable with a local value has already passed this check; global
+		// variables cannot be created while a DML block is running.
+		if (localVariables.get(variable) == null
+				&& globalVariables.containsKey(variable.name)) {
 			throw new EvaluationException(MessageUtils.format(
-					MSG_CANNOT_MODIFY_GLOBAL_VARIABLE_FROM_DML, name));
+					MSG_CANNOT_MODIFY_GLOBAL_VARIABLE_FROM_DML, variable.name));
 		}
 
 		// Ok, save the value.
-		localVariables.put(name, value);
+		localVariables.put(variable, value);
 	}
 
 	/**
@@ -1247,21 +1320,22 @@ public class BuildContext implements Context {
 	 */
 	public void setLocalVariable(String name, Term[] terms, Element value)
 			throws EvaluationException {
+		setLocalVariable(new VariableSlot(name), terms, value);
+	}
 
-		assert (name != null);
+	public void setLocalVariable(VariableSlot variable, Term[] terms,
+			Element value) throws EvaluationException {
 
-		// Only truly local variables can be set via this method. Throw an
-		// exception if a global variable is found which matches the name.
-		if (globalVariables.containsKey(name)) {
-			throw new EvaluationException(MessageUtils.format(
-					MSG_CANNOT_MODIFY_GLOBAL_VARIABLE_FROM_DML, name));
-		}
+		assert (variable != null);
+
+		// The check for a global variable of the same name is done when the
+		// local variable is set.
 
 		if (terms == null || terms.length == 0) {
 
 			// Revert back to the simple case that does not require
 			// dereferencing.
-			setLocalVariable(name, value);
+			setLocalVariable(variable, value);
 
 		} else {
 
@@ -1269,13 +1343,13 @@ public class BuildContext implements Context {
 			// variable. (And also possibly create the parents.)
 
 			// Retrieve the value of the local variable.
-			Element var = getLocalVariable(name);
+			Element var = getLocalVariable(variable);
 
 			// If the value is a protected resource, then make a shallow copy
 			// and replace the value of the local variable.
 			if (var != null && var.isProtected()) {
 				var = var.writableCopy();
-				setLocalVariable(name, var);
+				setLocalVariable(variable, var);
 			}
 
 			// If the value does not exist, create a resource of the correct
@@ -1284,11 +1358,11 @@ public class BuildContext implements Context {
 
 				Term term = terms[0];
 				if (term.isKey()) {
-					var = new HashResource();
+					var = new HashResource(persistentBacking);
 				} else {
-					var = new ListResource();
+					var = new ListResource(persistentBacking);
 				}
-				setLocalVariable(name, var);
+				setLocalVariable(variable, var);
 
 			}
 
@@ -1297,8 +1371,8 @@ public class BuildContext implements Context {
 			try {
 				var.rput(terms, 0, value);
 			} catch (InvalidTermException ite) {
-				throw new EvaluationException(ite.formatVariableMessage(name,
-						terms));
+				throw new EvaluationException(ite.formatVariableMessage(
+						variable.name, terms));
 			}
 		}
 	}
@@ -1334,6 +1408,10 @@ public class BuildContext implements Context {
 		return false;
 	}
 
+	public boolean isPersistentBacking() {
+		return persistentBacking;
+	}
+
 	public void initializeSelfHolder(SelfHolder selfHolder) {
 		self = selfHolder;
 	}
@@ -24,9 +24,7 @@ import static org.quattor.pan.utils.MessageUtils.MSG_INVALID_VALIDATION_FUNCTION
 import static org.quattor.pan.utils.MessageUtils.MSG_VALIDATION_FAILED_BECAUSE_OF_EXCEPTION;
 
 import java.io.File;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.logging.Level;
@@ -34,6 +32,7 @@ import java.util.logging.Logger;
 
 import org.quattor.pan.CompilerLogging.LoggingType;
 import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.cache.FunctionMemo;
 import org.quattor.pan.dml.Operation;
 import org.quattor.pan.dml.data.BooleanProperty;
 import org.quattor.pan.dml.data.Element;
@@ -231,6 +230,11 @@ public class CompileTimeContext implements Context {
 		this.localVariables = localVariableHolder;
 	}
 
+	public FunctionMemo getFunctionMemo() {
+		// Results are never shared at compile time.
+		return null;
+	}
+
 	public IteratorMap createIteratorMap() {
 		IteratorMap oldIteratorMap = iteratorMap;
 		iteratorMap = new IteratorMap();
@@ -286,23 +290,27 @@ public class CompileTimeContext implements Context {
 	 * @param sourceRange
 	 *            location in the template where this function is defined (used
 	 *            for error handling)
+	 * @param pure
+	 *            flag indicating that the results of the function can be
+	 *            reused for calls with the same arguments
 	 * 
 	 * @throws EvaluationException
 	 *             if a function with the given name already exists
 	 */
 	public void setFunction(String name, Operation function, Template template,
-			SourceRange sourceRange) throws EvaluationException {
+			SourceRange sourceRange, boolean pure) throws EvaluationException {
 		// Should never be called.
 	}
 
 	/**
-	 * This method returns an unmodifiable, ordered map of the type bindings.
+	 * This method returns the type bindings, arranged as a tree that follows
+	 * the structure of the configuration.
 	 * 
-	 * @return unmodifiable, ordered map of the type bindings
+	 * @return tree of the type bindings
 	 */
-	public Map<Path, List<FullType>> getBindings() {
+	public TypeBindings getBindings() {
 		// This should never be called.
-		return new HashMap<Path, List<FullType>>();
+		return new TypeBindings();
 	}
 
 	/**
@@ -551,6 +559,28 @@ public class CompileTimeContext implements Context {
 		return null;
 	}
 
+	/**
+	 * Pull the value of an element from a configuration tree for reading
+	 * only. This is the same as getElement(path, false), except that a
+	 * resource is returned protected: no reference that could modify the tree
+	 * in place is handed out. Callers that need a modifiable value must
+	 * duplicate it.
+	 * 
+	 * @param path
+	 *            path to lookup
+	 * 
+	 * @return protected Element associated to the given path or null if it
+	 *         can't be found
+	 * 
+	 * @throws EvaluationException
+	 *             if the path is relative and relativeRoot isn't set
+	 */
+	public Element readElement(Path path) throws EvaluationException {
+
+		// This should never be called.
+		return null;
+	}
+
 	public void putElement(Path path, Element value) {
 
 		// This should never be called.
@@ -667,7 +697,11 @@ public class CompileTimeContext implements Context {
 	 *         variable does not exist
 	 */
 	public Element getLocalVariable(String name) {
-		return localVariables.get(name);
+		return getLocalVariable(new VariableSlot(name));
+	}
+
+	public Element getLocalVariable(VariableSlot variable) {
+		return localVariables.get(variable);
 	}
 
 	/**
@@ -683,12 +717,16 @@ public class CompileTimeContext implements Context {
 	 *         could not be found
 	 */
 	public Element getVariable(String name) {
+		return getVariable(new VariableSlot(name));
+	}
+
+	public Element getVariable(VariableSlot variable) {
 
-		Element result = localVariables.get(name);
+		Element result = localVariables.get(variable);
 
 		// If the result is null, then try to look up a global variable.
 		if (result == null) {
-			result = getGlobalVariable(name);
+			result = getGlobalVariable(variable.name);
 		}
 
 		return result;
@@ -712,14 +750,20 @@ public class CompileTimeContext implements Context {
 	 */
 	public Element dereferenceVariable(String name, boolean lookupOnly,
 			Term[] terms) throws InvalidTermException {
+		return dereferenceVariable(new VariableSlot(name), lookupOnly,
+				terms);
+	}
+
+	public Element dereferenceVariable(VariableSlot variable,
+			boolean lookupOnly, Term[] terms) throws InvalidTermException {
 
 		boolean duplicate = false;
-		Element result = localVariables.get(name);
+		Element result = localVariables.get(variable);
 
 		// If the result is null, then try to look up a global variable.
 		if (result == null) {
 			duplicate = true;
-			result = getGlobalVariable(name);
+			result = getGlobalVariable(variable.name);
 		}
 
 		// Now actually dereference the given variable. The caller must deal
@@ -727,8 +771,9 @@ public class CompileTimeContext implements Context {
 		// pass those on.
 		if (result != null) {
 			if (!(result instanceof Undef)) {
-				// FIXME: Determine if the result needs to be protected.
-				result = result.rget(terms, 0, false, lookupOnly);
+				// A global variable is duplicated below, so only a protected
+				// view of its value is retrieved.
+				result = result.rget(terms, 0, duplicate, lookupOnly);
 			} else {
 				// Trying to dereference an undefined value. Therefore, the
 				// value does not exist; return null to caller.
@@ -766,10 +811,15 @@ public class CompileTimeContext implements Context {
 	 */
 	public void setLocalVariable(String name, Element value)
 			throws EvaluationException {
+		setLocalVariable(new VariableSlot(name), value);
+	}
+
+	public void setLocalVariable(VariableSlot variable, Element value)
+			throws EvaluationException {
 
-		assert (name != null);
+		assert (variable != null);
 
-		localVariables.put(name, value);
+		localVariables.put(variable, value);
 	}
 
 	/**
@@ -790,14 +840,19 @@ public class CompileTimeContext implements Context {
 	 */
 	public void setLocalVariable(String name, Term[] terms, Element value)
 			throws EvaluationException {
+		setLocalVariable(new VariableSlot(name), terms, value);
+	}
 
-		assert (name != null);
+	public void setLocalVariable(VariableSlot variable, Term[] terms,
+			Element value) throws EvaluationException {
+
+		assert (variable != null);
 
 		if (terms == null || terms.length == 0) {
 
 			// Revert back to the simple case that does not require
 			// dereferencing.
-			setLocalVariable(name, value);
+			setLocalVariable(variable, value);
 
 		} else {
 
@@ -805,13 +860,13 @@ public class CompileTimeContext implements Context {
 			// variable. (And also possibly create the parents.)
 
 			// Retrieve the value of the local variable.
-			Element var = getLocalVariable(name);
+			Element var = getLocalVariable(variable);
 
 			// If the value is a protected resource, then make a shallow copy
 			// and replace the value of the local variable.
 			if (var != null && var.isProtected()) {
 				var = var.writableCopy();
-				setLocalVariable(name, var);
+				setLocalVariable(variable, var);
 			}
 
 			// If the value does not exist, create a resource of the correct
@@ -824,7 +879,7 @@ public class CompileTimeContext implements Context {
 				} else {
 					var = new ListResource();
 				}
-				setLocalVariable(name, var);
+				setLocalVariable(variable, var);
 
 			}
 
@@ -833,8 +888,8 @@ public class CompileTimeContext implements Context {
 			try {
 				var.rput(terms, 0, value);
 			} catch (InvalidTermException ite) {
-				throw new EvaluationException(ite.formatVariableMessage(name,
-						terms));
+				throw new EvaluationException(ite.formatVariableMessage(
+						variable.name, terms));
 			}
 		}
 	}
@@ -872,6 +927,14 @@ public class CompileTimeContext implements Context {
 		return true;
 	}
 
+	/**
+	 * Values computed at compile time end up in templates that may be shared
+	 * between compilers, so they always use the standard backing.
+	 */
+	public boolean isPersistentBacking() {
+		return false;
+	}
+
 	public void initializeSelfHolder(SelfHolder selfHolder) {
 		// This should never be called.
 	}
@@ -21,11 +21,11 @@
 package org.quattor.pan.ttemplate;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
 import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.cache.FunctionMemo;
 import org.quattor.pan.dml.Operation;
 import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.dml.data.HashResource;
@@ -127,6 +127,14 @@ public interface Context {
 
 	public IteratorMap createIteratorMap();
 
+	/**
+	 * Returns the cache of results of pure functions shared by the objects
+	 * built by the compiler.
+	 * 
+	 * @return function memo or null if results must not be cached
+	 */
+	public FunctionMemo getFunctionMemo();
+
 	public void restoreIteratorMap(IteratorMap iteratorMap);
 
 	/**
@@ -166,19 +174,23 @@ public interface Context {
 	 * @param sourceRange
 	 *            location in the template where this function is defined (used
 	 *            for error handling)
+	 * @param pure
+	 *            flag indicating that the results of the function can be
+	 *            reused for calls with the same arguments
 	 * 
 	 * @throws EvaluationException
 	 *             if a function with the given name already exists
 	 */
 	public void setFunction(String name, Operation function, Template template,
-			SourceRange sourceRange) throws EvaluationException;
+			SourceRange sourceRange, boolean pure) throws EvaluationException;
 
 	/**
-	 * This method returns an unmodifiable, ordered map of the type bindings.
+	 * This method returns the type bindings, arranged as a tree that follows
+	 * the structure of the configuration.
 	 * 
-	 * @return unmodifiable, ordered map of the type bindings
+	 * @return tree of the type bindings
 	 */
-	public Map<Path, List<FullType>> getBindings();
+	public TypeBindings getBindings();
 
 	/**
 	 * This method associates a type definition to a path. These bindings are
@@ -340,6 +352,24 @@ public interface Context {
 	public Element getElement(Path path, boolean errorIfNotFound)
 			throws EvaluationException;
 
+	/**
+	 * Pull the value of an element from a configuration tree for reading
+	 * only. This is the same as getElement(path, false), except that a
+	 * resource is returned protected: no reference that could modify the tree
+	 * in place is handed out. Callers that need a modifiable value must
+	 * duplicate it.
+	 * 
+	 * @param path
+	 *            path to lookup
+	 * 
+	 * @return protected Element associated to the given path or null if it
+	 *         can't be found
+	 * 
+	 * @throws EvaluationException
+	 *             if the path is relative and relativeRoot isn't set
+	 */
+	public Element readElement(Path path) throws EvaluationException;
+
 	public void putElement(Path path, Element value);
 
 	public Element executeDmlBlock(Operation dml);
@@ -360,6 +390,18 @@ public interface Context {
 	 */
 	public Element getLocalVariable(String name);
 
+	/**
+	 * Same as <code>getLocalVariable(String)</code>, but takes a reference
+	 * which may have been resolved to a slot of the current frame.
+	 * 
+	 * @param variable
+	 *            reference to the variable to lookup
+	 * 
+	 * @return the value of the associated local variable or null if the local
+	 *         variable does not exist
+	 */
+	public Element getLocalVariable(VariableSlot variable);
+
 	/**
 	 * Return the Element which corresponds to the given variable name. It will
 	 * first check local variables and then global variables. This method will
@@ -374,6 +416,17 @@ public interface Context {
 	 */
 	public Element getVariable(String name);
 
+	/**
+	 * Same as <code>getVariable(String)</code>, but takes a reference which
+	 * may have been resolved to a slot of the current frame.
+	 * 
+	 * @param variable
+	 *            reference to the variable to lookup
+	 * @return Element corresponding to the given variable or null if it could
+	 *         not be found
+	 */
+	public Element getVariable(VariableSlot variable);
+
 	/**
 	 * Return the Element which corresponds to the given variable name. It will
 	 * first check local variables and then the parent context. This method will
@@ -393,6 +446,23 @@ public interface Context {
 	public Element dereferenceVariable(String name, boolean lookupOnly,
 			Term[] terms) throws InvalidTermException;
 
+	/**
+	 * Same as <code>dereferenceVariable(String, boolean, Term[])</code>, but
+	 * takes a reference which may have been resolved to a slot of the current
+	 * frame.
+	 * 
+	 * @param variable
+	 *            reference to the variable to lookup
+	 * @param lookupOnly
+	 *            flag indicating if only a lookup should be done
+	 * @param terms
+	 *            values for dereferencing the given variable
+	 * 
+	 * @return Element value of the associated dereferenced variable
+	 */
+	public Element dereferenceVariable(VariableSlot variable,
+			boolean lookupOnly, Term[] terms) throws InvalidTermException;
+
 	/**
 	 * Set the local variable to the given value. If the value is null, then the
 	 * corresponding variable will be removed. If there is a global variable of
@@ -410,6 +480,21 @@ public interface Context {
 	public void setLocalVariable(String name, Element value)
 			throws EvaluationException;
 
+	/**
+	 * Same as <code>setLocalVariable(String, Element)</code>, but takes a
+	 * reference which may have been resolved to a slot of the current frame.
+	 * 
+	 * @param variable
+	 *            reference to the local variable
+	 * @param value
+	 *            value to use or null to remove the variable
+	 * @throws EvaluationException
+	 *             if there is a global variable with the same name as the local
+	 *             variable
+	 */
+	public void setLocalVariable(VariableSlot variable, Element value)
+			throws EvaluationException;
+
 	/**
 	 * Set the local variable to the given value. If the value is null, then the
 	 * corresponding variable will be removed. If there is a global variable of
@@ -429,6 +514,25 @@ public interface Context {
 	public void setLocalVariable(String name, Term[] terms, Element value)
 			throws EvaluationException;
 
+	/**
+	 * Same as <code>setLocalVariable(String, Term[], Element)</code>, but
+	 * takes a reference which may have been resolved to a slot of the current
+	 * frame.
+	 * 
+	 * @param variable
+	 *            reference to the local variable
+	 * @param terms
+	 *            terms used to dereference the variable, or null if the
+	 *            variable is to be used directly
+	 * @param value
+	 *            value to use or null to remove the variable
+	 * @throws EvaluationException
+	 *             if there is a global variable with the same name as the local
+	 *             variable
+	 */
+	public void setLocalVariable(VariableSlot variable, Term[] terms,
+			Element value) throws EvaluationException;
+
 	public int getCallLimit();
 
 	public int getIterationLimit();
@@ -448,6 +552,15 @@ public interface Context {
 	 */
 	public boolean isCompileTimeContext();
 
+	/**
+	 * Indicates whether the dicts and lists created in this context use
+	 * persistent backing collections. This is chosen per compiler so that
+	 * compilers running in the same JVM do not affect each other.
+	 * 
+	 * @return true if persistent backing collections are used
+	 */
+	public boolean isPersistentBacking();
+
 	public void initializeSelfHolder(SelfHolder selfHolder);
 
 	public boolean isSelfFinal();
@@ -0,0 +1,79 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.ttemplate;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns an index to each of the local variables referenced by name in a
+ * function body or a top-level DML block. The indexes are assigned when the
+ * template is compiled; the layout must not be modified once the template is
+ * used. A <code>LocalVariableMap</code> bound to a layout keeps the values of
+ * these variables in an array.
+ *
+ * @author loomis
+ *
+ */
+public class FrameLayout implements Serializable {
+
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+	/**
+	 * Returns a reference to the named variable within this layout, assigning
+	 * a new index to the variable if necessary.
+	 *
+	 * @param name
+	 *            name of the local variable
+	 *
+	 * @return resolved reference to the variable
+	 */
+	public VariableSlot createSlot(String name) {
+		Integer index = indexes.get(name);
+		if (index == null) {
+			index = indexes.size();
+			indexes.put(name, index);
+		}
+		return new VariableSlot(name, this, index);
+	}
+
+	/**
+	 * Returns the index of the named variable or -1 if the variable is not
+	 * part of this layout.
+	 *
+	 * @param name
+	 *            name of the local variable
+	 *
+	 * @return index of the variable or -1
+	 */
+	public int indexOf(String name) {
+		Integer index = indexes.get(name);
+		return (index != null) ? index : -1;
+	}
+
+	/**
+	 * Returns the number of variables in this layout.
+	 *
+	 * @return number of variables
+	 */
+	public int size() {
+		return indexes.size();
+	}
+
+}
@@ -28,6 +28,27 @@ public class FunctionMap {
 		return functions.get(name);
 	}
 
+	/**
+	 * Define the given DML block as a function that is not pure. See
+	 * <code>put(String, Operation, Template, SourceRange, boolean)</code>.
+	 * 
+	 * @param name
+	 *            name for the function
+	 * @param function
+	 *            code for the function as a DML block
+	 * @param template
+	 *            template in which this function is defined
+	 * @param sourceRange
+	 *            location in the template where this function is defined
+	 * 
+	 * @throws EvaluationException
+	 *             if a function with the given name already exists
+	 */
+	public void put(String name, Operation function, Template template,
+			SourceRange sourceRange) throws EvaluationException {
+		put(name, function, template, sourceRange, false);
+	}
+
 	/**
 	 * Define the given DML block as a function with the given name in this
 	 * context. Note that functions may not be redefined; attempting to do so
@@ -43,19 +64,22 @@ public class FunctionMap {
 	 * @param sourceRange
 	 *            location in the template where this function is defined (used
 	 *            for error handling)
+	 * @param pure
+	 *            flag indicating that the results of the function can be
+	 *            reused for calls with the same arguments
 	 * 
 	 * @throws EvaluationException
 	 *             if a function with the given name already exists
 	 */
 	public void put(String name, Operation function, Template template,
-			SourceRange sourceRange) throws EvaluationException {
+			SourceRange sourceRange, boolean pure) throws EvaluationException {
 
 		assert (name != null);
 		assert (function != null);
 
 		// Create the new function definition.
 		FunctionDefinition defn = new FunctionDefinition(template, sourceRange,
-				function);
+				function, pure);
 
 		// Actually set this in the functions hash.
 		FunctionDefinition previous = functions.put(name, defn);
@@ -1,7 +1,8 @@
 package org.quattor.pan.ttemplate;
 
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
 
 import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.dml.data.ListResource;
@@ -10,18 +11,32 @@ import org.quattor.pan.dml.data.LongProperty;
 /**
  * This class contains a map intended to hold the definition of local variables.
  * 
+ * The map is bound to the <code>FrameLayout</code> of the first resolved
+ * variable reference used with it; the variables of that layout are then kept
+ * in an array and accessed by index. All other variables (e.g. those accessed
+ * dynamically by name) are kept in a separate map. The ARGV and ARGC variables
+ * of a function call are only stored once the layout is known.
+ * 
  * @author loomis
  * 
  */
 public class LocalVariableMap {
 
-	private final Map<String, Element> map;
+	private static final Element[] NO_SLOTS = new Element[0];
+
+	private FrameLayout layout = null;
+
+	private Element[] slots = NO_SLOTS;
+
+	private Map<String, Element> map = null;
+
+	private ListResource argv;
 
 	/**
 	 * Create an instance that contains no local variable mappings initially.
 	 */
 	public LocalVariableMap() {
-		map = new TreeMap<String, Element>();
+		this(null);
 	}
 
 	/**
@@ -33,14 +48,7 @@ public class LocalVariableMap {
 	 *            ListResource to use to set ARGV and ARGC variables
 	 */
 	public LocalVariableMap(ListResource argv) {
-		this();
-
-		if (argv != null) {
-			LongProperty size = LongProperty.getInstance(argv.size());
-			map.put("ARGV", argv);
-			map.put("ARGC", size);
-		}
-
+		this.argv = argv;
 	}
 
 	/**
@@ -54,7 +62,32 @@ public class LocalVariableMap {
 	 *         exist
 	 */
 	public Element get(String name) {
-		return map.get(name);
+
+		storeArguments();
+
+		if (layout != null) {
+			int index = layout.indexOf(name);
+			if (index >= 0) {
+				return slots[index];
+			}
+		}
+		return (map != null) ? map.get(name) : null;
+	}
+
+	/**
+	 * Lookup the value of the referenced variable. If the variable isn't
+	 * defined, then null is returned.
+	 * 
+	 * @param variable
+	 *            reference to the variable to lookup
+	 * 
+	 * @return Element associated with the variable or null if it doesn't exist
+	 */
+	public Element get(VariableSlot variable) {
+		if (bind(variable.layout)) {
+			return slots[variable.index];
+		}
+		return get(variable.name);
 	}
 
 	/**
@@ -75,17 +108,29 @@ public class LocalVariableMap {
 
 		assert (name != null);
 
+		storeArguments();
+
+		if (layout != null) {
+			int index = layout.indexOf(name);
+			if (index >= 0) {
+				return putSlot(index, value);
+			}
+		}
+
 		Element oldValue = null;
 
 		if (value != null) {
 
 			// Set the value and ensure that the replacement can be done.
+			if (map == null) {
+				map = new HashMap<String, Element>();
+			}
 			oldValue = map.put(name, value);
 			if (oldValue != null) {
 				oldValue.checkValidReplacement(value);
 			}
 
-		} else {
+		} else if (map != null) {
 
 			// Remove the referenced variable.
 			oldValue = map.remove(name);
@@ -94,4 +139,79 @@ public class LocalVariableMap {
 		return oldValue;
 	}
 
+	/**
+	 * Assign the value to the referenced variable. This has the same
+	 * semantics as <code>put(String, Element)</code>.
+	 * 
+	 * @param variable
+	 *            reference to the variable to assign value to
+	 * @param value
+	 *            Element to assign to the variable; variable is removed if the
+	 *            value is null
+	 * 
+	 * @return old value of the variable or null if it wasn't defined
+	 */
+	public Element put(VariableSlot variable, Element value) {
+		if (bind(variable.layout)) {
+			return putSlot(variable.index, value);
+		}
+		return put(variable.name, value);
+	}
+
+	private Element putSlot(int index, Element value) {
+		Element oldValue = slots[index];
+		slots[index] = value;
+		if (oldValue != null && value != null) {
+			oldValue.checkValidReplacement(value);
+		}
+		return oldValue;
+	}
+
+	/**
+	 * Bind this map to the given layout, if it is not yet bound. Returns true
+	 * if the map is bound to the given layout, so that the variables can be
+	 * accessed by index.
+	 */
+	private boolean bind(FrameLayout newLayout) {
+
+		if (newLayout == null) {
+			return false;
+		} else if (layout != null) {
+			return (layout == newLayout);
+		}
+
+		layout = newLayout;
+		slots = new Element[newLayout.size()];
+
+		// Move any variables that are now part of the layout.
+		if (map != null) {
+			Iterator<Map.Entry<String, Element>> entries = map.entrySet()
+					.iterator();
+			while (entries.hasNext()) {
+				Map.Entry<String, Element> entry = entries.next();
+				int index = newLayout.indexOf(entry.getKey());
+				if (index >= 0) {
+					slots[index] = entry.getValue();
+					entries.remove();
+				}
+			}
+		}
+
+		storeArguments();
+		return true;
+	}
+
+	/**
+	 * Store the ARGV and ARGC variables given when this map was created. Done
+	 * lazily so that they end up in the slots of the layout when possible.
+	 */
+	private void storeArguments() {
+		if (argv != null) {
+			ListResource args = argv;
+			argv = null;
+			put("ARGV", args);
+			put("ARGC", LongProperty.getInstance(args.size()));
+		}
+	}
+
 }
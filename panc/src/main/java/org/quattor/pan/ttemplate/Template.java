@@ -36,6 +36,7 @@ import static org.quattor.pan.utils.MessageUtils.MSG_OPERATION_WITHOUT_CONTEXT;
 import static org.quattor.pan.utils.MessageUtils.MSG_TEMPLATE_CONTAINS_NON_STATIC_STATEMENTS;
 
 import java.io.File;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -67,7 +68,7 @@ import org.quattor.pan.statement.VariableStatement;
  * @author loomis
  *
  */
-public class Template extends AFn implements IObj {
+public class Template extends AFn implements IObj, Serializable {
 
     private final AtomicReference<IPersistentMap> metadataRef = new AtomicReference<IPersistentMap>();
 
@@ -0,0 +1,232 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.ttemplate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.exceptions.InvalidTermException;
+import org.quattor.pan.type.FullType;
+import org.quattor.pan.utils.Path;
+import org.quattor.pan.utils.Term;
+
+/**
+ * Holds the type bindings of a machine configuration in a tree with the same
+ * structure as the configuration itself. There is a node for each bound path
+ * and for each of its parents. The default setting and validation phases walk
+ * this tree and the configuration together, looking up the value for each
+ * node in the value of its parent instead of starting again from the root for
+ * every binding.
+ *
+ * @author loomis
+ *
+ */
+public class TypeBindings {
+
+	private final Node root;
+
+	/**
+	 * Create an empty set of type bindings.
+	 */
+	public TypeBindings() {
+		root = new Node(new Term[0]);
+	}
+
+	/**
+	 * Returns the node corresponding to the root of the configuration.
+	 *
+	 * @return root node, which always exists
+	 */
+	public Node getRoot() {
+		return root;
+	}
+
+	/**
+	 * Bind the given type to an absolute path. There can be more than one
+	 * binding for a path; the types are kept in the order they were added.
+	 *
+	 * @param path
+	 *            absolute path to bind
+	 * @param fullType
+	 *            type to associate with the path
+	 */
+	public void put(Path path, FullType fullType) {
+
+		assert (path.isAbsolute());
+
+		// Step through the nodes creating any that don't exist.
+		Term[] terms = path.getSharedTerms();
+		Node currentNode = root;
+		for (int i = 0; i < terms.length; i++) {
+			currentNode = currentNode.getOrCreateChild(terms, i);
+		}
+
+		currentNode.addType(path, fullType);
+	}
+
+	/**
+	 * Determine if there is at least one type bound to the given path.
+	 *
+	 * @param path
+	 *            absolute path to check
+	 *
+	 * @return true if a type is bound to the path
+	 */
+	public boolean containsKey(Path path) {
+
+		Node currentNode = root;
+		for (Term t : path.getSharedTerms()) {
+			currentNode = currentNode.getChild(t);
+			if (currentNode == null) {
+				return false;
+			}
+		}
+		return currentNode.getPath() != null;
+	}
+
+	/**
+	 * A single level in the tree of bindings. The node keeps the terms of its
+	 * full path, so that its value can be looked up in the parent's value with
+	 * correct error information.
+	 *
+	 * @author loomis
+	 */
+	public static class Node {
+
+		private final Term[] terms;
+
+		private Path path = null;
+
+		private List<FullType> types = null;
+
+		private TreeMap<Term, Node> children = null;
+
+		private Node(Term[] terms) {
+			this.terms = terms;
+		}
+
+		/**
+		 * Returns the path of this node if there are bindings for it.
+		 *
+		 * @return bound path or null if this node only has bindings below it
+		 */
+		public Path getPath() {
+			return path;
+		}
+
+		/**
+		 * Returns the types bound to this node's path in the order in which
+		 * the bindings were made.
+		 *
+		 * @return unmodifiable list of types, empty if there are none
+		 */
+		public List<FullType> getTypes() {
+			if (types == null) {
+				return Collections.emptyList();
+			}
+			return Collections.unmodifiableList(types);
+		}
+
+		/**
+		 * Returns the children of this node, ordered like the children of a
+		 * resource.
+		 *
+		 * @return unmodifiable collection of child nodes
+		 */
+		public Collection<Node> getChildren() {
+			if (children == null) {
+				return Collections.emptyList();
+			}
+			return Collections.unmodifiableCollection(children.values());
+		}
+
+		/**
+		 * Look up the value of this node's path, given the value of the
+		 * parent path. This is equivalent to a lookup of the full path from
+		 * the root of the configuration, but only descends a single level.
+		 *
+		 * @param parent
+		 *            value of the parent path, may be null
+		 *
+		 * @return value of this node's path or null if it doesn't exist or the
+		 *         parent is not a resource
+		 *
+		 * @throws InvalidTermException
+		 *             if the last term of the path is not valid for the
+		 *             parent resource
+		 */
+		public Element lookup(Element parent) throws InvalidTermException {
+			if (parent == null) {
+				return null;
+			}
+			return parent.rget(terms, terms.length - 1, false, true);
+		}
+
+		/**
+		 * Look up the value of this node's path, starting from the root of the
+		 * configuration.
+		 *
+		 * @param root
+		 *            root element of the configuration
+		 *
+		 * @return value of this node's path or null if it doesn't exist
+		 *
+		 * @throws InvalidTermException
+		 *             if one of the terms of the path is not valid for the
+		 *             corresponding resource
+		 */
+		public Element lookupFromRoot(Element root)
+				throws InvalidTermException {
+			return root.rget(terms, 0, false, true);
+		}
+
+		private Node getChild(Term term) {
+			return (children != null) ? children.get(term) : null;
+		}
+
+		private Node getOrCreateChild(Term[] pathTerms, int index) {
+
+			Term term = pathTerms[index];
+			Node child = getChild(term);
+			if (child == null) {
+				Term[] childTerms = new Term[index + 1];
+				System.arraycopy(pathTerms, 0, childTerms, 0, index + 1);
+				child = new Node(childTerms);
+				if (children == null) {
+					children = new TreeMap<Term, Node>();
+				}
+				children.put(term, child);
+			}
+			return child;
+		}
+
+		private void addType(Path path, FullType fullType) {
+			if (types == null) {
+				this.path = path;
+				types = new LinkedList<FullType>();
+			}
+			types.add(fullType);
+		}
+
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.ttemplate;
+
+import java.io.Serializable;
+
+/**
+ * Reference to a local variable used by a DML operation. A reference that has
+ * been resolved against a <code>FrameLayout</code> also contains the index of
+ * the variable within that layout, so that the value can be retrieved without
+ * a lookup by name. Unresolved references (and references used with a frame
+ * bound to a different layout) fall back to the lookup by name.
+ *
+ * @author loomis
+ *
+ */
+public class VariableSlot implements Serializable {
+
+	public final String name;
+
+	public final FrameLayout layout;
+
+	public final int index;
+
+	/**
+	 * Create an unresolved reference to the named variable.
+	 *
+	 * @param name
+	 *            name of the local variable
+	 */
+	public VariableSlot(String name) {
+		this(name, null, -1);
+	}
+
+	VariableSlot(String name, FrameLayout layout, int index) {
+		assert (name != null);
+		this.name = name;
+		this.layout = layout;
+		this.index = index;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
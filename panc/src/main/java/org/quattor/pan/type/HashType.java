@@ -25,6 +25,7 @@ import static org.quattor.pan.utils.MessageUtils.MSG_MISMATCHED_TYPES;
 
 import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.Resource;
 import org.quattor.pan.dml.data.Undef;
 import org.quattor.pan.exceptions.CompilerError;
 import org.quattor.pan.exceptions.EvaluationException;
@@ -34,6 +35,7 @@ import org.quattor.pan.ttemplate.Context;
 import org.quattor.pan.ttemplate.SourceRange;
 import org.quattor.pan.utils.Range;
 import org.quattor.pan.utils.Term;
+import org.quattor.pan.utils.TermFactory;
 
 /**
  * Implements the dict type for the pan language.
@@ -145,16 +147,12 @@ public class HashType extends CompositeType {
 			}
 
 			// Loop over all of the children and apply the base type validation.
-			for (Term t : dict.keySet()) {
+			Resource.Cursor cursor = dict.readCursor();
+			while (cursor.next()) {
 				try {
-					Element child = dict.get(t);
-					baseType.validate(context, child);
+					baseType.validate(context, cursor.getValue());
 				} catch (ValidationException ve) {
-					throw ve.addTerm(t);
-				} catch (InvalidTermException ite) {
-					// This exception should never be encountered because the
-					// terms are extracted directly from the existing dict.
-					throw CompilerError.create(MSG_INVALID_KEY_OR_INDEX);
+					throw ve.addTerm(TermFactory.create(cursor.getName()));
 				}
 			}
 
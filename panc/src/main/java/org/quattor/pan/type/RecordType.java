@@ -35,6 +35,7 @@ import java.util.SortedMap;
 
 import org.quattor.pan.dml.data.Element;
 import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.Resource;
 import org.quattor.pan.dml.data.Undef;
 import org.quattor.pan.exceptions.CompilerError;
 import org.quattor.pan.exceptions.EvaluationException;
@@ -304,26 +305,23 @@ public class RecordType extends BaseType {
 	}
 
 	/**
-	 * This method will loop through all of the fields defined in this record
-	 * and remove them from the given list. This is used in the validation of
+	 * Determine if the named field is defined in this record, either directly
+	 * or through one of the included types. This is used in the validation of
 	 * the fields.
 	 *
 	 * @param context
 	 *            ObjectContext to use to look up included type definitions
-	 * @param undefinedFields
-	 *            List containing the field names to check; defined fields are
-	 *            removed directly from the list
+	 * @param name
+	 *            name of the field to check
+	 *
+	 * @return true if the field is defined
 	 */
-	private void removeDefinedFields(Context context, List<Term> undefinedFields)
+	private boolean isDefinedField(Context context, String name)
 			throws ValidationException {
 
-		// Loop through all of the required and optional fields removing each
-		// from the list of undefined fields.
-		for (Term term : reqKeys) {
-			undefinedFields.remove(term);
-		}
-		for (Term term : optKeys) {
-			undefinedFields.remove(term);
+		// Check the required and optional fields of this record.
+		if (containsField(reqKeys, name) || containsField(optKeys, name)) {
+			return true;
 		}
 
 		// Now we must apply this method to any included types as well.
@@ -335,7 +333,9 @@ public class RecordType extends BaseType {
 				FullType fullType = context.getFullType(s);
 				BaseType baseType = fullType.getBaseType();
 				RecordType recordType = (RecordType) baseType;
-				recordType.removeDefinedFields(context, undefinedFields);
+				if (recordType.isDefinedField(context, name)) {
+					return true;
+				}
 
 			} catch (ClassCastException cce) {
 
@@ -349,6 +349,17 @@ public class RecordType extends BaseType {
 
 			}
 		}
+
+		return false;
+	}
+
+	private static boolean containsField(Term[] keys, String name) {
+		for (Term term : keys) {
+			if (name.equals(term.toString())) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
@@ -364,23 +375,26 @@ public class RecordType extends BaseType {
 
 				HashResource dict = (HashResource) self;
 
-				// Copy all of the field names into a list.
-				List<Term> undefinedFields = new LinkedList<Term>();
-				for (Term term : dict.keySet()) {
-					undefinedFields.add(term);
+				// Collect the names of the fields which are not defined either
+				// directly or indirectly. The list is only created if needed.
+				List<String> undefinedFields = null;
+				Resource.Cursor cursor = dict.readCursor();
+				while (cursor.next()) {
+					if (!isDefinedField(context, cursor.getName())) {
+						if (undefinedFields == null) {
+							undefinedFields = new LinkedList<String>();
+						}
+						undefinedFields.add(cursor.getName());
+					}
 				}
 
-				// Now call the method which will remove any fields which are
-				// defined either directly or indirectly.
-				removeDefinedFields(context, undefinedFields);
-
-				// If there is anything left in the list, then there are
-				// undefined fields and we must stop the processing with a
-				// validation error.
-				if (undefinedFields.size() > 0) {
+				// If there is anything in the list, then there are undefined
+				// fields and we must stop the processing with a validation
+				// error.
+				if (undefinedFields != null) {
 					StringBuilder sb = new StringBuilder();
-					for (Term term : undefinedFields) {
-						sb.append(term.toString());
+					for (String name : undefinedFields) {
+						sb.append(name);
 						sb.append(" ");
 					}
 					throw ValidationException.create(MSG_UNEXPECTED_FIELDS, sb
@@ -34,6 +34,7 @@ import org.quattor.pan.ttemplate.Context;
 import org.quattor.pan.ttemplate.SourceRange;
 import org.quattor.pan.ttemplate.TypeMap;
 
+import java.io.Serializable;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -42,7 +43,7 @@ import java.util.concurrent.atomic.AtomicReference;
  * @author loomis
  *
  */
-public abstract class Type extends AFn implements IObj {
+public abstract class Type extends AFn implements IObj, Serializable {
 
     private final AtomicReference<IPersistentMap> metadataRef = new AtomicReference<IPersistentMap>();
 
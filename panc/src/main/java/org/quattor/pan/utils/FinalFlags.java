@@ -22,7 +22,7 @@ package org.quattor.pan.utils;
 
 import static org.quattor.pan.utils.MessageUtils.MSG_ATTEMPT_TO_REPLACE_EXISTING_NODE;
 
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import org.quattor.pan.exceptions.CompilerError;
 
@@ -30,6 +30,11 @@ import org.quattor.pan.exceptions.CompilerError;
  * Data structure that hold final flag information for paths in a machine
  * configuration.
  * 
+ * The flags are kept in a tree with a node for each final path and each of
+ * its parents. The children of a node are kept in a single array of
+ * alternating terms and nodes, sorted by term, rather than in a map. Most
+ * nodes have few children and leaves have no array at all.
+ * 
  * @author loomis
  * 
  */
@@ -58,23 +63,13 @@ public class FinalFlags {
 	 */
 	public boolean isFinal(Path path) {
 
-		// Step through the nodes based on the given path. If any intermediate
-		// nodes are marked as final, we can just return true.
-		Node currentNode = root;
-		for (Term t : path.getTerms()) {
-			Node nextNode = currentNode.getChild(t);
-			if (nextNode == null) {
-				return false;
-			} else if (nextNode.isFinal()) {
-				return true;
-			}
-			currentNode = nextNode;
+		// Nothing is final until a path has been marked. This is the usual
+		// case, so avoid looking at the terms of the path.
+		if (!root.isFinal() && !root.hasChild()) {
+			return false;
 		}
 
-		// If we've made it to here, then the current node is the one which
-		// corresponds to the last element in the path. Return true if it is
-		// marked as final or it has any descendants.
-		return currentNode.isFinal() || currentNode.hasChild();
+		return finalDepth(path.getSharedTerms()) >= 0;
 	}
 
 	/**
@@ -88,41 +83,34 @@ public class FinalFlags {
 	 */
 	public String getFinalReason(Path path) {
 
-		StringBuilder sb = new StringBuilder(path + " cannot be modified; ");
-		StringBuilder finalPath = new StringBuilder("/");
+		Term[] terms = path.getSharedTerms();
+		int depth = finalDepth(terms);
+		if (depth < 0) {
+			return null;
+		}
 
-		// Step through the nodes based on the given path. If any intermediate
-		// nodes are marked as final, we can just return true.
-		Node currentNode = root;
-		for (Term t : path.getTerms()) {
-			finalPath.append(t.toString());
-			Node nextNode = currentNode.getChild(t);
-			if (nextNode == null) {
-				return null;
-			} else if (nextNode.isFinal()) {
-				sb.append(finalPath.toString() + " is marked as final");
-				return sb.toString();
-			}
-			finalPath.append("/");
-			currentNode = nextNode;
+		// Only build the message once the final path is known.
+		StringBuilder sb = new StringBuilder();
+		sb.append(path).append(" cannot be modified; ");
+		int start = sb.length();
+		for (int i = 0; i < depth; i++) {
+			sb.append('/').append(terms[i].toString());
 		}
 
-		// Strip off the last slash. It is not needed.
-		finalPath.deleteCharAt(finalPath.length() - 1);
+		if (depth == terms.length) {
+			Node node = locate(terms);
+			if (!node.isFinal()) {
+				node.appendFinalDescendantPath(sb);
+			}
+		}
 
-		// Either the path itself is final or a descendant.
-		if (currentNode.isFinal()) {
-			sb.append(finalPath.toString() + " is marked as final");
-		} else if (currentNode.hasChild()) {
-			sb.append(finalPath.toString()
-					+ currentNode.getFinalDescendantPath()
-					+ " is marked as final");
-			return sb.toString();
-		} else {
-			return null;
+		// Only the root itself is left.
+		if (sb.length() == start) {
+			sb.append('/');
 		}
 
-		return null;
+		sb.append(" is marked as final");
+		return sb.toString();
 	}
 
 	/**
@@ -135,7 +123,7 @@ public class FinalFlags {
 
 		// Step through the nodes creating any nodes which don't exist.
 		Node currentNode = root;
-		for (Term t : path.getTerms()) {
+		for (Term t : path.getSharedTerms()) {
 			Node nextNode = currentNode.getChild(t);
 			if (nextNode == null) {
 				nextNode = currentNode.newChild(t);
@@ -148,6 +136,45 @@ public class FinalFlags {
 		currentNode.setFinal();
 	}
 
+	/**
+	 * Determine the number of terms of the path that makes the given path
+	 * final. This is the length of the shortest final parent, if any. If the
+	 * path itself is final or has final descendants, this is the length of
+	 * the path.
+	 * 
+	 * @return number of terms or -1 if the path isn't final
+	 */
+	private int finalDepth(Term[] terms) {
+
+		// Step through the nodes based on the given path. If any intermediate
+		// nodes are marked as final, we can stop.
+		Node currentNode = root;
+		for (int i = 0; i < terms.length; i++) {
+			currentNode = currentNode.getChild(terms[i]);
+			if (currentNode == null) {
+				return -1;
+			} else if (currentNode.isFinal()) {
+				return i + 1;
+			}
+		}
+
+		// If we've made it to here, then the current node is the one which
+		// corresponds to the last element in the path. It is final if it is
+		// marked as final or it has any descendants.
+		if (currentNode.isFinal() || currentNode.hasChild()) {
+			return terms.length;
+		}
+		return -1;
+	}
+
+	private Node locate(Term[] terms) {
+		Node currentNode = root;
+		for (Term t : terms) {
+			currentNode = currentNode.getChild(t);
+		}
+		return currentNode;
+	}
+
 	/**
 	 * A private static class to hold individual nodes in the tree. Each node
 	 * corresponds to a single level in the path hierarchy.
@@ -156,16 +183,24 @@ public class FinalFlags {
 	 */
 	private static class Node {
 
+		private static final Object[] EMPTY_TABLE = new Object[0];
+
 		private boolean flag;
 
-		private final TreeMap<Term, Node> map;
+		/**
+		 * Terms at the even indices, each followed by the corresponding child.
+		 */
+		private Object[] table;
+
+		private int size;
 
 		/**
 		 * Create a new node. It is not marked as final and has no children.
 		 */
 		public Node() {
 			flag = false;
-			map = new TreeMap<Term, Node>();
+			table = EMPTY_TABLE;
+			size = 0;
 		}
 
 		/**
@@ -184,6 +219,27 @@ public class FinalFlags {
 			flag = true;
 		}
 
+		/**
+		 * Returns the index of the child with the given term or, if there is
+		 * none, (-(insertion point) - 1).
+		 */
+		private int search(Term term) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = ((Term) table[2 * mid]).compareTo(term);
+				if (cmp < 0) {
+					low = mid + 1;
+				} else if (cmp > 0) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
 		/**
 		 * Get the child corresponding to the given term or null if it does not
 		 * exist.
@@ -195,7 +251,11 @@ public class FinalFlags {
 		 *         exist
 		 */
 		public Node getChild(Term term) {
-			return map.get(term);
+			if (size == 0) {
+				return null;
+			}
+			int index = search(term);
+			return (index >= 0) ? (Node) table[2 * index + 1] : null;
 		}
 
 		/**
@@ -204,21 +264,18 @@ public class FinalFlags {
 		 * @return true if this Node has any children; false otherwise
 		 */
 		public boolean hasChild() {
-			return map.size() != 0;
+			return size != 0;
 		}
 
 		/**
-		 * Return the path to a descendant which is final.
+		 * Append the path to a descendant which is final.
 		 */
-		public String getFinalDescendantPath() {
-			if (flag) {
-				return "";
-			} else {
-				Term term = map.firstKey();
-				return "/" + term.toString()
-						+ map.get(term).getFinalDescendantPath();
+		public void appendFinalDescendantPath(StringBuilder sb) {
+			Node node = this;
+			while (!node.flag) {
+				sb.append('/').append(node.table[0].toString());
+				node = (Node) node.table[1];
 			}
-
 		}
 
 		/**
@@ -230,11 +287,25 @@ public class FinalFlags {
 		 * @return newly created Node
 		 */
 		public Node newChild(Term term) {
-			Node child = new Node();
-			if (map.put(term, child) != null) {
+
+			int index = search(term);
+			if (index >= 0) {
 				throw CompilerError
 						.create(MSG_ATTEMPT_TO_REPLACE_EXISTING_NODE);
 			}
+			index = -(index + 1);
+
+			if (2 * size == table.length) {
+				table = Arrays.copyOf(table, (size == 0) ? 2 : 4 * size);
+			}
+			System.arraycopy(table, 2 * index, table, 2 * index + 2,
+					2 * (size - index));
+
+			Node child = new Node();
+			table[2 * index] = term;
+			table[2 * index + 1] = child;
+			size++;
+
 			return child;
 		}
 
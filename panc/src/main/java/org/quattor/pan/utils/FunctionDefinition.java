@@ -42,11 +42,20 @@ public class FunctionDefinition {
 	// Operation is immutable and can be exposed.
 	public final Operation dml;
 
+	// Whether the results of the function can be reused (see FunctionPurity).
+	public final boolean pure;
+
 	public FunctionDefinition(Template template, SourceRange sourceRange,
 			Operation dml) {
+		this(template, sourceRange, dml, false);
+	}
+
+	public FunctionDefinition(Template template, SourceRange sourceRange,
+			Operation dml, boolean pure) {
 		this.template = template;
 		this.sourceRange = sourceRange;
 		this.dml = dml;
+		this.pure = pure;
 	}
 
 	@Override
@@ -21,20 +21,20 @@
 package org.quattor.pan.utils;
 
 import static org.quattor.pan.utils.MessageUtils.MSG_EXTERNAL_PATH_NOT_ALLOWED;
-import static org.quattor.pan.utils.MessageUtils.MSG_FILE_BUG_REPORT;
 import static org.quattor.pan.utils.MessageUtils.MSG_PATH_INVALID_AUTHORITY;
 import static org.quattor.pan.utils.MessageUtils.MSG_PATH_INVALID_BRACES;
 import static org.quattor.pan.utils.MessageUtils.MSG_PATH_INVALID_FIRST_TERM;
 import static org.quattor.pan.utils.MessageUtils.MSG_PATH_MISSING_TERM;
 
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.WeakHashMap;
 
-import org.quattor.pan.exceptions.CompilerError;
 import org.quattor.pan.exceptions.SyntaxException;
 import org.quattor.pan.ttemplate.Template;
 
@@ -46,7 +46,7 @@ import org.quattor.pan.ttemplate.Template;
  * @author loomis
  *
  */
-public class Path implements Comparable<Path> {
+public class Path implements Comparable<Path>, Serializable {
 
     /**
      * An enumeration containing the three different types of paths. Note that
@@ -64,7 +64,7 @@ public class Path implements Comparable<Path> {
     /**
      * The path other than the authority is represented an immutable list of
      * terms. This must remain immutable, so copies of the terms should be
-     * returned rather than the array itself.
+     * returned rather than the array itself (except from getSharedTerms()).
      */
     private Term[] terms;
 
@@ -74,17 +74,15 @@ public class Path implements Comparable<Path> {
     private PathType type;
 
     /**
-     * This regular expression extracts the authority from an external Path.
+     * Table of canonical instances, see {@link #intern()}. Paths that are no
+     * longer used elsewhere are dropped from the table.
      */
-    private static Pattern extractAuthority = Pattern.compile("([^:]*):/?(.*)"); //$NON-NLS-1$
+    private static final Map<Path, WeakReference<Path>> internTable = new WeakHashMap<Path, WeakReference<Path>>();
 
     /**
-     * This regular expression will determine if the Path contains proper escape
-     * sequences. The escape sequences cannot be nested and each must contain
-     * both an opening and closing brace.
+     * Cached hash code or zero if it has not yet been calculated.
      */
-    private static Pattern validEscapeSequences = Pattern
-            .compile("^([^\\{\\}]*+(\\{[^\\{\\}]*\\})?)*$"); //$NON-NLS-1$
+    private transient int hash;
 
     /**
      * Constructor of a path from a String.
@@ -103,99 +101,129 @@ public class Path implements Comparable<Path> {
     public Path(String path, boolean allow_all_relative) throws SyntaxException {
         assert (path != null);
 
-        // Check that the string contains matched pairs of braces and that those
-        // are not nested.
-        Matcher matcher = validEscapeSequences.matcher(path);
-        if (!matcher.matches()) {
-            throw SyntaxException.create(null, MSG_PATH_INVALID_BRACES, path);
-        }
-
-        // Escape the strings within braces and re-create the path with those.
-        // Splitting on all of the braces will return a list of substrings where
-        // all of the ones with odd indices need to be escaped.
-        StringBuilder sb = new StringBuilder();
-        String[] substrings = path.split("[\\{\\}]", -1); //$NON-NLS-1$
-        for (int i = 0; i < substrings.length; i++) {
-            if (i % 2 == 0) {
-                sb.append(substrings[i]);
-            } else {
-                sb.append(EscapeUtils.escape(substrings[i]));
+        // Split the path into its segments in a single pass over the string.
+        // Text within braces is escaped; the braces must come in matched pairs
+        // and cannot be nested. The first colon outside of braces separates
+        // the authority of an external path from the rest. The authority
+        // consists of all of the text before the colon, including slashes.
+        ArrayList<String> segments = new ArrayList<String>();
+        String auth = null;
+        StringBuilder braced = null;
+        int length = path.length();
+        int start = 0;
+        int open = -1;
+        boolean braceError = false;
+
+        for (int i = 0; i < length; i++) {
+            char c = path.charAt(i);
+            if (open >= 0) {
+                if (c == '}') {
+                    braced.append(EscapeUtils.escape(path.substring(open + 1, i)));
+                    open = -1;
+                    start = i + 1;
+                } else if (c == '{') {
+                    braceError = true;
+                    break;
+                }
+            } else if (c == '{') {
+                if (braced == null) {
+                    braced = new StringBuilder();
+                }
+                braced.append(path, start, i);
+                open = i;
+            } else if (c == '}') {
+                braceError = true;
+                break;
+            } else if (c == '/') {
+                segments.add(segment(path, braced, start, i));
+                braced = null;
+                start = i + 1;
+            } else if (c == ':' && auth == null) {
+                StringBuilder sb = new StringBuilder();
+                for (String s : segments) {
+                    sb.append(s).append('/');
+                }
+                sb.append(segment(path, braced, start, i));
+                auth = sb.toString();
+                segments.clear();
+                braced = null;
+                start = i + 1;
+
+                // A single slash may follow the colon.
+                if (start < length && path.charAt(start) == '/') {
+                    i++;
+                    start++;
+                }
             }
         }
 
-        // Reset the path variable to the unescaped value.
-        path = sb.toString();
-
-        // Assume that it is a relative path to start.
-        String s = path;
-        type = PathType.RELATIVE;
-
-        // Start with an empty list. NOTE: This must be a list implementation
-        // that provides fast random access to the list elements. This is
-        // because some clients will need to look forward in the path to decide
-        // what to do.
-        ArrayList<Term> xt = new ArrayList<Term>();
+        if (braceError || open >= 0) {
+            throw SyntaxException.create(null, MSG_PATH_INVALID_BRACES, path);
+        }
+        segments.add(segment(path, braced, start, length));
 
-        // Determine the type of path and do initial processing if required.
-        if (path.contains(":")) { //$NON-NLS-1$
+        // Determine the type of path. A path is absolute if the escaped value
+        // starts with a slash, that is if the first segment is empty and
+        // followed by another one.
+        if (auth != null) {
             type = PathType.EXTERNAL;
-            Matcher m = extractAuthority.matcher(path);
-            if (m.matches()) {
-                if (m.groupCount() == 2) {
-                    String auth = m.group(1);
-                    s = m.group(2);
-
-                    // Check that the authority is actually valid. This is
-                    // potentially a namespaced template name. Use the standard
-                    // method for determining the validity of the name.
-                    if (Template.isValidTemplateName(auth)) {
-                        authority = auth;
-                    } else {
-                        throw SyntaxException.create(null,
-                                MSG_PATH_INVALID_AUTHORITY, auth);
-                    }
-                } else {
-                    throw CompilerError.create(MSG_FILE_BUG_REPORT);
-                }
+
+            // Check that the authority is actually valid. This is potentially
+            // a namespaced template name. Use the standard method for
+            // determining the validity of the name.
+            if (Template.isValidTemplateName(auth)) {
+                authority = auth;
             } else {
-                throw CompilerError.create(MSG_FILE_BUG_REPORT);
+                throw SyntaxException.create(null, MSG_PATH_INVALID_AUTHORITY,
+                        auth);
             }
-
-        } else if (path.startsWith("/")) { //$NON-NLS-1$
+        } else if (segments.size() > 1 && "".equals(segments.get(0))) { //$NON-NLS-1$
             authority = null;
             type = PathType.ABSOLUTE;
-            s = path.substring(1);
+            segments.remove(0);
         } else {
             authority = null;
+            type = PathType.RELATIVE;
         }
 
-        // If the string isn't empty or null, then split the remaining
-        // string on slashes.
-        if (s != null && !"".equals(s)) { //$NON-NLS-1$
-            for (String element : s.split("/")) { //$NON-NLS-1$
-                xt.add(TermFactory.create(element));
-            }
+        // Empty segments at the end (from trailing slashes) are ignored. Any
+        // other empty segment is an error, which is detected when creating
+        // the term.
+        int nterms = segments.size();
+        while (nterms > 0 && "".equals(segments.get(nterms - 1))) { //$NON-NLS-1$
+            nterms--;
+        }
+
+        terms = new Term[nterms];
+        for (int i = 0; i < nterms; i++) {
+            terms[i] = TermFactory.create(segments.get(i));
         }
 
         // Finally check that there is at least one term if this is a relative
         // Path.
-        if (type == PathType.RELATIVE && xt.size() == 0) {
+        if (type == PathType.RELATIVE && nterms == 0) {
             throw SyntaxException.create(null, MSG_PATH_MISSING_TERM);
         }
 
         // The first term in a path must always be a key, unless allow_all_relative is true
         // and the path is relative. If not, throw an exception.
-        if (xt.size() > 0 &&
+        if (nterms > 0 &&
             !(type == PathType.RELATIVE && allow_all_relative) &&
-            !xt.get(0).isKey()) {
+            !terms[0].isKey()) {
             throw SyntaxException.create(null, MSG_PATH_INVALID_FIRST_TERM);
         }
+    }
 
-        // Minimize the space used by the list.
-        xt.trimToSize();
-
-        // Make this an unmodifiable list.
-        terms = xt.toArray(new Term[xt.size()]);
+    /**
+     * Returns the text of a segment of a path, which ends at the given
+     * position. If the segment contains braces, its text up to the last
+     * closing brace is already in the given buffer.
+     */
+    private static String segment(String path, StringBuilder braced, int start, int end) {
+        if (braced == null) {
+            return path.substring(start, end);
+        }
+        return braced.append(path, start, end).toString();
     }
 
     /**
@@ -257,6 +285,52 @@ public class Path implements Comparable<Path> {
         return terms.clone();
     }
 
+    /**
+     * Get the terms in this path without copying them. The returned array is
+     * the one held by this path; the caller must not modify it. This is
+     * intended for lookups in the configuration, which only read the terms.
+     */
+    public Term[] getSharedTerms() {
+        return terms;
+    }
+
+    /**
+     * Get the term at the given position in the path.
+     */
+    public Term getTerm(int index) {
+        return terms[index];
+    }
+
+    /**
+     * Returns a canonical instance of this path. Paths that are equal give the
+     * same instance, so that the paths appearing in compiled templates (e.g.
+     * in assignment statements) are shared between templates.
+     *
+     * @return the canonical instance of this path
+     */
+    public Path intern() {
+        synchronized (internTable) {
+            WeakReference<Path> ref = internTable.get(this);
+            Path canonical = (ref != null) ? ref.get() : null;
+            if (canonical == null) {
+                canonical = this;
+                internTable.put(this, new WeakReference<Path>(this));
+            }
+            return canonical;
+        }
+    }
+
+    /**
+     * Replace a deserialized path with its canonical instance, so that the
+     * paths of templates loaded from the compiled template store are shared
+     * like those of freshly parsed templates.
+     *
+     * @return the canonical instance of this path
+     */
+    private Object readResolve() {
+        return intern();
+    }
+
     public static Path resolve(Path prefix, Path relative)
             throws SyntaxException {
         if (prefix != null && relative.isRelative()) {
@@ -326,6 +400,10 @@ public class Path implements Comparable<Path> {
     @Override
     public boolean equals(Object obj) {
 
+        if (this == obj) {
+            return true;
+        }
+
         // Check obvious mismatches--null or wrong type of instance.
         if (obj == null || !(obj instanceof Path)) {
             return false;
@@ -355,17 +433,22 @@ public class Path implements Comparable<Path> {
     }
 
     /**
-     * This must be defined so that Paths can be used properly in Maps.
+     * This must be defined so that Paths can be used properly in Maps. The
+     * value is calculated once; paths are immutable.
      */
-    // FIXME: This should cache the hashcode for a path. This is expensive to
-    // recalculate every time. This should also include the authority.
     @Override
     public int hashCode() {
 
-        int code = type.hashCode();
-
-        for (Term t : terms) {
-            code = code ^ t.hashCode();
+        int code = hash;
+        if (code == 0) {
+            code = type.ordinal();
+            if (authority != null) {
+                code = 31 * code + authority.hashCode();
+            }
+            for (Term t : terms) {
+                code = 31 * code + t.hashCode();
+            }
+            hash = code;
         }
         return code;
     }
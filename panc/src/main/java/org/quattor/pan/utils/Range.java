@@ -24,6 +24,8 @@ import static org.quattor.pan.utils.MessageUtils.MSG_MAX_RANGE_VALUE_IS_NOT_VALI
 import static org.quattor.pan.utils.MessageUtils.MSG_MIN_MUST_BE_LESS_OR_EQUAL_TO_MAX;
 import static org.quattor.pan.utils.MessageUtils.MSG_MIN_RANGE_VALUE_IS_NOT_VALID_LONG;
 
+import java.io.Serializable;
+
 import org.quattor.pan.exceptions.EvaluationException;
 
 /**
@@ -33,7 +35,7 @@ import org.quattor.pan.exceptions.EvaluationException;
  * 
  */
 // FIXME: Should this throw SyntaxExceptions rather than EvaluationExceptions?
-public class Range {
+public class Range implements Serializable {
 
 	private final long min;
 
@@ -88,3 +88,34 @@
   (are [x y] (= x (:verbose (process [:verbose y])))
        false false
        true true))
+
+(deftest test-compile-cache-max-size
+  (is (= 0 (:compile-cache-max-size (process [:compile-cache-max-size "0"]))))
+  (is (= 2097152 (:compile-cache-max-size (process [:compile-cache-max-size "2"]))))
+  (is (thrown? ExceptionInfo (process [:compile-cache-max-size "-1"])))
+  (is (thrown? ExceptionInfo (process [:compile-cache-max-size "a"]))))
+
+(deftest test-compile-cache-max-age
+  (is (= 0 (:compile-cache-max-age (process [:compile-cache-max-age "0"]))))
+  (is (= 86400000 (:compile-cache-max-age (process [:compile-cache-max-age "1"]))))
+  (is (thrown? ExceptionInfo (process [:compile-cache-max-age "-1"])))
+  (is (thrown? ExceptionInfo (process [:compile-cache-max-age "a"]))))
+
+(deftest test-gzip-options
+  (is (= 131072 (:gzip-block-size (process [:gzip-block-size "128"]))))
+  (is (thrown? ExceptionInfo (process [:gzip-block-size "16"])))
+  (is (thrown? ExceptionInfo (process [:gzip-block-size "a"])))
+  (is (= 0 (:gzip-level (process [:gzip-level "0"]))))
+  (is (= 9 (:gzip-level (process [:gzip-level "9"]))))
+  (is (thrown? ExceptionInfo (process [:gzip-level "10"])))
+  (is (thrown? ExceptionInfo (process [:gzip-level "-1"])))
+  (is (= 0 (:gzip-threads (process [:gzip-threads "0"]))))
+  (is (thrown? ExceptionInfo (process [:gzip-threads "-1"]))))
+
+(deftest test-daemon-port
+  (is (= 7390 (:daemon-port (process [:daemon-port "7390"]))))
+  (is (thrown? ExceptionInfo (process [:daemon-port "0"])))
+  (is (thrown? ExceptionInfo (process [:daemon-port "a"]))))
+
+(deftest test-daemon-token-file
+  (is (.isAbsolute (:daemon-token-file (process [:daemon-token-file "token"])))))
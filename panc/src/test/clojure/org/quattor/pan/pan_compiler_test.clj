@@ -1,8 +1,26 @@
 (ns org.quattor.pan.pan-compiler-test
   (:require [clojure.test :refer :all]
+            [clojure.tools.cli :as cli]
             [org.quattor.pan.pan-compiler :refer :all])
   (:import [org.quattor.pan CompilerOptions]))
 
 (deftest test-create-compiler-options
   (is (instance? CompilerOptions (create-compiler-options))))
 
+(defn- parse-options [args]
+  (let [{:keys [options errors]} (cli/parse-opts args cli-args)]
+    (is (nil? errors))
+    options))
+
+(deftest test-constant-folding-option
+  (is (true? (:constant-folding (parse-options []))))
+  (is (true? (:constant-folding (parse-options ["--constant-folding"]))))
+  (is (false? (:constant-folding (parse-options ["--no-constant-folding"])))))
+
+(deftest test-write-if-changed-option
+  (is (false? (:write-if-changed (parse-options []))))
+  (is (true? (:write-if-changed (parse-options ["--write-if-changed"])))))
+
+(deftest test-source-index-option
+  (is (false? (:source-index (parse-options []))))
+  (is (true? (:source-index (parse-options ["--source-index"])))))
@@ -0,0 +1,78 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.ant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.quattor.pan.utils.TestUtils.getTmpdir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+public class TemplateNameCacheTest {
+
+	@Test
+	public void testEntriesAreKeyedByModificationTime() {
+		TemplateNameCache cache = new TemplateNameCache(null);
+		File file = new File("/templates/alpha.pan");
+
+		assertNull(cache.get(file, 1000L));
+		cache.put(file, 1000L, "alpha");
+		assertEquals("alpha", cache.get(file, 1000L));
+		assertNull(cache.get(file, 2000L));
+	}
+
+	@Test
+	public void testCacheIsPersisted() throws IOException {
+		File cacheFile = new File(getTmpdir(), "template-names.txt");
+		cacheFile.delete();
+
+		File file = new File("/templates/with space/alpha.pan");
+
+		TemplateNameCache cache = new TemplateNameCache(cacheFile);
+		cache.put(file, 1000L, "a/alpha");
+		cache.save();
+
+		cache = new TemplateNameCache(cacheFile);
+		assertEquals(1, cache.size());
+		assertEquals("a/alpha", cache.get(file, 1000L));
+
+		cacheFile.delete();
+	}
+
+	@Test
+	public void testInvalidCacheFileIsIgnored() throws IOException {
+		File cacheFile = new File(getTmpdir(), "template-names-invalid.txt");
+		OutputStream os = new FileOutputStream(cacheFile);
+		try {
+			os.write("garbage\n1000 alpha\n".getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+
+		TemplateNameCache cache = new TemplateNameCache(cacheFile);
+		assertEquals(0, cache.size());
+
+		cacheFile.delete();
+	}
+
+}
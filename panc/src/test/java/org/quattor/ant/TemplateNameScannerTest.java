@@ -0,0 +1,64 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.ant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class TemplateNameScannerTest {
+
+	private static String scan(String source) throws IOException {
+		return TemplateNameScanner.scan(new StringReader(source));
+	}
+
+	@Test
+	public void testSimpleDeclarations() throws IOException {
+		assertEquals("alpha", scan("object template alpha;"));
+		assertEquals("a/b", scan("template a/b;\n'/x' = 1;\n"));
+		assertEquals("my-node.example.org",
+				scan("object template my-node.example.org ;"));
+		assertEquals("c+d", scan("unique\ttemplate\nc+d\n;"));
+		assertEquals("e", scan("structure template e;"));
+		assertEquals("f", scan("declaration template f;"));
+	}
+
+	@Test
+	public void testCommentsAndAnnotationsAreSkipped() throws IOException {
+		assertEquals("alpha", scan("# comment\n\n@{ doc; with } \n"
+				+ "@maintainer(name = x)\n@ tags [a b]\n"
+				+ "object # inline\n template alpha; # more"));
+	}
+
+	@Test
+	public void testAmbiguousHeadersAreRejected() throws IOException {
+		assertNull(scan(""));
+		assertNull(scan("object template alpha"));
+		assertNull(scan("object template ;"));
+		assertNull(scan("objecttemplate alpha;"));
+		assertNull(scan("variable x = 1;\nobject template alpha;"));
+		assertNull(scan("@{ unterminated annotation\nobject template alpha;"));
+		assertNull(scan("@ object template alpha;"));
+		assertNull(scan("object template 'alpha';"));
+	}
+
+}
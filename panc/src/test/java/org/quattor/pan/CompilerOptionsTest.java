@@ -21,6 +21,7 @@
 package org.quattor.pan;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -37,10 +38,67 @@ import org.quattor.pan.dml.data.HashResource;
 import org.quattor.pan.exceptions.SyntaxException;
 import org.quattor.pan.output.DepFormatter;
 import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.GzipOptions;
 import org.quattor.pan.output.PanFormatter;
+import org.quattor.pan.output.PanGzipFormatter;
 
 public class CompilerOptionsTest {
 
+    @Test
+    public void checkBuilderDefaults() throws SyntaxException {
+
+        CompilerOptions options = new CompilerOptions.Builder().build();
+
+        assertEquals(5000, options.maxIteration);
+        assertEquals(50, options.maxRecursion);
+        assertTrue(options.formatters.isEmpty());
+        assertEquals(null, options.outputDirectory);
+        assertEquals(CompilerOptions.DeprecationWarnings.ON,
+                options.deprecationWarnings);
+        assertEquals(0, options.rootElement.size());
+        assertEquals(null, options.compileCacheDirectory);
+        assertFalse(options.persistentResources);
+        assertFalse(options.virtualThreads);
+        assertTrue(options.constantFolding);
+        assertEquals(GzipOptions.getDefault(), options.gzipOptions);
+        assertFalse(options.writeIfChanged);
+        assertFalse(options.sourceIndex);
+    }
+
+    @Test
+    public void checkBuilderValues() throws SyntaxException {
+
+        File outputDirectory = new File(System.getProperty("user.dir"));
+        Set<Formatter> formatters = new HashSet<Formatter>();
+        formatters.add(PanFormatter.getInstance());
+
+        CompilerOptions options = new CompilerOptions.Builder()
+                .maxIteration(0).maxRecursion(10).formatters(formatters)
+                .outputDirectory(outputDirectory)
+                .deprecationWarnings(CompilerOptions.DeprecationWarnings.FATAL)
+                .persistentResources(true).constantFolding(false)
+                .writeIfChanged(true).build();
+
+        assertEquals(Integer.MAX_VALUE, options.maxIteration);
+        assertEquals(10, options.maxRecursion);
+        assertTrue(options.formatters.contains(PanFormatter.getInstance()));
+        assertEquals(outputDirectory, options.outputDirectory);
+        assertEquals(CompilerOptions.DeprecationWarnings.FATAL,
+                options.deprecationWarnings);
+        assertTrue(options.persistentResources);
+        assertFalse(options.constantFolding);
+        assertTrue(options.writeIfChanged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkBuilderRequiresOutputDirectory() throws SyntaxException {
+
+        Set<Formatter> formatters = new HashSet<Formatter>();
+        formatters.add(PanFormatter.getInstance());
+
+        new CompilerOptions.Builder().formatters(formatters).build();
+    }
+
     @Test
     public void testConstructorAndGetters1() throws SyntaxException {
 
@@ -94,6 +152,37 @@ public class CompilerOptionsTest {
         assertTrue(outputDirectory.equals(options.outputDirectory));
     }
 
+    @Test
+    public void checkGzipFormattersAreConfigured() throws SyntaxException {
+
+        File outputDirectory = new File(System.getProperty("user.dir"));
+        List<File> includeDirectories = new LinkedList<File>();
+
+        Set<Formatter> formatters = new HashSet<Formatter>();
+        formatters.add(PanFormatter.getInstance());
+        formatters.add(PanGzipFormatter.getInstance());
+
+        CompilerOptions options = new CompilerOptions.Builder()
+                .formatters(formatters).outputDirectory(outputDirectory)
+                .includeDirectories(includeDirectories).build();
+        assertTrue(options.formatters.contains(PanGzipFormatter.getInstance()));
+
+        GzipOptions gzipOptions = new GzipOptions(64 * 1024, 9, 2);
+        options = new CompilerOptions.Builder().formatters(formatters)
+                .outputDirectory(outputDirectory)
+                .includeDirectories(includeDirectories)
+                .gzipOptions(gzipOptions).build();
+
+        assertEquals(gzipOptions, options.gzipOptions);
+        assertEquals(2, options.formatters.size());
+        assertTrue(options.formatters.contains(PanFormatter.getInstance()));
+        assertFalse(options.formatters.contains(PanGzipFormatter
+                .getInstance()));
+        for (Formatter formatter : options.formatters) {
+            assertTrue(formatter instanceof PanFormatter);
+        }
+    }
+
     @Test
     public void checkUnlimitedValues() throws SyntaxException {
 
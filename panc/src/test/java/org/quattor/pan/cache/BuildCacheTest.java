@@ -0,0 +1,115 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.quattor.pan.utils.TestUtils.getTmpdir;
+import static org.quattor.pan.utils.TestUtils.recursiveFileDelete;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.exceptions.SyntaxException;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.JsonFormatter;
+
+public class BuildCacheTest {
+
+	private static Compiler createCompiler(File dir, List<File> files,
+			int nthread, boolean virtualThreads) throws SyntaxException {
+		Set<Formatter> formatters = new HashSet<Formatter>();
+		formatters.add(JsonFormatter.getInstance());
+		List<File> path = new LinkedList<File>();
+		path.add(dir);
+		CompilerOptions options = new CompilerOptions.Builder()
+				.maxIteration(100).formatters(formatters).outputDirectory(dir)
+				.includeDirectories(path).nthread(nthread)
+				.virtualThreads(virtualThreads).build();
+		return new Compiler(options, new LinkedList<String>(), files);
+	}
+
+	private static File writeTemplate(File dir, String name, String source)
+			throws IOException {
+		File tplfile = new File(dir, name + ".pan");
+		OutputStream os = new FileOutputStream(tplfile);
+		try {
+			os.write(source.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return tplfile;
+	}
+
+	@Test
+	public void testDependencyChainLongerThanThreadCount() throws Exception {
+		checkDependencyChain(false);
+	}
+
+	@Test
+	public void testDependencyChainWithVirtualThreads() throws Exception {
+
+		// Falls back to the thread pool if virtual threads are not available.
+		checkDependencyChain(true);
+	}
+
+	private void checkDependencyChain(boolean virtualThreads) throws Exception {
+
+		File dir = new File(getTmpdir(), "build-cache-chain");
+		recursiveFileDelete(dir);
+		dir.mkdirs();
+
+		try {
+			// Each object depends on the next one, so that many objects wait
+			// for others at the same time with a single thread.
+			int nobjects = 40;
+
+			List<File> files = new LinkedList<File>();
+			for (int i = 0; i < nobjects; i++) {
+				String name = "node" + i;
+				String value = (i == nobjects - 1) ? "0" : "value('node"
+						+ (i + 1) + ":/value') + 1";
+				files.add(writeTemplate(dir, name, "object template " + name
+						+ ";\n" + "'/value' = " + value + ";\n"));
+			}
+
+			Compiler compiler = createCompiler(dir, files, 1, virtualThreads);
+			assertNull(compiler.process().formatErrors());
+
+			File json = new File(dir, "node0.json");
+			String contents = new String(Files.readAllBytes(json.toPath()),
+					"UTF-8");
+			assertTrue(contents.matches("(?s).*\"value\"\\s*:\\s*"
+					+ (nobjects - 1) + "\\b.*"));
+
+		} finally {
+			recursiveFileDelete(dir);
+		}
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.quattor.pan.utils.TestUtils.getTmpdir;
+import static org.quattor.pan.utils.TestUtils.recursiveFileDelete;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.JsonFormatter;
+import org.quattor.pan.parser.ASTTemplate;
+import org.quattor.pan.parser.PanParserAstUtils;
+import org.quattor.pan.tasks.CompileTask;
+import org.quattor.pan.ttemplate.Template;
+import org.quattor.pan.ttemplate.Template.TemplateType;
+
+public class CompiledTemplateStoreTest {
+
+	private static final String SOURCE = "object template store;\n"
+			+ "variable X = 3;\n" + "'/a' = X + 1;\n"
+			+ "'/b' = list('x', dict('y', true));\n"
+			+ "function f = ARGV[0];\n" + "'/c' = f(5);\n";
+
+	private File root;
+
+	private File cacheDir;
+
+	@Before
+	public void setup() {
+		root = new File(getTmpdir(), "compiled-template-store");
+		recursiveFileDelete(root);
+		cacheDir = new File(root, "cache");
+		cacheDir.mkdirs();
+	}
+
+	@After
+	public void cleanup() {
+		recursiveFileDelete(root);
+	}
+
+	private static File writeTemplate(File dir, String source)
+			throws IOException {
+		File tplfile = new File(dir, "store.pan");
+		OutputStream os = new FileOutputStream(tplfile);
+		try {
+			os.write(source.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return tplfile;
+	}
+
+	private static Template compile(File tplfile) throws Exception {
+		ASTTemplate ast = CompileTask.CallImpl.compile(tplfile,
+				CompilerOptions.createCheckSyntaxOptions(null));
+		return PanParserAstUtils.convertAstToTemplate(tplfile, ast);
+	}
+
+	private CompiledTemplateStore createStore(long maxSize, long maxAge) {
+		return new CompiledTemplateStore(cacheDir, maxSize, maxAge, "");
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		File tplfile = writeTemplate(root, SOURCE);
+		Template template = compile(tplfile);
+
+		CompiledTemplateStore store = createStore(0L, 0L);
+		String key = store.key(tplfile, SOURCE.getBytes("UTF-8"));
+
+		assertNull(store.load(key));
+
+		store.store(key, template);
+		Template loaded = store.load(key);
+
+		assertNotNull(loaded);
+		assertEquals(template.name, loaded.name);
+		assertEquals(TemplateType.OBJECT, loaded.type);
+		assertEquals(template.source, loaded.source);
+		assertEquals(template.sourceFile, loaded.sourceFile);
+
+		assertEquals(1L, store.getHits());
+		assertEquals(1L, store.getMisses());
+	}
+
+	@Test
+	public void testCachedTemplateBuildsIdenticalProfile() throws Exception {
+
+		File tplfile = writeTemplate(root, SOURCE);
+		File outputDir = new File(root, "output");
+		outputDir.mkdirs();
+		File profile = new File(outputDir, "store.json");
+
+		Compiler first = createCompiler(tplfile, outputDir);
+		assertNull(first.process().formatErrors());
+		assertEquals(0L, first.getCompileCache().getCompiledTemplateStore()
+				.getHits());
+		String expected = readFile(profile);
+
+		assertTrue(profile.delete());
+
+		Compiler second = createCompiler(tplfile, outputDir);
+		assertNull(second.process().formatErrors());
+		assertEquals(1L, second.getCompileCache().getCompiledTemplateStore()
+				.getHits());
+		assertEquals(expected, readFile(profile));
+	}
+
+	private Compiler createCompiler(File tplfile, File outputDir)
+			throws Exception {
+		Set<Formatter> formatters = new HashSet<Formatter>();
+		formatters.add(JsonFormatter.getInstance());
+		List<File> path = new LinkedList<File>();
+		path.add(root);
+		CompilerOptions options = new CompilerOptions.Builder()
+				.maxIteration(100).formatters(formatters)
+				.outputDirectory(outputDir).includeDirectories(path).nthread(1)
+				.compileCacheDirectory(cacheDir).build();
+		return new Compiler(options, new LinkedList<String>(),
+				Collections.singletonList(tplfile));
+	}
+
+	private static String readFile(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+	}
+
+	@Test
+	public void testKeyDependsOnContents() throws Exception {
+
+		File tplfile = writeTemplate(root, SOURCE);
+
+		CompiledTemplateStore store = createStore(0L, 0L);
+		String key1 = store.key(tplfile, SOURCE.getBytes("UTF-8"));
+		String key2 = store.key(tplfile, (SOURCE + "\n").getBytes("UTF-8"));
+		String key3 = store.key(new File(root, "other.pan"),
+				SOURCE.getBytes("UTF-8"));
+
+		assertEquals(key1, store.key(tplfile, SOURCE.getBytes("UTF-8")));
+		assertFalse(key1.equals(key2));
+		assertFalse(key1.equals(key3));
+	}
+
+	@Test
+	public void testKeyDependsOnSignature() throws Exception {
+
+		File tplfile = writeTemplate(root, SOURCE);
+		byte[] contents = SOURCE.getBytes("UTF-8");
+
+		CompiledTemplateStore store1 = new CompiledTemplateStore(cacheDir, 0L,
+				0L, "a");
+		CompiledTemplateStore store2 = new CompiledTemplateStore(cacheDir, 0L,
+				0L, "b");
+
+		assertFalse(store1.key(tplfile, contents).equals(
+				store2.key(tplfile, contents)));
+	}
+
+	@Test
+	public void testCorruptEntryIsMiss() throws Exception {
+
+		File tplfile = writeTemplate(root, SOURCE);
+
+		CompiledTemplateStore store = createStore(0L, 0L);
+		String key = store.key(tplfile, SOURCE.getBytes("UTF-8"));
+		store.store(key, compile(tplfile));
+
+		File entry = new File(new File(cacheDir, key.substring(0, 2)), key
+				+ ".ser");
+		assertTrue(entry.exists());
+
+		OutputStream os = new FileOutputStream(entry);
+		try {
+			os.write(new byte[] { 1, 2, 3 });
+		} finally {
+			os.close();
+		}
+
+		assertNull(store.load(key));
+	}
+
+	@Test
+	public void testEvictionBySize() throws Exception {
+
+		File tplfile = writeTemplate(root, SOURCE);
+		Template template = compile(tplfile);
+
+		CompiledTemplateStore store = createStore(1L, 0L);
+		String key = store.key(tplfile, SOURCE.getBytes("UTF-8"));
+		store.store(key, template);
+		assertNotNull(store.load(key));
+
+		store.evict();
+		assertNull(store.load(key));
+	}
+
+	@Test
+	public void testEvictionByAge() throws Exception {
+
+		File tplfile = writeTemplate(root, SOURCE);
+		Template template = compile(tplfile);
+
+		CompiledTemplateStore store = createStore(0L, 60000L);
+		String key1 = store.key(tplfile, SOURCE.getBytes("UTF-8"));
+		String key2 = store.key(tplfile, "other".getBytes("UTF-8"));
+		store.store(key1, template);
+		store.store(key2, template);
+
+		// Age the first entry artificially.
+		File entry = new File(new File(cacheDir, key1.substring(0, 2)), key1
+				+ ".ser");
+		assertTrue(entry.setLastModified(System.currentTimeMillis() - 120000L));
+
+		store.evict();
+		assertNull(store.load(key1));
+		assertNotNull(store.load(key2));
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.quattor.pan.utils.TestUtils.getTmpdir;
+import static org.quattor.pan.utils.TestUtils.recursiveFileDelete;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.exceptions.SyntaxException;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.JsonFormatter;
+import org.quattor.pan.output.PanFormatter;
+import org.quattor.pan.repository.SourceFile;
+import org.quattor.pan.tasks.FinalResult;
+
+public class FinalCacheTest {
+
+	private static Compiler createCompiler(File dir, List<File> files)
+			throws SyntaxException {
+		Set<Formatter> formatters = new HashSet<Formatter>();
+		formatters.add(JsonFormatter.getInstance());
+		formatters.add(PanFormatter.getInstance());
+		List<File> path = new LinkedList<File>();
+		path.add(dir);
+		CompilerOptions options = new CompilerOptions(null, null, 100, 50,
+				formatters, dir, path, CompilerOptions.DeprecationWarnings.ON,
+				null, null, null, 2);
+		return new Compiler(options, new LinkedList<String>(), files);
+	}
+
+	private static File writeTemplate(File dir, String name, String source)
+			throws IOException {
+		File tplfile = new File(dir, name + ".pan");
+		OutputStream os = new FileOutputStream(tplfile);
+		try {
+			os.write(source.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return tplfile;
+	}
+
+	private static Set<String> names(Set<SourceFile> sources) {
+		Set<String> names = new HashSet<String>();
+		for (SourceFile source : sources) {
+			names.add(source.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void testSharedTransitiveDependencies() throws Exception {
+
+		File dir = new File(getTmpdir(), "final-cache");
+		recursiveFileDelete(dir);
+		dir.mkdirs();
+
+		try {
+			writeTemplate(dir, "common", "template common;\n"
+					+ "'/common' = true;\n");
+			writeTemplate(dir, "leaf", "object template leaf;\n"
+					+ "include 'common';\n"
+					+ "'/value' = 1;\n");
+			writeTemplate(dir, "middle", "object template middle;\n"
+					+ "'/value' = value('leaf:/common');\n");
+
+			List<File> files = new LinkedList<File>();
+			files.add(writeTemplate(dir, "node", "object template node;\n"
+					+ "'/value' = value('leaf:/value');\n"
+					+ "'/other' = value('middle:/value');\n"));
+
+			Compiler compiler = createCompiler(dir, files);
+			assertNull(compiler.process().formatErrors());
+
+			// The final result is shared by the output tasks of the object.
+			FinalCache fcache = compiler.getFinalCache();
+			assertNotNull(fcache.retrieve("node"));
+			FinalResult result = fcache.waitForResult("node");
+			assertSame(result, fcache.waitForResult("node"));
+
+			Set<String> expected = new HashSet<String>();
+			expected.add("node");
+			expected.add("middle");
+			expected.add("leaf");
+			expected.add("common");
+			assertEquals(expected, names(result.getDependencies()));
+
+			assertTrue(new File(dir, "node.json").exists());
+			assertTrue(new File(dir, "node.xml").exists());
+
+		} finally {
+			recursiveFileDelete(dir);
+		}
+	}
+
+}
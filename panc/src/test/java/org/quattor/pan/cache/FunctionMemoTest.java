@@ -0,0 +1,230 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.quattor.pan.utils.TestUtils.getTmpdir;
+import static org.quattor.pan.utils.TestUtils.recursiveFileDelete;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.dml.Operation;
+import org.quattor.pan.dml.data.DoubleProperty;
+import org.quattor.pan.dml.data.Element;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.PanFormatter;
+
+public class FunctionMemoTest {
+
+	private static final Operation F = StringProperty.getInstance("f");
+
+	private static final Operation G = StringProperty.getInstance("g");
+
+	private static Element[] args(Element... args) {
+		return args;
+	}
+
+	@Test
+	public void testOnlyPropertiesAreCacheable() {
+		assertTrue(FunctionMemo.isCacheable(args()));
+		assertTrue(FunctionMemo.isCacheable(args(LongProperty.getInstance(1L),
+				StringProperty.getInstance("a"))));
+		assertFalse(FunctionMemo.isCacheable(args(new ListResource())));
+	}
+
+	@Test
+	public void testResultsAreKeyedByFunctionAndArguments() {
+
+		FunctionMemo memo = new FunctionMemo();
+		Element result = StringProperty.getInstance("result");
+
+		assertNull(memo.get(F, args(LongProperty.getInstance(1L))));
+		memo.put(F, args(LongProperty.getInstance(1L)), result, 5L);
+
+		assertSame(result, memo.get(F, args(LongProperty.getInstance(1L))));
+		assertNull(memo.get(G, args(LongProperty.getInstance(1L))));
+		assertNull(memo.get(F, args(LongProperty.getInstance(2L))));
+		assertNull(memo.get(F, args(DoubleProperty.getInstance(1.0))));
+		assertNull(memo.get(F, args(StringProperty.getInstance("1"))));
+
+		assertEquals(1L, memo.getHits());
+		assertEquals(5L, memo.getMisses());
+		assertEquals(5L, memo.getSavedTime());
+	}
+
+	@Test
+	public void testResourcesAreDuplicated() throws Exception {
+
+		FunctionMemo memo = new FunctionMemo();
+
+		ListResource result = new ListResource();
+		result.append(LongProperty.getInstance(1L));
+		memo.put(F, args(), result, 0L);
+
+		// Changes to the original result or a returned copy must not be
+		// visible in later results.
+		result.append(LongProperty.getInstance(2L));
+		ListResource copy = (ListResource) memo.get(F, args());
+		assertNotSame(result, copy);
+		assertEquals(1, copy.size());
+		copy.append(LongProperty.getInstance(3L));
+		assertEquals(1, ((ListResource) memo.get(F, args())).size());
+	}
+
+	@Test
+	public void testNumberOfEntriesIsBounded() {
+
+		FunctionMemo memo = new FunctionMemo(2);
+		for (long i = 0; i < 4; i++) {
+			memo.put(F, args(LongProperty.getInstance(i)),
+					LongProperty.getInstance(i), 0L);
+		}
+
+		assertEquals(2, memo.size());
+		assertTrue(memo.get(F, args(LongProperty.getInstance(0L))) != null);
+		assertNull(memo.get(F, args(LongProperty.getInstance(3L))));
+	}
+
+	private static File writeTemplate(File dir, String name, String source)
+			throws IOException {
+		File tplfile = new File(dir, name + ".pan");
+		OutputStream os = new FileOutputStream(tplfile);
+		try {
+			os.write(source.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return tplfile;
+	}
+
+	@Test
+	public void testResultsAreSharedBetweenObjects() throws Exception {
+
+		File dir = new File(getTmpdir(), "function-memo");
+		recursiveFileDelete(dir);
+		dir.mkdirs();
+
+		try {
+			writeTemplate(dir, "functions", "declaration template functions;\n"
+					+ "function count_bits = {\n"
+					+ "  n = 0; m = ARGV[0];\n"
+					+ "  while (m > 0) { n = n + (m % 2); m = m / 2; };\n"
+					+ "  n;\n" + "};\n");
+
+			int nobjects = 4;
+			List<File> files = new LinkedList<File>();
+			for (int i = 0; i < nobjects; i++) {
+				String name = "node" + i;
+				files.add(writeTemplate(dir, name, "object template " + name
+						+ ";\n" + "include 'functions';\n"
+						+ "'/bits' = count_bits(4294967040);\n"
+						+ "'/own' = count_bits(" + i + ");\n"));
+			}
+
+			Set<Formatter> formatters = new HashSet<Formatter>();
+			formatters.add(PanFormatter.getInstance());
+			List<File> path = new LinkedList<File>();
+			path.add(dir);
+			CompilerOptions options = new CompilerOptions(null, null, 100, 50,
+					formatters, dir, path,
+					CompilerOptions.DeprecationWarnings.ON, null, null, null,
+					1);
+
+			Compiler compiler = new Compiler(options, new LinkedList<String>(),
+					files);
+			assertEquals("[]", compiler.process().getErrors().toString());
+
+			// The shared call is computed once; the others are hits. Calls
+			// with the object-specific argument are all misses.
+			FunctionMemo memo = compiler.getFunctionMemo();
+			assertEquals(nobjects - 1, memo.getHits());
+			assertEquals(nobjects + 1, memo.getMisses());
+
+		} finally {
+			recursiveFileDelete(dir);
+		}
+	}
+
+	@Test
+	public void testConditionallyAssignedVariablesAreNotShared()
+			throws Exception {
+
+		File dir = new File(getTmpdir(), "function-memo-conditional");
+		recursiveFileDelete(dir);
+		dir.mkdirs();
+
+		try {
+			// When the condition is false, x is the object's global variable.
+			writeTemplate(dir, "functions", "declaration template functions;\n"
+					+ "function f = {\n"
+					+ "  if (ARGV[0]) x = 'local';\n"
+					+ "  x;\n" + "};\n");
+
+			int nobjects = 2;
+			List<File> files = new LinkedList<File>();
+			for (int i = 0; i < nobjects; i++) {
+				String name = "node" + i;
+				files.add(writeTemplate(dir, name, "object template " + name
+						+ ";\n" + "include 'functions';\n"
+						+ "variable x = '" + name + "';\n"
+						+ "'/x' = {\n"
+						+ "  if (f(false) != x) error('stale result');\n"
+						+ "  x;\n" + "};\n"));
+			}
+
+			Set<Formatter> formatters = new HashSet<Formatter>();
+			formatters.add(PanFormatter.getInstance());
+			List<File> path = new LinkedList<File>();
+			path.add(dir);
+			CompilerOptions options = new CompilerOptions(null, null, 100, 50,
+					formatters, dir, path,
+					CompilerOptions.DeprecationWarnings.ON, null, null, null,
+					1);
+
+			Compiler compiler = new Compiler(options, new LinkedList<String>(),
+					files);
+			assertEquals("[]", compiler.process().getErrors().toString());
+
+			FunctionMemo memo = compiler.getFunctionMemo();
+			assertEquals(0L, memo.getHits());
+			assertEquals(0L, memo.getMisses());
+
+		} finally {
+			recursiveFileDelete(dir);
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.quattor.pan.utils.TestUtils.getTmpdir;
+import static org.quattor.pan.utils.TestUtils.recursiveFileDelete;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.quattor.pan.Compiler;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.exceptions.SyntaxException;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.JsonFormatter;
+
+public class ResultRetentionTest {
+
+	private static Compiler createCompiler(File dir, List<File> files)
+			throws SyntaxException {
+		Set<Formatter> formatters = new HashSet<Formatter>();
+		formatters.add(JsonFormatter.getInstance());
+		List<File> path = new LinkedList<File>();
+		path.add(dir);
+		CompilerOptions options = new CompilerOptions(null, null, 100, 50,
+				formatters, dir, path, CompilerOptions.DeprecationWarnings.ON,
+				null, null, null, 2);
+		return new Compiler(options, new LinkedList<String>(), files);
+	}
+
+	private static File writeTemplate(File dir, String name, String source)
+			throws IOException {
+		File tplfile = new File(dir, name + ".pan");
+		OutputStream os = new FileOutputStream(tplfile);
+		try {
+			os.write(source.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+		return tplfile;
+	}
+
+	@Test
+	public void testReleasedObjectsAreEvicted() throws Exception {
+
+		Compiler compiler = createCompiler(getTmpdir(), new LinkedList<File>());
+		ResultRetention retention = new ResultRetention(compiler, 0);
+
+		retention.acquire("a", 2);
+		retention.reference("a", "b");
+
+		retention.release("a");
+		assertEquals(0L, retention.getEvictions());
+
+		// Releasing the last reference evicts the object and then the
+		// objects that it referenced.
+		retention.release("a");
+		assertEquals(2L, retention.getEvictions());
+	}
+
+	@Test
+	public void testRecentlyReleasedObjectsAreRetained() throws Exception {
+
+		Compiler compiler = createCompiler(getTmpdir(), new LinkedList<File>());
+		ResultRetention retention = new ResultRetention(compiler, 1);
+
+		retention.acquire("a", 1);
+		retention.acquire("b", 1);
+
+		retention.release("a");
+		assertEquals(0L, retention.getEvictions());
+
+		// Referencing a retained object reactivates it.
+		retention.acquire("a", 1);
+		retention.release("b");
+		assertEquals(0L, retention.getEvictions());
+
+		retention.release("a");
+		assertEquals(1L, retention.getEvictions());
+	}
+
+	@Test
+	public void testUntrackedObjectsDoNotHoldReferences() throws Exception {
+
+		Compiler compiler = createCompiler(getTmpdir(), new LinkedList<File>());
+		ResultRetention retention = new ResultRetention(compiler, 0);
+
+		// The referencing object is not tracked, so no reference is kept.
+		retention.reference("a", "b");
+		retention.release("b");
+		assertEquals(0L, retention.getEvictions());
+	}
+
+	@Test
+	public void testSharedObjectBuildsCorrectly() throws Exception {
+
+		File dir = new File(getTmpdir(), "result-retention");
+		recursiveFileDelete(dir);
+		dir.mkdirs();
+
+		try {
+			writeTemplate(dir, "common", "object template common;\n"
+					+ "'/value' = 42;\n");
+
+			// Use more objects than are retained so that some results are
+			// evicted and the shared object is possibly rebuilt.
+			int nobjects = 2 * ResultRetention.DEFAULT_RETAINED_RESULTS;
+
+			List<File> files = new LinkedList<File>();
+			for (int i = 0; i < nobjects; i++) {
+				String name = "node" + i;
+				files.add(writeTemplate(dir, name, "object template " + name
+						+ ";\n" + "'/value' = value('common:/value') + " + i
+						+ ";\n"));
+			}
+
+			Compiler compiler = createCompiler(dir, files);
+			assertNull(compiler.process().formatErrors());
+
+			assertTrue(compiler.getResultRetention().getEvictions() > 0);
+
+			for (int i = 0; i < nobjects; i++) {
+				File json = new File(dir, "node" + i + ".json");
+				String contents = new String(Files.readAllBytes(json.toPath()),
+						"UTF-8");
+				assertTrue(contents.matches("(?s).*\"value\"\\s*:\\s*"
+						+ (42 + i) + "\\b.*"));
+			}
+
+		} finally {
+			recursiveFileDelete(dir);
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.quattor.pan.utils.TestUtils.getTmpdir;
+import static org.quattor.pan.utils.TestUtils.recursiveFileDelete;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quattor.pan.CompilerOptions;
+import org.quattor.pan.output.Formatter;
+import org.quattor.pan.output.JsonFormatter;
+
+public class CompileDaemonTest {
+
+	private File root;
+
+	private File includeDir;
+
+	private File outputDir;
+
+	private CompileDaemon daemon;
+
+	@Before
+	public void setup() throws Exception {
+
+		root = new File(getTmpdir(), "compile-daemon");
+		recursiveFileDelete(root);
+		includeDir = new File(root, "include");
+		outputDir = new File(root, "output");
+		assertTrue(new File(includeDir, "site").mkdirs());
+		assertTrue(outputDir.mkdirs());
+
+		writeTemplate("site/common", "template site/common;\n'/a' = 1;\n");
+		writeTemplate("obj1", "object template obj1;\ninclude 'site/common';\n");
+		writeTemplate("obj2", "object template obj2;\n'/b' = 2;\n");
+
+		// Files modified during the second in which a build starts are
+		// considered as changed; make sure the sources are older.
+		long past = System.currentTimeMillis() - 10000L;
+		for (String name : Arrays.asList("site/common", "obj1", "obj2")) {
+			assertTrue(template(name).setLastModified(past));
+		}
+
+		Set<Formatter> formatters = new HashSet<Formatter>();
+		formatters.add(JsonFormatter.getInstance());
+		daemon = createDaemon(formatters);
+	}
+
+	private CompileDaemon createDaemon(Set<Formatter> formatters)
+			throws Exception {
+		List<File> includeDirectories = new LinkedList<File>();
+		includeDirectories.add(includeDir);
+
+		CompilerOptions options = new CompilerOptions(null, null, 10000, 50,
+				formatters, outputDir, includeDirectories,
+				CompilerOptions.DeprecationWarnings.ON, null, null, null, 1);
+		return new CompileDaemon(options, includeDirectories);
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		daemon.close();
+		recursiveFileDelete(root);
+	}
+
+	private File template(String name) {
+		return new File(includeDir, name + ".pan");
+	}
+
+	private void writeTemplate(String name, String source) throws IOException {
+		Files.write(template(name).toPath(), source.getBytes("UTF-8"));
+	}
+
+	private String process(boolean force) {
+		StringWriter sw = new StringWriter();
+		PrintWriter out = new PrintWriter(sw);
+		int rc = daemon.process(
+				Arrays.asList(template("obj1"), template("obj2")), force,
+				false, out);
+		out.flush();
+		assertEquals(sw.toString(), 0, rc);
+		return sw.toString().trim();
+	}
+
+	@Test
+	public void testIncrementalRebuild() throws Exception {
+
+		assertEquals("2/2 template(s) being processed", process(false));
+		assertTrue(new File(outputDir, "obj1.json").exists());
+		assertTrue(new File(outputDir, "obj2.json").exists());
+
+		// Recording the dependencies does not touch the output directory.
+		assertEquals(new HashSet<String>(Arrays.asList("obj1.json",
+				"obj2.json")), new HashSet<String>(Arrays.asList(outputDir
+				.list())));
+
+		// Nothing has changed.
+		assertEquals("0/2 template(s) being processed", process(false));
+
+		// Only the object including the modified template is rebuilt. The
+		// unchanged object template is taken from the resident cache.
+		long hits = daemon.getTemplateCache().getHits();
+		writeTemplate("site/common", "template site/common;\n'/a' = 10;\n");
+		assertEquals("1/2 template(s) being processed", process(false));
+		assertTrue(daemon.getTemplateCache().getHits() > hits);
+		String json = new String(Files.readAllBytes(new File(outputDir,
+				"obj1.json").toPath()), "UTF-8");
+		assertTrue(json, json.contains("10"));
+
+		// Missing output files are regenerated.
+		assertTrue(new File(outputDir, "obj2.json").delete());
+		assertEquals("1/2 template(s) being processed", process(false));
+
+		assertEquals("2/2 template(s) being processed", process(true));
+	}
+
+	@Test
+	public void testWithoutOutputFormats() throws Exception {
+
+		daemon.close();
+		daemon = createDaemon(new HashSet<Formatter>());
+
+		// The objects are still built, so their dependencies are known.
+		assertEquals("2/2 template(s) being processed", process(false));
+		assertEquals("0/2 template(s) being processed", process(false));
+		assertEquals(0, outputDir.list().length);
+
+		writeTemplate("site/common", "template site/common;\n'/a' = 10;\n");
+		assertEquals("1/2 template(s) being processed", process(false));
+	}
+
+	@Test
+	public void testNewTemplateOnIncludePath() throws Exception {
+
+		assertEquals("2/2 template(s) being processed", process(false));
+
+		// Creating a template that was not found before invalidates the
+		// objects that looked for it.
+		writeTemplate("obj2", "object template obj2;\n"
+				+ "include { if_exists('site/optional') };\n");
+		assertEquals("1/2 template(s) being processed", process(false));
+		assertEquals("0/2 template(s) being processed", process(false));
+
+		writeTemplate("site/optional", "template site/optional;\n'/c' = 3;\n");
+		assertEquals("1/2 template(s) being processed", process(false));
+	}
+
+	@Test
+	public void testSocketProtocol() throws Exception {
+
+		File tokenFile = new File(root, "token");
+		int port = daemon.bind(0, tokenFile);
+		assertEquals(tokenFile, daemon.getTokenFile());
+
+		// Only the owner can read the token.
+		Set<PosixFilePermission> permissions = Files
+				.getPosixFilePermissions(tokenFile.toPath());
+		assertEquals(permissions.toString(), 2, permissions.size());
+		assertTrue(permissions.contains(PosixFilePermission.OWNER_READ));
+		assertTrue(permissions.contains(PosixFilePermission.OWNER_WRITE));
+
+		Thread server = new Thread() {
+			@Override
+			public void run() {
+				try {
+					daemon.serve();
+				} catch (IOException consumed) {
+				}
+			}
+		};
+		server.start();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(bytes, true, "UTF-8");
+
+		// Requests without the right token are rejected.
+		File wrongToken = new File(root, "wrong-token");
+		Files.write(wrongToken.toPath(), "wrong".getBytes("UTF-8"));
+		CompileClient intruder = new CompileClient(port, wrongToken);
+		assertEquals(1, intruder.build(Arrays.asList(template("obj1")), false,
+				false, ps));
+		assertEquals(1, intruder.stop(ps));
+		assertFalse(new File(outputDir, "obj1.json").exists());
+
+		CompileClient client = new CompileClient(port, tokenFile);
+		assertEquals(0, client.build(Arrays.asList(template("obj1")), false,
+				false, ps));
+		assertEquals(0, client.build(Arrays.asList(template("obj1")), false,
+				false, ps));
+		String output = bytes.toString("UTF-8");
+		assertTrue(output, output.contains("1/1 template(s) being processed"));
+		assertTrue(output, output.contains("0/1 template(s) being processed"));
+
+		// Errors are reported with a non-zero status.
+		writeTemplate("obj2", "object template obj2;\n'/b' = undefined_fn();\n");
+		assertEquals(1, client.build(Arrays.asList(template("obj2")), false,
+				false, ps));
+
+		assertEquals(0, client.stop(ps));
+		server.join(10000L);
+		assertTrue(!server.isAlive());
+		assertFalse(tokenFile.exists());
+	}
+
+}
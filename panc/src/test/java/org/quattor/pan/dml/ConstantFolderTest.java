@@ -0,0 +1,133 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.dml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.quattor.pan.dml.data.BooleanProperty;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.dml.data.Undef;
+import org.quattor.pan.dml.functions.Length;
+import org.quattor.pan.dml.functions.List;
+import org.quattor.pan.dml.operators.Add;
+import org.quattor.pan.dml.operators.Div;
+import org.quattor.pan.dml.operators.IfElse;
+import org.quattor.pan.dml.operators.LogicalAnd;
+import org.quattor.pan.dml.operators.LogicalEQ;
+import org.quattor.pan.dml.operators.LogicalOr;
+import org.quattor.pan.dml.operators.Variable;
+import org.quattor.pan.exceptions.SyntaxException;
+
+public class ConstantFolderTest {
+
+	private static Operation lengthOfList(long n) throws SyntaxException {
+		Operation[] values = new Operation[(int) n];
+		for (int i = 0; i < n; i++) {
+			values[i] = LongProperty.getInstance(i);
+		}
+		return Length.getInstance(null, List.getInstance(null, values));
+	}
+
+	@Test
+	public void testFunctionsWithConstantArgumentsAreFolded()
+			throws SyntaxException {
+
+		Operation op = Add.newOperation(null, lengthOfList(3),
+				LongProperty.getInstance(1L));
+		assertTrue(op instanceof Add);
+
+		assertEquals(LongProperty.getInstance(4L), ConstantFolder.fold(op));
+	}
+
+	@Test
+	public void testResourcesAreNotFolded() throws SyntaxException {
+
+		Operation op = List.getInstance(null, LongProperty.getInstance(1L));
+		assertSame(op, ConstantFolder.fold(op));
+	}
+
+	@Test
+	public void testVariablesAreNotFolded() throws SyntaxException {
+
+		Operation x = Variable.getInstance(null, "x");
+		Operation op = Add.newOperation(null, x, lengthOfList(2));
+
+		assertSame(op, ConstantFolder.fold(op));
+		assertSame(x, ((Add) op).ops[0]);
+		assertEquals(LongProperty.getInstance(2L), ((Add) op).ops[1]);
+	}
+
+	@Test
+	public void testConstantBranchesArePruned() throws SyntaxException {
+
+		Operation x = Variable.getInstance(null, "x");
+		Operation y = Variable.getInstance(null, "y");
+
+		Operation test = LogicalEQ.newOperation(null, lengthOfList(1),
+				LongProperty.getInstance(1L));
+		assertSame(x, ConstantFolder.fold(IfElse.newOperation(null, test, x,
+				y)));
+
+		test = LogicalEQ.newOperation(null, lengthOfList(2),
+				LongProperty.getInstance(1L));
+		assertSame(y, ConstantFolder.fold(IfElse.newOperation(null, test, x,
+				y)));
+
+		test = LogicalEQ.newOperation(null, lengthOfList(2),
+				LongProperty.getInstance(1L));
+		assertSame(Undef.VALUE, ConstantFolder.fold(IfElse.newOperation(null,
+				test, x)));
+
+		// The condition is not constant.
+		Operation op = IfElse.newOperation(null, x, y);
+		assertSame(op, ConstantFolder.fold(op));
+	}
+
+	@Test
+	public void testLogicalOperationsAreShortCircuited()
+			throws SyntaxException {
+
+		Operation x = Variable.getInstance(null, "x");
+		Operation isTrue = LogicalEQ.newOperation(null, lengthOfList(1),
+				LongProperty.getInstance(1L));
+		Operation isFalse = LogicalEQ.newOperation(null, lengthOfList(0),
+				LongProperty.getInstance(1L));
+
+		assertSame(BooleanProperty.TRUE,
+				ConstantFolder.fold(LogicalOr.newOperation(null, isTrue, x)));
+		assertSame(BooleanProperty.FALSE,
+				ConstantFolder.fold(LogicalAnd.newOperation(null, isFalse, x)));
+	}
+
+	@Test
+	public void testFailingOperationsAreKept() throws SyntaxException {
+
+		// The error must only appear if the operation is executed.
+		Operation op = Div.newOperation(null, lengthOfList(1),
+				LongProperty.getInstance(0L));
+		assertSame(op, ConstantFolder.fold(op));
+
+		op = DML.getInstance(null, StringProperty.getInstance("a"), op);
+		assertSame(op, ConstantFolder.fold(op));
+	}
+
+}
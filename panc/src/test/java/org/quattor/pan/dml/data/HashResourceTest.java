@@ -20,9 +20,16 @@
 
 package org.quattor.pan.dml.data;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
 import org.junit.Test;
 import org.quattor.pan.exceptions.EvaluationException;
 import org.quattor.pan.exceptions.InvalidTermException;
@@ -54,6 +61,27 @@ public class HashResourceTest {
 		assertTrue(p.isProtected());
 	}
 
+	@Test
+	public void testProtectedViewIsReused() throws InvalidTermException {
+
+		HashResource child = new HashResource();
+		HashResource hash = new HashResource();
+		Term key = TermFactory.create("a");
+		hash.put(key, child);
+
+		// Repeated calls and reads through the view give the same objects.
+		Element p = hash.protect();
+		assertSame(p, hash.protect());
+		assertSame(p, p.protect());
+		assertSame(child.protect(), ((Resource) p).get(key));
+		assertSame(((Resource) p).get(key), ((Resource) p).get(key));
+
+		// The view still reflects changes to the underlying dict.
+		child.put(key, LongProperty.getInstance(1L));
+		assertEquals(LongProperty.getInstance(1L),
+				((Resource) ((Resource) p).get(key)).get(key));
+	}
+
 	@Test
 	public void testDelete() throws InvalidTermException {
 		HashResource hash = new HashResource();
@@ -102,4 +130,133 @@ public class HashResourceTest {
 		hash.put(index, DoubleProperty.getInstance(1.0));
 	}
 
+	private static List<String> keys(HashResource hash) {
+		List<String> keys = new ArrayList<String>();
+		for (Resource.Entry entry : hash) {
+			keys.add(((StringProperty) entry.getKey()).getValue());
+		}
+		return keys;
+	}
+
+	@Test
+	public void testSortedOrderAcrossBackings() throws InvalidTermException {
+
+		// Insert in reverse order, enough keys to replace the small map.
+		HashResource hash = new HashResource();
+		List<String> expected = new ArrayList<String>();
+		int n = SortedArrayMap.MAXIMUM_SIZE + 4;
+		for (int i = n - 1; i >= 0; i--) {
+			hash.put(TermFactory.create("k" + (char) ('a' + i)),
+					LongProperty.getInstance(i));
+			expected.add(0, "k" + (char) ('a' + i));
+
+			assertEquals(n - i, hash.size());
+			assertEquals(expected, keys(hash));
+		}
+
+		for (int i = 0; i < n; i++) {
+			assertEquals(LongProperty.getInstance(i),
+					hash.get(TermFactory.create("k" + (char) ('a' + i))));
+		}
+	}
+
+	@Test
+	public void testSmallAndLargeBackingsAreEqual()
+			throws InvalidTermException {
+
+		HashResource small = new HashResource();
+		HashResource large = new HashResource();
+
+		// The large dict keeps its tree map after the removals.
+		for (int i = 0; i <= SortedArrayMap.MAXIMUM_SIZE; i++) {
+			large.put(TermFactory.create("x" + i), LongProperty.getInstance(i));
+		}
+		for (int i = 0; i <= SortedArrayMap.MAXIMUM_SIZE; i++) {
+			large.put(TermFactory.create("x" + i), Null.VALUE);
+		}
+
+		for (String key : new String[] { "c", "a", "b" }) {
+			small.put(TermFactory.create(key), StringProperty.getInstance(key));
+			large.put(TermFactory.create(key), StringProperty.getInstance(key));
+		}
+
+		assertEquals(small, large);
+		assertEquals(large, small);
+		assertEquals(small.hashCode(), large.hashCode());
+		assertEquals(keys(small), keys(large));
+		assertEquals(small, large.duplicate());
+	}
+
+	@Test
+	public void testDeleteFromSmallDict() throws InvalidTermException {
+
+		HashResource hash = new HashResource();
+		for (String key : new String[] { "a", "b", "c" }) {
+			hash.put(TermFactory.create(key), StringProperty.getInstance(key));
+		}
+
+		hash.put(TermFactory.create("b"), Null.VALUE);
+		hash.put(TermFactory.create("missing"), Null.VALUE);
+
+		assertEquals(2, hash.size());
+		assertNull(hash.get(TermFactory.create("b")));
+		assertEquals("[a, c]", keys(hash).toString());
+	}
+
+	@Test
+	public void testCursorMatchesIterator() throws InvalidTermException {
+
+		for (int n : new int[] { 3, SortedArrayMap.MAXIMUM_SIZE + 3 }) {
+			HashResource hash = new HashResource();
+			for (int i = 0; i < n; i++) {
+				hash.put(TermFactory.create("k" + i), LongProperty.getInstance(i));
+			}
+
+			Resource.Iterator iterator = hash.iterator();
+			Resource.Cursor cursor = hash.cursor();
+			Resource.Cursor readCursor = hash.readCursor();
+			while (iterator.hasNext()) {
+				Resource.Entry entry = iterator.next();
+				assertTrue(cursor.next());
+				assertTrue(readCursor.next());
+				assertEquals(entry.getKey(), cursor.getKey());
+				assertEquals(entry.getKey().toString(), readCursor.getName());
+				assertSame(entry.getValue(), cursor.getValue());
+				assertSame(entry.getValue(), readCursor.getValue());
+			}
+			assertFalse(cursor.next());
+			assertFalse(readCursor.next());
+		}
+	}
+
+	@Test
+	public void testCursorValues() throws InvalidTermException {
+
+		HashResource child = new HashResource();
+		HashResource hash = new HashResource();
+		hash.put(TermFactory.create("a"), child);
+
+		// Read-only cursors return the children as they are stored.
+		Resource.Cursor cursor = ((Resource) hash.protect()).readCursor();
+		assertTrue(cursor.next());
+		assertSame(child, cursor.getValue());
+
+		cursor = ((Resource) hash.protect()).cursor();
+		assertTrue(cursor.next());
+		assertTrue(cursor.getValue().isProtected());
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testCursorDetectsModification() throws InvalidTermException {
+
+		HashResource hash = new HashResource();
+		hash.put(TermFactory.create("a"), LongProperty.getInstance(1L));
+		hash.put(TermFactory.create("b"), LongProperty.getInstance(2L));
+
+		Resource.Cursor cursor = hash.cursor();
+		assertTrue(cursor.next());
+		hash.put(TermFactory.create("c"), LongProperty.getInstance(3L));
+		cursor.next();
+	}
+
 }
@@ -20,7 +20,9 @@
 
 package org.quattor.pan.dml.data;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -54,6 +56,20 @@ public class ListResourceTest {
 		assertTrue(p.isProtected());
 	}
 
+	@Test
+	public void testProtectedViewIsReused() throws InvalidTermException {
+
+		ListResource child = new ListResource();
+		ListResource list = new ListResource();
+		Term index = TermFactory.create(0);
+		list.put(index, child);
+
+		Element p = list.protect();
+		assertSame(p, list.protect());
+		assertSame(p, p.protect());
+		assertSame(child.protect(), ((Resource) p).get(index));
+	}
+
 	@Test
 	public void testPutGet() throws InvalidTermException {
 		ListResource list = new ListResource();
@@ -168,4 +184,27 @@ public class ListResourceTest {
 		assertTrue(value.equals(list.get(zero)));
 	}
 
+	@Test
+	public void testCursor() {
+
+		ListResource list = new ListResource();
+		HashResource child = new HashResource();
+		list.append(StringProperty.getInstance("a"));
+		list.append(child);
+
+		Resource.Cursor cursor = list.readCursor();
+		assertTrue(cursor.next());
+		assertEquals("0", cursor.getName());
+		assertEquals(StringProperty.getInstance("a"), cursor.getValue());
+		assertTrue(cursor.next());
+		assertEquals(LongProperty.getInstance(1L), cursor.getKey());
+		assertSame(child, cursor.getValue());
+		assertFalse(cursor.next());
+
+		cursor = ((Resource) list.protect()).cursor();
+		cursor.next();
+		cursor.next();
+		assertTrue(cursor.getValue().isProtected());
+	}
+
 }
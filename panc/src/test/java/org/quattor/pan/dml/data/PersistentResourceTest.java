@@ -0,0 +1,308 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.dml.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.quattor.pan.exceptions.EvaluationException;
+import org.quattor.pan.exceptions.InvalidTermException;
+import org.quattor.pan.utils.Term;
+import org.quattor.pan.utils.TermFactory;
+
+public class PersistentResourceTest {
+
+	private static Term[] terms(Object... keys) {
+		Term[] terms = new Term[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] instanceof Integer) {
+				terms[i] = TermFactory.create(((Integer) keys[i]).longValue());
+			} else {
+				terms[i] = TermFactory.create((String) keys[i]);
+			}
+		}
+		return terms;
+	}
+
+	private static Element lookup(Resource resource, Object... keys)
+			throws InvalidTermException {
+		return resource.rget(terms(keys), 0, false, true);
+	}
+
+	private static HashResource createNested() throws InvalidTermException {
+		return createNested(true);
+	}
+
+	private static HashResource createNested(boolean persistent)
+			throws InvalidTermException {
+		HashResource root = new HashResource(persistent);
+		root.rput(terms("a", "b", 0), 0, LongProperty.getInstance(1L));
+		root.rput(terms("a", "b", 1), 0, LongProperty.getInstance(2L));
+		root.rput(terms("a", "c"), 0, StringProperty.getInstance("x"));
+		return root;
+	}
+
+	@Test
+	public void testDuplicateIsolation() throws InvalidTermException {
+
+		HashResource original = createNested();
+		HashResource copy = (HashResource) original.duplicate();
+		assertEquals(original, copy);
+
+		copy.rput(terms("a", "b", 0), 0, LongProperty.getInstance(10L));
+		copy.rput(terms("a", "d"), 0, BooleanProperty.TRUE);
+
+		assertEquals(LongProperty.getInstance(1L),
+				lookup(original, "a", "b", 0));
+		assertNull(lookup(original, "a", "d"));
+		assertEquals(LongProperty.getInstance(10L),
+				lookup(copy, "a", "b", 0));
+		assertFalse(original.equals(copy));
+
+		// Modifications of the original must not be visible in the copy.
+		original.rput(terms("a", "c"), 0, StringProperty.getInstance("y"));
+		assertEquals(StringProperty.getInstance("x"),
+				lookup(copy, "a", "c"));
+	}
+
+	@Test
+	public void testAppendAfterDuplicate() throws InvalidTermException {
+
+		HashResource original = createNested();
+		HashResource copy = (HashResource) original.duplicate();
+
+		ListResource list = copy.rgetList(terms("a", "b"), 0);
+		assertFalse(list.isProtected());
+		list.append(LongProperty.getInstance(3L));
+
+		assertEquals(3, ((ListResource) lookup(copy, "a", "b")).size());
+		assertEquals(2,
+				((ListResource) lookup(original, "a", "b")).size());
+	}
+
+	@Test
+	public void testSharedChildrenCopiedOnAccess() throws InvalidTermException {
+
+		HashResource root = createNested();
+		Term a = TermFactory.create("a");
+		Element child = root.get(a);
+		assertFalse(child.isProtected());
+		assertSame(child, root.get(a));
+
+		root.duplicate();
+		Element owned = root.get(a);
+		assertFalse(owned.isProtected());
+		assertNotSame(child, owned);
+		assertSame(owned, root.get(a));
+	}
+
+	@Test
+	public void testAliasedChild() throws InvalidTermException {
+
+		HashResource global = createNested();
+		HashResource local = (HashResource) global.duplicate();
+
+		// A child retrieved from a resource is a reference into it.
+		HashResource child = (HashResource) local.get(TermFactory.create("a"));
+		child.put(TermFactory.create("e"), LongProperty.getInstance(5L));
+
+		assertEquals(LongProperty.getInstance(5L), lookup(local, "a", "e"));
+		assertNull(lookup(global, "a", "e"));
+	}
+
+	@Test
+	public void testLentChildNotShared() throws InvalidTermException {
+
+		HashResource local = createNested();
+		HashResource alias = (HashResource) local.get(TermFactory.create("a"));
+
+		HashResource copy = (HashResource) local.duplicate();
+
+		// Modifications through the alias are only visible in the resource
+		// from which it was taken.
+		alias.put(TermFactory.create("z"), LongProperty.getInstance(1L));
+		assertEquals(LongProperty.getInstance(1L), lookup(local, "a", "z"));
+		assertNull(lookup(copy, "a", "z"));
+	}
+
+	@Test
+	public void testProtectedReadNotLent() throws InvalidTermException {
+
+		HashResource root = createNested();
+		Term a = TermFactory.create("a");
+		Element value = root.rget(terms("a", "b"), 0, true, false);
+		assertTrue(value.isProtected());
+
+		// Nothing was lent, so the copy shares the child.
+		HashResource copy = (HashResource) root.duplicate();
+		assertSame(root.lookup(a), copy.lookup(a));
+	}
+
+	@Test
+	public void testOnlyLentChildrenCopied() throws InvalidTermException {
+
+		HashResource root = new HashResource(true);
+		Term a = TermFactory.create("a");
+		Term b = TermFactory.create("b");
+		root.put(a, new HashResource(true));
+		root.put(b, new HashResource(true));
+		root.get(a);
+
+		HashResource copy = (HashResource) root.duplicate();
+		assertNotSame(root.lookup(a), copy.lookup(a));
+		assertSame(root.lookup(b), copy.lookup(b));
+
+		// Once the lent child is replaced, it is no longer copied.
+		root.put(a, new HashResource(true));
+		copy = (HashResource) root.duplicate();
+		assertSame(root.lookup(a), copy.lookup(a));
+	}
+
+	@Test
+	public void testLentIndicesFollowList() throws InvalidTermException {
+
+		ListResource list = new ListResource(true);
+		for (int i = 0; i < 3; i++) {
+			list.append(new HashResource(true));
+		}
+		Element lent = list.get(TermFactory.create(-1L));
+
+		list.put(0, null);
+		Term first = TermFactory.create(0L);
+		Term last = TermFactory.create(1L);
+		assertSame(lent, list.lookup(last));
+		ListResource copy = (ListResource) list.duplicate();
+		assertNotSame(list.lookup(last), copy.lookup(last));
+		assertSame(list.lookup(first), copy.lookup(first));
+
+		list.prepend(new HashResource(true));
+		first = TermFactory.create(1L);
+		last = TermFactory.create(2L);
+		assertSame(lent, list.lookup(last));
+		copy = (ListResource) list.duplicate();
+		assertNotSame(list.lookup(last), copy.lookup(last));
+		assertSame(list.lookup(first), copy.lookup(first));
+	}
+
+	@Test
+	public void testProtectAndWritableCopy() throws InvalidTermException {
+
+		HashResource root = createNested();
+		Element p = root.protect();
+		assertTrue(p.isProtected());
+
+		HashResource copy = (HashResource) p.writableCopy();
+		copy.rput(terms("a", "c"), 0, StringProperty.getInstance("z"));
+
+		assertEquals(StringProperty.getInstance("x"),
+				lookup(root, "a", "c"));
+		assertEquals(StringProperty.getInstance("z"),
+				lookup(copy, "a", "c"));
+	}
+
+	@Test
+	public void testEqualityAcrossBacking() throws InvalidTermException {
+
+		HashResource persistent = createNested(true);
+		HashResource classic = createNested(false);
+
+		assertEquals(classic, persistent);
+		assertEquals(persistent, classic);
+		assertEquals(classic.hashCode(), persistent.hashCode());
+	}
+
+	@Test
+	public void testChildrenFollowBacking() throws InvalidTermException {
+
+		HashResource persistent = createNested(true);
+		HashResource classic = createNested(false);
+
+		assertTrue(persistent.isPersistentBacking());
+		assertTrue(((Resource) lookup(persistent, "a")).isPersistentBacking());
+		assertTrue(((Resource) lookup(persistent, "a", "b"))
+				.isPersistentBacking());
+
+		assertFalse(classic.isPersistentBacking());
+		assertFalse(((Resource) lookup(classic, "a")).isPersistentBacking());
+		assertFalse(((Resource) lookup(classic, "a", "b"))
+				.isPersistentBacking());
+
+		// The default constructors are not affected by other resources.
+		assertFalse(new HashResource().isPersistentBacking());
+		assertFalse(new ListResource().isPersistentBacking());
+	}
+
+	@Test
+	public void testIterationOrder() throws InvalidTermException {
+
+		HashResource hash = new HashResource(true);
+		String[] keys = { "z", "a", "m", "b" };
+		for (String key : keys) {
+			hash.put(TermFactory.create(key), StringProperty.getInstance(key));
+		}
+
+		List<String> found = new ArrayList<String>();
+		for (Resource.Entry entry : hash) {
+			found.add(entry.getKey().toString());
+		}
+
+		assertEquals("[a, b, m, z]", found.toString());
+	}
+
+	@Test
+	public void testListOperations() throws InvalidTermException {
+
+		ListResource list = new ListResource(true);
+		list.put(2, LongProperty.getInstance(2L));
+		assertEquals(3, list.size());
+		assertEquals(Undef.VALUE, list.get(TermFactory.create(0L)));
+
+		list.prepend(LongProperty.getInstance(-1L));
+		list.append(LongProperty.getInstance(3L));
+		list.put(-1, LongProperty.getInstance(4L));
+		list.put(0, null);
+
+		assertEquals(4, list.size());
+		assertEquals(LongProperty.getInstance(4L),
+				list.get(TermFactory.create(3L)));
+		assertEquals(LongProperty.getInstance(2L),
+				list.get(TermFactory.create(-2L)));
+	}
+
+	@Test(expected = EvaluationException.class)
+	public void testInvalidNegativeIndex() {
+		ListResource list = new ListResource(true);
+		list.append(LongProperty.getInstance(1L));
+		list.put(-2, LongProperty.getInstance(2L));
+	}
+
+	@Test(expected = EvaluationException.class)
+	public void testSelfReference() throws InvalidTermException {
+		HashResource hash = new HashResource(true);
+		hash.put(TermFactory.create("a"), hash);
+	}
+
+}
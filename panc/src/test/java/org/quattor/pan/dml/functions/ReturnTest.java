@@ -20,7 +20,9 @@
 
 package org.quattor.pan.dml.functions;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 import org.quattor.pan.dml.data.Element;
@@ -56,6 +58,17 @@ public class ReturnTest extends BuiltInFunctionTestUtils {
 		}
 	}
 
+	@Test
+	public void checkReturnHasNoStackTrace() throws SyntaxException {
+
+		try {
+			runDml(Return.getInstance(null, LongProperty.getInstance(1L)));
+			fail("return did not throw ReturnValueException");
+		} catch (ReturnValueException rve) {
+			assertEquals(0, rve.getStackTrace().length);
+		}
+	}
+
 	@Test(expected = SyntaxException.class)
 	public void testTooFewArguments() throws SyntaxException {
 		Return.getInstance(null);
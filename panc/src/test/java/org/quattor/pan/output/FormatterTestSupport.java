@@ -0,0 +1,75 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.rules.TemporaryFolder;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.tasks.FinalResult;
+import org.quattor.pan.tasks.Valid2Result;
+
+/**
+ * Fixtures shared by the formatter tests. Each test builds its own tree and
+ * uses these methods to write it out and read the output back.
+ */
+final class FormatterTestSupport {
+
+	private FormatterTestSupport() {
+	}
+
+	/**
+	 * Wraps the given tree in the final result of an object named "profile".
+	 */
+	static FinalResult createResult(HashResource root) {
+		Valid2Result v2result = new Valid2Result("profile", root, null, null);
+		return new FinalResult(null, v2result);
+	}
+
+	/**
+	 * Writes the given tree with the formatter to a new file in the folder
+	 * and returns that file.
+	 */
+	static File write(TemporaryFolder folder, Formatter formatter,
+			HashResource root) throws Exception {
+		File file = folder.newFile("profile." + formatter.getFormatKey());
+		formatter.write(createResult(root), file.toURI());
+		return file;
+	}
+
+	/**
+	 * Reads the stream fully and closes it.
+	 */
+	static byte[] read(InputStream is) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = is.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, n);
+			}
+		} finally {
+			is.close();
+		}
+		return bytes.toByteArray();
+	}
+
+}
@@ -20,14 +20,26 @@
 
 package org.quattor.pan.output;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.StringProperty;
 import org.quattor.pan.exceptions.SystemException;
+import org.quattor.pan.tasks.FinalResult;
+import org.quattor.pan.tasks.Valid2Result;
+import org.quattor.pan.utils.TermFactory;
 
 public class FormatterUtilsTest {
 
@@ -57,4 +69,71 @@ public class FormatterUtilsTest {
 		FormatterUtils.createParentDirectories(invalidFile);
 	}
 
+	private static FinalResult createResult(String value) throws Exception {
+		HashResource root = new HashResource();
+		root.put(TermFactory.create("a"), StringProperty.getInstance(value));
+		Valid2Result v2result = new Valid2Result("profile", root, null, null);
+		return new FinalResult(null, v2result);
+	}
+
+	@Test
+	public void checkUnchangedFileIsNotWritten() throws Exception {
+
+		StreamFormatter[] formatters = { PanFormatter.getInstance(),
+				PanGzipFormatter.getInstance(), JsonFormatter.getInstance() };
+
+		for (StreamFormatter formatter : formatters) {
+			File dir = tmpDir.newFolder(formatter.getFormatKey());
+			File file = new File(dir, "profile");
+
+			assertTrue(FormatterUtils.writeIfChanged(formatter,
+					createResult("x"), file, 1000000000000L));
+			assertEquals(1000000000000L, file.lastModified());
+
+			assertFalse(FormatterUtils.writeIfChanged(formatter,
+					createResult("x"), file, 2000000000000L));
+			assertEquals(1000000000000L, file.lastModified());
+			assertEquals(1, dir.list().length);
+		}
+	}
+
+	@Test
+	public void checkChangedFileIsReplaced() throws Exception {
+
+		File dir = tmpDir.newFolder("output");
+		File file = new File(dir, "profile.xml");
+		StreamFormatter formatter = PanFormatter.getInstance();
+
+		FormatterUtils.writeIfChanged(formatter, createResult("x"), file,
+				1000000000000L);
+		assertTrue(FormatterUtils.writeIfChanged(formatter,
+				createResult("y"), file, 2000000000000L));
+		assertEquals(2000000000000L, file.lastModified());
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		formatter.write(createResult("y"), expected);
+		assertArrayEquals(expected.toByteArray(),
+				Files.readAllBytes(file.toPath()));
+
+		// The temporary file has been renamed.
+		assertEquals(1, dir.list().length);
+	}
+
+	@Test
+	public void checkDiscardedOutputLeavesFileUntouched() throws Exception {
+
+		File dir = tmpDir.newFolder("discard");
+		File file = new File(dir, "profile.xml");
+		Files.write(file.toPath(), "old".getBytes("UTF-8"));
+
+		ChangeDetectingOutputStream os = ChangeDetectingOutputStream
+				.create(file);
+		os.write("partial".getBytes("UTF-8"));
+		os.discard();
+
+		assertArrayEquals("old".getBytes("UTF-8"),
+				Files.readAllBytes(file.toPath()));
+		assertEquals(1, dir.list().length);
+	}
+
 }
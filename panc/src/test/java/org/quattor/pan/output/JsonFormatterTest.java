@@ -0,0 +1,143 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.quattor.pan.output.FormatterTestSupport.read;
+import static org.quattor.pan.output.FormatterTestSupport.write;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.quattor.pan.dml.data.BooleanProperty;
+import org.quattor.pan.dml.data.DoubleProperty;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.Null;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.dml.data.Undef;
+import org.quattor.pan.exceptions.EvaluationException;
+import org.quattor.pan.utils.JsonUtils;
+import org.quattor.pan.utils.TermFactory;
+
+public class JsonFormatterTest {
+
+	@Rule
+	public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+	private static HashResource createTree() throws Exception {
+
+		HashResource root = new HashResource();
+
+		root.put(TermFactory.create("string"), StringProperty
+				.getInstance("<a href='x'>&amp;</a> = \"q\" \\ \t\n\r\b\f\u0001"
+						+ "\u00e9\u20ac\u2028\u2029\ud83d\ude00\ud800x"));
+		root.put(TermFactory.create("double"), DoubleProperty.getInstance(1.5e-10));
+		root.put(TermFactory.create("integral-double"),
+				DoubleProperty.getInstance(3.0));
+		root.put(TermFactory.create("long"), LongProperty.getInstance(-1234567890123L));
+		root.put(TermFactory.create("min-long"),
+				LongProperty.getInstance(Long.MIN_VALUE));
+		root.put(TermFactory.create("max-long"),
+				LongProperty.getInstance(Long.MAX_VALUE));
+		root.put(TermFactory.create("zero"), LongProperty.getInstance(0L));
+		root.put(TermFactory.create("true"), BooleanProperty.TRUE);
+		root.put(TermFactory.create("false"), BooleanProperty.FALSE);
+		root.put(TermFactory.create("empty-dict"), new HashResource());
+		root.put(TermFactory.create("empty-list"), new ListResource());
+
+		HashResource onlyNull = new HashResource();
+		onlyNull.put(TermFactory.create("a"), LongProperty.getInstance(1L));
+		onlyNull.put(TermFactory.create("a"), Null.getInstance());
+		root.put(TermFactory.create("dict-of-null"), onlyNull);
+
+		ListResource list = new ListResource();
+		list.append(Null.getInstance());
+		list.append(StringProperty.getInstance("item"));
+		HashResource nested = new HashResource();
+		nested.put(TermFactory.create("x"), LongProperty.getInstance(1L));
+		nested.put(TermFactory.create("y"), new ListResource());
+		list.append(nested);
+		ListResource inner = new ListResource();
+		inner.append(LongProperty.getInstance(2L));
+		list.append(inner);
+		root.put(TermFactory.create("list"), list);
+
+		return root;
+	}
+
+	@Test
+	public void checkOutputMatchesGson() throws Exception {
+
+		HashResource root = createTree();
+		byte[] expected = JsonUtils.getInstance().toJson(root)
+				.getBytes("UTF-8");
+
+		File file = write(tmpfolder, JsonFormatter.getInstance(), root);
+		assertArrayEquals(expected, read(new FileInputStream(file)));
+	}
+
+	@Test
+	public void checkGzipOutputMatchesGson() throws Exception {
+
+		HashResource root = createTree();
+		byte[] expected = JsonUtils.getInstance().toJson(root)
+				.getBytes("UTF-8");
+
+		File file = write(tmpfolder, JsonGzipFormatter.getInstance(), root);
+		assertArrayEquals(expected, read(new GZIPInputStream(
+				new FileInputStream(file))));
+	}
+
+	@Test
+	public void checkCompactOutput() throws Exception {
+
+		HashResource root = createTree();
+
+		File file = write(tmpfolder, JsonFormatter.getCompactInstance(),
+				root);
+		String compact = new String(read(new FileInputStream(file)), "UTF-8");
+
+		String pretty = new String(read(new FileInputStream(write(tmpfolder,
+				JsonFormatter.getInstance(), root))), "UTF-8");
+
+		assertFalse(compact.contains("\n"));
+		assertEquals(JsonUtils.getInstance().fromJson(pretty), JsonUtils
+				.getInstance().fromJson(compact));
+
+		File gzip = write(tmpfolder, JsonGzipFormatter.getCompactInstance(),
+				root);
+		assertEquals(compact, new String(read(new GZIPInputStream(
+				new FileInputStream(gzip))), "UTF-8"));
+	}
+
+	@Test(expected = EvaluationException.class)
+	public void checkUndefIsRejected() throws Exception {
+		HashResource root = new HashResource();
+		root.put(TermFactory.create("undef"), Undef.getInstance());
+		write(tmpfolder, JsonFormatter.getInstance(), root);
+	}
+
+}
@@ -20,14 +20,22 @@
 
 package org.quattor.pan.output;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
+import static org.quattor.pan.output.FormatterTestSupport.createResult;
+import static org.quattor.pan.output.FormatterTestSupport.read;
+import static org.quattor.pan.output.FormatterTestSupport.write;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.net.URI;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
@@ -35,10 +43,15 @@ import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.quattor.pan.dml.data.BooleanProperty;
+import org.quattor.pan.dml.data.DoubleProperty;
 import org.quattor.pan.dml.data.HashResource;
 import org.quattor.pan.dml.data.ListResource;
 import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.Null;
 import org.quattor.pan.dml.data.StringProperty;
 import org.quattor.pan.tasks.FinalResult;
 import org.quattor.pan.tasks.Valid2Result;
@@ -48,6 +61,98 @@ import org.xml.sax.InputSource;
 
 public class PanFormatterTest {
 
+	@Rule
+	public TemporaryFolder tmpfolder = new TemporaryFolder();
+
+	private static HashResource createTree() throws Exception {
+
+		HashResource root = new HashResource();
+
+		root.put(TermFactory.create("string"), StringProperty
+				.getInstance("<a href='x'>&amp;</a> = \"q\" \t\n\r\u007f\u0085"
+						+ "\u00a0\u00e9\u20ac\u2028\ufffd\ud83d\ude00"));
+		root.put(TermFactory.create("empty"), StringProperty.getInstance(""));
+		root.put(TermFactory.create("blank"), StringProperty.getInstance(" \n "));
+		root.put(TermFactory.create("invalid"),
+				StringProperty.getInstance("a\u0001b"));
+		root.put(TermFactory.create("unpaired"),
+				StringProperty.getInstance("\ud800x"));
+		root.put(TermFactory.create("double"), DoubleProperty.getInstance(1.5e-10));
+		root.put(TermFactory.create("long"), LongProperty.getInstance(-1234567890123L));
+		root.put(TermFactory.create("true"), BooleanProperty.TRUE);
+		root.put(TermFactory.create("null"), Null.getInstance());
+		root.put(TermFactory.create("empty-dict"), new HashResource());
+		root.put(TermFactory.create("empty-list"), new ListResource());
+
+		// Strings too long to be escaped into the buffer in one go.
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.append("<\u00e9\n");
+		}
+		root.put(TermFactory.create("long-valid"),
+				StringProperty.getInstance(sb.toString()));
+		sb.append('\u0000');
+		root.put(TermFactory.create("long-invalid"),
+				StringProperty.getInstance(sb.toString()));
+
+		ListResource list = new ListResource();
+		list.append(StringProperty.getInstance("item"));
+		HashResource nested = new HashResource();
+		nested.put(TermFactory.create("x"), LongProperty.getInstance(1L));
+		nested.put(TermFactory.create("y"), new ListResource());
+		list.append(nested);
+		ListResource inner = new ListResource();
+		inner.append(LongProperty.getInstance(2L));
+		list.append(inner);
+		root.put(TermFactory.create("list"), list);
+
+		return root;
+	}
+
+	/**
+	 * Returns the output of the SAX events fed to the identity transformer.
+	 */
+	private static byte[] transform(HashResource root) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintWriter pw = new PrintWriter(new OutputStreamWriter(bytes, "UTF-8"));
+		PanFormatter.getInstance().write(createResult(root), pw);
+		pw.close();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void checkOutputMatchesTransformer() throws Exception {
+
+		HashResource root = createTree();
+		byte[] expected = transform(root);
+
+		File file = write(tmpfolder, PanFormatter.getInstance(), root);
+		assertArrayEquals(expected, read(new FileInputStream(file)));
+
+		file = write(tmpfolder, XmlFormatter.getInstance(), root);
+		assertArrayEquals(expected, read(new FileInputStream(file)));
+	}
+
+	@Test
+	public void checkGzipOutputMatchesTransformer() throws Exception {
+
+		HashResource root = createTree();
+		byte[] expected = transform(root);
+
+		File file = write(tmpfolder, PanGzipFormatter.getInstance(), root);
+		assertArrayEquals(expected, read(new GZIPInputStream(
+				new FileInputStream(file))));
+	}
+
+	@Test
+	public void checkEmptyProfileMatchesTransformer() throws Exception {
+
+		HashResource root = new HashResource();
+
+		File file = write(tmpfolder, PanFormatter.getInstance(), root);
+		assertArrayEquals(transform(root), read(new FileInputStream(file)));
+	}
+
 	@Test
 	public void checkInvalidStringIsEncoded() throws Exception {
 
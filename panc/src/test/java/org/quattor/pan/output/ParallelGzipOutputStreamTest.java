@@ -0,0 +1,166 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class ParallelGzipOutputStreamTest {
+
+	private static final int BLOCK_SIZE = GzipOptions.MINIMUM_BLOCK_SIZE;
+
+	/**
+	 * Returns data which compresses reasonably well, with repetitions that
+	 * cross the block boundaries.
+	 */
+	private static byte[] createData(int length) {
+		Random random = new Random(length);
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			if (i >= 1000 && random.nextInt(4) != 0) {
+				data[i] = data[i - 1000 + random.nextInt(3)];
+			} else {
+				data[i] = (byte) ('a' + random.nextInt(26));
+			}
+		}
+		return data;
+	}
+
+	private static byte[] compress(byte[] data, GzipOptions options)
+			throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(bytes,
+				options);
+
+		// Mix single bytes and arrays of different sizes.
+		int i = 0;
+		int chunk = 1;
+		while (i < data.length) {
+			if (chunk % 7 == 0) {
+				gzip.write(data[i++]);
+			} else {
+				int n = Math.min(chunk * 1013, data.length - i);
+				gzip.write(data, i, n);
+				i += n;
+			}
+			chunk++;
+		}
+		gzip.close();
+
+		return bytes.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		InputStream is = new GZIPInputStream(new ByteArrayInputStream(
+				compressed));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = is.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, n);
+		}
+		is.close();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void checkRoundTrip() throws IOException {
+
+		int[] lengths = { 0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1,
+				10 * BLOCK_SIZE + 12345 };
+
+		for (int nthread : new int[] { 1, 4 }) {
+			for (int level : new int[] { 0, 1, 6, 9 }) {
+				GzipOptions options = new GzipOptions(BLOCK_SIZE, level,
+						nthread);
+				for (int length : lengths) {
+					byte[] data = createData(length);
+					assertArrayEquals(options + ", length " + length, data,
+							decompress(compress(data, options)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void checkOutputIndependentOfThreads() throws IOException {
+
+		byte[] data = createData(20 * BLOCK_SIZE);
+		byte[] sequential = compress(data, new GzipOptions(BLOCK_SIZE, 6, 1));
+		byte[] parallel = compress(data, new GzipOptions(BLOCK_SIZE, 6, 8));
+
+		assertArrayEquals(sequential, parallel);
+	}
+
+	@Test
+	public void checkCompressionCloseToSingleStream() throws IOException {
+
+		byte[] data = createData(20 * BLOCK_SIZE);
+		byte[] blocks = compress(data, new GzipOptions(BLOCK_SIZE, 6, 4));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+		gzip.write(data);
+		gzip.close();
+		int single = bytes.size();
+
+		// The dictionary taken from the previous block keeps the overhead
+		// small.
+		assertTrue(blocks.length + " bytes compared to " + single,
+				blocks.length < single * 1.05);
+	}
+
+	@Test
+	public void checkDefaultOptions() {
+		GzipOptions defaults = GzipOptions.getDefault();
+		assertEquals(GzipOptions.DEFAULT_BLOCK_SIZE, defaults.blockSize);
+		assertEquals(GzipOptions.DEFAULT_LEVEL, defaults.level);
+		assertEquals(Runtime.getRuntime().availableProcessors(),
+				defaults.nthread);
+		assertEquals(defaults, new GzipOptions(
+				GzipOptions.DEFAULT_BLOCK_SIZE, GzipOptions.DEFAULT_LEVEL, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void checkBlockSizeTooSmall() {
+		new GzipOptions(GzipOptions.MINIMUM_BLOCK_SIZE - 1, 6, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void checkInvalidLevel() {
+		new GzipOptions(GzipOptions.DEFAULT_BLOCK_SIZE, 10, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void checkNegativeThreads() {
+		new GzipOptions(GzipOptions.DEFAULT_BLOCK_SIZE, 6, -1);
+	}
+
+}
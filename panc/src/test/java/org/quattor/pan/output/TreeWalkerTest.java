@@ -0,0 +1,124 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.output;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.quattor.pan.output.FormatterTestSupport.createResult;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+import org.quattor.pan.dml.data.BooleanProperty;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.dml.data.Null;
+import org.quattor.pan.dml.data.StringProperty;
+import org.quattor.pan.dml.data.Undef;
+import org.quattor.pan.exceptions.EvaluationException;
+import org.quattor.pan.tasks.FinalResult;
+import org.quattor.pan.utils.TermFactory;
+
+public class TreeWalkerTest {
+
+	private static final TreeFormatter[] formatters = {
+			PanFormatter.getInstance(), PanGzipFormatter.getInstance(),
+			JsonFormatter.getInstance(), JsonFormatter.getCompactInstance(),
+			JsonGzipFormatter.getInstance() };
+
+	private static HashResource createTree() throws Exception {
+
+		HashResource root = new HashResource();
+		root.put(TermFactory.create("string"),
+				StringProperty.getInstance("<a> & \"b\"\né\u0001"));
+		root.put(TermFactory.create("long"), LongProperty.getInstance(42L));
+		root.put(TermFactory.create("true"), BooleanProperty.TRUE);
+		root.put(TermFactory.create("empty-dict"), new HashResource());
+		root.put(TermFactory.create("empty-list"), new ListResource());
+		root.put(TermFactory.create("null"), Null.getInstance());
+
+		ListResource list = new ListResource();
+		list.append(Null.getInstance());
+		list.append(LongProperty.getInstance(1L));
+		HashResource nested = new HashResource();
+		nested.put(TermFactory.create("x"), StringProperty.getInstance(""));
+		nested.put(TermFactory.create("y"), new ListResource());
+		list.append(nested);
+		root.put(TermFactory.create("list"), list);
+
+		return root;
+	}
+
+	@Test
+	public void checkSingleWalkMatchesFormatters() throws Exception {
+
+		FinalResult result = createResult(createTree());
+
+		ByteArrayOutputStream[] streams = new ByteArrayOutputStream[formatters.length];
+		TreeWriter[] writers = new TreeWriter[formatters.length];
+		for (int i = 0; i < formatters.length; i++) {
+			streams[i] = new ByteArrayOutputStream();
+			writers[i] = formatters[i].createTreeWriter(streams[i]);
+		}
+
+		TreeWalker walker = new TreeWalker(writers);
+		walker.walk(result.getRoot());
+
+		for (int i = 0; i < formatters.length; i++) {
+			assertNull(walker.getError(i));
+			writers[i].close();
+
+			ByteArrayOutputStream expected = new ByteArrayOutputStream();
+			formatters[i].write(result, expected);
+			assertArrayEquals(formatters[i].getFormatKey(),
+					expected.toByteArray(), streams[i].toByteArray());
+		}
+	}
+
+	@Test
+	public void checkFailedWriterDoesNotStopOthers() throws Exception {
+
+		// Undefined values cannot be written as JSON, but can be in the pan
+		// format.
+		HashResource root = createTree();
+		root.put(TermFactory.create("undef"), Undef.getInstance());
+		root.put(TermFactory.create("z"), LongProperty.getInstance(1L));
+		FinalResult result = createResult(root);
+
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		ByteArrayOutputStream pan = new ByteArrayOutputStream();
+		TreeWriter[] writers = {
+				JsonFormatter.getInstance().createTreeWriter(json),
+				PanFormatter.getInstance().createTreeWriter(pan) };
+
+		TreeWalker walker = new TreeWalker(writers);
+		walker.walk(result.getRoot());
+		writers[0].close();
+		writers[1].close();
+
+		assertTrue(walker.getError(0) instanceof EvaluationException);
+		assertNull(walker.getError(1));
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		PanFormatter.getInstance().write(result, expected);
+		assertArrayEquals(expected.toByteArray(), pan.toByteArray());
+	}
+
+}
@@ -178,6 +178,56 @@ public class FileSystemSourceRepositoryTest {
 
     }
 
+    @Test
+    public void checkIndexedPanLookupOrder() throws IOException {
+
+        ParameterList parameters = getParameters();
+        parameters.append("sourceIndex", "true");
+        SourceRepository repository;
+        repository = FileSystemSourceRepository.getInstance(parameters);
+
+        for (int i = 0; i <= SourceDirectory.getLimit(); i++) {
+
+            String name = Integer.toBinaryString(i);
+
+            SourceFile source = repository.retrievePanSource(name);
+            SourceDirectory sd = SourceDirectory.valueFromMask(i);
+
+            if (!source.isAbsent()) {
+                File location = source.getLocation();
+                assertEquals(location, sd.asDirectory(tmpdir));
+            } else {
+                assertNull(sd);
+            }
+
+        }
+
+    }
+
+    @Test
+    public void checkIndexedRepositorySeesSignalledChanges()
+            throws IOException {
+
+        ParameterList parameters = getParameters();
+        parameters.append("sourceIndex", "true");
+        FileSystemSourceRepository repository;
+        repository = (FileSystemSourceRepository) FileSystemSourceRepository
+                .getInstance(parameters);
+
+        String name = "indexed/late";
+        assertTrue(repository.retrievePanSource(name).isAbsent());
+
+        // The listings are kept until a change is signalled.
+        File directory = new File(
+                SourceDirectory.INCLUDE2.asDirectory(tmpdir), "indexed");
+        touch(directory, "late.pan");
+        assertTrue(repository.retrievePanSource(name).isAbsent());
+
+        repository.treeChanged(directory);
+        SourceFile source = repository.retrievePanSource(name);
+        assertEquals(new File(directory, "late.pan"), source.getPath());
+    }
+
     public static void setupTestFiles() throws IOException {
 
         // Now create the include directories.
@@ -20,6 +20,7 @@
 
 package org.quattor.pan.statement;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -36,4 +37,39 @@ public class FunctionStatementTest extends StatementTestUtils {
 		assertTrue(context.getFunction("x") != null);
 	}
 
+	private boolean isPure(String name, String definition) throws Exception {
+		Context context = this.setupTemplateToRun2(name, definition
+				+ "\n'/x' = 1;", false);
+		return context.getFunction("f").pure;
+	}
+
+	@Test
+	public void pureFunctions() throws Exception {
+		assertTrue(isPure("fsp1", "function f = ARGV[0] + ARGC;"));
+		assertTrue(isPure("fsp2",
+				"function f = { x = ARGV[0]; y[0] = x; y[1] = to_string(x); y; };"));
+		assertTrue(isPure("fsp3",
+				"function f = { r = 0; foreach (k; v; ARGV) { r = v; }; return(r); };"));
+		assertTrue(isPure("fsp4",
+				"function f = { if (ARGV[0]) { x = 1; } else { x = 2; }; x; };"));
+	}
+
+	@Test
+	public void impureFunctions() throws Exception {
+		assertFalse(isPure("fsi1", "variable G = 1; function f = G + ARGV[0];"));
+		assertFalse(isPure("fsi2", "function f = OBJECT;"));
+		assertFalse(isPure("fsi3", "function f = value('/x');"));
+		assertFalse(isPure("fsi4", "function f = { x = create('s'); x; };"));
+		assertFalse(isPure("fsi5", "function f = { error('x'); };"));
+		assertFalse(isPure("fsi6",
+				"function g = 1; function f = g() + ARGV[0];"));
+		assertFalse(isPure("fsi7", "function f = { x = y; x; };"));
+		assertFalse(isPure("fsi8", "function f = { if (ARGV[0]) x = 1; x; };"));
+		assertFalse(isPure("fsi9",
+				"function f = { foreach (k; v; ARGV) { r = v; }; return(r); };"));
+		assertFalse(isPure("fsi10",
+				"function f = { ARGV[0] && (x = 1) > 0; x; };"));
+		assertFalse(isPure("fsi11", "function f = { x = 1; delete(x); x; };"));
+	}
+
 }
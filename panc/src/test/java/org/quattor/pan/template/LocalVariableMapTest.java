@@ -123,4 +123,77 @@ public class LocalVariableMapTest {
 		// string.) This should throw an exception.
 		map.put("x", value2);
 	}
+
+	@Test
+	public void checkSlotAndNameAccessAgree() {
+
+		StringProperty value1 = StringProperty.getInstance("DUMMY1");
+		StringProperty value2 = StringProperty.getInstance("DUMMY2");
+
+		FrameLayout layout = new FrameLayout();
+		VariableSlot x = layout.createSlot("x");
+
+		// A value set by name before the map is bound to the layout must be
+		// visible through the slot afterwards.
+		LocalVariableMap map = new LocalVariableMap();
+		map.put("x", value1);
+		assertTrue(map.get(x) == value1);
+
+		// And a value set through the slot is visible by name.
+		assertTrue(map.put(x, value2) == value1);
+		assertTrue(map.get("x") == value2);
+
+		// Variables that are not part of the layout still work.
+		map.put("y", value1);
+		assertTrue(map.get("y") == value1);
+		assertTrue(map.get(new VariableSlot("y")) == value1);
+	}
+
+	@Test
+	public void checkArgumentsStoredInSlots() throws InvalidTermException {
+
+		ListResource list = new ListResource();
+		list.put(TermFactory.create(0L), StringProperty.getInstance("DUMMY"));
+
+		FrameLayout layout = new FrameLayout();
+		VariableSlot argv = layout.createSlot("ARGV");
+		VariableSlot argc = layout.createSlot("ARGC");
+
+		LocalVariableMap map = new LocalVariableMap(list);
+		assertTrue(map.get(argv) == list);
+		assertTrue(((LongProperty) map.get(argc)).getValue() == 1L);
+	}
+
+	@Test
+	public void checkOtherLayoutFallsBackToName() {
+
+		StringProperty value = StringProperty.getInstance("DUMMY");
+
+		FrameLayout layout1 = new FrameLayout();
+		VariableSlot x1 = layout1.createSlot("x");
+
+		FrameLayout layout2 = new FrameLayout();
+		layout2.createSlot("y");
+		VariableSlot x2 = layout2.createSlot("x");
+
+		LocalVariableMap map = new LocalVariableMap();
+		map.put(x1, value);
+
+		// The map is bound to the first layout; the slot from the second
+		// layout has a different index and must be looked up by name.
+		assertTrue(map.get(x2) == value);
+		assertTrue(map.put(x2, null) == value);
+		assertTrue(map.get(x1) == null);
+	}
+
+	@Test(expected = EvaluationException.class)
+	public void checkInvalidSlotAssignment() {
+
+		FrameLayout layout = new FrameLayout();
+		VariableSlot x = layout.createSlot("x");
+
+		LocalVariableMap map = new LocalVariableMap();
+		map.put(x, StringProperty.getInstance("DUMMY1"));
+		map.put(x, LongProperty.getInstance(0L));
+	}
 }
@@ -0,0 +1,130 @@
+/*
+ Copyright (c) 2006 Charles A. Loomis, Jr, Cedric Duprilot, and
+ Centre National de la Recherche Scientifique (CNRS).
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package org.quattor.pan.ttemplate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.quattor.pan.dml.data.HashResource;
+import org.quattor.pan.dml.data.ListResource;
+import org.quattor.pan.dml.data.LongProperty;
+import org.quattor.pan.exceptions.InvalidTermException;
+import org.quattor.pan.type.BaseType;
+import org.quattor.pan.type.FullType;
+import org.quattor.pan.utils.Path;
+import org.quattor.pan.utils.TermFactory;
+
+public class TypeBindingsTest {
+
+	private static final FullType LONG = BaseType.getBuiltinTypes().get("long");
+
+	private static final FullType STRING = BaseType.getBuiltinTypes().get(
+			"string");
+
+	private static TypeBindings.Node child(TypeBindings.Node node, int index) {
+		return new ArrayList<TypeBindings.Node>(node.getChildren()).get(index);
+	}
+
+	@Test
+	public void testBindingsCreateParentNodes() throws Exception {
+
+		TypeBindings bindings = new TypeBindings();
+		Path path = new Path("/a/b/0");
+		bindings.put(path, LONG);
+		bindings.put(path, STRING);
+
+		assertTrue(bindings.containsKey(path));
+		assertFalse(bindings.containsKey(new Path("/a/b")));
+		assertFalse(bindings.containsKey(new Path("/a/c")));
+		assertFalse(bindings.containsKey(new Path("/")));
+
+		TypeBindings.Node a = child(bindings.getRoot(), 0);
+		assertNull(a.getPath());
+		assertTrue(a.getTypes().isEmpty());
+
+		TypeBindings.Node leaf = child(child(a, 0), 0);
+		assertSame(path, leaf.getPath());
+		List<FullType> types = leaf.getTypes();
+		assertEquals(2, types.size());
+		assertSame(LONG, types.get(0));
+		assertSame(STRING, types.get(1));
+	}
+
+	@Test
+	public void testChildrenAreOrderedLikeResources() throws Exception {
+
+		TypeBindings bindings = new TypeBindings();
+		bindings.put(new Path("/c"), LONG);
+		bindings.put(new Path("/a"), LONG);
+		bindings.put(new Path("/b"), LONG);
+
+		List<String> names = new ArrayList<String>();
+		for (TypeBindings.Node node : bindings.getRoot().getChildren()) {
+			names.add(node.getPath().toString());
+		}
+		assertEquals("[/a, /b, /c]", names.toString());
+	}
+
+	@Test
+	public void testLookupDescendsOneLevel() throws Exception {
+
+		HashResource root = new HashResource();
+		HashResource a = new HashResource();
+		ListResource b = new ListResource();
+		root.put(TermFactory.create("a"), a);
+		a.put(TermFactory.create("b"), b);
+		b.put(TermFactory.create(0), LongProperty.getInstance(1L));
+
+		TypeBindings bindings = new TypeBindings();
+		bindings.put(new Path("/a/b/0"), LONG);
+		bindings.put(new Path("/a/b/1"), LONG);
+
+		TypeBindings.Node na = child(bindings.getRoot(), 0);
+		TypeBindings.Node nb = child(na, 0);
+		TypeBindings.Node n0 = child(nb, 0);
+		TypeBindings.Node n1 = child(nb, 1);
+
+		assertSame(root, bindings.getRoot().lookupFromRoot(root));
+		assertSame(a, na.lookup(root));
+		assertSame(b, nb.lookup(a));
+		assertEquals(LongProperty.getInstance(1L), n0.lookup(b));
+		assertNull(n1.lookup(b));
+		assertNull(n0.lookup(null));
+		assertNull(n0.lookup(LongProperty.getInstance(1L)));
+		assertEquals(LongProperty.getInstance(1L), n0.lookupFromRoot(root));
+	}
+
+	@Test(expected = InvalidTermException.class)
+	public void testLookupWithInvalidTerm() throws Exception {
+
+		TypeBindings bindings = new TypeBindings();
+		bindings.put(new Path("/a/0"), LONG);
+
+		HashResource a = new HashResource();
+		TypeBindings.Node n0 = child(child(bindings.getRoot(), 0), 0);
+		n0.lookup(a);
+	}
+
+}
@@ -20,7 +20,9 @@
 
 package org.quattor.pan.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -85,4 +87,38 @@ public class FinalFlagsTest {
 		assertFalse(flags.isFinal(new Path("/a/1")));
 	}
 
+	@Test
+	public void manySiblings() throws SyntaxException {
+
+		FinalFlags flags = new FinalFlags();
+
+		// Mark every other child, in an order different from the term order.
+		for (int i = 19; i >= 0; i -= 2) {
+			flags.setFinal(new Path("/a/" + i));
+			flags.setFinal(new Path("/b/k" + i));
+		}
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals(i % 2 == 1, flags.isFinal(new Path("/a/" + i)));
+			assertEquals(i % 2 == 1, flags.isFinal(new Path("/b/k" + i)));
+		}
+	}
+
+	@Test
+	public void finalReasons() throws SyntaxException {
+
+		FinalFlags flags = new FinalFlags();
+		flags.setFinal(new Path("/a/b"));
+
+		assertEquals("/a/b/c cannot be modified; /a/b is marked as final",
+				flags.getFinalReason(new Path("/a/b/c")));
+		assertEquals("/a/b cannot be modified; /a/b is marked as final",
+				flags.getFinalReason(new Path("/a/b")));
+		assertEquals("/a cannot be modified; /a/b is marked as final",
+				flags.getFinalReason(new Path("/a")));
+		assertEquals("/ cannot be modified; /a/b is marked as final",
+				flags.getFinalReason(new Path("/")));
+		assertNull(flags.getFinalReason(new Path("/c")));
+	}
+
 }
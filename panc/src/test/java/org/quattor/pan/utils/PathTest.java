@@ -22,14 +22,21 @@ package org.quattor.pan.utils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
+import org.quattor.pan.exceptions.EvaluationException;
 import org.quattor.pan.exceptions.SyntaxException;
 import org.quattor.pan.utils.Path.PathType;
 
@@ -404,4 +411,80 @@ public class PathTest {
 		assertEquals(correct, resolved);
 	}
 
+	@Test
+	public void testSegments() throws SyntaxException {
+
+		// Trailing slashes are ignored, as is a single slash after the
+		// authority.
+		assertEquals("[]", new Path("//").toList().toString());
+		assertEquals("[a, b]", new Path("a/b//").toList().toString());
+		assertEquals("[alpha, a]", new Path("alpha:a").toList().toString());
+		assertEquals("[alpha, a]", new Path("alpha:/a/").toList().toString());
+		assertEquals("[ns/alpha, a]", new Path("ns/alpha:/a").toList()
+				.toString());
+
+		// Colons and slashes within braces are escaped.
+		Path p = new Path("/a/{b:c/d}");
+		assertTrue(p.isAbsolute());
+		assertEquals(EscapeUtils.escape("b:c/d"), p.getTerm(1).toString());
+
+		// Empty terms within a path are not allowed.
+		List<String> paths = Arrays.asList("/a//b", "//a", "a//b", "/a:b");
+		for (String s : paths) {
+			try {
+				new Path(s);
+				fail("invalid path did not throw an exception (" + s + ")");
+			} catch (SyntaxException se) {
+				// OK.
+			} catch (EvaluationException ee) {
+				// OK.
+			}
+		}
+	}
+
+	@Test
+	public void testSharedTerms() throws SyntaxException {
+
+		Path p = new Path("/alpha/0");
+		assertSame(p.getSharedTerms(), p.getSharedTerms());
+		assertNotSame(p.getTerms(), p.getSharedTerms());
+		assertTrue(Arrays.equals(p.getTerms(), p.getSharedTerms()));
+		assertEquals(TermFactory.create(0), p.getTerm(1));
+	}
+
+	@Test
+	public void testIntern() throws SyntaxException {
+
+		Path p1 = new Path("/alpha/beta").intern();
+		Path p2 = new Path("/alpha/beta");
+		assertNotSame(p1, p2);
+		assertSame(p1, p2.intern());
+		assertSame(p1, new Path("/alpha/beta/").intern());
+		assertNotSame(p1, new Path("alpha/beta").intern());
+	}
+
+	@Test
+	public void testDeserializedPathIsInterned() throws Exception {
+
+		Path p1 = new Path("/alpha/gamma").intern();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(new Path("/alpha/gamma"));
+		oos.close();
+
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		assertSame(p1, ois.readObject());
+		ois.close();
+	}
+
+	@Test
+	public void testHashCode() throws SyntaxException {
+
+		assertEquals(new Path("/a/b").hashCode(), new Path("/a/b/").hashCode());
+		assertFalse(new Path("/a/b").hashCode() == new Path("/b/a")
+				.hashCode());
+	}
+
 }